@@ -34,6 +34,7 @@ public class MatDataTypes
     public static final int miSIZE_UINT16   = 2;
     public static final int miSIZE_UINT8    = 1;
     public static final int miSIZE_DOUBLE   = 8;
+    public static final int miSIZE_SINGLE   = 4;
     public static final int miSIZE_CHAR     = 1;
     
     /**
@@ -64,6 +65,8 @@ public class MatDataTypes
                 return miSIZE_UINT64;
             case MatDataTypes.miDOUBLE:
                 return miSIZE_DOUBLE;
+            case MatDataTypes.miSINGLE:
+                return miSIZE_SINGLE;
             default:
                 return 1;
         }
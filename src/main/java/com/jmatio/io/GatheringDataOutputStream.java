@@ -0,0 +1,173 @@
+package com.jmatio.io;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>DataOutputStream</code> writing to a <code>GatheringByteChannel</code>
+ * without copying array data.
+ * <p>
+ * Tags, headers and padding written by the <code>DataOutputStream</code>
+ * methods are collected in a small direct buffer. Array data buffers given
+ * to <code>{@link #writeBuffer(ByteBuffer)}</code> are not copied, they are
+ * queued between the header buffer regions and written with a single
+ * gathering write.
+ * <p>
+ * Queued buffers must not be modified until the stream is flushed.
+ */
+class GatheringDataOutputStream extends DataOutputStream
+{
+    /**
+     * Size of the header buffer
+     */
+    private static final int HEADER_BUFFER_SIZE = 1 << 13;
+    /**
+     * Maximum number of buffers written at once
+     */
+    private static final int MAX_BUFFERS = 64;
+    /**
+     * Heap buffers are written in slices of this size. The channel copies
+     * heap buffers to temporary direct buffers, which are cached only
+     * when small.
+     */
+    private static final int HEAP_SLICE_SIZE = 1 << 20;
+
+    private final BufferGatherer gatherer;
+
+    /**
+     * Creates the stream writing to the channel.
+     *
+     * @param channel - the output channel
+     */
+    public GatheringDataOutputStream( GatheringByteChannel channel )
+    {
+        this( new BufferGatherer( channel ) );
+    }
+
+    private GatheringDataOutputStream( BufferGatherer gatherer )
+    {
+        super( gatherer );
+        this.gatherer = gatherer;
+    }
+
+    /**
+     * Queues remaining bytes of the buffer (without moving its position).
+     *
+     * @param data - data to be written (in the file byte order)
+     * @throws IOException if writing fails
+     */
+    public void writeBuffer( ByteBuffer data ) throws IOException
+    {
+        gatherer.gather( data );
+    }
+
+    /**
+     * Collects header bytes and data buffers, writes them to the channel
+     * when flushed or when too many buffers are queued.
+     */
+    private static class BufferGatherer extends OutputStream
+    {
+        private final GatheringByteChannel channel;
+        private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        private final ByteBuffer header = ByteBuffer.allocateDirect( HEADER_BUFFER_SIZE );
+        /**
+         * Start of the header bytes not queued yet
+         */
+        private int start;
+
+        public BufferGatherer( GatheringByteChannel channel )
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write( int b ) throws IOException
+        {
+            if ( !header.hasRemaining() )
+            {
+                drain();
+            }
+            header.put( (byte) b );
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException
+        {
+            while ( len > 0 )
+            {
+                if ( !header.hasRemaining() )
+                {
+                    drain();
+                }
+                int length = Math.min( len, header.remaining() );
+                header.put( b, off, length );
+                off += length;
+                len -= length;
+            }
+        }
+
+        public void gather( ByteBuffer data ) throws IOException
+        {
+            queueHeader();
+            int sliceSize = data.isDirect() ? Integer.MAX_VALUE : HEAP_SLICE_SIZE;
+            for ( int position = data.position(); position < data.limit(); position += sliceSize )
+            {
+                ByteBuffer slice = data.duplicate();
+                slice.limit( (int) Math.min( data.limit(), (long) position + sliceSize ) );
+                slice.position( position );
+                buffers.add( slice );
+                if ( buffers.size() >= MAX_BUFFERS )
+                {
+                    drain();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            drain();
+        }
+
+        /**
+         * Queues header bytes written since the last data buffer.
+         */
+        private void queueHeader()
+        {
+            if ( header.position() > start )
+            {
+                ByteBuffer slice = header.duplicate();
+                slice.limit( header.position() );
+                slice.position( start );
+                buffers.add( slice );
+                start = header.position();
+            }
+        }
+
+        /**
+         * Writes all queued buffers.
+         */
+        private void drain() throws IOException
+        {
+            queueHeader();
+            ByteBuffer[] array = buffers.toArray( new ByteBuffer[buffers.size()] );
+            long remaining = 0;
+            for ( ByteBuffer buf : array )
+            {
+                remaining += buf.remaining();
+            }
+            while ( remaining > 0 )
+            {
+                remaining -= channel.write( array );
+            }
+            buffers.clear();
+            header.clear();
+            start = 0;
+        }
+    }
+}
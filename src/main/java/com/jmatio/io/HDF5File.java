@@ -0,0 +1,1361 @@
+package com.jmatio.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of the HDF5 subset MATLAB uses for v7.3 MAT-files.
+ * <p>
+ * Supported are superblocks version 0 to 3, object headers version 1 and 2,
+ * groups stored as symbol tables or link messages, compact, contiguous and
+ * chunked (version 1 B-tree indexed) datasets with deflate, shuffle and
+ * fletcher32 filters, attributes and the global heap (variable length
+ * attribute data). Everything else (dense link storage, new style chunk
+ * indexes, shared messages, other filters) is reported as
+ * <code>MatlabIOException</code>.
+ * <p>
+ * Metadata and raw data are red with positional reads of the channel, so
+ * a dataset is red without reading anything else. Chunks of a dataset are
+ * inflated in parallel when an executor is given.
+ * <p>
+ * Datasets are accessed as column-major matrices the way MATLAB sees them:
+ * the fastest changing (last) dimension holds the rows, the other
+ * dimensions together form the columns. A region of rows and columns is
+ * red without reading the rest of the dataset, only the chunks intersecting
+ * the region are red and inflated.
+ */
+class HDF5File
+{
+    /**
+     * HDF5 format signature
+     */
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'H', 'D', 'F', '\r', '\n', 0x1a, '\n' };
+
+    /* datatype classes */
+    static final int CLASS_FIXED     = 0;
+    static final int CLASS_FLOAT     = 1;
+    static final int CLASS_STRING    = 3;
+    static final int CLASS_COMPOUND  = 6;
+    static final int CLASS_REFERENCE = 7;
+    static final int CLASS_VLEN      = 9;
+
+    /* header message types */
+    private static final int MSG_DATASPACE     = 0x01;
+    private static final int MSG_LINK_INFO     = 0x02;
+    private static final int MSG_DATATYPE      = 0x03;
+    private static final int MSG_LINK          = 0x06;
+    private static final int MSG_LAYOUT        = 0x08;
+    private static final int MSG_FILTERS       = 0x0B;
+    private static final int MSG_ATTRIBUTE     = 0x0C;
+    private static final int MSG_CONTINUATION  = 0x10;
+    private static final int MSG_SYMBOL_TABLE  = 0x11;
+
+    /* filters */
+    private static final int FILTER_DEFLATE    = 1;
+    private static final int FILTER_SHUFFLE    = 2;
+    private static final int FILTER_FLETCHER32 = 3;
+
+    /* data layouts */
+    private static final int LAYOUT_COMPACT    = 0;
+    private static final int LAYOUT_CONTIGUOUS = 1;
+    private static final int LAYOUT_CHUNKED    = 2;
+
+    private final FileChannel channel;
+    private final ExecutorService executor;
+    /**
+     * File position of the superblock, addresses are relative to it
+     */
+    private long base;
+    private int offsetSize;
+    private int lengthSize;
+    private long rootAddress;
+    /**
+     * Global heap collections by address
+     */
+    private final Map<Long, ByteBuffer> globalHeaps = new HashMap<Long, ByteBuffer>();
+
+    /**
+     * Reads the superblock.
+     *
+     * @param channel -
+     *            the file channel
+     * @param executor -
+     *            executor inflating chunks in parallel or <code>null</code>
+     * @throws IOException
+     *             if there is no supported HDF5 superblock in the file
+     */
+    HDF5File(FileChannel channel, ExecutorService executor) throws IOException
+    {
+        this.channel = channel;
+        this.executor = executor;
+
+        //the superblock is at 0, 512, 1024, 2048... (after the user block)
+        long fileSize = channel.size();
+        for ( base = 0; base + SIGNATURE.length <= fileSize; base = base == 0 ? 512 : base * 2 )
+        {
+            byte[] signature = new byte[SIGNATURE.length];
+            readAbsolute( base, ByteBuffer.wrap(signature) );
+            if ( Arrays.equals( signature, SIGNATURE ) )
+            {
+                readSuperblock( fileSize );
+                return;
+            }
+        }
+        throw new MatlabIOException("HDF5 superblock not found");
+    }
+
+    private void readSuperblock( long fileSize ) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate( (int) Math.min( 256, fileSize - base ) ).order(ByteOrder.LITTLE_ENDIAN);
+        readAbsolute( base, buf );
+        buf.flip();
+
+        int version = buf.get(8);
+        switch ( version )
+        {
+            case 0:
+            case 1:
+                offsetSize = buf.get(13);
+                lengthSize = buf.get(14);
+                //skip group K values, flags (and indexed storage K)
+                buf.position( version == 0 ? 24 : 28 );
+                checkSizes();
+                //base, free-space, end of file and driver info addresses
+                buf.position( buf.position() + 4 * offsetSize );
+                //root group symbol table entry: link name offset, object header
+                readOffset( buf );
+                rootAddress = readOffset( buf );
+                break;
+            case 2:
+            case 3:
+                offsetSize = buf.get(9);
+                lengthSize = buf.get(10);
+                checkSizes();
+                //base, superblock extension and end of file addresses
+                buf.position( 12 + 3 * offsetSize );
+                rootAddress = readOffset( buf );
+                break;
+            default:
+                throw new MatlabIOException("Unsupported HDF5 superblock version: " + version);
+        }
+    }
+
+    private void checkSizes() throws IOException
+    {
+        if ( ( offsetSize != 4 && offsetSize != 8 ) || ( lengthSize != 4 && lengthSize != 8 ) )
+        {
+            throw new MatlabIOException("Unsupported HDF5 offset/length size: " + offsetSize + "/" + lengthSize);
+        }
+    }
+
+    /**
+     * Gets the root group.
+     */
+    DataObject getRoot() throws IOException
+    {
+        return readObject( rootAddress );
+    }
+
+    /**
+     * Reads an object header.
+     *
+     * @param address -
+     *            the object header address
+     * @return - the object
+     * @throws IOException
+     *             if the header is invalid or not supported
+     */
+    DataObject readObject( long address ) throws IOException
+    {
+        DataObject object = new DataObject();
+        ByteBuffer prefix = read( address, 16 );
+
+        if ( prefix.get(0) == 'O' && prefix.get(1) == 'H' && prefix.get(2) == 'D' && prefix.get(3) == 'R' )
+        {
+            //version 2
+            int flags = prefix.get(5) & 0xff;
+            int position = 6;
+            if ( ( flags & 0x20 ) != 0 )
+            {
+                position += 16; //times
+            }
+            if ( ( flags & 0x10 ) != 0 )
+            {
+                position += 4;  //attribute phase change values
+            }
+            int sizeBytes = 1 << ( flags & 3 );
+            ByteBuffer sizeBuf = read( address + position, sizeBytes );
+            long size = readUnsigned( sizeBuf, sizeBytes );
+            readMessages( object, read( address + position + sizeBytes, (int) size ), flags, -1 );
+        }
+        else
+        {
+            //version 1
+            if ( prefix.get(0) != 1 )
+            {
+                throw new MatlabIOException("Unsupported HDF5 object header version: " + prefix.get(0));
+            }
+            int messages = prefix.getShort(2) & 0xffff;
+            long size = prefix.getInt(8) & 0xffffffffL;
+            readMessages( object, read( address + 16, (int) size ), -1, messages );
+        }
+        return object;
+    }
+
+    /**
+     * Reads header messages of a block (and the continuation blocks).
+     *
+     * @param flags -
+     *            version 2 header flags or <code>-1</code> for version 1
+     * @param count -
+     *            number of messages of a version 1 header
+     */
+    private void readMessages( DataObject object, ByteBuffer buf, int flags, int count ) throws IOException
+    {
+        List<long[]> continuations = new ArrayList<long[]>();
+        int headerSize = flags < 0 ? 8 : ( flags & 0x04 ) != 0 ? 6 : 4;
+        int red = 0;
+
+        while ( flags >= 0 || red < count )
+        {
+            //continue in the next block (the rest of a block is a gap)
+            if ( buf.remaining() < headerSize )
+            {
+                if ( continuations.isEmpty() )
+                {
+                    break;
+                }
+                long[] continuation = continuations.remove(0);
+                buf = read( continuation[0], (int) continuation[1] );
+                if ( flags >= 0 )
+                {
+                    //"OCHK" signature and checksum
+                    checkSignature( buf, "OCHK" );
+                    buf.position( 4 );
+                    buf.limit( buf.limit() - 4 );
+                }
+                continue;
+            }
+
+            int type;
+            if ( flags < 0 )
+            {
+                type = buf.getShort() & 0xffff;
+            }
+            else
+            {
+                type = buf.get() & 0xff;
+            }
+            int size = buf.getShort() & 0xffff;
+            int messageFlags = buf.get();
+            //reserved bytes or creation order
+            buf.position( buf.position() + ( flags < 0 ? 3 : headerSize - 4 ) );
+            red++;
+
+            ByteBuffer data = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+            data.limit( size );
+            buf.position( buf.position() + size );
+
+            if ( type == MSG_CONTINUATION )
+            {
+                continuations.add( new long[] { readOffset(data), readLength(data) } );
+            }
+            else if ( ( messageFlags & 0x02 ) != 0 )
+            {
+                throw new MatlabIOException("Shared HDF5 header messages are not supported");
+            }
+            else
+            {
+                readMessage( object, type, data );
+            }
+        }
+    }
+
+    private void readMessage( DataObject object, int type, ByteBuffer data ) throws IOException
+    {
+        switch ( type )
+        {
+            case MSG_DATASPACE:
+                object.dims = readDataspace( data );
+                break;
+            case MSG_DATATYPE:
+                object.type = readDatatype( data );
+                break;
+            case MSG_LAYOUT:
+                readLayout( object, data );
+                break;
+            case MSG_FILTERS:
+                readFilters( object, data );
+                break;
+            case MSG_ATTRIBUTE:
+                Attribute attribute = readAttribute( data );
+                object.attributes.put( attribute.name, attribute );
+                break;
+            case MSG_SYMBOL_TABLE:
+                object.group = true;
+                object.btreeAddress = readOffset( data );
+                object.heapAddress = readOffset( data );
+                break;
+            case MSG_LINK:
+                object.group = true;
+                readLink( object, data );
+                break;
+            case MSG_LINK_INFO:
+                object.group = true;
+                //version, flags (and creation order index)
+                int linkFlags = data.get(1);
+                data.position( ( linkFlags & 1 ) != 0 ? 10 : 2 );
+                if ( readOffset( data ) != -1 )
+                {
+                    throw new MatlabIOException("Dense HDF5 link storage is not supported");
+                }
+                break;
+            default:
+                //not needed
+        }
+    }
+
+    /**
+     * Reads dataspace message.
+     *
+     * @return - dimensions (empty for scalar dataspace) or <code>null</code>
+     *         for null dataspace
+     */
+    private long[] readDataspace( ByteBuffer data ) throws IOException
+    {
+        int version = data.get();
+        int rank = data.get();
+        data.get(); //flags
+        if ( version == 1 )
+        {
+            data.position( data.position() + 5 );
+        }
+        else if ( version == 2 )
+        {
+            if ( data.get() == 2 )
+            {
+                return null;
+            }
+        }
+        else
+        {
+            throw new MatlabIOException("Unsupported HDF5 dataspace version: " + version);
+        }
+        long[] dims = new long[rank];
+        for ( int i = 0; i < rank; i++ )
+        {
+            dims[i] = readLength( data );
+        }
+        return dims;
+    }
+
+    /**
+     * Reads datatype message.
+     */
+    private DataType readDatatype( ByteBuffer data ) throws IOException
+    {
+        DataType type = new DataType();
+        int classAndVersion = data.get() & 0xff;
+        int bits = data.get() & 0xff | ( data.get() & 0xff ) << 8 | ( data.get() & 0xff ) << 16;
+        type.typeClass = classAndVersion & 0x0f;
+        type.size = data.getInt();
+        int version = classAndVersion >> 4;
+
+        switch ( type.typeClass )
+        {
+            case CLASS_FIXED:
+                type.order = ( bits & 1 ) != 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+                type.signed = ( bits & 8 ) != 0;
+                data.position( data.position() + 4 );
+                break;
+            case CLASS_FLOAT:
+                type.order = ( bits & 1 ) != 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+                data.position( data.position() + 12 );
+                break;
+            case CLASS_STRING:
+            case CLASS_REFERENCE:
+                break;
+            case CLASS_COMPOUND:
+                int members = bits & 0xffff;
+                type.memberNames = new String[members];
+                type.memberOffsets = new int[members];
+                type.memberTypes = new DataType[members];
+                for ( int i = 0; i < members; i++ )
+                {
+                    type.memberNames[i] = readName( data, version < 3 );
+                    if ( version < 3 )
+                    {
+                        type.memberOffsets[i] = data.getInt();
+                    }
+                    else
+                    {
+                        int offsetBytes = type.size < 1 << 8 ? 1 : type.size < 1 << 16 ? 2 : type.size < 1 << 24 ? 3 : 4;
+                        type.memberOffsets[i] = (int) readUnsigned( data, offsetBytes );
+                    }
+                    if ( version == 1 )
+                    {
+                        //dimensionality, permutation and dimensions
+                        data.position( data.position() + 28 );
+                    }
+                    type.memberTypes[i] = readDatatype( data );
+                }
+                break;
+            case CLASS_VLEN:
+                type.baseType = readDatatype( data );
+                break;
+            default:
+                throw new MatlabIOException("Unsupported HDF5 datatype class: " + type.typeClass);
+        }
+        return type;
+    }
+
+    /**
+     * Reads null terminated name, optionally padded to a multiple of 8 bytes.
+     */
+    private static String readName( ByteBuffer data, boolean padded )
+    {
+        int start = data.position();
+        int length = 0;
+        while ( data.get( start + length ) != 0 )
+        {
+            length++;
+        }
+        byte[] bytes = new byte[length];
+        data.get( bytes );
+        int consumed = length + 1;
+        if ( padded )
+        {
+            consumed = ( consumed + 7 ) & ~7;
+        }
+        data.position( start + consumed );
+        return new String( bytes );
+    }
+
+    private void readLayout( DataObject object, ByteBuffer data ) throws IOException
+    {
+        int version = data.get();
+        int rank;
+        if ( version == 3 || version == 4 )
+        {
+            object.layout = data.get();
+            switch ( object.layout )
+            {
+                case LAYOUT_COMPACT:
+                    int size = data.getShort() & 0xffff;
+                    object.compactData = data.slice();
+                    object.compactData.limit( size );
+                    break;
+                case LAYOUT_CONTIGUOUS:
+                    object.dataAddress = readOffset( data );
+                    break;
+                case LAYOUT_CHUNKED:
+                    if ( version == 4 )
+                    {
+                        throw new MatlabIOException("Unsupported HDF5 chunk index (layout version 4)");
+                    }
+                    rank = data.get() - 1;
+                    object.dataAddress = readOffset( data );
+                    object.chunkDims = new int[rank];
+                    for ( int i = 0; i < rank; i++ )
+                    {
+                        object.chunkDims[i] = data.getInt();
+                    }
+                    break;
+                default:
+                    throw new MatlabIOException("Unsupported HDF5 data layout: " + object.layout);
+            }
+        }
+        else if ( version == 1 || version == 2 )
+        {
+            rank = data.get();
+            object.layout = data.get();
+            data.position( data.position() + 5 );
+            if ( object.layout != LAYOUT_COMPACT )
+            {
+                object.dataAddress = readOffset( data );
+            }
+            int[] dims = new int[rank];
+            for ( int i = 0; i < rank; i++ )
+            {
+                dims[i] = data.getInt();
+            }
+            if ( object.layout == LAYOUT_CHUNKED )
+            {
+                //the last dimension is the element size
+                object.chunkDims = Arrays.copyOf( dims, rank - 1 );
+            }
+            else if ( object.layout == LAYOUT_COMPACT )
+            {
+                int size = data.getInt();
+                object.compactData = data.slice();
+                object.compactData.limit( size );
+            }
+        }
+        else
+        {
+            throw new MatlabIOException("Unsupported HDF5 data layout version: " + version);
+        }
+    }
+
+    private void readFilters( DataObject object, ByteBuffer data ) throws IOException
+    {
+        int version = data.get();
+        int count = data.get();
+        if ( version == 1 )
+        {
+            data.position( data.position() + 6 );
+        }
+        object.filters = new int[count];
+        object.filterValues = new int[count][];
+        for ( int i = 0; i < count; i++ )
+        {
+            int id = data.getShort() & 0xffff;
+            int nameLength = version == 1 || id >= 256 ? data.getShort() & 0xffff : 0;
+            data.getShort(); //flags
+            int values = data.getShort() & 0xffff;
+            data.position( data.position() + nameLength );
+
+            object.filters[i] = id;
+            object.filterValues[i] = new int[values];
+            for ( int j = 0; j < values; j++ )
+            {
+                object.filterValues[i][j] = data.getInt();
+            }
+            if ( version == 1 && values % 2 != 0 )
+            {
+                data.getInt(); //padding
+            }
+        }
+    }
+
+    private Attribute readAttribute( ByteBuffer data ) throws IOException
+    {
+        int version = data.get();
+        data.get(); //reserved or flags
+        int nameSize = data.getShort() & 0xffff;
+        int typeSize = data.getShort() & 0xffff;
+        int spaceSize = data.getShort() & 0xffff;
+        if ( version == 3 )
+        {
+            data.get(); //encoding
+        }
+        else if ( version != 1 && version != 2 )
+        {
+            throw new MatlabIOException("Unsupported HDF5 attribute version: " + version);
+        }
+        Attribute attribute = new Attribute();
+        int position = data.position();
+
+        attribute.name = readName( data, false );
+        position += version == 1 ? ( nameSize + 7 ) & ~7 : nameSize;
+        data.position( position );
+        attribute.type = readDatatype( data );
+        position += version == 1 ? ( typeSize + 7 ) & ~7 : typeSize;
+        data.position( position );
+        attribute.dims = readDataspace( data );
+        position += version == 1 ? ( spaceSize + 7 ) & ~7 : spaceSize;
+        data.position( position );
+
+        attribute.data = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        return attribute;
+    }
+
+    private void readLink( DataObject object, ByteBuffer data ) throws IOException
+    {
+        data.get(); //version
+        int flags = data.get() & 0xff;
+        int linkType = ( flags & 0x08 ) != 0 ? data.get() : 0;
+        if ( ( flags & 0x04 ) != 0 )
+        {
+            data.position( data.position() + 8 ); //creation order
+        }
+        if ( ( flags & 0x10 ) != 0 )
+        {
+            data.get(); //character set
+        }
+        int nameLength = (int) readUnsigned( data, 1 << ( flags & 3 ) );
+        byte[] name = new byte[nameLength];
+        data.get( name );
+        //only hard links point to objects in the file
+        if ( linkType == 0 )
+        {
+            object.links.put( new String( name, "UTF-8" ), readOffset( data ) );
+        }
+    }
+
+    /**
+     * Gets members of a group.
+     *
+     * @param group -
+     *            the group object
+     * @return - member names with object header addresses
+     * @throws IOException
+     *             if reading the group fails
+     */
+    Map<String, Long> getMembers( DataObject group ) throws IOException
+    {
+        Map<String, Long> members = new LinkedHashMap<String, Long>( group.links );
+        if ( group.btreeAddress != -1 && group.heapAddress != -1 )
+        {
+            //local heap: data segment size, free list offset and address
+            ByteBuffer heap = read( group.heapAddress, 8 + 2 * lengthSize + offsetSize );
+            checkSignature( heap, "HEAP" );
+            heap.position( 8 );
+            long size = readLength( heap );
+            readLength( heap );
+            ByteBuffer names = read( readOffset( heap ), (int) size );
+
+            readGroupNode( group.btreeAddress, names, members );
+        }
+        return members;
+    }
+
+    /**
+     * Reads a group B-tree node (version 1, type 0).
+     */
+    private void readGroupNode( long address, ByteBuffer names, Map<String, Long> members ) throws IOException
+    {
+        ByteBuffer header = read( address, 8 + 2 * offsetSize );
+        checkSignature( header, "TREE" );
+        int level = header.get(5);
+        int entries = header.getShort(6) & 0xffff;
+
+        //keys and children
+        ByteBuffer node = read( address + 8 + 2 * offsetSize, ( entries + 1 ) * lengthSize + entries * offsetSize );
+        for ( int i = 0; i < entries; i++ )
+        {
+            readLength( node );
+            long child = readOffset( node );
+            if ( level > 0 )
+            {
+                readGroupNode( child, names, members );
+            }
+            else
+            {
+                readSymbolNode( child, names, members );
+            }
+        }
+    }
+
+    /**
+     * Reads a symbol table node.
+     */
+    private void readSymbolNode( long address, ByteBuffer names, Map<String, Long> members ) throws IOException
+    {
+        ByteBuffer header = read( address, 8 );
+        checkSignature( header, "SNOD" );
+        int symbols = header.getShort(6) & 0xffff;
+
+        int entrySize = 2 * offsetSize + 24;
+        ByteBuffer entries = read( address + 8, symbols * entrySize );
+        for ( int i = 0; i < symbols; i++ )
+        {
+            entries.position( i * entrySize );
+            long nameOffset = readOffset( entries );
+            long objectAddress = readOffset( entries );
+
+            names.position( (int) nameOffset );
+            members.put( readName( names, false ), objectAddress );
+        }
+    }
+
+    /**
+     * Reads the whole dataset (in HDF5 row-major order).
+     *
+     * @param object -
+     *            the dataset
+     * @return - buffer with the byte order of the datatype
+     * @throws IOException
+     *             if the data cannot be red or the dataset is bigger than
+     *             2 GB (it does not fit in a single buffer, see
+     *             <code>{@link #readRegion(DataObject, long, long, long, long)}</code>)
+     */
+    ByteBuffer readData( DataObject object ) throws IOException
+    {
+        return readRegion( object, 0, object.getRows(), 0, object.getColumns() );
+    }
+
+    /**
+     * Reads a region of the dataset: rows <code>fromRow</code> (inclusive)
+     * to <code>toRow</code> (exclusive) of columns <code>fromColumn</code>
+     * (inclusive) to <code>toColumn</code> (exclusive). Rows run along the
+     * last dimension, columns along all the other dimensions.
+     * <p>
+     * Contiguous data is red with one read per column (a single read if
+     * whole columns are requested). Of chunked data only chunks intersecting
+     * the region are red.
+     *
+     * @param object -
+     *            the dataset
+     * @return - the region column by column, with the byte order of the
+     *           datatype
+     * @throws IOException
+     *             if the data cannot be red or the region is bigger than
+     *             2 GB
+     */
+    ByteBuffer readRegion( DataObject object, long fromRow, long toRow, long fromColumn, long toColumn ) throws IOException
+    {
+        int elementSize = object.type.size;
+        long rows = object.getRows();
+        long total = ( toRow - fromRow ) * ( toColumn - fromColumn ) * elementSize;
+        if ( total > Integer.MAX_VALUE )
+        {
+            throw new MatlabIOException("Dataset region is too big to be red: " + total + " bytes");
+        }
+        long[] region = { fromRow, toRow, fromColumn, toColumn };
+        ByteBuffer data;
+        switch ( object.layout )
+        {
+            case LAYOUT_COMPACT:
+                data = ByteBuffer.allocate( (int) total );
+                ByteBuffer compact = object.compactData;
+                for ( long column = fromColumn; column < toColumn; column++ )
+                {
+                    int start = (int) Math.min( ( column * rows + fromRow ) * elementSize, compact.limit() );
+                    int end = (int) Math.min( ( column * rows + toRow ) * elementSize, compact.limit() );
+                    ByteBuffer run = compact.duplicate();
+                    run.limit( end ).position( start );
+                    data.position( (int) ( ( column - fromColumn ) * ( toRow - fromRow ) * elementSize ) );
+                    data.put( run );
+                }
+                data.rewind();
+                break;
+            case LAYOUT_CONTIGUOUS:
+                //not allocated datasets hold the (zero) fill value
+                if ( object.dataAddress == -1 )
+                {
+                    data = ByteBuffer.allocate( (int) total );
+                }
+                else if ( fromRow == 0 && toRow == rows )
+                {
+                    data = read( object.dataAddress + fromColumn * rows * elementSize, (int) total );
+                }
+                else
+                {
+                    data = ByteBuffer.allocate( (int) total );
+                    int length = (int) ( ( toRow - fromRow ) * elementSize );
+                    for ( long column = fromColumn; column < toColumn; column++ )
+                    {
+                        ByteBuffer run = data.duplicate();
+                        run.position( (int) ( column - fromColumn ) * length );
+                        run.limit( run.position() + length );
+                        readAbsolute( base + object.dataAddress + ( column * rows + fromRow ) * elementSize, run );
+                    }
+                }
+                break;
+            case LAYOUT_CHUNKED:
+                data = ByteBuffer.wrap( readChunks( object, region, (int) total ) );
+                break;
+            default:
+                throw new MatlabIOException("Unsupported HDF5 data layout: " + object.layout);
+        }
+        return data.order( object.type.order );
+    }
+
+    /**
+     * Reads the region of a chunked dataset. The chunk B-tree is walked and
+     * chunks intersecting the region are red (and inflated) independently,
+     * in parallel if there is an executor.
+     */
+    private byte[] readChunks( final DataObject object, final long[] region, int total ) throws IOException
+    {
+        final byte[] out = new byte[total];
+        List<long[]> chunks = new ArrayList<long[]>();
+        if ( object.dataAddress != -1 )
+        {
+            readChunkNode( object.dataAddress, object.chunkDims.length, chunks );
+        }
+        for ( Iterator<long[]> i = chunks.iterator(); i.hasNext(); )
+        {
+            if ( !intersects( object, i.next(), region ) )
+            {
+                i.remove();
+            }
+        }
+
+        if ( executor == null || chunks.size() < 2 )
+        {
+            for ( long[] chunk : chunks )
+            {
+                readChunk( object, chunk, region, out );
+            }
+            return out;
+        }
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try
+        {
+            for ( final long[] chunk : chunks )
+            {
+                futures.add( executor.submit( new Callable<Void>()
+                {
+                    public Void call() throws IOException
+                    {
+                        readChunk( object, chunk, region, out );
+                        return null;
+                    }
+                } ) );
+            }
+            for ( Future<Void> future : futures )
+            {
+                future.get();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading MAT-file");
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new MatlabIOException("Could not read data: " + cause );
+        }
+        finally
+        {
+            for ( Future<Void> future : futures )
+            {
+                future.cancel( false );
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Collects chunks of a chunk B-tree node (version 1, type 1).
+     *
+     * @param chunks -
+     *            receives <code>{address, size, filter mask, offsets...}</code>
+     */
+    private void readChunkNode( long address, int rank, List<long[]> chunks ) throws IOException
+    {
+        ByteBuffer header = read( address, 8 + 2 * offsetSize );
+        checkSignature( header, "TREE" );
+        int level = header.get(5);
+        int entries = header.getShort(6) & 0xffff;
+
+        int keySize = 8 + 8 * ( rank + 1 );
+        ByteBuffer node = read( address + 8 + 2 * offsetSize, ( entries + 1 ) * keySize + entries * offsetSize );
+        for ( int i = 0; i < entries; i++ )
+        {
+            long[] chunk = new long[3 + rank];
+            chunk[1] = node.getInt() & 0xffffffffL;
+            chunk[2] = node.getInt();
+            for ( int d = 0; d <= rank; d++ )
+            {
+                long offset = node.getLong();
+                if ( d < rank )
+                {
+                    chunk[3 + d] = offset;
+                }
+            }
+            chunk[0] = readOffset( node );
+            if ( level > 0 )
+            {
+                readChunkNode( chunk[0], rank, chunks );
+            }
+            else
+            {
+                chunks.add( chunk );
+            }
+        }
+    }
+
+    /**
+     * Tells if any element of the chunk is in the region.
+     */
+    private static boolean intersects( DataObject object, long[] chunk, long[] region )
+    {
+        int[] chunkDims = object.chunkDims;
+        int rank = chunkDims.length;
+        if ( rank == 0 )
+        {
+            return true;
+        }
+        long rowStart = chunk[3 + rank - 1];
+        if ( rowStart >= region[1] || rowStart + chunkDims[rank - 1] <= region[0] )
+        {
+            return false;
+        }
+        //columns of the chunk lie between the columns of it's first and last corner
+        long first = 0;
+        long last = 0;
+        for ( int d = 0; d < rank - 1; d++ )
+        {
+            long end = Math.min( chunk[3 + d] + chunkDims[d], object.dims[d] );
+            if ( end <= chunk[3 + d] )
+            {
+                return false;
+            }
+            first = first * object.dims[d] + chunk[3 + d];
+            last  = last * object.dims[d] + end - 1;
+        }
+        return last >= region[2] && first < region[3];
+    }
+
+    /**
+     * Reads, decodes and copies the part of a single chunk inside the region
+     * into the region array.
+     */
+    private void readChunk( DataObject object, long[] chunk, long[] region, byte[] out ) throws IOException
+    {
+        int[] chunkDims = object.chunkDims;
+        int rank = chunkDims.length;
+        int elementSize = object.type.size;
+
+        int chunkSize = elementSize;
+        for ( int d = 0; d < rank; d++ )
+        {
+            chunkSize *= chunkDims[d];
+        }
+        ByteBuffer raw = read( chunk[0], (int) chunk[1] );
+        byte[] bytes = decode( object, raw.array(), (int) chunk[2], chunkSize );
+
+        //valid extent of the chunk (edge chunks exceed the dataset)
+        long[] dims = object.dims;
+        int[] extent = new int[rank];
+        for ( int d = 0; d < rank; d++ )
+        {
+            extent[d] = (int) Math.min( chunkDims[d], dims[d] - chunk[3 + d] );
+            if ( extent[d] <= 0 )
+            {
+                return;
+            }
+        }
+        if ( rank == 0 )
+        {
+            System.arraycopy( bytes, 0, out, 0, elementSize );
+            return;
+        }
+
+        //rows of the chunk inside the region
+        long rowStart = chunk[3 + rank - 1];
+        long fromRow = Math.max( rowStart, region[0] );
+        long toRow = Math.min( rowStart + extent[rank - 1], region[1] );
+        if ( fromRow >= toRow )
+        {
+            return;
+        }
+        int run = (int) ( toRow - fromRow ) * elementSize;
+        long regionRows = region[1] - region[0];
+
+        //copy runs along the fastest changing dimension (column parts)
+        int[] index = new int[rank];
+        while ( true )
+        {
+            long src = 0;
+            long column = 0;
+            for ( int d = 0; d < rank - 1; d++ )
+            {
+                src = src * chunkDims[d] + index[d];
+                column = column * dims[d] + chunk[3 + d] + index[d];
+            }
+            if ( column >= region[2] && column < region[3] )
+            {
+                src = src * chunkDims[rank - 1] + fromRow - rowStart;
+                long dst = ( column - region[2] ) * regionRows + fromRow - region[0];
+                System.arraycopy( bytes, (int) ( src * elementSize ), out, (int) ( dst * elementSize ), run );
+            }
+
+            int d = rank - 2;
+            while ( d >= 0 && ++index[d] == extent[d] )
+            {
+                index[d--] = 0;
+            }
+            if ( d < 0 )
+            {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Reverts the filter pipeline.
+     *
+     * @param mask -
+     *            filters skipped for the chunk
+     * @param size -
+     *            decoded size
+     */
+    private static byte[] decode( DataObject object, byte[] bytes, int mask, int size ) throws IOException
+    {
+        int[] filters = object.filters != null ? object.filters : new int[0];
+        for ( int i = filters.length - 1; i >= 0; i-- )
+        {
+            if ( ( mask & 1 << i ) != 0 )
+            {
+                continue;
+            }
+            switch ( filters[i] )
+            {
+                case FILTER_DEFLATE:
+                    bytes = inflate( bytes, size );
+                    break;
+                case FILTER_SHUFFLE:
+                    int elementSize = object.filterValues[i].length > 0 ? object.filterValues[i][0] : object.type.size;
+                    bytes = unshuffle( bytes, elementSize );
+                    break;
+                case FILTER_FLETCHER32:
+                    bytes = Arrays.copyOf( bytes, bytes.length - 4 );
+                    break;
+                default:
+                    throw new MatlabIOException("Unsupported HDF5 filter: " + filters[i]);
+            }
+        }
+        if ( bytes.length < size )
+        {
+            throw new MatlabIOException("HDF5 chunk is too short: " + bytes.length + " bytes instead of " + size);
+        }
+        return bytes;
+    }
+
+    private static byte[] inflate( byte[] bytes, int size ) throws IOException
+    {
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput( bytes );
+            byte[] out = new byte[size];
+            int length = 0;
+            while ( !inflater.finished() )
+            {
+                if ( length == out.length )
+                {
+                    out = Arrays.copyOf( out, out.length * 2 + 1 );
+                }
+                int inflated = inflater.inflate( out, length, out.length - length );
+                if ( inflated == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) )
+                {
+                    throw new MatlabIOException("Could not decompress data: truncated HDF5 chunk");
+                }
+                length += inflated;
+            }
+            return length == out.length ? out : Arrays.copyOf( out, length );
+        }
+        catch ( DataFormatException e )
+        {
+            throw new MatlabIOException("Could not decompress data: " + e );
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    private static byte[] unshuffle( byte[] bytes, int elementSize )
+    {
+        if ( elementSize <= 1 )
+        {
+            return bytes;
+        }
+        byte[] out = new byte[bytes.length];
+        int elements = bytes.length / elementSize;
+        for ( int b = 0; b < elementSize; b++ )
+        {
+            for ( int i = 0; i < elements; i++ )
+            {
+                out[i * elementSize + b] = bytes[b * elements + i];
+            }
+        }
+        //left over bytes are not shuffled
+        int shuffled = elements * elementSize;
+        System.arraycopy( bytes, shuffled, out, shuffled, bytes.length - shuffled );
+        return out;
+    }
+
+    /**
+     * Reads the value of a variable length attribute (a sequence of
+     * elements of the base type per attribute element) from the global heap.
+     *
+     * @return - data of every attribute element
+     * @throws IOException
+     *             if the heap cannot be red
+     */
+    ByteBuffer[] readVariableLength( Attribute attribute ) throws IOException
+    {
+        ByteBuffer data = attribute.data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer[] values = new ByteBuffer[(int) attribute.getSize()];
+        for ( int i = 0; i < values.length; i++ )
+        {
+            data.position( i * attribute.type.size );
+            data.getInt(); //length
+            long collection = readOffset( data );
+            int index = data.getInt();
+            values[i] = readGlobalHeapObject( collection, index );
+        }
+        return values;
+    }
+
+    private ByteBuffer readGlobalHeapObject( long address, int index ) throws IOException
+    {
+        ByteBuffer heap;
+        synchronized ( globalHeaps )
+        {
+            heap = globalHeaps.get( address );
+            if ( heap == null )
+            {
+                ByteBuffer header = read( address, 8 + lengthSize );
+                checkSignature( header, "GCOL" );
+                header.position( 8 );
+                heap = read( address, (int) readLength( header ) );
+                globalHeaps.put( address, heap );
+            }
+        }
+        heap = heap.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        heap.position( 8 + lengthSize );
+        while ( heap.remaining() >= 8 + lengthSize )
+        {
+            int objectIndex = heap.getShort() & 0xffff;
+            heap.position( heap.position() + 6 );
+            long size = readLength( heap );
+            if ( objectIndex == index )
+            {
+                ByteBuffer object = heap.slice().order(ByteOrder.LITTLE_ENDIAN);
+                object.limit( (int) size );
+                return object;
+            }
+            if ( objectIndex == 0 )
+            {
+                break; //free space
+            }
+            heap.position( heap.position() + (int) ( ( size + 7 ) & ~7L ) );
+        }
+        throw new MatlabIOException("HDF5 global heap object not found: " + index);
+    }
+
+    /**
+     * Reads an object reference (an object header address).
+     */
+    long readReference( ByteBuffer data ) throws IOException
+    {
+        return readOffset( data );
+    }
+
+    private long readOffset( ByteBuffer buf )
+    {
+        long offset = readUnsigned( buf, offsetSize );
+        return offset == ( offsetSize == 8 ? -1L : 0xffffffffL ) ? -1 : offset;
+    }
+
+    private long readLength( ByteBuffer buf )
+    {
+        return readUnsigned( buf, lengthSize );
+    }
+
+    private static long readUnsigned( ByteBuffer buf, int bytes )
+    {
+        long value = 0;
+        for ( int i = 0; i < bytes; i++ )
+        {
+            value |= ( buf.get() & 0xffL ) << ( 8 * i );
+        }
+        return value;
+    }
+
+    private static void checkSignature( ByteBuffer buf, String signature ) throws IOException
+    {
+        for ( int i = 0; i < signature.length(); i++ )
+        {
+            if ( buf.get(i) != signature.charAt(i) )
+            {
+                throw new MatlabIOException("Invalid HDF5 structure, " + signature + " signature expected");
+            }
+        }
+    }
+
+    /**
+     * Reads <code>length</code> bytes at the address (relative to the
+     * superblock).
+     *
+     * @return - little-endian heap buffer
+     */
+    /**
+     * Gets the file position of an address.
+     */
+    long getPosition( long address )
+    {
+        return base + address;
+    }
+
+    private ByteBuffer read( long address, int length ) throws IOException
+    {
+        if ( address < 0 )
+        {
+            throw new MatlabIOException("Undefined HDF5 address");
+        }
+        ByteBuffer buf = ByteBuffer.allocate( length ).order(ByteOrder.LITTLE_ENDIAN);
+        readAbsolute( base + address, buf );
+        buf.flip();
+        return buf;
+    }
+
+    private void readAbsolute( long position, ByteBuffer buf ) throws IOException
+    {
+        int start = buf.position();
+        while ( buf.hasRemaining() )
+        {
+            if ( channel.read( buf, position + buf.position() - start ) < 0 )
+            {
+                throw new MatlabIOException("Unexpected end of file at position: " + ( position + buf.position() - start ) );
+            }
+        }
+    }
+
+    /**
+     * HDF5 datatype
+     */
+    static class DataType
+    {
+        int typeClass;
+        int size;
+        ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+        boolean signed;
+        /* compound */
+        String[] memberNames;
+        int[] memberOffsets;
+        DataType[] memberTypes;
+        /* variable length */
+        DataType baseType;
+
+        /**
+         * Gets index of compound member or <code>-1</code>.
+         */
+        int getMember( String name )
+        {
+            for ( int i = 0; memberNames != null && i < memberNames.length; i++ )
+            {
+                if ( memberNames[i].equals( name ) )
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Attribute of an object
+     */
+    static class Attribute
+    {
+        String name;
+        DataType type;
+        long[] dims;
+        ByteBuffer data;
+
+        long getSize()
+        {
+            return HDF5File.getSize( dims );
+        }
+    }
+
+    /**
+     * Object (group or dataset) header content
+     */
+    static class DataObject
+    {
+        boolean group;
+        /* dataset */
+        long[] dims;
+        DataType type;
+        int layout = -1;
+        long dataAddress = -1;
+        ByteBuffer compactData;
+        int[] chunkDims;
+        int[] filters;
+        int[][] filterValues;
+        /* group */
+        long btreeAddress = -1;
+        long heapAddress = -1;
+        final Map<String, Long> links = new LinkedHashMap<String, Long>();
+
+        final Map<String, Attribute> attributes = new HashMap<String, Attribute>();
+
+        /**
+         * Gets number of dataset elements.
+         */
+        long getSize()
+        {
+            return HDF5File.getSize( dims );
+        }
+
+        /**
+         * Gets number of rows (the length of the last dimension, a scalar
+         * has one row).
+         */
+        long getRows()
+        {
+            return dims == null || dims.length == 0 ? 1 : dims[dims.length - 1];
+        }
+
+        /**
+         * Gets number of columns (all dimensions but the last one).
+         */
+        long getColumns()
+        {
+            long columns = 1;
+            for ( int d = 0; dims != null && d < dims.length - 1; d++ )
+            {
+                columns *= dims[d];
+            }
+            return columns;
+        }
+
+        /**
+         * Tells if the dataset is deflated.
+         */
+        boolean isCompressed()
+        {
+            for ( int i = 0; filters != null && i < filters.length; i++ )
+            {
+                if ( filters[i] == FILTER_DEFLATE )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static long getSize( long[] dims )
+    {
+        if ( dims == null )
+        {
+            return 0;
+        }
+        long size = 1;
+        for ( long dim : dims )
+        {
+            size *= dim;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,301 @@
+package com.jmatio.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory mapped regions of a file, shared by all readers of the file.
+ * <p>
+ * <code>{@link #open(File)}</code> returns the same instance for the same
+ * file as long as it is open anywhere; every call has to be paired with
+ * <code>{@link #close()}</code>. Regions are reference counted as well: a
+ * region requested twice with <code>{@link #map(long, int)}</code> is
+ * mapped once, and it's unmapped as soon as every buffer returned for it
+ * is passed to <code>{@link #release(ByteBuffer)}</code>. When the last
+ * user closes the file, all regions still mapped are unmapped and the file
+ * is closed.
+ * <p>
+ * Unmapping is deterministic on JDKs that allow it (through
+ * <code>sun.misc.Unsafe.invokeCleaner</code> on Java 9+ and the buffer
+ * cleaner on older versions). Otherwise the mapping is left to the garbage
+ * collector, no collection is ever forced.
+ * <p>
+ * <i>Note: buffers (and arrays wrapping them) must not be used after they
+ * are released, accessing an unmapped region crashes the JVM. Zero-copy
+ * arrays of <code>{@link MatFileReader}</code> and <code>{@link MatFileIndex}</code>
+ * are therefore mapped outside of the shared regions and never unmapped
+ * explicitly.</i>
+ *
+ * Usage:
+ * <pre><code>
+ * MappedFile file = MappedFile.open( new File( "mat_file.mat" ) );
+ * try
+ * {
+ *     ByteBuffer buf = file.map( 0, 128 );
+ *     ...
+ *     file.release( buf );
+ * }
+ * finally
+ * {
+ *     file.close();
+ * }
+ * </code></pre>
+ */
+public final class MappedFile implements AutoCloseable
+{
+    /**
+     * Open files by canonical path
+     */
+    private static final Map<String, MappedFile> files = new HashMap<String, MappedFile>();
+
+    private final String path;
+    private final RandomAccessFile raFile;
+    private final FileChannel channel;
+    /**
+     * Number of <code>open</code> calls not yet closed
+     */
+    private int references;
+    /**
+     * Mapped regions
+     */
+    private final List<Region> regions = new ArrayList<Region>();
+    /**
+     * Buffers handed out by <code>map</code> with their regions
+     */
+    private final Map<ByteBuffer, Region> buffers = new IdentityHashMap<ByteBuffer, Region>();
+
+    private MappedFile(String path) throws IOException
+    {
+        this.path = path;
+        this.raFile = new RandomAccessFile(path, "r");
+        this.channel = raFile.getChannel();
+    }
+
+    /**
+     * Opens the file or, if it's already open, returns the shared instance.
+     *
+     * @param file - the file
+     * @return - the mapped file
+     * @throws IOException if the file cannot be opened
+     */
+    public static MappedFile open( File file ) throws IOException
+    {
+        String path = file.getCanonicalPath();
+        synchronized ( files )
+        {
+            MappedFile mappedFile = files.get( path );
+            if ( mappedFile == null )
+            {
+                mappedFile = new MappedFile( path );
+                files.put( path, mappedFile );
+            }
+            mappedFile.references++;
+            return mappedFile;
+        }
+    }
+
+    /**
+     * Gets the file size.
+     *
+     * @return - file size in bytes
+     * @throws IOException if the file is closed
+     */
+    public long size() throws IOException
+    {
+        return channel.size();
+    }
+
+    /**
+     * Gets the channel of the file. The channel is shared and must not be
+     * closed.
+     *
+     * @return - the file channel
+     */
+    public FileChannel getChannel()
+    {
+        return channel;
+    }
+
+    /**
+     * Maps a region of the file (read only). A region already mapped is
+     * shared.
+     *
+     * @param position - the file position of the region
+     * @param length - the region size
+     * @return - a new buffer of the region (position <code>0</code>, limit
+     *           <code>length</code>)
+     * @throws IOException if the file cannot be mapped
+     */
+    public ByteBuffer map( long position, int length ) throws IOException
+    {
+        synchronized ( files )
+        {
+            if ( references == 0 )
+            {
+                throw new IOException("File is closed: " + path );
+            }
+            Region region = null;
+            for ( Region r : regions )
+            {
+                if ( r.position == position && r.length == length )
+                {
+                    region = r;
+                    break;
+                }
+            }
+            if ( region == null )
+            {
+                region = new Region( position, length,
+                            channel.map( FileChannel.MapMode.READ_ONLY, position, length ) );
+                regions.add( region );
+            }
+            region.references++;
+
+            ByteBuffer buffer = region.buffer.duplicate();
+            buffers.put( buffer, region );
+            return buffer;
+        }
+    }
+
+    /**
+     * Releases a buffer returned by <code>{@link #map(long, int)}</code>. The
+     * region is unmapped when all it's buffers are released.
+     *
+     * @param buffer - the buffer
+     */
+    public void release( ByteBuffer buffer )
+    {
+        synchronized ( files )
+        {
+            Region region = buffers.remove( buffer );
+            if ( region != null && --region.references == 0 )
+            {
+                regions.remove( region );
+                unmap( region.buffer );
+            }
+        }
+    }
+
+    /**
+     * Closes this instance. When the file is closed by all it's users, all
+     * regions are unmapped and the file is closed.
+     *
+     * @throws IOException if closing the file fails
+     */
+    public void close() throws IOException
+    {
+        synchronized ( files )
+        {
+            if ( references == 0 || --references > 0 )
+            {
+                return;
+            }
+            files.remove( path );
+            for ( Region region : regions )
+            {
+                unmap( region.buffer );
+            }
+            regions.clear();
+            buffers.clear();
+        }
+        channel.close();
+        raFile.close();
+    }
+
+    /**
+     * Releases the memory of a mapped or direct buffer. Does nothing if the
+     * JDK does not allow it (the garbage collector will do it later).
+     * <p>
+     * The buffer must not be a slice or duplicate of another buffer and must
+     * not be used afterwards.
+     *
+     * @param buffer - the buffer
+     * @return - <code>true</code> if the buffer was released
+     */
+    static boolean unmap( ByteBuffer buffer )
+    {
+        if ( buffer == null || !buffer.isDirect() )
+        {
+            return false;
+        }
+        try
+        {
+            if ( INVOKE_CLEANER != null )
+            {
+                //Java 9+
+                INVOKE_CLEANER.invoke( UNSAFE, buffer );
+            }
+            else
+            {
+                //Java 8 and older
+                Method getCleaner = buffer.getClass().getMethod( "cleaner" );
+                getCleaner.setAccessible( true );
+                Object cleaner = getCleaner.invoke( buffer );
+                if ( cleaner == null )
+                {
+                    return false;
+                }
+                cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+            }
+            return true;
+        }
+        catch ( Exception e )
+        {
+            //not supported, leave it to the garbage collector
+            return false;
+        }
+    }
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static
+    {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try
+        {
+            Class<?> clazz = Class.forName( "sun.misc.Unsafe" );
+            invokeCleaner = clazz.getMethod( "invokeCleaner", ByteBuffer.class );
+            Field field = clazz.getDeclaredField( "theUnsafe" );
+            field.setAccessible( true );
+            unsafe = field.get( null );
+        }
+        catch ( Exception e )
+        {
+            //older JDK
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /**
+     * Mapped region of the file
+     */
+    private static class Region
+    {
+        private final long position;
+        private final int length;
+        private final MappedByteBuffer buffer;
+        private int references;
+
+        public Region( long position, int length, MappedByteBuffer buffer )
+        {
+            this.position = position;
+            this.length = length;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.jmatio.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.stream.MatFileInputStream;
+
+/**
+ * The leading sub-elements of a <code>miMATRIX</code> element: array flags,
+ * dimensions and array name.
+ * <p>
+ * The header is parsed from an <code>InputStream</code>, which makes it
+ * possible to learn what a matrix is without reading (or inflating) its data.
+ */
+class MatArrayHeader
+{
+    private final int attributes;
+    private final int nzmax;
+    private final int[] dims;
+    private final String name;
+
+    private MatArrayHeader(int attributes, int nzmax, int[] dims, String name)
+    {
+        this.attributes = attributes;
+        this.nzmax = nzmax;
+        this.dims = dims;
+        this.name = name;
+    }
+
+    /**
+     * Reads array flags, dimensions and name from the stream.
+     * <p>
+     * The stream must be positioned right after the <code>miMATRIX</code>
+     * tag. After this method returns the stream is positioned at the first
+     * data sub-element of the matrix.
+     *
+     * @param is the input stream
+     * @param byteOrder the byte order of the MAT-file
+     * @return the header
+     * @throws IOException if the stream ends prematurely
+     */
+    public static MatArrayHeader read(InputStream is, ByteOrder byteOrder) throws IOException
+    {
+        DataInputStream dis = new DataInputStream(is);
+
+        int[] flags = readIntArray(dis, byteOrder);
+        int attributes = ( flags.length != 0 ) ? flags[0] : 0;
+        int nzmax = ( flags.length > 1 ) ? flags[1] : 0;
+
+        int[] dims = readIntArray(dis, byteOrder);
+
+        byte[] bytes = readSubElement(dis, byteOrder, null);
+        String name = new String(bytes, "UTF-8");
+
+        return new MatArrayHeader(attributes, nzmax, dims, name);
+    }
+
+    /**
+     * Inflates just enough of a <code>miCOMPRESSED</code> element to read the
+     * header of the matrix stored inside.
+     * <p>
+     * The stream must be positioned right after the <code>miCOMPRESSED</code>
+     * tag. Only the first few hundred bytes of compressed data are consumed.
+     *
+     * @param is the stream of compressed data
+     * @param byteOrder the byte order of the MAT-file
+     * @return the header
+     * @throws IOException if the data cannot be inflated or does not contain
+     *             a <code>miMATRIX</code> element
+     */
+    public static MatArrayHeader readCompressed(InputStream is, ByteOrder byteOrder) throws IOException
+    {
+        InflaterInputStream iis = new InflaterInputStream(is);
+        try
+        {
+            DataInputStream dis = new DataInputStream(iis);
+            int type = readInt(dis, byteOrder);
+            //skip matrix size
+            readInt(dis, byteOrder);
+
+            if ( type != MatDataTypes.miMATRIX )
+            {
+                throw new MatlabIOException("Incorrect data tag: " + MatDataTypes.typeToString(type) );
+            }
+            return read(dis, byteOrder);
+        }
+        catch ( ZipException e )
+        {
+            throw new MatlabIOException("Could not decompress data: " + e );
+        }
+        finally
+        {
+            iis.close();
+        }
+    }
+
+    /**
+     * Reads a numeric sub-element and converts it to <code>int[]</code>.
+     */
+    private static int[] readIntArray(DataInputStream dis, ByteOrder byteOrder) throws IOException
+    {
+        int[] type = new int[1];
+        byte[] bytes = readSubElement(dis, byteOrder, type);
+
+        ByteBuffer buf = ByteBuffer.wrap(bytes).order(byteOrder);
+        MatFileInputStream mfis = new MatFileInputStream(buf, type[0]);
+
+        int[] ai = new int[ bytes.length / MatDataTypes.sizeOf(type[0]) ];
+        mfis.readToIntArray(ai);
+        return ai;
+    }
+
+    /**
+     * Reads a sub-element (either normal or small data element format) and
+     * returns it's data without padding.
+     *
+     * @param type if not null the sub-element data type is stored at index 0
+     */
+    static byte[] readSubElement(DataInputStream dis, ByteOrder byteOrder, int[] type) throws IOException
+    {
+        int tmp = readInt(dis, byteOrder);
+        int dataType;
+        int size;
+        int padding;
+
+        //data not packed in the tag
+        if ( tmp >> 16 == 0 )
+        {
+            dataType = tmp;
+            size = readInt(dis, byteOrder);
+            padding = ( size % 8 ) != 0 ? 8 - ( size % 8 ) : 0;
+        }
+        else //data _packed_ in the tag (compressed)
+        {
+            size = tmp >> 16;
+            dataType = tmp & 0xffff;
+            padding = 4 - size;
+        }
+        if ( type != null )
+        {
+            type[0] = dataType;
+        }
+        byte[] bytes = new byte[size];
+        dis.readFully(bytes);
+
+        if ( dis.skipBytes(padding) != padding )
+        {
+            throw new EOFException();
+        }
+        return bytes;
+    }
+
+    static int readInt(DataInputStream dis, ByteOrder byteOrder) throws IOException
+    {
+        int i = dis.readInt();
+        return byteOrder == ByteOrder.BIG_ENDIAN ? i : Integer.reverseBytes(i);
+    }
+
+    /**
+     * Gets array name
+     *
+     * @return - array name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Gets array class (one of <code>MLArray.mx*_CLASS</code> values).
+     *
+     * @return - array class
+     */
+    public int getType()
+    {
+        return attributes & 0xff;
+    }
+
+    /**
+     * Gets array flags as stored in the file.
+     *
+     * @return - array flags
+     */
+    public int getAttributes()
+    {
+        return attributes;
+    }
+
+    /**
+     * Gets maximum number of non-zero values (sparse arrays only).
+     *
+     * @return - nzmax
+     */
+    public int getMaxNZ()
+    {
+        return nzmax;
+    }
+
+    /**
+     * Gets array dimensions.
+     *
+     * @return - array dimensions
+     */
+    public int[] getDimensions()
+    {
+        return dims;
+    }
+}
@@ -0,0 +1,939 @@
+package com.jmatio.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.stream.MatFileInputStream;
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLCell;
+import com.jmatio.types.MLChar;
+import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLInt16;
+import com.jmatio.types.MLInt32;
+import com.jmatio.types.MLInt64;
+import com.jmatio.types.MLInt8;
+import com.jmatio.types.MLNumericArray;
+import com.jmatio.types.MLSingle;
+import com.jmatio.types.MLSparse;
+import com.jmatio.types.MLStructure;
+import com.jmatio.types.MLUInt32;
+import com.jmatio.types.MLUInt64;
+import com.jmatio.types.MLUInt8;
+
+/**
+ * Reads MAT-files version 7.3 (HDF5-based) into the same <code>MLArray</code>
+ * types as version 5 files.
+ * <p>
+ * MATLAB stores every variable as a dataset (or group) of the root group
+ * with a <code>MATLAB_class</code> attribute. Dimensions are stored in
+ * reverse order, so the column-major data needs no reordering. Complex data
+ * is a compound of <tt>real</tt> and <tt>imag</tt>, cell elements and struct
+ * array fields are references to objects in the <tt>#refs#</tt> group,
+ * sparse arrays are groups of <tt>data</tt>, <tt>ir</tt> and <tt>jc</tt>
+ * datasets and empty arrays store their dimensions as data.
+ * <p>
+ * Function handles and objects (stored as references into the
+ * <tt>#subsystem#</tt> group, marked with a <tt>MATLAB_object_decode</tt>
+ * attribute) and other classes that have no <code>MLArray</code> type are
+ * skipped. A cell array or struct holding such a value is skipped as a
+ * whole.
+ * <p>
+ * Numeric datasets bigger than 2 GB (complex arrays, whose parts are
+ * stored together) are red in regions of whole columns. Each part of a
+ * numeric array still has to fit in a single buffer. Rectangular regions of
+ * numeric arrays are red with <code>{@link #readSubArray(String, int, int, int, int)}</code>,
+ * only the chunks holding the region are inflated. Character, cell,
+ * sparse and reference datasets are red into a single buffer, so they are
+ * limited to 2 GB.
+ *
+ * @see HDF5File
+ */
+class MatFile73Reader
+{
+    /**
+     * Size of the regions numeric datasets too big for a single buffer are
+     * red in
+     */
+    private static final int REGION_SIZE = 1 << 26;
+
+    private final HDF5File file;
+
+    /**
+     * @param channel -
+     *            the MAT-file channel
+     * @param executor -
+     *            executor inflating chunks in parallel or <code>null</code>
+     * @throws IOException
+     *             if the file is not a valid HDF5 file
+     */
+    public MatFile73Reader(FileChannel channel, ExecutorService executor) throws IOException
+    {
+        this.file = new HDF5File(channel, executor);
+    }
+
+    /**
+     * Reads variables of the file.
+     *
+     * @param filter -
+     *            the array filter
+     * @return - arrays by name
+     * @throws IOException
+     *             if reading the file fails
+     */
+    public Map<String, MLArray> read( MatFileFilter filter ) throws IOException
+    {
+        Map<String, MLArray> data = new LinkedHashMap<String, MLArray>();
+        for ( Map.Entry<String, Long> member : file.getMembers( file.getRoot() ).entrySet() )
+        {
+            String name = member.getKey();
+            //#refs# and #subsystem# groups are not variables
+            if ( name.startsWith("#") || !filter.matches( name ) )
+            {
+                continue;
+            }
+            try
+            {
+                data.put( name, readArray( name, file.readObject( member.getValue() ) ) );
+            }
+            catch ( UnsupportedClassException e )
+            {
+                //skip the variable
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Reads a single variable.
+     *
+     * @param name -
+     *            the variable name
+     * @return - the array or <code>null</code> if there is no such variable
+     *           or it cannot be red (see class notes)
+     * @throws IOException
+     *             if reading the file fails
+     */
+    public MLArray read( String name ) throws IOException
+    {
+        Long address = getAddress( name );
+        if ( address == null )
+        {
+            return null;
+        }
+        try
+        {
+            return readArray( name, file.readObject( address ) );
+        }
+        catch ( UnsupportedClassException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Lists the variables of the file. Only object headers (and the small
+     * datasets of empty array dimensions) are red. Functions handles and
+     * objects are left out.
+     * <p>
+     * Offsets are file positions of the object headers, sizes are sizes of
+     * the dataset data (zero for groups).
+     *
+     * @return - index entries of the variables
+     * @throws IOException
+     *             if reading the file fails
+     */
+    public List<MatFileIndex.Entry> getEntries() throws IOException
+    {
+        List<MatFileIndex.Entry> entries = new ArrayList<MatFileIndex.Entry>();
+        for ( Map.Entry<String, Long> member : file.getMembers( file.getRoot() ).entrySet() )
+        {
+            if ( member.getKey().startsWith("#") )
+            {
+                continue;
+            }
+            try
+            {
+                entries.add( readEntry( member.getKey(), member.getValue() ) );
+            }
+            catch ( UnsupportedClassException e )
+            {
+                //skip the variable
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads a rectangular region of a numeric array: rows
+     * <code>fromRow</code> (inclusive) to <code>toRow</code> (exclusive) of
+     * columns <code>fromColumn</code> (inclusive) to <code>toColumn</code>
+     * (exclusive). The trailing dimensions of N-dimensional arrays are
+     * treated as columns.
+     * <p>
+     * Of chunked datasets only the chunks intersecting the region are red
+     * and inflated.
+     *
+     * @param name - array name
+     * @param fromRow - first row of the region
+     * @param toRow - row after the last row of the region
+     * @param fromColumn - first column of the region
+     * @param toColumn - column after the last column of the region
+     * @return - the region or <code>null</code> if there is no such variable
+     * @throws IOException when error occurred while reading the array or if
+     *           the array is not numeric
+     */
+    public MLArray readSubArray( String name, int fromRow, int toRow, int fromColumn, int toColumn ) throws IOException
+    {
+        Long address = getAddress( name );
+        if ( address == null )
+        {
+            return null;
+        }
+        HDF5File.DataObject object = file.readObject( address );
+        String matlabClass = getString( object, "MATLAB_class" );
+        if ( object.group || getInt( object, "MATLAB_empty" ) != 0 || object.attributes.containsKey( "MATLAB_object_decode" ) )
+        {
+            throw new MatlabIOException("Not a numeric array: " + name );
+        }
+        if ( matlabClass == null )
+        {
+            matlabClass = getClassName( object.type );
+        }
+        if ( matlabClass.equals( "cell" ) || matlabClass.equals( "char" ) )
+        {
+            throw new MatlabIOException("Not a numeric array: " + name );
+        }
+        return readNumeric( name, object, matlabClass, new int[] { toRow - fromRow, toColumn - fromColumn },
+                            fromRow, toRow, fromColumn, toColumn );
+    }
+
+    /**
+     * Gets the object address of a variable or <code>null</code>.
+     */
+    private Long getAddress( String name ) throws IOException
+    {
+        //#refs# and #subsystem# groups are not variables
+        return name.startsWith("#") ? null : file.getMembers( file.getRoot() ).get( name );
+    }
+
+    /**
+     * Creates the index entry of a variable from it's object header.
+     */
+    private MatFileIndex.Entry readEntry( String name, long address ) throws IOException
+    {
+        HDF5File.DataObject object = file.readObject( address );
+        String matlabClass = getString( object, "MATLAB_class" );
+
+        if ( object.attributes.containsKey( "MATLAB_object_decode" ) || "function_handle".equals( matlabClass ) )
+        {
+            throw new UnsupportedClassException( matlabClass );
+        }
+        int attributes = "logical".equals( matlabClass ) ? MLArray.mtFLAG_LOGICAL : 0;
+        int nzmax = 0;
+        int type;
+        int[] dims;
+        if ( getInt( object, "MATLAB_empty" ) != 0 )
+        {
+            MLArray empty = readEmpty( name, object, matlabClass );
+            type = empty.getType();
+            dims = empty.getDimensions();
+        }
+        else if ( object.group && object.attributes.containsKey( "MATLAB_sparse" ) )
+        {
+            Map<String, Long> members = file.getMembers( object );
+            type = MLArray.mxSPARSE_CLASS;
+            int columns = 0;
+            if ( members.containsKey( "jc" ) )
+            {
+                columns = (int) file.readObject( members.get( "jc" ) ).getSize() - 1;
+            }
+            if ( members.containsKey( "data" ) )
+            {
+                HDF5File.DataObject data = file.readObject( members.get( "data" ) );
+                nzmax = (int) data.getSize();
+                attributes |= getComplexFlag( data.type );
+            }
+            dims = new int[] { getInt( object, "MATLAB_sparse" ), columns };
+        }
+        else if ( object.group )
+        {
+            if ( matlabClass != null && !matlabClass.equals( "struct" ) )
+            {
+                throw new UnsupportedClassException( matlabClass );
+            }
+            type = MLArray.mxSTRUCT_CLASS;
+            dims = new int[] { 1, 1 };
+            //struct array fields are references without MATLAB_class
+            Map<String, Long> members = file.getMembers( object );
+            if ( !members.isEmpty() )
+            {
+                HDF5File.DataObject first = file.readObject( members.values().iterator().next() );
+                if ( !first.group && first.type.typeClass == HDF5File.CLASS_REFERENCE
+                        && !first.attributes.containsKey( "MATLAB_class" ) )
+                {
+                    dims = getDimensions( first.dims );
+                }
+            }
+        }
+        else
+        {
+            if ( matlabClass == null )
+            {
+                matlabClass = getClassName( object.type );
+            }
+            if ( matlabClass.equals( "cell" ) )
+            {
+                type = MLArray.mxCELL_CLASS;
+            }
+            else if ( matlabClass.equals( "char" ) )
+            {
+                type = MLArray.mxCHAR_CLASS;
+            }
+            else if ( matlabClass.equals( "logical" ) )
+            {
+                type = MLArray.mxUINT8_CLASS;
+            }
+            else
+            {
+                type = getType( matlabClass );
+                attributes |= getComplexFlag( object.type );
+            }
+            dims = getDimensions( object.dims );
+        }
+        long size = object.group ? 0 : object.getSize() * object.type.size;
+        return new MatFileIndex.Entry( name, type, attributes, nzmax, dims,
+                                       file.getPosition( address ), size, !object.group && object.isCompressed() );
+    }
+
+    /**
+     * Gets <code>MLArray.mtFLAG_COMPLEX</code> for compounds of
+     * <tt>real</tt> and <tt>imag</tt>, <code>0</code> otherwise.
+     */
+    private static int getComplexFlag( HDF5File.DataType type )
+    {
+        return type.getMember( "real" ) >= 0 && type.getMember( "imag" ) >= 0 ? MLArray.mtFLAG_COMPLEX : 0;
+    }
+
+    private MLArray readArray( String name, HDF5File.DataObject object ) throws IOException
+    {
+        String matlabClass = getString( object, "MATLAB_class" );
+
+        if ( object.attributes.containsKey( "MATLAB_object_decode" ) || "function_handle".equals( matlabClass ) )
+        {
+            throw new UnsupportedClassException( matlabClass );
+        }
+        if ( getInt( object, "MATLAB_empty" ) != 0 )
+        {
+            return readEmpty( name, object, matlabClass );
+        }
+        if ( object.group )
+        {
+            if ( object.attributes.containsKey( "MATLAB_sparse" ) )
+            {
+                return readSparse( name, object, matlabClass );
+            }
+            if ( matlabClass == null || matlabClass.equals( "struct" ) )
+            {
+                return readStruct( name, object );
+            }
+            throw new UnsupportedClassException( matlabClass );
+        }
+        if ( matlabClass == null )
+        {
+            //plain HDF5 dataset
+            matlabClass = getClassName( object.type );
+        }
+        if ( matlabClass.equals( "cell" ) )
+        {
+            return readCell( name, object );
+        }
+        if ( matlabClass.equals( "char" ) )
+        {
+            ByteBuffer data = file.readData( object );
+            char[] chars = new char[(int) object.getSize()];
+            if ( object.type.size == 2 )
+            {
+                data.asCharBuffer().get( chars );
+            }
+            else
+            {
+                MatFileInputStream mfis = new MatFileInputStream( data, getDataType( object.type ) );
+                for ( int i = 0; i < chars.length; i++ )
+                {
+                    chars[i] = mfis.readChar();
+                }
+            }
+            return new MLChar( name, getDimensions( object.dims ), 0, chars );
+        }
+        return readNumeric( name, object, matlabClass );
+    }
+
+    /**
+     * Reads numeric or logical array.
+     */
+    private MLArray readNumeric( String name, HDF5File.DataObject object, String matlabClass ) throws IOException
+    {
+        return readNumeric( name, object, matlabClass, getDimensions( object.dims ),
+                            0, object.getRows(), 0, object.getColumns() );
+    }
+
+    /**
+     * Reads a region of numeric or logical array. A region bigger than a
+     * single buffer is red in parts of whole columns (or of a single
+     * column if a column is too big).
+     *
+     * @param dims - dimensions of the result
+     */
+    private MLArray readNumeric( String name, HDF5File.DataObject object, String matlabClass, int[] dims,
+                                 long fromRow, long toRow, long fromColumn, long toColumn ) throws IOException
+    {
+        int attributes = 0;
+        int type;
+        if ( matlabClass.equals( "logical" ) )
+        {
+            attributes |= MLArray.mtFLAG_LOGICAL;
+            type = MLArray.mxUINT8_CLASS;
+        }
+        else
+        {
+            type = getType( matlabClass );
+        }
+        HDF5File.DataType dataType = object.type;
+        int real = dataType.getMember( "real" );
+        int imag = dataType.getMember( "imag" );
+        attributes |= getComplexFlag( dataType );
+
+        long rows = toRow - fromRow;
+        long elements = rows * ( toColumn - fromColumn );
+        if ( elements * getBytesAllocated( type ) > Integer.MAX_VALUE )
+        {
+            throw new MatlabIOException("Array is too big to be red: " + name + ", read it by regions");
+        }
+        MLNumericArray<?> array = createNumericArray( name, dims, type, attributes );
+
+        //the whole region at once, the buffer may become the array storage
+        if ( elements * dataType.size <= Integer.MAX_VALUE )
+        {
+            ByteBuffer data = file.readRegion( object, fromRow, toRow, fromColumn, toColumn );
+            if ( array.isComplex() )
+            {
+                ByteBuffer[] parts = split( data, dataType, real, imag, (int) elements );
+                fill( array, parts[0], dataType.memberTypes[real], false );
+                fill( array, parts[1], dataType.memberTypes[imag], true );
+            }
+            else
+            {
+                fill( array, data, dataType, false );
+            }
+            return array;
+        }
+
+        long columnSize = rows * dataType.size;
+        long columns = Math.max( 1, REGION_SIZE / columnSize );
+        long step = columnSize > REGION_SIZE ? REGION_SIZE / dataType.size : rows;
+        for ( long column = fromColumn; column < toColumn; column += columns )
+        {
+            long endColumn = Math.min( toColumn, column + columns );
+            for ( long row = fromRow; row < toRow; row += step )
+            {
+                long endRow = Math.min( toRow, row + step );
+                ByteBuffer data = file.readRegion( object, row, endRow, column, endColumn );
+                int offset = (int) ( ( column - fromColumn ) * rows + row - fromRow );
+                int length = (int) ( ( endRow - row ) * ( endColumn - column ) );
+                if ( array.isComplex() )
+                {
+                    ByteBuffer[] parts = split( data, dataType, real, imag, length );
+                    copy( array, parts[0], dataType.memberTypes[real], false, offset, length );
+                    copy( array, parts[1], dataType.memberTypes[imag], true, offset, length );
+                }
+                else
+                {
+                    copy( array, data, dataType, false, offset, length );
+                }
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Splits compound data into real and imaginary part buffers.
+     */
+    private static ByteBuffer[] split( ByteBuffer data, HDF5File.DataType type, int real, int imag, int elements )
+    {
+        ByteBuffer[] parts = new ByteBuffer[2];
+        int[] members = { real, imag };
+        byte[] src = data.array();
+        for ( int p = 0; p < 2; p++ )
+        {
+            int size = type.memberTypes[members[p]].size;
+            int offset = type.memberOffsets[members[p]];
+            byte[] dst = new byte[elements * size];
+            for ( int i = 0; i < elements; i++ )
+            {
+                System.arraycopy( src, i * type.size + offset, dst, i * size, size );
+            }
+            parts[p] = ByteBuffer.wrap( dst ).order( type.memberTypes[members[p]].order );
+        }
+        return parts;
+    }
+
+    /**
+     * Fills the array with data. Data stored with the storage type of the
+     * array is used as the storage without copying.
+     */
+    private static void fill( MLNumericArray<?> array, ByteBuffer data, HDF5File.DataType type, boolean imaginary ) throws IOException
+    {
+        int dataType = getDataType( type );
+        Class<?> clazz = array.getStorageClazz();
+        boolean floating = clazz.equals( Double.class ) || clazz.equals( Float.class );
+
+        if ( type.size == array.getBytesAllocated() && ( type.typeClass == HDF5File.CLASS_FLOAT ) == floating )
+        {
+            if ( imaginary )
+            {
+                array.wrapImaginaryByteBuffer( data );
+            }
+            else
+            {
+                array.wrapRealByteBuffer( data );
+            }
+            return;
+        }
+        ByteBuffer dest = imaginary ? array.getImaginaryByteBuffer() : array.getRealByteBuffer();
+        new MatFileInputStream( data, dataType ).readToByteBuffer( dest, array.getSize(), array );
+    }
+
+    /**
+     * Converts data of a part of the array into the array storage.
+     *
+     * @param offset - index of the first element
+     * @param length - number of elements
+     */
+    private static void copy( MLNumericArray<?> array, ByteBuffer data, HDF5File.DataType type, boolean imaginary,
+                              int offset, int length ) throws IOException
+    {
+        ByteBuffer storage = imaginary ? array.getImaginaryByteBuffer() : array.getRealByteBuffer();
+        int bytesAllocated = array.getBytesAllocated();
+        ByteBuffer dest = storage.duplicate();
+        dest.limit( ( offset + length ) * bytesAllocated );
+        dest.position( offset * bytesAllocated );
+        new MatFileInputStream( data, getDataType( type ) ).readToByteBuffer( dest.slice().order( storage.order() ), length, array );
+    }
+
+    /**
+     * Reads cell array (a dataset of object references).
+     */
+    private MLArray readCell( String name, HDF5File.DataObject object ) throws IOException
+    {
+        MLCell cell = new MLCell( name, getDimensions( object.dims ) );
+        long[] references = readReferences( object );
+        for ( int i = 0; i < references.length; i++ )
+        {
+            cell.set( readArray( "", file.readObject( references[i] ) ), i );
+        }
+        return cell;
+    }
+
+    /**
+     * Reads structure. A 1x1 structure is a group holding field values, a
+     * struct array is a group of reference datasets (one reference per
+     * element).
+     */
+    private MLArray readStruct( String name, HDF5File.DataObject group ) throws IOException
+    {
+        Map<String, Long> members = file.getMembers( group );
+        List<String> fields = new ArrayList<String>();
+
+        //field order
+        HDF5File.Attribute fieldNames = group.attributes.get( "MATLAB_fields" );
+        if ( fieldNames != null && fieldNames.type.typeClass == HDF5File.CLASS_VLEN )
+        {
+            for ( ByteBuffer fieldName : file.readVariableLength( fieldNames ) )
+            {
+                byte[] bytes = new byte[fieldName.remaining()];
+                fieldName.get( bytes );
+                fields.add( new String( bytes, "UTF-8" ) );
+            }
+        }
+        else
+        {
+            fields.addAll( members.keySet() );
+        }
+
+        Map<String, HDF5File.DataObject> values = new LinkedHashMap<String, HDF5File.DataObject>();
+        for ( String field : fields )
+        {
+            Long address = members.get( field );
+            if ( address == null )
+            {
+                throw new MatlabIOException("Missing struct field: " + field );
+            }
+            values.put( field, file.readObject( address ) );
+        }
+
+        //struct array fields are references without MATLAB_class
+        HDF5File.DataObject first = values.isEmpty() ? null : values.values().iterator().next();
+        if ( first != null && !first.group && first.type.typeClass == HDF5File.CLASS_REFERENCE
+                && !first.attributes.containsKey( "MATLAB_class" ) )
+        {
+            MLStructure struct = new MLStructure( name, getDimensions( first.dims ) );
+            for ( Map.Entry<String, HDF5File.DataObject> value : values.entrySet() )
+            {
+                long[] references = readReferences( value.getValue() );
+                for ( int i = 0; i < references.length; i++ )
+                {
+                    struct.setField( value.getKey(), readArray( "", file.readObject( references[i] ) ), i );
+                }
+            }
+            return struct;
+        }
+
+        MLStructure struct = new MLStructure( name, new int[] { 1, 1 } );
+        for ( Map.Entry<String, HDF5File.DataObject> value : values.entrySet() )
+        {
+            struct.setField( value.getKey(), readArray( "", value.getValue() ) );
+        }
+        return struct;
+    }
+
+    /**
+     * Reads sparse array (a group of <tt>data</tt>, <tt>ir</tt> and
+     * <tt>jc</tt> datasets, number of rows in the <tt>MATLAB_sparse</tt>
+     * attribute).
+     */
+    private MLArray readSparse( String name, HDF5File.DataObject group, String matlabClass ) throws IOException
+    {
+        Map<String, Long> members = file.getMembers( group );
+        int rows = getInt( group, "MATLAB_sparse" );
+        int attributes = "logical".equals( matlabClass ) ? MLArray.mtFLAG_LOGICAL : 0;
+
+        int[] jc = readInts( members.get( "jc" ) );
+        int[] ir = readInts( members.get( "ir" ) );
+        int nnz = jc.length > 0 ? jc[jc.length - 1] : 0;
+        double[] pr = new double[nnz];
+        double[] pi = null;
+
+        Long dataAddress = members.get( "data" );
+        if ( dataAddress != null )
+        {
+            HDF5File.DataObject object = file.readObject( dataAddress );
+            ByteBuffer data = file.readData( object );
+            HDF5File.DataType dataType = object.type;
+            int real = dataType.getMember( "real" );
+            int imag = dataType.getMember( "imag" );
+            if ( real >= 0 && imag >= 0 )
+            {
+                attributes |= MLArray.mtFLAG_COMPLEX;
+                ByteBuffer[] parts = split( data, dataType, real, imag, nnz );
+                new MatFileInputStream( parts[0], getDataType( dataType.memberTypes[real] ) ).readToDoubleArray( pr );
+                pi = new double[nnz];
+                new MatFileInputStream( parts[1], getDataType( dataType.memberTypes[imag] ) ).readToDoubleArray( pi );
+            }
+            else
+            {
+                new MatFileInputStream( data, getDataType( dataType ) ).readToDoubleArray( pr );
+            }
+        }
+        return new MLSparse( name, new int[] { rows, jc.length - 1 }, attributes, nnz, ir, jc, pr, pi );
+    }
+
+    /**
+     * Reads empty array (dimensions are stored as data).
+     */
+    private MLArray readEmpty( String name, HDF5File.DataObject object, String matlabClass ) throws IOException
+    {
+        int[] dims = object.group ? new int[] { 0, 0 } : toInts( object );
+        if ( dims.length < 2 )
+        {
+            dims = new int[] { 0, 0 };
+        }
+        if ( matlabClass == null || matlabClass.equals( "double" ) )
+        {
+            return new MLDouble( name, dims, MLArray.mxDOUBLE_CLASS, 0 );
+        }
+        if ( matlabClass.equals( "char" ) )
+        {
+            return new MLChar( name, dims, MLArray.mxCHAR_CLASS, 0 );
+        }
+        if ( matlabClass.equals( "cell" ) )
+        {
+            return new MLCell( name, dims );
+        }
+        if ( matlabClass.equals( "struct" ) )
+        {
+            return new MLStructure( name, dims );
+        }
+        if ( matlabClass.equals( "logical" ) )
+        {
+            return new MLUInt8( name, dims, MLArray.mxUINT8_CLASS, MLArray.mtFLAG_LOGICAL );
+        }
+        return createNumericArray( name, dims, getType( matlabClass ), 0 );
+    }
+
+    private long[] readReferences( HDF5File.DataObject object ) throws IOException
+    {
+        if ( object.type.typeClass != HDF5File.CLASS_REFERENCE )
+        {
+            throw new MatlabIOException("Object references expected");
+        }
+        ByteBuffer data = file.readData( object );
+        long[] references = new long[(int) object.getSize()];
+        for ( int i = 0; i < references.length; i++ )
+        {
+            data.position( i * object.type.size );
+            references[i] = file.readReference( data );
+        }
+        return references;
+    }
+
+    private int[] readInts( Long address ) throws IOException
+    {
+        if ( address == null )
+        {
+            return new int[0];
+        }
+        return toInts( file.readObject( address ) );
+    }
+
+    private int[] toInts( HDF5File.DataObject object ) throws IOException
+    {
+        int[] values = new int[(int) object.getSize()];
+        new MatFileInputStream( file.readData( object ), getDataType( object.type ) ).readToIntArray( values );
+        return values;
+    }
+
+    /**
+     * Gets string attribute value or <code>null</code>.
+     */
+    private static String getString( HDF5File.DataObject object, String name ) throws IOException
+    {
+        HDF5File.Attribute attribute = object.attributes.get( name );
+        if ( attribute == null || attribute.type.typeClass != HDF5File.CLASS_STRING )
+        {
+            return null;
+        }
+        ByteBuffer data = attribute.data.duplicate();
+        int length = 0;
+        while ( length < attribute.type.size && length < data.remaining() && data.get( length ) != 0 )
+        {
+            length++;
+        }
+        byte[] bytes = new byte[length];
+        data.get( bytes );
+        return new String( bytes, "UTF-8" ).trim();
+    }
+
+    /**
+     * Gets integer attribute value or <code>0</code>.
+     */
+    private static int getInt( HDF5File.DataObject object, String name ) throws IOException
+    {
+        HDF5File.Attribute attribute = object.attributes.get( name );
+        if ( attribute == null || attribute.type.typeClass != HDF5File.CLASS_FIXED || attribute.getSize() == 0 )
+        {
+            return 0;
+        }
+        int[] value = new int[1];
+        ByteBuffer data = attribute.data.duplicate().order( attribute.type.order );
+        new MatFileInputStream( data, getDataType( attribute.type ) ).readToIntArray( value );
+        return value[0];
+    }
+
+    /**
+     * Converts HDF5 dimensions (reversed) to MATLAB dimensions.
+     */
+    private static int[] getDimensions( long[] dims )
+    {
+        if ( dims == null || dims.length == 0 )
+        {
+            return new int[] { 1, 1 };
+        }
+        int[] result = new int[Math.max( 2, dims.length )];
+        result[1] = 1;
+        for ( int i = 0; i < dims.length; i++ )
+        {
+            result[i] = (int) dims[dims.length - 1 - i];
+        }
+        return result;
+    }
+
+    /**
+     * Gets <code>MatDataTypes.mi*</code> type of the HDF5 datatype.
+     */
+    private static int getDataType( HDF5File.DataType type ) throws IOException
+    {
+        if ( type.typeClass == HDF5File.CLASS_FLOAT )
+        {
+            switch ( type.size )
+            {
+                case 4:
+                    return MatDataTypes.miSINGLE;
+                case 8:
+                    return MatDataTypes.miDOUBLE;
+            }
+        }
+        else if ( type.typeClass == HDF5File.CLASS_FIXED )
+        {
+            switch ( type.size )
+            {
+                case 1:
+                    return type.signed ? MatDataTypes.miINT8 : MatDataTypes.miUINT8;
+                case 2:
+                    return type.signed ? MatDataTypes.miINT16 : MatDataTypes.miUINT16;
+                case 4:
+                    return type.signed ? MatDataTypes.miINT32 : MatDataTypes.miUINT32;
+                case 8:
+                    return type.signed ? MatDataTypes.miINT64 : MatDataTypes.miUINT64;
+            }
+        }
+        throw new MatlabIOException("Unsupported HDF5 datatype: class " + type.typeClass + ", size " + type.size);
+    }
+
+    /**
+     * Gets MATLAB class name of a plain dataset (without <code>MATLAB_class</code>).
+     */
+    private static String getClassName( HDF5File.DataType type ) throws IOException
+    {
+        HDF5File.DataType element = type;
+        int real = type.getMember( "real" );
+        if ( type.typeClass == HDF5File.CLASS_COMPOUND && real >= 0 )
+        {
+            element = type.memberTypes[real];
+        }
+        switch ( getDataType( element ) )
+        {
+            case MatDataTypes.miSINGLE:
+                return "single";
+            case MatDataTypes.miINT8:
+                return "int8";
+            case MatDataTypes.miUINT8:
+                return "uint8";
+            case MatDataTypes.miINT16:
+                return "int16";
+            case MatDataTypes.miINT32:
+                return "int32";
+            case MatDataTypes.miUINT32:
+                return "uint32";
+            case MatDataTypes.miINT64:
+                return "int64";
+            case MatDataTypes.miUINT64:
+                return "uint64";
+            default:
+                return "double";
+        }
+    }
+
+    /**
+     * Gets <code>MLArray.mx*_CLASS</code> type of a numeric MATLAB class name.
+     */
+    private static int getType( String matlabClass ) throws IOException
+    {
+        if ( matlabClass.equals( "double" ) )
+        {
+            return MLArray.mxDOUBLE_CLASS;
+        }
+        if ( matlabClass.equals( "single" ) )
+        {
+            return MLArray.mxSINGLE_CLASS;
+        }
+        if ( matlabClass.equals( "int8" ) )
+        {
+            return MLArray.mxINT8_CLASS;
+        }
+        if ( matlabClass.equals( "uint8" ) )
+        {
+            return MLArray.mxUINT8_CLASS;
+        }
+        if ( matlabClass.equals( "int16" ) )
+        {
+            return MLArray.mxINT16_CLASS;
+        }
+        if ( matlabClass.equals( "int32" ) )
+        {
+            return MLArray.mxINT32_CLASS;
+        }
+        if ( matlabClass.equals( "uint32" ) )
+        {
+            return MLArray.mxUINT32_CLASS;
+        }
+        if ( matlabClass.equals( "int64" ) )
+        {
+            return MLArray.mxINT64_CLASS;
+        }
+        if ( matlabClass.equals( "uint64" ) )
+        {
+            return MLArray.mxUINT64_CLASS;
+        }
+        throw new UnsupportedClassException( matlabClass );
+    }
+
+    /**
+     * Gets number of bytes an element of numeric array class takes.
+     */
+    private static int getBytesAllocated( int type )
+    {
+        switch ( type )
+        {
+            case MLArray.mxDOUBLE_CLASS:
+            case MLArray.mxINT64_CLASS:
+            case MLArray.mxUINT64_CLASS:
+                return 8;
+            case MLArray.mxSINGLE_CLASS:
+            case MLArray.mxINT32_CLASS:
+            case MLArray.mxUINT32_CLASS:
+                return 4;
+            case MLArray.mxINT16_CLASS:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    private static MLNumericArray<?> createNumericArray( String name, int[] dims, int type, int attributes ) throws IOException
+    {
+        switch ( type )
+        {
+            case MLArray.mxDOUBLE_CLASS:
+                return new MLDouble( name, dims, type, attributes );
+            case MLArray.mxSINGLE_CLASS:
+                return new MLSingle( name, dims, type, attributes );
+            case MLArray.mxUINT8_CLASS:
+                return new MLUInt8( name, dims, type, attributes );
+            case MLArray.mxINT8_CLASS:
+                return new MLInt8( name, dims, type, attributes );
+            case MLArray.mxINT16_CLASS:
+                return new MLInt16( name, dims, type, attributes );
+            case MLArray.mxINT32_CLASS:
+                return new MLInt32( name, dims, type, attributes );
+            case MLArray.mxUINT32_CLASS:
+                return new MLUInt32( name, dims, type, attributes );
+            case MLArray.mxINT64_CLASS:
+                return new MLInt64( name, dims, type, attributes );
+            case MLArray.mxUINT64_CLASS:
+                return new MLUInt64( name, dims, type, attributes );
+            default:
+                throw new MatlabIOException("Incorrect matlab array class: " + MLArray.typeToString(type) );
+        }
+    }
+
+    /**
+     * Thrown for values of MATLAB classes that cannot be red, the variable
+     * holding the value is skipped.
+     */
+    private static class UnsupportedClassException extends MatlabIOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public UnsupportedClassException( String matlabClass )
+        {
+            super("Unsupported MATLAB class: " + matlabClass );
+        }
+    }
+}
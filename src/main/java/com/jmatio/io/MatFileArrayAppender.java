@@ -0,0 +1,456 @@
+package com.jmatio.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.stream.ParallelDeflaterOutputStream;
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLNumericArray;
+
+/**
+ * Appends columns to a numeric array written by
+ * <code>{@link MatFileIncrementalWriter}</code>.
+ * <p>
+ * Columns are written to the file as they come, so memory use does not
+ * depend on the number of columns. The array dimensions and element sizes
+ * are written when the appender is closed.
+ * <p>
+ * Compressed arrays are deflated in segments: the array header is stored
+ * in the zlib stream as an uncompressed block (so it can be updated on
+ * close) and the columns of each <code>append</code> call are deflated and
+ * flushed to the file.
+ * <p>
+ * Only real (not complex) 2D arrays can be appended to.
+ *
+ * Usage:
+ * <pre><code>
+ * MatFileIncrementalWriter writer = new MatFileIncrementalWriter( new File("capture.mat") );
+ * //one column of all channels per sample
+ * MatFileArrayAppender appender = writer.createAppender( new MLDouble( "samples", new int[] { channels, 0 } ) );
+ * while ( capturing )
+ * {
+ *     appender.append( nextSamples() );
+ * }
+ * appender.close();
+ * writer.close();
+ * </code></pre>
+ *
+ * @see com.jmatio.io.MatFileIncrementalWriter#createAppender(MLNumericArray)
+ */
+public class MatFileArrayAppender
+{
+    /**
+     * Size of the data element tag
+     */
+    private static final int TAG_SIZE = 8;
+    /**
+     * Offset of the column count in <code>miMATRIX</code> element (tag,
+     * flags, dimensions tag and row count)
+     */
+    private static final int COLUMNS_OFFSET = 36;
+    /**
+     * zlib header and stored block header
+     */
+    private static final int STORED_HEADER_SIZE = 7;
+    /**
+     * Maximum length of a stored block
+     */
+    private static final int MAX_STORED_SIZE = 0xffff;
+    /**
+     * Size of the conversion and output buffers
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final MatFileIncrementalWriter writer;
+    private final SeekableByteChannel channel;
+    private final String name;
+    private final int arrayType;
+    private final int rows;
+    /**
+     * Byte order of the file
+     */
+    private final ByteOrder byteOrder;
+    /**
+     * <code>miMATRIX</code> tag, flags, dimensions, name and data tag
+     */
+    private final ByteBuffer header;
+    /**
+     * Position of the element tag
+     */
+    private final long start;
+    /**
+     * Position of the <code>miMATRIX</code> tag
+     */
+    private final long headerPosition;
+    /**
+     * Raw deflater of compressed arrays or <code>null</code>
+     */
+    private final Deflater deflater;
+    /**
+     * Checksum of the data following the array header
+     */
+    private final Adler32 adler = new Adler32();
+
+    private final byte[] input = new byte[BUFFER_SIZE];
+    private final byte[] output = new byte[BUFFER_SIZE];
+
+    private long columns;
+    private long dataSize;
+    private boolean closed;
+
+    /**
+     * Writes the array header and the columns of the array.
+     *
+     * @param writer - the writer which is notified when the appender is closed
+     * @param channel - the channel positioned at the end of the file
+     * @param array - array of the first columns (it may have no columns)
+     * @param options - writer options of the array
+     * @param byteOrder - byte order of the file
+     * @throws IOException if writing fails (the channel is truncated to
+     *          where the array started)
+     */
+    MatFileArrayAppender( MatFileIncrementalWriter writer, SeekableByteChannel channel,
+            MLNumericArray<?> array, MatFileWriterOptions options, ByteOrder byteOrder ) throws IOException
+    {
+        if ( array.isComplex() || array.getNDimensions() != 2 )
+        {
+            throw new IllegalArgumentException("Only real 2D arrays can be appended to: " + array.getName() );
+        }
+        this.writer    = writer;
+        this.channel   = channel;
+        this.name      = array.getName();
+        this.arrayType = array.getType();
+        this.rows      = array.getM();
+        this.byteOrder = byteOrder;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream( baos );
+        MatFileWriter.writeInt( dos, MatDataTypes.miMATRIX, byteOrder );
+        dos.writeInt( 0 );
+        MatFileWriter.writeArrayHeader( dos, array, byteOrder );
+        //never in small data element format, the size is not known yet
+        MatFileWriter.writeInt( dos, getDataType( array ), byteOrder );
+        dos.writeInt( 0 );
+        header = ByteBuffer.wrap( baos.toByteArray() ).order( byteOrder );
+        header.putInt( COLUMNS_OFFSET, 0 );
+        if ( header.capacity() > MAX_STORED_SIZE )
+        {
+            throw new MatlabIOException("Array name is too long: " + name );
+        }
+
+        start = channel.position();
+        if ( options.isCompressed() )
+        {
+            headerPosition = start + TAG_SIZE + STORED_HEADER_SIZE;
+            deflater = new Deflater( options.getLevel(), true );
+            deflater.setStrategy( options.getStrategy() );
+        }
+        else
+        {
+            headerPosition = start;
+            deflater = null;
+        }
+        try
+        {
+            if ( deflater != null )
+            {
+                ByteBuffer buf = ByteBuffer.allocate( TAG_SIZE + STORED_HEADER_SIZE ).order( byteOrder );
+                buf.putInt( MatDataTypes.miCOMPRESSED );
+                buf.putInt( 0 );
+                //zlib header (RFC 1950)
+                buf.put( (byte) 0x78 );
+                buf.put( (byte) 0x9c );
+                //stored block header, not the final block (RFC 1951)
+                buf.put( (byte) 0 );
+                buf.order( ByteOrder.LITTLE_ENDIAN );
+                buf.putShort( (short) header.capacity() );
+                buf.putShort( (short) ~header.capacity() );
+                buf.flip();
+                writeFully( buf );
+            }
+            writeFully( ByteBuffer.wrap( header.array() ) );
+            if ( array.getN() > 0 )
+            {
+                append( array );
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            end();
+            //remove the partial element, the next array is written in its place
+            channel.truncate( start );
+            channel.position( start );
+            throw e;
+        }
+    }
+
+    /**
+     * Appends columns to the array. The columns are written to the file (and
+     * deflated) before this method returns.
+     * <p>
+     * If writing fails, an uncompressed array is truncated to the columns
+     * appended before and stays open. A compressed array can't be recovered
+     * (the deflater state is lost): it is removed from the file, the
+     * appender is closed and the array name may be written again.
+     *
+     * @param columns - array of the same class and number of rows
+     * @throws IOException if writing fails or the array grows too big
+     * @throws IllegalArgumentException if the columns don't match the array
+     */
+    public synchronized void append( MLNumericArray<?> columns ) throws IOException
+    {
+        if ( closed )
+        {
+            throw new IllegalStateException("The appender is closed");
+        }
+        if ( columns.getType() != arrayType || columns.getM() != rows || columns.isComplex() )
+        {
+            throw new IllegalArgumentException("Columns don't match the array: " + name );
+        }
+        ByteBuffer data = columns.getRealByteBuffer();
+        int length = data.limit();
+        if ( columns.getN() + this.columns > Integer.MAX_VALUE
+                || header.capacity() + dataSize + length + TAG_SIZE > 0xffffffffL )
+        {
+            throw new MatlabIOException("Array is too big to be written: " + name );
+        }
+
+        //the data is written in the file byte order
+        boolean swap = data.order() != byteOrder;
+        int sizeOf = columns.getBytesAllocated();
+        data = data.duplicate();
+        try
+        {
+            for ( int offset = 0; offset < length; offset += BUFFER_SIZE )
+            {
+                int count = Math.min( BUFFER_SIZE, length - offset );
+                if ( swap )
+                {
+                    for ( int i = 0; i < count; i += sizeOf )
+                    {
+                        for ( int j = 0; j < sizeOf; j++ )
+                        {
+                            input[i + j] = data.get( offset + i + sizeOf - 1 - j );
+                        }
+                    }
+                }
+                else
+                {
+                    data.position( offset );
+                    data.get( input, 0, count );
+                }
+                write( input, count );
+            }
+            if ( deflater != null )
+            {
+                deflate( Deflater.SYNC_FLUSH );
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            rollback();
+            throw e;
+        }
+        this.columns += columns.getN();
+        dataSize += length;
+    }
+
+    /**
+     * Gets the number of columns written so far
+     *
+     * @return - number of columns
+     */
+    public synchronized long getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * Completes the array: writes padding, the final compressed block and
+     * updates the array dimensions and element sizes. The writer may be
+     * used for other arrays afterwards. The underlying channel is not
+     * closed.
+     *
+     * @throws IOException if writing fails
+     */
+    public synchronized void close() throws IOException
+    {
+        if ( closed )
+        {
+            return;
+        }
+        try
+        {
+            int padding = (int) ( ( TAG_SIZE - dataSize % TAG_SIZE ) % TAG_SIZE );
+            write( new byte[padding], padding );
+
+            header.putInt( 4, (int) ( header.capacity() - TAG_SIZE + dataSize + padding ) );
+            header.putInt( COLUMNS_OFFSET, (int) columns );
+            header.putInt( header.capacity() - 4, (int) dataSize );
+
+            if ( deflater != null )
+            {
+                finish();
+
+                //checksum of the whole stream: the stored header and the data
+                Adler32 headerAdler = new Adler32();
+                headerAdler.update( header.array() );
+                long checksum = ParallelDeflaterOutputStream.combine( headerAdler.getValue(),
+                        adler.getValue(), dataSize + padding );
+                ByteBuffer trailer = ByteBuffer.allocate( 4 );
+                trailer.putInt( (int) checksum );
+                trailer.flip();
+                writeFully( trailer );
+            }
+            long end = channel.position();
+            if ( end - start - TAG_SIZE > 0xffffffffL )
+            {
+                throw new MatlabIOException("Array is too big to be written: " + name );
+            }
+
+            channel.position( headerPosition );
+            writeFully( ByteBuffer.wrap( header.array() ) );
+            if ( deflater != null )
+            {
+                ByteBuffer size = ByteBuffer.allocate( 4 ).order( byteOrder );
+                size.putInt( (int) ( end - start - TAG_SIZE ) );
+                size.flip();
+                channel.position( start + 4 );
+                writeFully( size );
+            }
+            channel.position( end );
+        }
+        finally
+        {
+            end();
+        }
+    }
+
+    /**
+     * Removes the part of the columns written before <code>append</code>
+     * failed. Uncompressed arrays are truncated to the last complete column.
+     * Compressed arrays, and uncompressed ones which can't be truncated,
+     * are removed from the file.
+     */
+    private void rollback() throws IOException
+    {
+        if ( deflater == null )
+        {
+            long position = start + header.capacity() + dataSize;
+            try
+            {
+                channel.truncate( position );
+                channel.position( position );
+                return;
+            }
+            catch ( IOException e )
+            {
+                //remove the whole array
+            }
+        }
+        writer.appenderDiscarded( this, name );
+        end();
+        channel.truncate( start );
+        channel.position( start );
+    }
+
+    /**
+     * Releases the deflater and the writer.
+     */
+    private void end()
+    {
+        closed = true;
+        if ( deflater != null )
+        {
+            deflater.end();
+        }
+        writer.appenderClosed( this );
+    }
+
+    /**
+     * Writes (or deflates) data following the array header.
+     */
+    private void write( byte[] bytes, int length ) throws IOException
+    {
+        if ( deflater == null )
+        {
+            writeFully( ByteBuffer.wrap( bytes, 0, length ) );
+            return;
+        }
+        adler.update( bytes, 0, length );
+        deflater.setInput( bytes, 0, length );
+        deflate( Deflater.NO_FLUSH );
+    }
+
+    /**
+     * Writes deflater output until the input is consumed (with
+     * <code>NO_FLUSH</code>) or flushed (with <code>SYNC_FLUSH</code>).
+     */
+    private void deflate( int flush ) throws IOException
+    {
+        while ( true )
+        {
+            int length = deflater.deflate( output, 0, output.length, flush );
+            writeFully( ByteBuffer.wrap( output, 0, length ) );
+            //sync flush is complete when the output is not full
+            if ( flush == Deflater.SYNC_FLUSH ? length < output.length : deflater.needsInput() )
+            {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes the final deflate block.
+     */
+    private void finish() throws IOException
+    {
+        deflater.finish();
+        while ( !deflater.finished() )
+        {
+            int length = deflater.deflate( output );
+            writeFully( ByteBuffer.wrap( output, 0, length ) );
+        }
+    }
+
+    private void writeFully( ByteBuffer buf ) throws IOException
+    {
+        while ( buf.hasRemaining() )
+        {
+            channel.write( buf );
+        }
+    }
+
+    /**
+     * Returns the data element type of array data.
+     */
+    private static int getDataType( MLNumericArray<?> array )
+    {
+        switch ( array.getType() )
+        {
+            case MLArray.mxDOUBLE_CLASS:
+                return MatDataTypes.miDOUBLE;
+            case MLArray.mxSINGLE_CLASS:
+                return MatDataTypes.miSINGLE;
+            case MLArray.mxUINT8_CLASS:
+                return MatDataTypes.miUINT8;
+            case MLArray.mxINT8_CLASS:
+                return MatDataTypes.miINT8;
+            case MLArray.mxINT16_CLASS:
+                return MatDataTypes.miINT16;
+            case MLArray.mxINT64_CLASS:
+                return MatDataTypes.miINT64;
+            case MLArray.mxUINT64_CLASS:
+                return MatDataTypes.miUINT64;
+            default:
+                throw new IllegalArgumentException("Arrays of this class can't be appended to: " + array.getName() );
+        }
+    }
+}
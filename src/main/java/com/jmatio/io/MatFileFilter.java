@@ -75,4 +75,13 @@ public class MatFileFilter
         }
         return filter.contains( name );
     }
+    /**
+     * Tells if the filter is empty (and so matches all names).
+     * 
+     * @return - <code>true</code> if no array names were added
+     */
+    boolean isEmpty()
+    {
+        return filter.isEmpty();
+    }
 }
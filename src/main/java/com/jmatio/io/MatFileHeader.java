@@ -1,5 +1,8 @@
 package com.jmatio.io;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Date;
 
 /**
@@ -55,6 +58,31 @@ public class MatFileHeader
     {
         return endianIndicator;
     }
+    /**
+     * Gets the byte order of the data that follows the header. The endian
+     * indicator reads "IM" when the file was written on a little-endian
+     * machine.
+     * 
+     * @return - the byte order of MAT-file data
+     */
+    public ByteOrder getByteOrder()
+    {
+        if ( (char)endianIndicator[0] == 'I' && (char)endianIndicator[1] == 'M')
+        {
+            return ByteOrder.LITTLE_ENDIAN;
+        }
+        return ByteOrder.BIG_ENDIAN;
+    }
+    /**
+     * Tells if this is a MAT-file version 7.3. Such files are HDF5 files,
+     * the header is the HDF5 user block.
+     * 
+     * @return - <code>true</code> for HDF5-based MAT-files
+     */
+    public boolean isHDF5()
+    {
+        return description.startsWith("MATLAB 7.3 MAT-file");
+    }
     /**
      * When creating a MAT-file, set version to 0x0100
      * 
@@ -83,6 +111,68 @@ public class MatFileHeader
                                     DEFAULT_ENDIAN_INDICATOR);
     }
     
+    /**
+     * Reads MAT-file header.
+     * 
+     * Modifies <code>buf</code> position and sets it's byte order to the
+     * byte order of the MAT-file.
+     * 
+     * @param buf
+     *            <code>ByteBuffer</code>
+     * @return - the <code>MatFileHeader</code>
+     * @throws IOException
+     *             if reading from buffer fails or if this is not a valid
+     *             MAT-file
+     */
+    static MatFileHeader read(ByteBuffer buf) throws IOException
+    {
+        //header values
+        String description;
+        int version;
+        byte[] endianIndicator = new byte[2];
+        
+        //descriptive text 116 bytes
+        byte[] descriptionBuffer = new byte[116];
+        buf.get(descriptionBuffer);
+        
+        int length = 0;
+        for ( length = 0; length < descriptionBuffer.length && descriptionBuffer[length] != 0; length++ );
+        description = new String( descriptionBuffer, 0, length );
+        
+        if ( !description.matches("MATLAB (5\\.0|7\\.3) MAT-file.*") )
+        {
+            throw new MatlabIOException("This is not a valid MATLAB 5.0 MAT-file.");
+        }
+        
+        //subsyst data offset 8 bytes
+        buf.position( buf.position() + 8);
+        
+        byte[] bversion = new byte[2];
+        //version 2 bytes
+        buf.get(bversion);
+        
+        //endian indicator 2 bytes
+        buf.get(endianIndicator);
+        
+        MatFileHeader header = new MatFileHeader(description, 0, endianIndicator);
+        
+        //program reading the MAT-file must perform byte swapping to interpret the data
+        //in the MAT-file correctly
+        if ( header.getByteOrder() == ByteOrder.LITTLE_ENDIAN )
+        {
+            version = bversion[1] & 0xff | bversion[0] << 8;
+        }
+        else
+        {
+            version = bversion[0] & 0xff | bversion[1] << 8;
+        }
+        header.version = version;
+        
+        buf.order( header.getByteOrder() );
+        
+        return header;
+    }
+    
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
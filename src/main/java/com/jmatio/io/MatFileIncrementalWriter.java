@@ -1,27 +1,25 @@
 package com.jmatio.io;
 
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 
-import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.stream.FileChannelInputStream;
 import com.jmatio.types.MLArray;
-import com.jmatio.types.MLCell;
-import com.jmatio.types.MLChar;
 import com.jmatio.types.MLNumericArray;
-import com.jmatio.types.MLSparse;
-import com.jmatio.types.MLStructure;
 
 /**
  * MAT-file Incremental writer.
@@ -60,16 +58,56 @@ import com.jmatio.types.MLStructure;
  * >> save('mat_file.mat', 'char_arr', '-append');
  * </pre></code>
  * 
+ * An existing MAT-file may be opened in append mode. New arrays are added
+ * at the end of the file, existing arrays may be replaced or deleted:
+ * <pre><code>
+ * MatFileIncrementalWriter writer = new MatFileIncrementalWriter( new File("mat_file.mat"), true );
+ * writer.write( new MLDouble( "new_arr", src, 3 ) );
+ * writer.replace( new MLChar( "char_arr", "I am new dummy" ) );
+ * writer.delete( "double_arr" );
+ * writer.close();
+ * </code></pre>
+ * Arrays are written in the byte order of the existing file, so files
+ * written by MATLAB on little-endian machines stay little-endian.
+ * 
+ * Replacing or deleting an array rewrites only the file from that array
+ * on: arrays stored after it are moved with raw copies of their data
+ * elements (<code>FileChannel.transferTo</code>), without inflating them.
+ * The rewritten part of the file is copied to a temporary file next to it,
+ * so the file is not consistent while the operation is running. If writing
+ * the new array fails, the original content is copied back.
+ * 
  * @author 
  */
 public class MatFileIncrementalWriter
 {
 //    private static final Logger logger = Logger.getLogger(MatFileWriter.class);
+    /**
+     * Size of the MAT-file header
+     */
+    private static final int HEADER_SIZE = 128;
+    /**
+     * Size of the data element tag
+     */
+    private static final int TAG_SIZE = 8;
     private WritableByteChannel channel = null;
+    private final MatFileWriterOptions options;
     
     private boolean headerWritten = false;
     private boolean isStillValid = false;
-    private Set<String> varNames = new TreeSet<String>();
+    private Set<String> varNames = Collections.synchronizedSet( new TreeSet<String>() );
+    /**
+     * Appender of the array being written or <code>null</code>
+     */
+    private volatile MatFileArrayAppender appender;
+    /**
+     * Directory of the file (for temporary files) or <code>null</code>
+     */
+    private File directory;
+    /**
+     * Byte order of the file, new files are big-endian
+     */
+    private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
 	/**
      * Creates a writer to a file given the filename.
      * 
@@ -90,7 +128,75 @@ public class MatFileIncrementalWriter
      */
     public MatFileIncrementalWriter(File file) throws IOException
     {
-        this( (new FileOutputStream(file)).getChannel());
+        this( file, MatFileWriterOptions.DEFAULT );
+    }
+    /**
+     * Creats a writer to a file given the File object and writer options.
+     * 
+     * @param file - an output <code>File</code>
+     * @param options - compression options of all written arrays
+     * @throws IOException
+     */
+    public MatFileIncrementalWriter(File file, MatFileWriterOptions options) throws IOException
+    {
+        this( file, options, false );
+    }
+    /**
+     * Creates a writer to a file given the File object. In append mode
+     * arrays are added to the existing file.
+     * 
+     * @param file - an output <code>File</code>
+     * @param append - <code>true</code> if arrays should be added to the
+     *          existing file
+     * @throws IOException if the existing file is not a valid MAT-file
+     */
+    public MatFileIncrementalWriter(File file, boolean append) throws IOException
+    {
+        this( file, MatFileWriterOptions.DEFAULT, append );
+    }
+    /**
+     * Creates a writer to a file given the File object and writer options.
+     * <p>
+     * In append mode the header of the existing file is validated and its
+     * top-level arrays are indexed (see
+     * <code>{@link MatFileIndex#scan(java.io.InputStream)}</code>). Arrays
+     * are added at the end of the file in the byte order of the file. A
+     * missing or empty file is created.
+     * 
+     * @param file - an output <code>File</code>
+     * @param options - compression options of all written arrays
+     * @param append - <code>true</code> if arrays should be added to the
+     *          existing file
+     * @throws IOException if the existing file is not a valid MAT-file
+     */
+    public MatFileIncrementalWriter(File file, MatFileWriterOptions options, boolean append) throws IOException
+    {
+        this( new RandomAccessFile(file, "rw").getChannel(), options );
+        directory = file.getAbsoluteFile().getParentFile();
+        
+        FileChannel fc = (FileChannel) channel;
+        try
+        {
+            if ( append && fc.size() > 0 )
+            {
+                byteOrder = readHeader( fc );
+                for ( MatFileIndex.Entry entry : scan( fc ) )
+                {
+                    varNames.add( entry.getName() );
+                }
+                fc.position( fc.size() );
+                headerWritten = true;
+            }
+            else
+            {
+                fc.truncate( 0 );
+            }
+        }
+        catch ( IOException e )
+        {
+            fc.close();
+            throw e;
+        }
     }
     /**
      * Creates a writer for a file, given an output channel to the file..
@@ -102,14 +208,28 @@ public class MatFileIncrementalWriter
      * @throws IOException
      */
     public MatFileIncrementalWriter(WritableByteChannel chan) throws IOException
+    {
+        this( chan, MatFileWriterOptions.DEFAULT );
+    }
+    /**
+     * Creates a writer for a file, given an output channel to the file and
+     * writer options.
+     * 
+     * @param chan - <code>WritableByteChannel</code>
+     * @param options - compression options of all written arrays
+     * @throws IOException
+     */
+    public MatFileIncrementalWriter(WritableByteChannel chan, MatFileWriterOptions options) throws IOException
     {
     	this.channel = chan;
+    	this.options = options;
     	isStillValid = true;
     }
     
     public synchronized void write(MLArray data)
       throws IOException
     {
+        checkAppender();
         String vName = data.getName();
         if (varNames.contains(vName))
         {
@@ -123,34 +243,9 @@ public class MatFileIncrementalWriter
         		writeHeader(channel);
         	}
             
-            //prepare buffer for MATRIX data
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            DataOutputStream dos = new DataOutputStream( baos );
-            //write MATRIX bytes into buffer
-            writeMatrix( dos, data );
-            
-            //compress data to save storage
-            Deflater compresser = new Deflater();
-            
-            byte[] input = baos.toByteArray();
-            
-            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
-            DataOutputStream dout = new DataOutputStream(new DeflaterOutputStream(compressed, compresser));
-            
-            dout.write(input);
-            
-            dout.close();
-            compressed.close();
-            
-            //write COMPRESSED tag and compressed data into output channel
-            byte[] compressedBytes = compressed.toByteArray();
-            ByteBuffer buf = ByteBuffer.allocateDirect(2 * 4 /* Int size */ + compressedBytes.length);
-            buf.putInt( MatDataTypes.miCOMPRESSED );
-            buf.putInt( compressedBytes.length );
-            buf.put( compressedBytes );
-            
-            buf.flip();
-            channel.write( buf );
+            //deflated straight into the channel (see MatFileWriter)
+            MatFileWriter.writeArray( channel, data, options, byteOrder );
+            varNames.add( vName );
         }
         catch ( IOException e )
         {
@@ -193,320 +288,348 @@ public class MatFileIncrementalWriter
         }
     }
     
-    public synchronized void close() throws IOException
+    /**
+     * Writes <code>MLArrays</code> compressing them in parallel with the
+     * given executor. Arrays are written in the collection order, see
+     * <code>{@link MatFileWriter#write(File, Collection, ExecutorService)}</code>.
+     * <p>
+     * The executor is not shut down by this method.
+     * 
+     * @param data
+     *            the collection of <code>{@link MLArray}</code> objects
+     * @param executor
+     *            the executor running compression tasks
+     * @throws IOException
+     *             if writing fails
+     */
+    public synchronized void write( Collection<MLArray> data, ExecutorService executor ) throws IOException
     {
-    	channel.close();
+        checkAppender();
+        for ( MLArray matrix : data )
+        {
+            if ( varNames.contains( matrix.getName() ) )
+            {
+                isStillValid = false;
+                throw new IllegalArgumentException("Error: variable " + matrix.getName() + " specified more than once for file input.");
+            }
+        }
+        //write the header, but only once.
+        if (!headerWritten)
+        {
+            writeHeader(channel);
+        }
+        MatFileWriter.writeArrays( channel, data, options, executor, byteOrder );
+        for ( MLArray matrix : data )
+        {
+            varNames.add( matrix.getName() );
+        }
     }
     
     /**
-     * Writes MAT-file header into <code>OutputStream</code>
-     * @param os <code>OutputStream</code>
-     * @throws IOException
+     * Replaces the array of the same name stored in the file.
+     * <p>
+     * The new array is written in place of the old one. Arrays stored after
+     * it are moved without decoding them. If writing fails, the file is
+     * restored.
+     * <p>
+     * The writer has to write to a <code>FileChannel</code> open for reading
+     * and writing (as it does when created with a <code>File</code>).
+     * 
+     * @param data - the new array
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if the file contains no array of this name
+     * @throws IllegalStateException if an appender is open or the writer
+     *          does not write to a <code>FileChannel</code>
      */
-    private void writeHeader(WritableByteChannel channel) throws IOException
+    public synchronized void replace( MLArray data ) throws IOException
     {
-        //write descriptive text
-        MatFileHeader header = MatFileHeader.createHeader();
-        char[] dest = new char[116];
-        char[] src = header.getDescription().toCharArray();
-        System.arraycopy(src, 0, dest, 0, src.length);
-        
-        byte[] endianIndicator = header.getEndianIndicator();
-        
-        ByteBuffer buf = ByteBuffer.allocateDirect(dest.length * 2 /* Char size */ + 2 + endianIndicator.length);
-        
-        for ( int i = 0; i < dest.length; i++ )
+        replace( data.getName(), data );
+    }
+    
+    /**
+     * Deletes the array of given name from the file.
+     * <p>
+     * Arrays stored after it are moved without decoding them.
+     * <p>
+     * The writer has to write to a <code>FileChannel</code> open for reading
+     * and writing (as it does when created with a <code>File</code>).
+     * 
+     * @param name - name of the array
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if the file contains no array of this name
+     * @throws IllegalStateException if an appender is open or the writer
+     *          does not write to a <code>FileChannel</code>
+     */
+    public synchronized void delete( String name ) throws IOException
+    {
+        replace( name, null );
+        varNames.remove( name );
+    }
+    
+    /**
+     * Writes the array and returns the appender adding columns to it.
+     * <p>
+     * Columns are written to the file as they are appended, so arrays of
+     * any length can be written without holding them in memory (see
+     * <code>{@link MatFileArrayAppender}</code>). Until the appender is closed
+     * no other arrays can be written.
+     * <p>
+     * The writer has to write to a <code>SeekableByteChannel</code> (as it
+     * does when created with a <code>File</code>).
+     * 
+     * @param data - array of the first columns (it may have no columns)
+     * @return - the appender of the array
+     * @throws IOException if writing fails
+     * @throws IllegalStateException if an appender is open or the writer
+     *          does not write to a <code>SeekableByteChannel</code>
+     */
+    public synchronized MatFileArrayAppender createAppender( MLNumericArray<?> data ) throws IOException
+    {
+        checkAppender();
+        if ( !( channel instanceof SeekableByteChannel ) )
         {
-            buf.put( (byte)dest[i] );
+            throw new IllegalStateException("Arrays can be appended to only by writers of a seekable channel");
         }
-        //write subsyst data offset
-        buf.position( buf.position() + 8);
-        
-        //write version
-        int version = header.getVersion();
-        buf.put( (byte)(version >> 8) );
-        buf.put( (byte)version );
-        
-        buf.put( endianIndicator );
-        
-        buf.flip();
-        channel.write(buf);
-        
-        headerWritten = true;
+        String vName = data.getName();
+        if (varNames.contains(vName))
+        {
+        	throw new IllegalArgumentException("Error: variable " + vName + " specified more than once for file input.");
+        }
+        //write the header, but only once.
+        if (!headerWritten)
+        {
+            writeHeader(channel);
+        }
+        appender = new MatFileArrayAppender( this, (SeekableByteChannel) channel, data, 
+                options.getArrayOptions( vName ), byteOrder );
+        varNames.add( vName );
+        return appender;
     }
     
     /**
-     * Writes MATRIX into <code>OutputStream</code>.
+     * Closes the open appender and the underlying channel.
      * 
-     * @param os - <code>OutputStream</code>
-     * @param array - a <code>MLArray</code>
-     * @throws IOException
+     * @throws IOException if closing fails
      */
-    private void writeMatrix(DataOutputStream output, MLArray array) throws IOException
-    {   
-        OSArrayTag tag;
-        ByteArrayOutputStream buffer;         
-        DataOutputStream bufferDOS;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(baos);
-        
-        //flags
-        writeFlags(dos, array);
-
-        //dimensions
-        writeDimensions(dos, array);
-        
-        //array name
-        writeName(dos, array);
+    public synchronized void close() throws IOException
+    {
+        try
+        {
+            if ( appender != null )
+            {
+                appender.close();
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+    
+    /**
+     * Called by the appender when it's closed.
+     */
+    void appenderClosed( MatFileArrayAppender closed )
+    {
+        if ( appender == closed )
+        {
+            appender = null;
+        }
+    }
+    
+    /**
+     * Called by the appender when its array is removed from the file (the
+     * name may be written again). The appender may hold its own lock, so
+     * this method doesn't lock the writer.
+     */
+    void appenderDiscarded( MatFileArrayAppender discarded, String name )
+    {
+        if ( appender == discarded )
+        {
+            varNames.remove( name );
+        }
+    }
+    
+    /**
+     * @throws IllegalStateException if an appender is open
+     */
+    private void checkAppender()
+    {
+        if ( appender != null )
+        {
+            throw new IllegalStateException("Array appender is open");
+        }
+    }
+    
+    /**
+     * Rewrites the file from the array of given name on. The array is
+     * replaced with <code>data</code> or removed if <code>data</code> is
+     * <code>null</code>.
+     * <p>
+     * The file from the array on is saved to a temporary file in the same
+     * directory first and copied back if writing fails. If even that fails,
+     * the temporary file is kept.
+     */
+    private void replace( String name, MLArray data ) throws IOException
+    {
+        checkAppender();
+        if ( !( channel instanceof FileChannel ) )
+        {
+            throw new IllegalStateException("Arrays can be replaced only by writers of a file channel");
+        }
+        FileChannel fc = (FileChannel) channel;
         
-        switch ( array.getType() )
+        MatFileIndex.Entry entry = null;
+        if ( headerWritten )
         {
-            case MLArray.mxCHAR_CLASS:
-                //write char data
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                Character[] ac = ((MLChar)array).exportChar();
-                for ( int i = 0; i < ac.length; i++ )
-                {
-                    bufferDOS.writeByte( (byte)ac[i].charValue() );
-                }
-                tag = new OSArrayTag(MatDataTypes.miUTF8, buffer.toByteArray() );
-                tag.writeTo( dos );
-                
-                break;
-            case MLArray.mxDOUBLE_CLASS:
-                
-                tag = new OSArrayTag(MatDataTypes.miDOUBLE, 
-                                ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
-                
-                //write real imaginary
-                if ( array.isComplex() )
-                {
-                    tag = new OSArrayTag(MatDataTypes.miDOUBLE, 
-                            ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
-                }
-                break;
-            case MLArray.mxUINT8_CLASS:
-                
-                tag = new OSArrayTag(MatDataTypes.miUINT8, 
-                        ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
-                
-                //write real imaginary
-                if ( array.isComplex() )
-                {
-                    tag = new OSArrayTag(MatDataTypes.miUINT8, 
-                            ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
-                }
-                break;
-            case MLArray.mxINT8_CLASS:
-                
-                tag = new OSArrayTag(MatDataTypes.miINT8, 
-                        ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
-                
-                //write real imaginary
-                if ( array.isComplex() )
-                {
-                    tag = new OSArrayTag(MatDataTypes.miINT8, 
-                            ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
-                }
-                break;
-            case MLArray.mxINT16_CLASS:
-                
-                tag = new OSArrayTag(MatDataTypes.miINT16, 
-                        ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
-                
-                //write real imaginary
-                if ( array.isComplex() )
-                {
-                    tag = new OSArrayTag(MatDataTypes.miINT16, 
-                            ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
-                }
-                break;
-            case MLArray.mxINT64_CLASS:
-                
-                tag = new OSArrayTag(MatDataTypes.miINT64, 
-                        ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
-                
-                //write real imaginary
-                if ( array.isComplex() )
-                {
-                    tag = new OSArrayTag(MatDataTypes.miINT64, 
-                            ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
-                }
-                break;
-            case MLArray.mxUINT64_CLASS:
-                
-                tag = new OSArrayTag(MatDataTypes.miUINT64, 
-                        ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
-                
-                //write real imaginary
-                if ( array.isComplex() )
-                {
-                    tag = new OSArrayTag(MatDataTypes.miUINT64, 
-                            ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
-                }
-                break;
-            case MLArray.mxSTRUCT_CLASS:
-                //field name length
-                int itag = 4 << 16 | MatDataTypes.miINT32 & 0xffff;
-                dos.writeInt( itag );
-                dos.writeInt( ((MLStructure)array).getMaxFieldLenth() );
-                
-                //get field names
-                tag = new OSArrayTag(MatDataTypes.miINT8, ((MLStructure)array).getKeySetToByteArray() );
-                tag.writeTo( dos );
-
-                for ( MLArray a : ((MLStructure)array).getAllFields() )
-                {
-                    writeMatrix(dos, a);
-                }
-                break;
-            case MLArray.mxCELL_CLASS:
-                for ( MLArray a : ((MLCell)array).cells() )
-                {
-                    writeMatrix(dos, a);
-                }
-                break;
-            case MLArray.mxSPARSE_CLASS:
-                int[] ai;
-                //write ir
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                ai = ((MLSparse)array).getIR();
-                for ( int i : ai )
-                {
-                        bufferDOS.writeInt( i );
-                }
-                tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray() );
-                tag.writeTo( dos );
-                //write jc
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                ai = ((MLSparse)array).getJC();
-                for ( int i : ai )
-                {
-                        bufferDOS.writeInt( i );
-                }
-                tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray() );
-                tag.writeTo( dos );
-                //write real
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                
-                Double[] ad = ((MLSparse)array).exportReal();
-                
-                for ( int i = 0; i < ad.length; i++ )
+            for ( MatFileIndex.Entry e : scan( fc ) )
+            {
+                if ( e.getName().equals( name ) )
                 {
-                    bufferDOS.writeDouble( ad[i].doubleValue() );
+                    entry = e;
+                    break;
                 }
-                
-                tag = new OSArrayTag(MatDataTypes.miDOUBLE, buffer.toByteArray() );
-                tag.writeTo( dos );
-                //write real imaginary
-                if ( array.isComplex() )
+            }
+        }
+        if ( entry == null )
+        {
+            throw new IllegalArgumentException("Error: variable " + name + " not found in file.");
+        }
+        if ( data != null )
+        {
+            //fails for arrays that cannot be written before anything is changed
+            MatFileWriter.getMatrixSizes( data );
+        }
+        long start = entry.getOffset();
+        long end   = start + TAG_SIZE + entry.getSize();
+        long size  = fc.size();
+        
+        //move the array and the arrays stored after it aside
+        File tmp = File.createTempFile( "jmatio", ".mat", directory );
+        RandomAccessFile raf = new RandomAccessFile( tmp, "rw" );
+        boolean keep = false;
+        try
+        {
+            FileChannel saved = raf.getChannel();
+            transfer( fc, start, size - start, saved );
+            
+            fc.truncate( start );
+            fc.position( start );
+            try
+            {
+                if ( data != null )
                 {
-                    buffer = new ByteArrayOutputStream();
-                    bufferDOS = new DataOutputStream(buffer);
-                    ad = ((MLSparse)array).exportImaginary();
-                    for ( int i = 0; i < ad.length; i++ )
-                    {
-                        bufferDOS.writeDouble( ad[i].doubleValue() );
-                    }
-                    tag = new OSArrayTag(MatDataTypes.miDOUBLE, buffer.toByteArray() );
-                    tag.writeTo( dos );
+                    MatFileWriter.writeArray( fc, data, options, byteOrder );
                 }
-                break;
-            default:
-                throw new MatlabIOException("Cannot write matrix of type: " + MLArray.typeToString( array.getType() ));
-                
+                transfer( saved, end - start, size - end, fc );
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                //put the original content back, keep it if that fails
+                keep = true;
+                fc.truncate( start );
+                fc.position( start );
+                transfer( saved, 0, size - start, fc );
+                keep = false;
+                throw e;
+            }
+        }
+        finally
+        {
+            raf.close();
+            if ( !keep )
+            {
+                tmp.delete();
+            }
         }
-        
-        
-        //write matrix
-        output.writeInt(MatDataTypes.miMATRIX); //matrix tag
-        output.writeInt( baos.size() ); //size of matrix
-        output.write( baos.toByteArray() ); //matrix data
     }
     
     /**
-     * Writes MATRIX flags into <code>OutputStream</code>.
-     * 
-     * @param os - <code>OutputStream</code>
-     * @param array - a <code>MLArray</code>
-     * @throws IOException
+     * Copies <code>count</code> bytes of the source channel starting at
+     * <code>position</code> to the current position of the target.
      */
-    private void writeFlags(DataOutputStream os, MLArray array) throws IOException
+    private static void transfer( FileChannel source, long position, long count, FileChannel target ) throws IOException
     {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        DataOutputStream bufferDOS = new DataOutputStream(buffer);
-
-        bufferDOS.writeInt( array.getFlags() );
-        
-        if ( array.isSparse() )
+        while ( count > 0 )
         {
-            bufferDOS.writeInt( ((MLSparse)array).getMaxNZ() );
-        }
-        else
-        {
-            bufferDOS.writeInt( 0 );
+            long transferred = source.transferTo( position, count, target );
+            if ( transferred <= 0 )
+            {
+                throw new MatlabIOException("Unexpected end of file at position: " + position );
+            }
+            position += transferred;
+            count -= transferred;
         }
-        OSArrayTag tag = new OSArrayTag(MatDataTypes.miUINT32, buffer.toByteArray() );
-        tag.writeTo( os );
-        
     }
     
     /**
-     * Writes MATRIX dimensions into <code>OutputStream</code>.
+     * Indexes top-level arrays stored in the file.
+     */
+    private static Collection<MatFileIndex.Entry> scan( FileChannel fc ) throws IOException
+    {
+        return MatFileIndex.scan( new BufferedInputStream( new FileChannelInputStream( fc, 0, fc.size() ) ) );
+    }
+    
+    /**
+     * Validates the header of the existing file.
      * 
-     * @param os - <code>OutputStream</code>
-     * @param array - a <code>MLArray</code>
-     * @throws IOException
+     * @return - byte order of the file
+     * @throws IOException if the file is not a MAT-file this writer can append to
      */
-    private void writeDimensions(DataOutputStream os, MLArray array) throws IOException
+    private static ByteOrder readHeader( FileChannel fc ) throws IOException
     {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        DataOutputStream bufferDOS = new DataOutputStream(buffer);
-        
-        int[] dims = array.getDimensions();
-        for ( int i = 0; i < dims.length; i++ )
+        ByteBuffer buf = ByteBuffer.allocate( HEADER_SIZE );
+        while ( buf.hasRemaining() )
         {
-            bufferDOS.writeInt(dims[i]);
+            if ( fc.read( buf, buf.position() ) < 0 )
+            {
+                throw new MatlabIOException("This is not a valid MATLAB 5.0 MAT-file.");
+            }
         }
-        OSArrayTag tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray() );
-        tag.writeTo( os );
+        buf.rewind();
         
+        MatFileHeader header = MatFileHeader.read( buf );
+        if ( header.isHDF5() )
+        {
+            throw new MatlabIOException("MAT-file version 7.3 (HDF5) cannot be appended to");
+        }
+        return header.getByteOrder();
     }
     
     /**
-     * Writes MATRIX name into <code>OutputStream</code>.
-     * 
-     * @param os - <code>OutputStream</code>
-     * @param array - a <code>MLArray</code>
+     * Writes MAT-file header into <code>OutputStream</code>
+     * @param os <code>OutputStream</code>
      * @throws IOException
      */
-    private void writeName(DataOutputStream os, MLArray array) throws IOException
+    private void writeHeader(WritableByteChannel channel) throws IOException
     {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        DataOutputStream bufferDOS = new DataOutputStream(buffer);
-
-        byte[] nameByteArray = array.getNameToByteArray();
-        buffer = new ByteArrayOutputStream();
-        bufferDOS = new DataOutputStream(buffer);
-        bufferDOS.write( nameByteArray );
-        OSArrayTag tag = new OSArrayTag(MatDataTypes.miINT8, buffer.toByteArray() );
-        tag.writeTo( os );
+        //write descriptive text
+        MatFileHeader header = MatFileHeader.createHeader();
+        char[] dest = new char[116];
+        char[] src = header.getDescription().toCharArray();
+        System.arraycopy(src, 0, dest, 0, src.length);
+        
+        byte[] endianIndicator = header.getEndianIndicator();
+        
+        ByteBuffer buf = ByteBuffer.allocateDirect(dest.length * 2 /* Char size */ + 2 + endianIndicator.length);
+        
+        for ( int i = 0; i < dest.length; i++ )
+        {
+            buf.put( (byte)dest[i] );
+        }
+        //write subsyst data offset
+        buf.position( buf.position() + 8);
+        
+        //write version
+        int version = header.getVersion();
+        buf.put( (byte)(version >> 8) );
+        buf.put( (byte)version );
+        
+        buf.put( endianIndicator );
+        
+        buf.flip();
+        channel.write(buf);
+        
+        headerWritten = true;
     }
-    
 }
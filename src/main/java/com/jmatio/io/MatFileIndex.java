@@ -0,0 +1,937 @@
+package com.jmatio.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.stream.FileChannelInputStream;
+import com.jmatio.io.stream.LimitedInputStream;
+import com.jmatio.io.stream.MatFileInputStream;
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLInt16;
+import com.jmatio.types.MLInt32;
+import com.jmatio.types.MLInt64;
+import com.jmatio.types.MLInt8;
+import com.jmatio.types.MLNumericArray;
+import com.jmatio.types.MLSingle;
+import com.jmatio.types.MLUInt32;
+import com.jmatio.types.MLUInt64;
+import com.jmatio.types.MLUInt8;
+
+/**
+ * Random access MAT-file index.
+ * <p>
+ * Opening the index walks the top-level data element tags of a MAT-file and
+ * for every variable records where it is stored together with it's name,
+ * class and dimensions. Variable data is not read until the variable is
+ * requested with <code>{@link #getMLArray(String)}</code>, so opening the
+ * index costs time proportional to the number of variables, not to the
+ * file size.
+ * <p>
+ * For <code>miCOMPRESSED</code> elements only the first few hundred bytes
+ * of the compressed stream are inflated to get the array header.
+ *
+ * Usage:
+ * <pre><code>
+ * MatFileIndex index = new MatFileIndex( "mat_file.mat" );
+ *
+ * //what is inside
+ * for ( MatFileIndex.Entry entry : index.getEntries() )
+ * {
+ *     System.out.println( entry );
+ * }
+ *
+ * //decode a single variable
+ * MLArray mlArray = index.getMLArray( "my_array" );
+ *
+ * //or only the last 1000 columns of it
+ * MLArray last = index.readSubArray( "my_array", 0, rows, columns - 1000, columns );
+ *
+ * index.close();
+ * </code></pre>
+ *
+ * To only list what a file contains use <code>{@link #scan(File)}</code>,
+ * which does not keep the file open.
+ * <p>
+ * The index is safe for use by multiple threads: the entries are fixed once
+ * the index is open and the file is red with positional reads only. One
+ * index may serve a pool of threads, each decoding different variables at
+ * the same time. With the <code>{@link MatFileReader#MEMORY_MAPPED_FILE}</code>
+ * policy variables are decoded from regions of the memory mapped file shared
+ * by all threads (and all other readers of the file, see
+ * <code>{@link MappedFile}</code>), adding
+ * <code>{@link MatFileReader#ZERO_COPY}</code> makes uncompressed numeric
+ * arrays wrap the mapping instead of copying it.
+ * <pre><code>
+ * final MatFileIndex index = new MatFileIndex( file, MatFileReader.MEMORY_MAPPED_FILE );
+ * for ( final MatFileIndex.Entry entry : index.getEntries() )
+ * {
+ *     executor.submit( new Callable&lt;MLArray&gt;()
+ *     {
+ *         public MLArray call() throws IOException
+ *         {
+ *             return index.getMLArray( entry.getName() );
+ *         }
+ *     } );
+ * }
+ * </code></pre>
+ *
+ * MAT-files version 7.3 (HDF5-based) are indexed from the object headers of
+ * the variables: entry offsets are file positions of the object headers and
+ * entry sizes are sizes of the dataset data. Variables are always red with
+ * positional reads (the memory allocation policy does not apply) and
+ * <code>{@link #readSubArray(String, int, int, int, int)}</code> inflates
+ * only the chunks holding the region. They cannot be scanned from a stream.
+ *
+ * @see com.jmatio.io.MatFileReader
+ */
+public class MatFileIndex implements AutoCloseable
+{
+    /**
+     * Size of the MAT-file header
+     */
+    private static final int HEADER_SIZE = 128;
+    /**
+     * Size of the data element tag
+     */
+    private static final int TAG_SIZE = 8;
+    /**
+     * Size of the buffer used to read sub-array regions
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final MappedFile file;
+    private final FileChannel channel;
+    /**
+     * File memory allocation policy
+     */
+    private final int policy;
+    /**
+     * MAT-file header
+     */
+    private MatFileHeader matFileHeader;
+    /**
+     * Tells how bytes are organized in the file.
+     */
+    private ByteOrder byteOrder;
+    /**
+     * Index entries mapped with array names (in file order)
+     */
+    private final Map<String, Entry> entries;
+    /**
+     * Regions mapped for zero-copy arrays by array name. Arrays wrap the
+     * mapping, so it is never unmapped explicitly: the garbage collector
+     * releases it when the index and all arrays using it are gone.
+     */
+    private final Map<String, ByteBuffer> zeroCopyRegions = new HashMap<String, ByteBuffer>();
+    /**
+     * Reader of a MAT-file version 7.3 or <code>null</code>
+     */
+    private MatFile73Reader hdf5;
+    /**
+     * Tells if the index is closed
+     */
+    private boolean closed;
+
+    /**
+     * Creates the index of a MAT-file given by <code>fileName</code>.
+     *
+     * @param fileName the MAT-file path <code>String</code>
+     * @throws IOException when error occurred while processing the file.
+     */
+    public MatFileIndex(String fileName) throws IOException
+    {
+        this( new File(fileName) );
+    }
+    /**
+     * Creates the index of a MAT-file.
+     * <p>
+     * The file stays open until <code>{@link #close()}</code> is called.
+     * Variables are red into heap buffers.
+     *
+     * @param file the MAT-file
+     * @throws IOException when error occurred while processing the file.
+     */
+    public MatFileIndex(File file) throws IOException
+    {
+        this( file, MatFileReader.HEAP_BYTE_BUFFER );
+    }
+    /**
+     * Creates the index of a MAT-file using the given memory allocation
+     * policy for decoding variables:
+     * <ul>
+     * <li><code>{@link MatFileReader#HEAP_BYTE_BUFFER}</code> - each variable
+     * is red into a heap buffer</li>
+     * <li><code>{@link MatFileReader#MEMORY_MAPPED_FILE}</code> - each
+     * variable is decoded from a mapped region of the file, the region is
+     * released when the variable is decoded</li>
+     * <li><code>{@link MatFileReader#MEMORY_MAPPED_FILE} | {@link MatFileReader#ZERO_COPY}</code>
+     * - uncompressed numeric arrays wrap the mapped region. Each variable is
+     * mapped once, arrays red from it share the mapping. The mapping is
+     * released by the garbage collector when no array uses it, so the
+     * arrays remain valid after the index is closed.</li>
+     * </ul>
+     * The file stays open until <code>{@link #close()}</code> is called.
+     *
+     * @param file the MAT-file
+     * @param policy the file memory allocation policy
+     * @throws IOException when error occurred while processing the file.
+     */
+    public MatFileIndex(File file, int policy) throws IOException
+    {
+        if ( policy != MatFileReader.HEAP_BYTE_BUFFER && policy != MatFileReader.MEMORY_MAPPED_FILE
+                && policy != ( MatFileReader.MEMORY_MAPPED_FILE | MatFileReader.ZERO_COPY ) )
+        {
+            throw new IllegalArgumentException("Unknown file allocation policy");
+        }
+        this.policy = policy;
+        entries   = new LinkedHashMap<String, Entry>();
+        this.file = MappedFile.open(file);
+        channel   = this.file.getChannel();
+
+        try
+        {
+            readHeader();
+            readEntries();
+        }
+        catch ( IOException e )
+        {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets MAT-file header
+     *
+     * @return - a <code>MatFileHeader</code> object
+     */
+    public MatFileHeader getMatFileHeader()
+    {
+        return matFileHeader;
+    }
+    /**
+     * Returns index entries of all variables stored in the file (in file
+     * order).
+     *
+     * @return - a <code>Collection</code> of index entries
+     */
+    public Collection<Entry> getEntries()
+    {
+        return Collections.unmodifiableCollection( entries.values() );
+    }
+    /**
+     * Returns the index entry of the array of given name or <code>null</code>
+     * if the file contains no array of this name.
+     *
+     * @param name - array name
+     * @return - the index entry or <code>null</code>
+     */
+    public Entry getEntry( String name )
+    {
+        return entries.get( name );
+    }
+    /**
+     * Lists the variables stored in the MAT-file (like MATLAB's
+     * <code>whos</code>) and closes the file.
+     * <p>
+     * Only array flags, dimensions and names are red. No array data is
+     * allocated.
+     *
+     * @param file - the MAT-file
+     * @return - index entries of all top-level data elements (in file order)
+     * @throws IOException when error occurred while processing the file.
+     */
+    public static List<Entry> scan( File file ) throws IOException
+    {
+        //skipping a FileInputStream is a seek
+        InputStream is = new BufferedInputStream( new FileInputStream( file ) );
+        try
+        {
+            return scan( is );
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+    /**
+     * Lists the variables stored in the MAT-file read from the stream (like
+     * MATLAB's <code>whos</code>).
+     * <p>
+     * Only array flags, dimensions and names are red, for
+     * <code>miCOMPRESSED</code> elements just the first few hundred bytes are
+     * inflated. The rest of each element is skipped. No array data is
+     * allocated.
+     * <p>
+     * The stream is not closed by this method.
+     *
+     * @param is - the MAT-file input stream
+     * @return - index entries of all top-level data elements (in stream order)
+     * @throws IOException when error occurred while processing the stream.
+     */
+    public static List<Entry> scan( InputStream is ) throws IOException
+    {
+        DataInputStream dis = new DataInputStream( is );
+        byte[] header = new byte[HEADER_SIZE];
+        try
+        {
+            dis.readFully( header );
+        }
+        catch ( EOFException e )
+        {
+            throw new MatlabIOException("This is not a valid MATLAB 5.0 MAT-file.");
+        }
+        ByteBuffer buf = ByteBuffer.wrap( header );
+        if ( MatFileHeader.read( buf ).isHDF5() )
+        {
+            throw new MatlabIOException("MAT-file version 7.3 (HDF5) cannot be scanned from a stream");
+        }
+        ByteOrder byteOrder = buf.order();
+        
+        List<Entry> list = new ArrayList<Entry>();
+        long position = HEADER_SIZE;
+        int tmp;
+        while ( ( tmp = dis.read() ) >= 0 )
+        {
+            byte[] tag = new byte[TAG_SIZE];
+            tag[0] = (byte) tmp;
+            dis.readFully( tag, 1, TAG_SIZE - 1 );
+            ByteBuffer tagBuffer = ByteBuffer.wrap( tag ).order( byteOrder );
+            long size = tagBuffer.getInt(4) & 0xffffffffL;
+            
+            LimitedInputStream elementStream = new LimitedInputStream( dis, size );
+            list.add( readEntry( elementStream, tagBuffer.getInt(0), position, size, byteOrder ) );
+            elementStream.skipRemaining();
+            
+            position += TAG_SIZE + size;
+        }
+        return list;
+    }
+    /**
+     * Reads and decodes the array of given name.
+     * <p>
+     * Returns <code>null</code> if the file contains no content for this name.
+     *
+     * @param name - array name
+     * @return - the <code>MLArray</code> or <code>null</code>
+     * @throws IOException when error occurred while reading the array.
+     */
+    public MLArray getMLArray( String name ) throws IOException
+    {
+        Entry entry = entries.get( name );
+
+        if ( entry == null )
+        {
+            return null;
+        }
+        if ( hdf5 != null )
+        {
+            return hdf5.read( name );
+        }
+
+        long length = TAG_SIZE + entry.getSize();
+        if ( length > Integer.MAX_VALUE )
+        {
+            throw new MatlabIOException("Array is too big to be red: " + name );
+        }
+        if ( ( policy & MatFileReader.ZERO_COPY ) != 0 )
+        {
+            return new MatFileReader().readElement( getZeroCopyRegion( entry, (int) length ), byteOrder, true );
+        }
+        if ( ( policy & MatFileReader.MEMORY_MAPPED_FILE ) != 0 )
+        {
+            ByteBuffer buf = file.map( entry.getOffset(), (int) length );
+            try
+            {
+                return new MatFileReader().readElement( buf, byteOrder, false );
+            }
+            finally
+            {
+                file.release( buf );
+            }
+        }
+        ByteBuffer buf = ByteBuffer.allocate( (int) length );
+
+        while ( buf.hasRemaining() )
+        {
+            if ( channel.read( buf, entry.getOffset() + buf.position() ) < 0 )
+            {
+                throw new MatlabIOException("Unexpected end of file while reading array: " + name );
+            }
+        }
+        buf.rewind();
+
+        return new MatFileReader().readElement( buf, byteOrder, false );
+    }
+    /**
+     * Reads a rectangular region of a numeric array: rows
+     * <code>fromRow</code> (inclusive) to <code>toRow</code> (exclusive) of
+     * columns <code>fromColumn</code> (inclusive) to <code>toColumn</code>
+     * (exclusive).
+     * <p>
+     * Only the requested region is copied. Numeric data is stored column by
+     * column, so for uncompressed arrays the region is red with one read per
+     * column (a single read if whole columns are requested) and everything
+     * else is skipped. Compressed arrays are inflated up to the end of the
+     * region, data in front of the region is inflated and discarded. In
+     * MAT-files version 7.3 only the chunks intersecting the region are red
+     * and inflated.
+     * <p>
+     * For N-dimensional arrays the trailing dimensions are treated as
+     * columns, the same way as <code>MLArray.getN()</code> does.
+     * <p>
+     * Returns <code>null</code> if the file contains no content for this name.
+     *
+     * @param name - array name
+     * @param fromRow - first row of the region
+     * @param toRow - row after the last row of the region
+     * @param fromColumn - first column of the region
+     * @param toColumn - column after the last column of the region
+     * @return - <code>(toRow - fromRow)</code> x <code>(toColumn - fromColumn)</code>
+     *           array of the same class and flags as the stored array or
+     *           <code>null</code>
+     * @throws IOException when error occurred while reading the array or if
+     *           the array is not numeric
+     */
+    public MLArray readSubArray( String name, int fromRow, int toRow, int fromColumn, int toColumn ) throws IOException
+    {
+        Entry entry = entries.get( name );
+
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        int m = entry.dims[0];
+        int n = 1;
+        for ( int i = 1; i < entry.dims.length; i++ )
+        {
+            n *= entry.dims[i];
+        }
+        if ( fromRow < 0 || toRow > m || fromRow > toRow
+                || fromColumn < 0 || toColumn > n || fromColumn > toColumn )
+        {
+            throw new IllegalArgumentException("Region (" + fromRow + ":" + toRow + ", "
+                    + fromColumn + ":" + toColumn + ") is out of " + m + "x" + n + " array " + name );
+        }
+        if ( hdf5 != null )
+        {
+            return hdf5.readSubArray( name, fromRow, toRow, fromColumn, toColumn );
+        }
+        MLNumericArray<?> array = createNumericArray( entry,
+                    new int[] { toRow - fromRow, toColumn - fromColumn } );
+
+        InputStream is = new FileChannelInputStream( channel, entry.getOffset() + TAG_SIZE, entry.getSize() );
+        InflaterInputStream iis = null;
+        try
+        {
+            if ( entry.isCompressed() )
+            {
+                iis = new InflaterInputStream( is );
+                is = iis;
+                //skip the miMATRIX tag
+                skipFully( is, TAG_SIZE );
+            }
+            DataInputStream dis = new DataInputStream( is );
+            MatArrayHeader.read( dis, byteOrder );
+
+            readRegion( dis, array.getRealByteBuffer(), array, m, n,
+                        fromRow, fromColumn, array.isComplex() );
+            if ( array.isComplex() )
+            {
+                readRegion( dis, array.getImaginaryByteBuffer(), array, m, n,
+                            fromRow, fromColumn, false );
+            }
+        }
+        catch ( ZipException e )
+        {
+            throw new MatlabIOException("Could not decompress data: " + e );
+        }
+        finally
+        {
+            if ( iis != null )
+            {
+                iis.close();
+            }
+        }
+        return array;
+    }
+    /**
+     * Gets the region of the variable mapped for zero-copy arrays. The
+     * variable is mapped on first use.
+     *
+     * @param entry - the variable
+     * @param length - the length of the variable with it's tag
+     * @return - a new buffer of the region
+     * @throws IOException if the index is closed or mapping fails
+     */
+    private ByteBuffer getZeroCopyRegion( Entry entry, int length ) throws IOException
+    {
+        synchronized ( zeroCopyRegions )
+        {
+            if ( closed )
+            {
+                throw new IOException("Index is closed");
+            }
+            ByteBuffer region = zeroCopyRegions.get( entry.getName() );
+            if ( region == null )
+            {
+                region = channel.map( FileChannel.MapMode.READ_ONLY, entry.getOffset(), length );
+                zeroCopyRegions.put( entry.getName(), region );
+            }
+            return region.duplicate();
+        }
+    }
+    /**
+     * Closes the underlying file. Zero-copy arrays red from the index may
+     * still be used, their regions stay mapped as long as they are in use.
+     * Does nothing if the index is already closed.
+     *
+     * @throws IOException if closing fails
+     */
+    public void close() throws IOException
+    {
+        synchronized ( zeroCopyRegions )
+        {
+            if ( closed )
+            {
+                return;
+            }
+            closed = true;
+            zeroCopyRegions.clear();
+        }
+        file.close();
+    }
+
+    /**
+     * Reads MAT-file header.
+     *
+     * @throws IOException if this is not a valid MAT-file
+     */
+    private void readHeader() throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate( HEADER_SIZE );
+
+        while ( buf.hasRemaining() )
+        {
+            if ( channel.read( buf, buf.position() ) < 0 )
+            {
+                throw new MatlabIOException("This is not a valid MATLAB 5.0 MAT-file.");
+            }
+        }
+        buf.rewind();
+
+        matFileHeader = MatFileHeader.read( buf );
+        byteOrder = buf.order();
+        if ( matFileHeader.isHDF5() )
+        {
+            hdf5 = new MatFile73Reader( channel, null );
+        }
+    }
+    /**
+     * Walks top-level data element tags and creates index entries.
+     *
+     * @throws IOException when error occurred while processing the file.
+     */
+    private void readEntries() throws IOException
+    {
+        if ( hdf5 != null )
+        {
+            for ( Entry entry : hdf5.getEntries() )
+            {
+                entries.put( entry.getName(), entry );
+            }
+            return;
+        }
+        ByteBuffer tagBuffer = ByteBuffer.allocate( TAG_SIZE );
+        tagBuffer.order( byteOrder );
+
+        long position = HEADER_SIZE;
+        long fileSize = channel.size();
+
+        while ( position < fileSize )
+        {
+            readTag( tagBuffer, position );
+            int type  = tagBuffer.getInt(0);
+            long size = tagBuffer.getInt(4) & 0xffffffffL;
+
+            InputStream is = new FileChannelInputStream( channel, position + TAG_SIZE, size );
+            Entry entry = readEntry( is, type, position, size, byteOrder );
+            if ( !entries.containsKey( entry.getName() ) )
+            {
+                entries.put( entry.getName(), entry );
+            }
+            position += TAG_SIZE + size;
+        }
+    }
+    /**
+     * Reads the data element tag at the given file position.
+     *
+     * @throws IOException if the tag or the element exceeds the file size
+     */
+    private void readTag( ByteBuffer tagBuffer, long position ) throws IOException
+    {
+        tagBuffer.clear();
+        while ( tagBuffer.hasRemaining() )
+        {
+            if ( channel.read( tagBuffer, position + tagBuffer.position() ) < 0 )
+            {
+                throw new MatlabIOException("Unexpected end of file at position: " + position );
+            }
+        }
+        long size = tagBuffer.getInt(4) & 0xffffffffL;
+        if ( position + TAG_SIZE + size > channel.size() )
+        {
+            throw new MatlabIOException("Data element exceeds the file size at position: " + position );
+        }
+    }
+    /**
+     * Creates the index entry of a top-level data element. Only the array
+     * header is red (and inflated).
+     *
+     * @param is - the stream of element data (just after the element tag)
+     * @param type - element type from the tag
+     * @param position - file offset of the element tag
+     * @param size - element size from the tag
+     */
+    private static Entry readEntry( InputStream is, int type, long position, long size, ByteOrder byteOrder ) throws IOException
+    {
+        MatArrayHeader header;
+        switch ( type )
+        {
+            case MatDataTypes.miCOMPRESSED:
+                header = MatArrayHeader.readCompressed( is, byteOrder );
+                break;
+            case MatDataTypes.miMATRIX:
+                header = MatArrayHeader.read( is, byteOrder );
+                break;
+            default:
+                throw new MatlabIOException("Incorrect data tag: " + MatDataTypes.typeToString(type) );
+        }
+        return new Entry( header, position, size, type == MatDataTypes.miCOMPRESSED );
+    }
+    /**
+     * Reads the region of a single numeric sub-element (real or imaginary
+     * part) into <code>dest</code>.
+     *
+     * @param skipToEnd - when <code>true</code> the stream is left after the
+     *            sub-element, otherwise right after the region
+     */
+    private void readRegion( DataInputStream dis, ByteBuffer dest, MLNumericArray<?> array,
+                                int m, int n, int fromRow, int fromColumn,
+                                boolean skipToEnd ) throws IOException
+    {
+        int tmp = MatArrayHeader.readInt( dis, byteOrder );
+        int type;
+        long size;
+        int padding;
+
+        //data not packed in the tag
+        if ( tmp >> 16 == 0 )
+        {
+            type = tmp;
+            size = MatArrayHeader.readInt( dis, byteOrder ) & 0xffffffffL;
+            padding = ( size % 8 ) != 0 ? 8 - (int) ( size % 8 ) : 0;
+        }
+        else //data _packed_ in the tag (compressed)
+        {
+            size = tmp >> 16;
+            type = tmp & 0xffff;
+            padding = 4 - (int) size;
+        }
+        int sizeOf = MatDataTypes.sizeOf( type );
+        if ( size < (long) m * n * sizeOf )
+        {
+            throw new MatlabIOException("Array data is too short: " + size + " bytes");
+        }
+
+        //whole columns make a single run
+        int rows = array.getM();
+        int columns = array.getN();
+        int runLength = rows == m ? rows * columns : rows;
+        int runs = rows == m ? Math.min( columns, 1 ) : columns;
+
+        int bytesAllocated = array.getBytesAllocated();
+        byte[] chunk = new byte[ Math.max( sizeOf, Math.min( runLength * sizeOf, CHUNK_SIZE - CHUNK_SIZE % sizeOf ) ) ];
+        long position = 0;
+        int destOffset = 0;
+
+        for ( int run = 0; run < runs; run++ )
+        {
+            long start = ( (long) ( fromColumn + run ) * m + fromRow ) * sizeOf;
+            skipFully( dis, start - position );
+            position = start;
+
+            int remaining = runLength;
+            while ( remaining > 0 )
+            {
+                int elements = Math.min( remaining, chunk.length / sizeOf );
+                dis.readFully( chunk, 0, elements * sizeOf );
+                position += elements * sizeOf;
+
+                ByteBuffer target = dest.duplicate();
+                target.position( destOffset * bytesAllocated );
+                target.limit( ( destOffset + elements ) * bytesAllocated );
+                target = target.slice().order( dest.order() );
+
+                ByteBuffer src = ByteBuffer.wrap( chunk, 0, elements * sizeOf ).order( byteOrder );
+                new MatFileInputStream( src, type ).readToByteBuffer( target, elements, array );
+
+                destOffset += elements;
+                remaining -= elements;
+            }
+        }
+        if ( skipToEnd )
+        {
+            skipFully( dis, size + padding - position );
+        }
+    }
+    /**
+     * Creates an empty numeric array of the class and flags of the entry.
+     *
+     * @throws MatlabIOException if the array is not numeric
+     */
+    private static MLNumericArray<?> createNumericArray( Entry entry, int[] dims ) throws IOException
+    {
+        String name = entry.getName();
+        int type = entry.getType();
+        int attributes = entry.getFlags();
+
+        switch ( type )
+        {
+            case MLArray.mxDOUBLE_CLASS:
+                return new MLDouble( name, dims, type, attributes );
+            case MLArray.mxSINGLE_CLASS:
+                return new MLSingle( name, dims, type, attributes );
+            case MLArray.mxUINT8_CLASS:
+                return new MLUInt8( name, dims, type, attributes );
+            case MLArray.mxINT8_CLASS:
+                return new MLInt8( name, dims, type, attributes );
+            case MLArray.mxINT16_CLASS:
+                return new MLInt16( name, dims, type, attributes );
+            case MLArray.mxINT32_CLASS:
+                return new MLInt32( name, dims, type, attributes );
+            case MLArray.mxUINT32_CLASS:
+                return new MLUInt32( name, dims, type, attributes );
+            case MLArray.mxINT64_CLASS:
+                return new MLInt64( name, dims, type, attributes );
+            case MLArray.mxUINT64_CLASS:
+                return new MLUInt64( name, dims, type, attributes );
+            default:
+                throw new MatlabIOException("Cannot read sub-array of type: " + MLArray.typeToString( type ) );
+        }
+    }
+    /**
+     * Skips exactly <code>n</code> bytes of the stream.
+     *
+     * @throws EOFException if the stream ends before
+     */
+    private static void skipFully( InputStream is, long n ) throws IOException
+    {
+        while ( n > 0 )
+        {
+            long skipped = is.skip( n );
+            if ( skipped <= 0 )
+            {
+                //some streams do not support skipping
+                if ( is.read() < 0 )
+                {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+    /**
+     * Index entry. Describes a single variable stored in the MAT-file.
+     */
+    public static class Entry
+    {
+        private final String name;
+        private final int type;
+        private final int attributes;
+        private final int nzmax;
+        private final int[] dims;
+        private final long offset;
+        private final long size;
+        private final boolean compressed;
+
+        Entry( MatArrayHeader header, long offset, long size, boolean compressed )
+        {
+            this.name = header.getName();
+            this.type = header.getType();
+            this.attributes = header.getAttributes();
+            this.nzmax = header.getMaxNZ();
+            this.dims = header.getDimensions();
+            this.offset = offset;
+            this.size = size;
+            this.compressed = compressed;
+        }
+
+        Entry( String name, int type, int attributes, int nzmax, int[] dims, long offset, long size, boolean compressed )
+        {
+            this.name = name;
+            this.type = type;
+            this.attributes = attributes;
+            this.nzmax = nzmax;
+            this.dims = dims;
+            this.offset = offset;
+            this.size = size;
+            this.compressed = compressed;
+        }
+        /**
+         * Gets array name
+         *
+         * @return - array name
+         */
+        public String getName()
+        {
+            return name;
+        }
+        /**
+         * Gets array class, one of <code>MLArray.mx*_CLASS</code> values
+         *
+         * @return - array class
+         */
+        public int getType()
+        {
+            return type;
+        }
+        /**
+         * Gets array flags
+         *
+         * @return - array flags
+         */
+        public int getFlags()
+        {
+            return attributes;
+        }
+        /**
+         * Tells if the array is complex
+         *
+         * @return - <code>true</code> if the array is complex
+         */
+        public boolean isComplex()
+        {
+            return ( attributes & MLArray.mtFLAG_COMPLEX ) != 0;
+        }
+        /**
+         * Tells if the array is logical
+         *
+         * @return - <code>true</code> if the array is logical
+         */
+        public boolean isLogical()
+        {
+            return ( attributes & MLArray.mtFLAG_LOGICAL ) != 0;
+        }
+        /**
+         * Gets maximum number of non-zero values (sparse arrays only)
+         *
+         * @return - nzmax
+         */
+        public int getMaxNZ()
+        {
+            return nzmax;
+        }
+        /**
+         * Gets array dimensions
+         *
+         * @return - array dimensions
+         */
+        public int[] getDimensions()
+        {
+            int[] ai = new int[dims.length];
+            System.arraycopy(dims, 0, ai, 0, dims.length);
+            return ai;
+        }
+        /**
+         * Gets the file offset of the data element tag (of the object header
+         * in MAT-files version 7.3)
+         *
+         * @return - the file offset
+         */
+        public long getOffset()
+        {
+            return offset;
+        }
+        /**
+         * Gets the number of bytes stored in the file after the data element
+         * tag (compressed size for <code>miCOMPRESSED</code> elements, size
+         * of the inflated dataset data in MAT-files version 7.3)
+         *
+         * @return - number of bytes
+         */
+        public long getSize()
+        {
+            return size;
+        }
+        /**
+         * Tells if the array is stored as <code>miCOMPRESSED</code> element
+         * (as deflated chunks in MAT-files version 7.3)
+         *
+         * @return - <code>true</code> if the array is compressed
+         */
+        public boolean isCompressed()
+        {
+            return compressed;
+        }
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        public String toString()
+        {
+            StringBuffer sb = new StringBuffer();
+            sb.append(name);
+            sb.append(" ");
+            for ( int i = 0; i < dims.length; i++ )
+            {
+                if ( i > 0 )
+                {
+                    sb.append('x');
+                }
+                sb.append(dims[i]);
+            }
+            sb.append(" ");
+            sb.append(MLArray.typeToString(type));
+            if ( isComplex() )
+            {
+                sb.append(" complex");
+            }
+            if ( isLogical() )
+            {
+                sb.append(" logical");
+            }
+            if ( type == MLArray.mxSPARSE_CLASS )
+            {
+                sb.append(" nzmax: " + nzmax);
+            }
+            sb.append(" [offset: " + offset + " size: " + size );
+            if ( compressed )
+            {
+                sb.append(" compressed");
+            }
+            sb.append("]");
+            return sb.toString();
+        }
+    }
+}
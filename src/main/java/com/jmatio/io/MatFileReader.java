@@ -1,29 +1,45 @@
 package com.jmatio.io;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.RandomAccessFile;
-import java.lang.ref.WeakReference;
-import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.CharBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.security.AccessController;
-import java.security.PrivilegedAction;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
 import com.jmatio.common.MatDataTypes;
 import com.jmatio.io.stream.BufferedOutputStream;
 import com.jmatio.io.stream.ByteBufferInputStream;
 import com.jmatio.io.stream.ByteBufferedOutputStream;
 import com.jmatio.io.stream.FileBufferedOutputStream;
+import com.jmatio.io.stream.FileChannelInputStream;
+import com.jmatio.io.stream.LimitedInputStream;
 import com.jmatio.io.stream.MatFileInputStream;
+import com.jmatio.types.ArrayLoader;
 import com.jmatio.types.ByteStorageSupport;
 import com.jmatio.types.MLArray;
 import com.jmatio.types.MLCell;
@@ -66,11 +82,55 @@ import com.jmatio.types.MLUInt8;
  * @author Wojciech Gradkowski (<a href="mailto:wgradkowski@gmail.com">wgradkowski@gmail.com</a>)
  *
  */
-public class MatFileReader
+public class MatFileReader implements AutoCloseable
 {
     public static final int MEMORY_MAPPED_FILE = 1;
     public static final int DIRECT_BYTE_BUFFER = 2;
     public static final int HEAP_BYTE_BUFFER   = 4;
+    /**
+     * Zero-copy flag, used together with <code>{@link #MEMORY_MAPPED_FILE}</code>
+     * (<code>MEMORY_MAPPED_FILE | ZERO_COPY</code>).
+     * <p>
+     * Uncompressed numeric arrays stored with the type of their class are not
+     * copied to the heap. They wrap read-only slices of the memory mapped file
+     * instead, so opening the file costs page faults, not a copy. Such arrays
+     * cannot be modified. The mapping is never unmapped explicitly: the
+     * garbage collector releases it when no array uses it, so the arrays
+     * remain valid after the reader is closed (as arrays of
+     * <code>{@link MatFileIndex}</code>).
+     */
+    public static final int ZERO_COPY          = 8;
+    /**
+     * Lazy reading flag, used together with any allocation policy (for
+     * example <code>HEAP_BYTE_BUFFER | LAZY</code>).
+     * <p>
+     * Struct fields and cell elements are not decoded while the file is red.
+     * <code>MLStructure</code> and <code>MLCell</code> keep a reference to
+     * the buffer holding each of them and decode it on first access (nested
+     * structures and cells are lazy again). Decoded arrays are cached. The
+     * buffers are never unmapped or freed explicitly: the garbage collector
+     * releases them when no array uses them, so fields and elements may be
+     * decoded after the reader is closed.
+     */
+    public static final int LAZY               = 16;
+    
+    /**
+     * Default maximum size of the file window (unless a single data element
+     * is bigger)
+     */
+    public static final int WINDOW_SIZE = 1 << 26;
+    /**
+     * Size of the MAT-file header
+     */
+    private static final int HEADER_SIZE = 128;
+    /**
+     * Size of the data element tag
+     */
+    private static final int TAG_SIZE = 8;
+    /**
+     * Maximum size of a single read into a heap buffer
+     */
+    private static final int DIRECT_BUFFER_LIMIT = 1 << 25;
     
     /**
      * MAT-file header
@@ -88,6 +148,23 @@ public class MatFileReader
      * Array name filter
      */
     private MatFileFilter filter;
+    /**
+     * Tells if numeric arrays may wrap slices of the mapped file
+     */
+    private boolean zeroCopy;
+    /**
+     * Tells if struct fields and cell elements are decoded on first access
+     */
+    private boolean lazy;
+    /**
+     * Reader decoding lazily red arrays (with the settings of the read
+     * that created them)
+     */
+    private MatFileReader decoder;
+    /**
+     * Maximum size of the file window
+     */
+    private int windowSize = WINDOW_SIZE;
     /**
      * Creates instance of <code>MatFileReader</code> and reads MAT-file 
      * from location given as <code>fileName</code>.
@@ -209,9 +286,31 @@ public class MatFileReader
      * <li><code>{@link #HEAP_BYTE_BUFFER}</code> - a uses
      * <code>{@link ByteBuffer#allocate(int)}</code> method to read in the
      * file contents</li>
+     * <li><code>{@link #MEMORY_MAPPED_FILE} | {@link #ZERO_COPY}</code> - a
+     * memory mapped file, numeric arrays wrap slices of the file (no copy)</li>
      * </ul>
-     * <i>Note: memory mapped file will try to invoke a nasty code to relase
-     * it's resources</i>
+     * Any of the above may be combined with <code>{@link #LAZY}</code> to
+     * decode struct fields and cell elements on first access.
+     * <p>
+     * MAT-files version 7.3 (HDF5-based) are red with positional reads, the
+     * policy does not apply to them. Each part of a numeric array must fit
+     * in a single buffer (2 GB), bigger arrays can be red by regions with
+     * <code>{@link MatFileIndex#readSubArray(String, int, int, int, int)}</code>.
+     * Variables holding function handles or objects are skipped.
+     * <p>
+     * Mappings of the file are shared with other readers of the same file
+     * (see <code>{@link MappedFile}</code>). Windows are unmapped (and
+     * direct buffers released) as soon as they are processed. Zero-copy and
+     * lazy reading are the exception: arrays refer to their windows, which
+     * are mapped (or allocated) for this reader only and left to the garbage
+     * collector. No garbage collection is forced.
+     * <p>
+     * The file is never mapped or buffered as a whole. It is processed in
+     * windows of up to <code>{@link #getWindowSize()}</code> bytes, each holding
+     * one or more complete top-level data elements (a window is enlarged to
+     * hold a single bigger element). This keeps the address space or memory
+     * used at a time bounded and allows reading files larger than 2 GB. Elements
+     * which cannot fit in a single buffer are read from the file as a stream.
      * 
      * @param file
      *            a valid MAT-file file to be read
@@ -224,169 +323,1010 @@ public class MatFileReader
      * @throws IOException
      *             if error occurs during file processing
      */
-    private static final int DIRECT_BUFFER_LIMIT = 1 << 25;
     public synchronized Map<String, MLArray> read(File file, MatFileFilter filter,
             int policy) throws IOException
     {
+        int allocation = policy & ~( ZERO_COPY | LAZY );
+        if ( allocation != MEMORY_MAPPED_FILE && allocation != DIRECT_BYTE_BUFFER && allocation != HEAP_BYTE_BUFFER )
+        {
+            throw new IllegalArgumentException("Unknown file allocation policy");
+        }
+        if ( ( policy & ZERO_COPY ) != 0 && allocation != MEMORY_MAPPED_FILE )
+        {
+            throw new IllegalArgumentException("Zero-copy reading requires memory mapped file policy");
+        }
         this.filter = filter;
+        this.zeroCopy = ( policy & ZERO_COPY ) != 0;
+        this.lazy = ( policy & LAZY ) != 0;
+        this.decoder = null;
         
         //clear the results
-        for ( String key : data.keySet() )
+        data.clear();
+        
+        MappedFile mappedFile = MappedFile.open(file);
+        FileChannel roChannel = mappedFile.getChannel();
+        ByteBuffer window = null;
+        try
+        {
+            
+            long fileSize = roChannel.size();
+            if ( fileSize < HEADER_SIZE )
+            {
+                throw new MatlabIOException("This is not a valid MATLAB 5.0 MAT-file.");
+            }
+            //absolute file position of the window
+            long windowStart = 0;
+            window = readWindow( mappedFile, windowStart, (int) Math.min( windowSize, fileSize ), allocation, null );
+            
+            //read in file header
+            readHeader(window);
+            if ( matFileHeader.isHDF5() )
+            {
+                data.putAll( new MatFile73Reader( roChannel, null ).read( filter ) );
+                return getContent();
+            }
+            
+            long position = HEADER_SIZE;
+            while ( position < fileSize )
+            {
+                if ( position + TAG_SIZE > fileSize )
+                {
+                    throw new MatlabIOException("Unexpected end of file at position: " + position );
+                }
+                //move the window if the tag is not inside
+                if ( position + TAG_SIZE > windowStart + window.limit() )
+                {
+                    windowStart = position;
+                    window = readWindow( mappedFile, windowStart, (int) Math.min( windowSize, fileSize - position ), allocation, window );
+                }
+                int offset = (int) ( position - windowStart );
+                int type   = window.getInt( offset );
+                long size  = window.getInt( offset + 4 ) & 0xffffffffL;
+                long length = TAG_SIZE + size;
+                
+                if ( position + length > fileSize )
+                {
+                    throw new MatlabIOException("Data element exceeds the file size at position: " + position );
+                }
+                
+                MLArray element;
+                if ( length > Integer.MAX_VALUE )
+                {
+                    //too big for a buffer, stream it
+                    element = readData( new FileChannelInputStream( roChannel, position + TAG_SIZE, size ), type, size );
+                }
+                else
+                {
+                    //move the window if the element is not inside
+                    if ( position + length > windowStart + window.limit() )
+                    {
+                        windowStart = position;
+                        window = readWindow( mappedFile, windowStart, (int) Math.max( length, Math.min( windowSize, fileSize - position ) ), allocation, window );
+                        offset = 0;
+                    }
+                    window.position( offset );
+                    element = readData( window );
+                }
+                
+                if ( element != null && !data.containsKey( element.getName() ) )
+                {
+                    data.put( element.getName(), element );
+                }
+                position += length;
+            }
+            
+            return getContent();
+        }
+        finally
+        {
+            if ( window != null && !keepWindows() )
+            {
+                releaseWindow( mappedFile, window, allocation );
+            }
+            //windows kept for the arrays stay mapped after the file is closed
+            mappedFile.close();
+        }
+        
+    }
+    /**
+     * Sets the maximum size of the windows in which files are red by
+     * <code>{@link #read(File, MatFileFilter, int)}</code>. A window is still
+     * enlarged to hold a single bigger data element.
+     * 
+     * @param windowSize -
+     *            the window size in bytes, at least the size of the MAT-file
+     *            header (128)
+     */
+    public synchronized void setWindowSize( int windowSize )
+    {
+        if ( windowSize < HEADER_SIZE )
+        {
+            throw new IllegalArgumentException("Window size must be at least " + HEADER_SIZE + " bytes: " + windowSize );
+        }
+        this.windowSize = windowSize;
+    }
+    /**
+     * Gets the maximum size of the file windows.
+     * 
+     * @return - the window size in bytes (<code>{@link #WINDOW_SIZE}</code> by default)
+     */
+    public synchronized int getWindowSize()
+    {
+        return windowSize;
+    }
+    /**
+     * Reads (or maps) a window of the file according to the allocation policy.
+     * <p>
+     * The previous window is released or, if it's big enough, reused. In
+     * zero-copy or lazy mode arrays may still refer to it, so it's left to
+     * the garbage collector, and the new window is mapped outside of the
+     * shared <code>{@link MappedFile}</code> regions (which are unmapped
+     * when released).
+     * 
+     * @param file -
+     *            the file
+     * @param position -
+     *            the absolute file position of the window
+     * @param length -
+     *            the window length
+     * @param policy -
+     *            the file memory allocation policy
+     * @param previous -
+     *            the previous window or <code>null</code>
+     * @return - the window with position <code>0</code> and limit
+     *         <code>length</code>
+     * @throws IOException if reading the file fails
+     */
+    private ByteBuffer readWindow( MappedFile file, long position, int length, int policy, ByteBuffer previous ) throws IOException
+    {
+        FileChannel channel = file.getChannel();
+        ByteBuffer buf;
+        switch ( policy )
+        {
+            case MEMORY_MAPPED_FILE:
+                if ( keepWindows() )
+                {
+                    //zero-copy and lazy arrays may use the window at any time
+                    buf = channel.map( FileChannel.MapMode.READ_ONLY, position, length );
+                    break;
+                }
+                if ( previous != null )
+                {
+                    file.release( previous );
+                }
+                buf = file.map( position, length );
+                break;
+            case DIRECT_BYTE_BUFFER:
+            case HEAP_BYTE_BUFFER:
+                if ( previous != null && previous.capacity() >= length && !keepWindows() )
+                {
+                    buf = previous;
+                    buf.clear();
+                }
+                else
+                {
+                    if ( previous != null && !keepWindows() )
+                    {
+                        releaseWindow( file, previous, policy );
+                    }
+                    buf = policy == DIRECT_BYTE_BUFFER ? ByteBuffer.allocateDirect( length )
+                                                       : ByteBuffer.allocate( length );
+                }
+                // Reading into heap buffer is done in blocks. FileChannel
+                // allocates its own _direct_ buffer of exactly the same size,
+                // the buffer passed as parameter has, reads data into it and
+                // only afterwards moves data into the buffer passed as
+                // parameter (ends up in outOfMemory for big buffers)
+                while ( buf.position() < length )
+                {
+                    buf.limit( Math.min( length, buf.position() + DIRECT_BUFFER_LIMIT ) );
+                    if ( channel.read( buf, position + buf.position() ) < 0 )
+                    {
+                        throw new MatlabIOException("Unexpected end of file at position: " + ( position + buf.position() ) );
+                    }
+                }
+                buf.rewind();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown file allocation policy");
+        }
+        buf.order( byteOrder != null ? byteOrder : ByteOrder.BIG_ENDIAN );
+        return buf;
+    }
+    /**
+     * Tells if arrays red from a window may refer to it after the window
+     * is moved.
+     */
+    private boolean keepWindows()
+    {
+        return zeroCopy || lazy;
+    }
+    /**
+     * Releases a window no array refers to. Mapped windows are returned to
+     * the file, direct buffers are freed, heap buffers are left to the
+     * garbage collector.
+     * 
+     * @param file -
+     *            the file of the window
+     * @param window -
+     *            the window
+     * @param policy -
+     *            the file memory allocation policy
+     */
+    private static void releaseWindow( MappedFile file, ByteBuffer window, int policy )
+    {
+        if ( policy == MEMORY_MAPPED_FILE )
         {
-            data.remove(key);
+            file.release( window );
         }
+        else
+        {
+            MappedFile.unmap( window );
+        }
+    }
+    /**
+     * Releases the content of the reader (<code>{@link #getContent()}</code>
+     * is empty afterwards).
+     * <p>
+     * Buffers of arrays red with <code>{@link #ZERO_COPY}</code> or
+     * <code>{@link #LAZY}</code> policy are not unmapped or freed: arrays
+     * already returned (and their undecoded struct fields or cell elements)
+     * remain valid, the garbage collector releases the buffers when they are
+     * gone. The files are closed by the read methods.
+     * <p>
+     * The reader may still be used to read files.
+     * 
+     * @throws IOException never, declared for compatibility
+     */
+    public synchronized void close() throws IOException
+    {
+        data.clear();
+        decoder = null;
+    }
+    /**
+     * Reads the content of a MAT-file using the given executor and returns the
+     * mapped content.
+     * <p>
+     * Each top-level data element (<code>miCOMPRESSED</code> elements written
+     * by <code>{@link MatFileWriter}</code> are independent zlib streams) is
+     * read, inflated and decoded by a separate task, so the reading time
+     * scales with the number of threads available to the executor. Tasks read
+     * their element with positional reads when they run, so only the elements
+     * being processed are held in memory.
+     * <p>
+     * The content map keeps the file order. The executor is not shut down by
+     * this method.
+     * <p>
+     * Chunks of MAT-file version 7.3 (HDF5-based) datasets are inflated in
+     * parallel instead.
+     * 
+     * Usage:
+     * <pre><code>
+     * ExecutorService executor = Executors.newFixedThreadPool( 
+     *         Runtime.getRuntime().availableProcessors() );
+     * Map content = new MatFileReader().read( file, new MatFileFilter(), executor );
+     * </code></pre>
+     * 
+     * @param file
+     *            a valid MAT-file file to be read
+     * @param filter
+     *            the array filter applied during reading
+     * @param executor
+     *            the executor running element decoding tasks (for example a
+     *            <code>ForkJoinPool</code> or a fixed thread pool)
+     * @return the same as <code>{@link #getContent()}</code>
+     * @see MatFileFilter
+     * @throws IOException
+     *             if error occurs during file processing
+     */
+    public synchronized Map<String, MLArray> read(File file, MatFileFilter filter,
+            ExecutorService executor) throws IOException
+    {
+        this.filter = filter;
         
-        FileChannel roChannel = null;
-        RandomAccessFile raFile = null;
-        ByteBuffer buf = null;
-        WeakReference<MappedByteBuffer> bufferWeakRef = null;
+        //clear the results
+        data.clear();
+        
+        RandomAccessFile raFile = new RandomAccessFile(file, "r");
+        FileChannel roChannel = raFile.getChannel();
+        List<Future<MLArray>> futures = new ArrayList<Future<MLArray>>();
         try
         {
-            //Create a read-only memory-mapped file
-            raFile = new RandomAccessFile(file, "r");
-            roChannel = raFile.getChannel();
-            // until java bug #4715154 is fixed I am not using memory mapped files
-            // The bug disables re-opening the memory mapped files for writing
-            // or deleting until the VM stops working. In real life I need to open
-            // and update files
-            switch ( policy )
+            long fileSize = roChannel.size();
+            if ( fileSize < HEADER_SIZE )
             {
-                case DIRECT_BYTE_BUFFER:
-                    buf = ByteBuffer.allocateDirect( (int)roChannel.size() );
-                    roChannel.read(buf, 0);
-                    buf.rewind();
-                    break;
-                case HEAP_BYTE_BUFFER:
-                    int filesize = (int)roChannel.size();
-                    System.gc();
-                    buf = ByteBuffer.allocate( filesize );
-
-                    // The following two methods couldn't be used (at least under MS Windows)
-                    // since they are implemented in a suboptimal way. Each of them
-                    // allocates its own _direct_ buffer of exactly the same size,
-                    // the buffer passed as parameter has, reads data into it and
-                    // only afterwards moves data into the buffer passed as parameter.
-                    // roChannel.read(buf, 0);        // ends up in outOfMemory
-                    // raFile.readFully(buf.array()); // ends up in outOfMemory
-                    int numberOfBlocks = filesize / DIRECT_BUFFER_LIMIT + ((filesize % DIRECT_BUFFER_LIMIT) > 0 ? 1 : 0);
-                    if (numberOfBlocks > 1) {
-                        ByteBuffer tempByteBuffer = ByteBuffer.allocateDirect(DIRECT_BUFFER_LIMIT);
-                        for (int block=0; block<numberOfBlocks; block++) {
-                            tempByteBuffer.clear();
-                            roChannel.read(tempByteBuffer, block*DIRECT_BUFFER_LIMIT);
-                            tempByteBuffer.flip();
-                            buf.put(tempByteBuffer);
-                        }
-                        tempByteBuffer = null;
-                    } else
-                    roChannel.read(buf, 0);
-
-                    buf.rewind();
+                throw new MatlabIOException("This is not a valid MATLAB 5.0 MAT-file.");
+            }
+            //read in file header
+            readHeader( readFully( roChannel, 0, HEADER_SIZE ) );
+            if ( matFileHeader.isHDF5() )
+            {
+                data.putAll( new MatFile73Reader( roChannel, executor ).read( filter ) );
+                return getContent();
+            }
+            
+            //scan tag boundaries and fan out the elements
+            long position = HEADER_SIZE;
+            while ( position < fileSize )
+            {
+                if ( position + TAG_SIZE > fileSize )
+                {
+                    throw new MatlabIOException("Unexpected end of file at position: " + position );
+                }
+                ByteBuffer tag = readFully( roChannel, position, TAG_SIZE );
+                int type  = tag.getInt();
+                long size = tag.getInt() & 0xffffffffL;
+                
+                if ( position + TAG_SIZE + size > fileSize )
+                {
+                    throw new MatlabIOException("Data element exceeds the file size at position: " + position );
+                }
+                futures.add( executor.submit( new ElementReader( this, roChannel, position, type, size ) ) );
+                
+                position += TAG_SIZE + size;
+            }
+            
+            //collect the results in file order
+            for ( Future<MLArray> future : futures )
+            {
+                MLArray element = getResult( future );
+                
+                if ( element != null && !data.containsKey( element.getName() ) )
+                {
+                    data.put( element.getName(), element );
+                }
+            }
+            return getContent();
+        }
+        finally
+        {
+            //do not leave tasks reading a closed channel
+            for ( Future<MLArray> future : futures )
+            {
+                future.cancel( false );
+            }
+            for ( Future<MLArray> future : futures )
+            {
+                try
+                {
+                    future.get();
+                }
+                catch ( Exception e )
+                {
+                    //already reported (or cancelled)
+                }
+            }
+            roChannel.close();
+            raFile.close();
+        }
+    }
+    /**
+     * Waits for the element decoding task and returns it's result.
+     * 
+     * @param future -
+     *            the task result
+     * @return - the decoded <code>MLArray</code> or <code>null</code>
+     * @throws IOException if the task failed or the thread was interrupted
+     */
+    private static MLArray getResult( Future<MLArray> future ) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading MAT-file");
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new MatlabIOException("Could not read data: " + cause );
+        }
+    }
+    /**
+     * Reads <code>length</code> bytes of the channel at <code>position</code>
+     * into a new heap buffer.
+     * 
+     * @return - the buffer with position <code>0</code> and the byte order of
+     *         the MAT-file
+     * @throws IOException if the file ends prematurely
+     */
+    private ByteBuffer readFully( FileChannel channel, long position, int length ) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate( length );
+        while ( buf.hasRemaining() )
+        {
+            if ( channel.read( buf, position + buf.position() ) < 0 )
+            {
+                throw new MatlabIOException("Unexpected end of file at position: " + ( position + buf.position() ) );
+            }
+        }
+        buf.rewind();
+        buf.order( byteOrder != null ? byteOrder : ByteOrder.BIG_ENDIAN );
+        return buf;
+    }
+    /**
+     * Reads the content of a MAT-file from the input stream and returns the
+     * mapped content.
+     * <p>
+     * This method calls <code>read(is, new MatFileFilter())</code>.
+     * 
+     * @param is
+     *            the MAT-file input stream
+     * @return the same as <code>{@link #getContent()}</code>
+     * @throws IOException
+     *             if error occurs during stream processing
+     */
+    public synchronized Map<String, MLArray> read(InputStream is) throws IOException
+    {
+        return read(is, new MatFileFilter());
+    }
+    /**
+     * Reads the content of a MAT-file from the channel and returns the mapped
+     * content.
+     * <p>
+     * See notes to <code>{@link #read(InputStream, MatFileFilter)}</code>.
+     * 
+     * @param channel
+     *            the MAT-file channel
+     * @param filter
+     *            the array filter applied during reading
+     * @return the same as <code>{@link #getContent()}</code>
+     * @throws IOException
+     *             if error occurs during channel processing
+     */
+    public synchronized Map<String, MLArray> read(ReadableByteChannel channel, MatFileFilter filter) throws IOException
+    {
+        return read( Channels.newInputStream(channel), filter );
+    }
+    /**
+     * Reads the content of a MAT-file from the input stream and returns the
+     * mapped content.
+     * <p>
+     * The stream is read sequentially, one top-level data element at a time,
+     * so it may come from a socket, a pipe or an archive entry. Elements are
+     * decoded straight from the stream into the storage of the arrays, apart
+     * from the arrays only a small chunk of data is held in memory (so
+     * elements bigger than 2 GB are red as well).
+     * <code>miCOMPRESSED</code> elements are inflated directly from the
+     * stream. Arrays that do not match the filter are skipped after reading
+     * their names, without inflating or buffering the rest of their data.
+     * <p>
+     * The stream is not closed by this method.
+     * 
+     * @param is
+     *            the MAT-file input stream
+     * @param filter
+     *            the array filter applied during reading
+     * @return the same as <code>{@link #getContent()}</code>
+     * @see MatFileFilter
+     * @throws IOException
+     *             if error occurs during stream processing
+     */
+    public synchronized Map<String, MLArray> read(InputStream is, MatFileFilter filter) throws IOException
+    {
+        this.filter = filter;
+        this.zeroCopy = false;
+        this.lazy = false;
+        
+        //clear the results
+        data.clear();
+        
+        //read in file header
+        readHeader( is );
+        
+        byte[] tag = new byte[8];
+        while ( readTag( is, tag ) )
+        {
+            ByteBuffer tagBuffer = ByteBuffer.wrap(tag).order(byteOrder);
+            int type  = tagBuffer.getInt();
+            long size = tagBuffer.getInt() & 0xffffffffL;
+            
+            LimitedInputStream elementStream = new LimitedInputStream(is, size);
+            MLArray element = readData( elementStream, type, size );
+            //skip whatever was not consumed (filtered arrays, zlib trailer)
+            elementStream.skipRemaining();
+            
+            if ( element != null && !data.containsKey( element.getName() ) )
+            {
+                data.put( element.getName(), element );
+            }
+        }
+        return getContent();
+    }
+    /**
+     * Reads the MAT-file from the input stream and reports it's content to
+     * the visitor.
+     * <p>
+     * No <code>MLArray</code> objects are created and the content returned
+     * by <code>{@link #getContent()}</code> is not changed. The stream is
+     * read sequentially and numeric data is passed to the visitor in chunks,
+     * so memory use does not depend on the size of the arrays. Top-level
+     * arrays skipped by the visitor are not inflated.
+     * <p>
+     * The stream is not closed by this method.
+     * 
+     * @param is
+     *            the MAT-file input stream
+     * @param visitor
+     *            the visitor receiving the content
+     * @see MatFileVisitor
+     * @throws IOException
+     *             if error occurs during stream processing or if thrown by
+     *             the visitor
+     */
+    public synchronized void read(InputStream is, MatFileVisitor visitor) throws IOException
+    {
+        //read in file header
+        readHeader( is );
+        
+        MatFileWalker walker = new MatFileWalker( byteOrder, visitor );
+        
+        byte[] tag = new byte[8];
+        while ( readTag( is, tag ) )
+        {
+            ByteBuffer tagBuffer = ByteBuffer.wrap(tag).order(byteOrder);
+            int type  = tagBuffer.getInt();
+            long size = tagBuffer.getInt() & 0xffffffffL;
+            
+            LimitedInputStream elementStream = new LimitedInputStream(is, size);
+            walker.walkElement( elementStream, type );
+            //skip whatever was not consumed (skipped arrays, zlib trailer)
+            elementStream.skipRemaining();
+        }
+    }
+    /**
+     * Reads the MAT-file and reports it's content to the visitor.
+     * <p>
+     * See notes to <code>{@link #read(InputStream, MatFileVisitor)}</code>.
+     * 
+     * @param file
+     *            the MAT-file
+     * @param visitor
+     *            the visitor receiving the content
+     * @throws IOException
+     *             if error occurs during file processing or if thrown by
+     *             the visitor
+     */
+    public synchronized void read(File file, MatFileVisitor visitor) throws IOException
+    {
+        InputStream is = new BufferedInputStream( new FileInputStream(file) );
+        try
+        {
+            read( is, visitor );
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+    /**
+     * Reads MAT-file header from the stream.
+     * 
+     * @throws IOException
+     *             if this is not a valid MAT-file
+     */
+    private void readHeader( InputStream is ) throws IOException
+    {
+        byte[] header = new byte[HEADER_SIZE];
+        if ( readFully( is, header, 0, header.length ) != header.length )
+        {
+            throw new MatlabIOException("This is not a valid MATLAB 5.0 MAT-file.");
+        }
+        readHeader( ByteBuffer.wrap(header) );
+        if ( matFileHeader.isHDF5() )
+        {
+            throw new MatlabIOException("MAT-file version 7.3 (HDF5) can only be red from a file");
+        }
+    }
+    /**
+     * Reads the next data element tag from the stream.
+     * 
+     * @return - <code>false</code> if the stream ended
+     * @throws IOException
+     *             if the stream ends in the middle of the tag
+     */
+    private static boolean readTag( InputStream is, byte[] tag ) throws IOException
+    {
+        int red = readFully( is, tag, 0, tag.length );
+        if ( red > 0 && red != tag.length )
+        {
+            throw new MatlabIOException("Unexpected end of stream while reading data element tag");
+        }
+        return red > 0;
+    }
+    /**
+     * Reads a single top-level data element from the stream. Only the array
+     * header is read before the filter is checked.
+     * 
+     * @param is -
+     *            the stream of element data (just after the element tag)
+     * @param type -
+     *            element type from the tag
+     * @param size -
+     *            element size from the tag
+     * @return - <code>MLArray</code> or <code>null</code> if matrix does
+     *         not match <code>filter</code>
+     * @throws IOException when error occurs while reading the stream.
+     */
+    private MLArray readData( InputStream is, int type, long size ) throws IOException
+    {
+        InflaterInputStream iis = null;
+        try
+        {
+            InputStream matrixStream;
+            long matrixSize;
+            switch ( type )
+            {
+                case MatDataTypes.miCOMPRESSED:
+                    iis = new InflaterInputStream(is);
+                    matrixStream = iis;
+                    
+                    byte[] tag = new byte[8];
+                    if ( readFully( iis, tag, 0, tag.length ) != tag.length )
+                    {
+                        throw new MatlabIOException("Compressed buffer length miscalculated!");
+                    }
+                    ByteBuffer tagBuffer = ByteBuffer.wrap(tag).order(byteOrder);
+                    int matrixType = tagBuffer.getInt();
+                    if ( matrixType != MatDataTypes.miMATRIX )
+                    {
+                        throw new MatlabIOException("Incorrect data tag: " + MatDataTypes.typeToString(matrixType));
+                    }
+                    matrixSize = tagBuffer.getInt() & 0xffffffffL;
                     break;
-                case MEMORY_MAPPED_FILE:
-                    buf = roChannel.map(FileChannel.MapMode.READ_ONLY, 0, (int)roChannel.size());        
-                    bufferWeakRef = new WeakReference<MappedByteBuffer>((MappedByteBuffer)buf);            
+                case MatDataTypes.miMATRIX:
+                    matrixStream = is;
+                    matrixSize = size;
                     break;
                 default:
-                    throw new IllegalArgumentException("Unknown file allocation policy");
+                    throw new MatlabIOException("Incorrect data tag: " + MatDataTypes.typeToString(type));
             }
-            //read in file header
-            readHeader(buf);
+            //read the array header first
+            DataInputStream dis = new DataInputStream( new LimitedInputStream(matrixStream, matrixSize) );
+            MatArrayHeader header = MatArrayHeader.read( dis, byteOrder );
             
-            while ( buf.remaining() > 0 )
+            //if this array is filtered out return immediately
+            if ( !filter.matches( header.getName() ) )
             {
-                readData( buf );
+                return null;
             }
             
-            return getContent();
+            //decode the data straight from the stream
+            return readMatrix( dis, header );
+        }
+        catch ( EOFException e )
+        {
+            throw new MatlabIOException("Unexpected end of stream while reading data element");
+        }
+        catch ( ZipException e )
+        {
+            throw new MatlabIOException("Could not decompress data: " + e );
+        }
+        finally
+        {
+            if ( iis != null )
+            {
+                iis.close();
+            }
+        }
+    }
+    /**
+     * Reads the data of a matrix from the stream (positioned just after the
+     * array name). Numeric, character and sparse data is converted chunk by
+     * chunk directly into the array storage, structure fields and cell
+     * elements are decoded recursively.
+     * 
+     * @param dis -
+     *            the stream of matrix data
+     * @param header -
+     *            the array header red from the stream
+     * @return - <code>MLArray</code>
+     * @throws IOException when error occurs while reading the stream.
+     */
+    private MLArray readMatrix( DataInputStream dis, MatArrayHeader header ) throws IOException
+    {
+        MLArray mlArray;
+        StreamMatTag tag;
+        
+        String name = header.getName();
+        int[] dims = header.getDimensions();
+        int attributes = header.getAttributes();
+        int type = header.getType();
+        
+        switch ( type )
+        {
+            case MLArray.mxSTRUCT_CLASS:
+                MLStructure struct = new MLStructure(name, dims, type, attributes);
+                readFields( dis, struct, struct.getM()*struct.getN() );
+                mlArray = struct;
+                break;
+            case MLArray.mxCELL_CLASS:
+                MLCell cell = new MLCell(name, dims, type, attributes);
+                for ( int i = 0; i < cell.getM()*cell.getN(); i++ )
+                {
+                    cell.set( readNested( dis ), i );
+                }
+                mlArray = cell;
+                break;
+            case MLArray.mxDOUBLE_CLASS:
+            case MLArray.mxSINGLE_CLASS:
+            case MLArray.mxUINT8_CLASS:
+            case MLArray.mxINT8_CLASS:
+            case MLArray.mxINT16_CLASS:
+            case MLArray.mxINT32_CLASS:
+            case MLArray.mxUINT32_CLASS:
+            case MLArray.mxINT64_CLASS:
+            case MLArray.mxUINT64_CLASS:
+                MLNumericArray<?> numeric = newNumericArray( name, dims, type, attributes );
+                tag = new StreamMatTag( dis, byteOrder );
+                tag.readToByteBuffer( numeric.getRealByteBuffer(), numeric );
+                if ( numeric.isComplex() )
+                {
+                    tag = new StreamMatTag( dis, byteOrder );
+                    tag.readToByteBuffer( numeric.getImaginaryByteBuffer(), numeric );
+                }
+                mlArray = numeric;
+                break;
+            case MLArray.mxCHAR_CLASS:
+                tag = new StreamMatTag( dis, byteOrder );
+                mlArray = new MLChar(name, dims, attributes, tag.readToCharArray() );
+                break;
+            case MLArray.mxSPARSE_CLASS:
+                //read ir (row indices)
+                tag = new StreamMatTag( dis, byteOrder );
+                int[] ir = tag.readToIntArray();
+                //read jc (column count)
+                tag = new StreamMatTag( dis, byteOrder );
+                int[] jc = tag.readToIntArray();
+                //read pr (real part)
+                tag = new StreamMatTag( dis, byteOrder );
+                double[] pr = tag.readToDoubleArray();
+                //read pi (imaginary part)
+                double[] pi = null;
+                if ( ( attributes & MLArray.mtFLAG_COMPLEX ) != 0 )
+                {
+                    tag = new StreamMatTag( dis, byteOrder );
+                    pi = tag.readToDoubleArray();
+                }
+                mlArray = new MLSparse(name, dims, attributes, header.getMaxNZ(), ir, jc, pr, pi);
+                break;
+            case MLArray.mxOPAQUE_CLASS:
+                String className = new String( MatArrayHeader.readSubElement(dis, byteOrder, null), "UTF-8" );
+                //the stored array name is kept in dims (!)
+                byte[] nn = new byte[dims.length];
+                for ( int i = 0; i < dims.length; i++ )
+                {
+                    nn[i] = (byte)dims[i];
+                }
+                MLArray content = readNested( dis );
+                if ( !( content instanceof MLUInt8 ) )
+                {
+                    throw new IOException("Unexpected java object content");
+                }
+                ByteBuffer bytes = ((MLUInt8) content).getRealByteBuffer();
+                ObjectInputStream ois = new ObjectInputStream( new ByteBufferInputStream( bytes, bytes.limit() ) );
+                try
+                {
+                    mlArray = new MLJavaObject( new String(nn), className, ois.readObject() );
+                }
+                catch ( Exception e )
+                {
+                    throw new IOException( e );
+                }
+                finally
+                {
+                    ois.close();
+                }
+                break;
+            case MLArray.mxOBJECT_CLASS:
+                className = new String( MatArrayHeader.readSubElement(dis, byteOrder, null), "UTF-8" );
+                struct = new MLStructure(name, dims, MLArray.mxOBJECT_CLASS, attributes);
+                readFields( dis, struct, 1 );
+                mlArray = new MLObject( name, className, struct );
+                break;
+            default:
+                throw new MatlabIOException("Incorrect matlab array class: " + MLArray.typeToString(type) );
+        }
+        return mlArray;
+    }
+    /**
+     * Reads field names and field values of a structure or object from the
+     * stream.
+     */
+    private void readFields( DataInputStream dis, MLStructure struct, int elements ) throws IOException
+    {
+        //field name length - this subelement always uses the compressed data element format
+        byte[] bytes = MatArrayHeader.readSubElement(dis, byteOrder, null);
+        int maxlen = ByteBuffer.wrap(bytes).order(byteOrder).getInt();
+        
+        //field names as Int8
+        bytes = MatArrayHeader.readSubElement(dis, byteOrder, null);
+        int numOfFields = maxlen > 0 ? bytes.length / maxlen : 0;
+        
+        String[] fieldNames = new String[numOfFields];
+        for ( int i = 0; i < numOfFields; i++ )
+        {
+            fieldNames[i] = zeroEndByteArrayToString( Arrays.copyOfRange( bytes, i * maxlen, ( i + 1 ) * maxlen ) );
+        }
+        for ( int index = 0; index < elements; index++ )
+        {
+            for ( int i = 0; i < numOfFields; i++ )
+            {
+                struct.setField( fieldNames[i], readNested( dis ), index );
+            }
+        }
+    }
+    /**
+     * Reads a matrix nested in a structure, cell array or java object from
+     * the stream.
+     */
+    private MLArray readNested( DataInputStream dis ) throws IOException
+    {
+        int type = MatArrayHeader.readInt(dis, byteOrder);
+        long size = MatArrayHeader.readInt(dis, byteOrder) & 0xffffffffL;
+        if ( type != MatDataTypes.miMATRIX )
+        {
+            throw new MatlabIOException("Incorrect data tag: " + MatDataTypes.typeToString(type));
+        }
+        if ( size == 0 )
+        {
+            return new MLEmptyArray();
+        }
+        LimitedInputStream is = new LimitedInputStream(dis, size);
+        DataInputStream nested = new DataInputStream(is);
+        MLArray array = readMatrix( nested, MatArrayHeader.read( nested, byteOrder ) );
+        is.skipRemaining();
+        return array;
+    }
+    /**
+     * Creates an empty numeric array of the given class.
+     */
+    private static MLNumericArray<?> newNumericArray( String name, int[] dims, int type, int attributes )
+    {
+        switch ( type )
+        {
+            case MLArray.mxDOUBLE_CLASS:
+                return new MLDouble(name, dims, type, attributes);
+            case MLArray.mxSINGLE_CLASS:
+                return new MLSingle(name, dims, type, attributes);
+            case MLArray.mxUINT8_CLASS:
+                return new MLUInt8(name, dims, type, attributes);
+            case MLArray.mxINT8_CLASS:
+                return new MLInt8(name, dims, type, attributes);
+            case MLArray.mxINT16_CLASS:
+                return new MLInt16(name, dims, type, attributes);
+            case MLArray.mxINT32_CLASS:
+                return new MLInt32(name, dims, type, attributes);
+            case MLArray.mxUINT32_CLASS:
+                return new MLUInt32(name, dims, type, attributes);
+            case MLArray.mxINT64_CLASS:
+                return new MLInt64(name, dims, type, attributes);
+            case MLArray.mxUINT64_CLASS:
+                return new MLUInt64(name, dims, type, attributes);
+            default:
+                throw new IllegalArgumentException("Not a numeric class: " + MLArray.typeToString(type) );
+        }
+    }
+    /**
+     * Reads up to <code>len</code> bytes from the stream. Blocks until
+     * <code>len</code> bytes are red or the stream ends.
+     * 
+     * @return - number of bytes red
+     * @throws IOException if reading the stream fails
+     */
+    private static int readFully( InputStream is, byte[] bytes, int off, int len ) throws IOException
+    {
+        int red = 0;
+        while ( red < len )
+        {
+            int i = is.read( bytes, off + red, len - red );
+            if ( i < 0 )
+            {
+                break;
+            }
+            red += i;
+        }
+        return red;
+    }
+    /**
+     * Reads real and (if the array is complex) imaginary part of a numeric
+     * array.
+     * <p>
+     * In zero-copy mode data stored in the memory mapped file with the type
+     * of the array class is not copied, the array wraps a slice of the file.
+     * 
+     * @param buf -
+     *            input byte buffer
+     * @param array -
+     *            the array to be filled
+     * @throws IOException when error occurs while reading the buffer.
+     */
+    private void readNumericArray( ByteBuffer buf, MLNumericArray<?> array ) throws IOException
+    {
+        //read real
+        ISMatTag tag = new ISMatTag(buf);
+        if ( canWrap( buf, tag, array ) )
+        {
+            array.wrapRealByteBuffer( tag.slice() );
         }
-        catch ( IOException e )
+        else
         {
-            throw e;
+            tag.readToByteBuffer( array.getRealByteBuffer(), array );
         }
-        finally
+        //read complex
+        if ( array.isComplex() )
         {
-            if ( roChannel != null )
-            {
-                roChannel.close();
-            }
-            if ( raFile != null )
+            tag = new ISMatTag(buf);
+            if ( canWrap( buf, tag, array ) )
             {
-                raFile.close();
+                array.wrapImaginaryByteBuffer( tag.slice() );
             }
-            if ( buf != null && bufferWeakRef != null && policy == MEMORY_MAPPED_FILE )
+            else
             {
-                try
-                {
-                    clean(buf);
-                }
-                catch ( Exception e )
-                {
-                    int GC_TIMEOUT_MS = 1000;
-                    buf = null;
-                    long start = System.currentTimeMillis();
-                    while (bufferWeakRef.get() != null) 
-                    {
-                        if (System.currentTimeMillis() - start > GC_TIMEOUT_MS)
-                        {
-                            break; //a hell cannot be unmapped - hopefully GC will
-                                   //do it's job later
-                        }
-                        System.gc();
-                        Thread.yield();
-                    }
-                }
+                tag.readToByteBuffer( array.getImaginaryByteBuffer(), array );
             }
         }
-        
     }
-    
     /**
-     * Workaround taken from bug <a
-     * href="http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4724038">#4724038</a>
-     * to release the memory mapped byte buffer.
-     * <p>
-     * Little quote from SUN: <i>This is highly inadvisable, to put it mildly.
-     * It is exceedingly dangerous to forcibly unmap a mapped byte buffer that's
-     * visible to Java code. Doing so risks both the security and stability of
-     * the system</i>
-     * <p>
-     * Since the memory byte buffer used to map the file is not exposed to the
-     * outside world, maybe it's save to use it without being cursed by the SUN.
-     * Since there is no other solution this will do (don't trust voodoo GC
-     * invocation)
+     * Tells if the array may wrap the tag data instead of copying it.
+     */
+    private boolean canWrap( ByteBuffer buf, ISMatTag tag, MLNumericArray<?> array )
+    {
+        return zeroCopy 
+                && buf instanceof MappedByteBuffer 
+                && tag.type == storageType( array.getType() )
+                && tag.size == array.getSize() * array.getBytesAllocated();
+    }
+    /**
+     * Returns the data type that stores values of the array class without
+     * conversion.
      * 
-     * @param buffer
-     *            the buffer to be unmapped
-     * @throws Exception
-     *             all kind of evil stuff
+     * @param type - array class
+     * @return - data type or <code>miUNKNOWN</code>
      */
-    private void clean(final Object buffer) throws Exception
+    private static int storageType( int type )
     {
-        AccessController.doPrivileged(new PrivilegedAction<Object>()
+        switch ( type )
         {
-            public Object run()
-            {
-                try
-                {
-                    Method getCleanerMethod = buffer.getClass().getMethod(
-                            "cleaner", new Class[0]);
-                    getCleanerMethod.setAccessible(true);
-                    sun.misc.Cleaner cleaner = (sun.misc.Cleaner) getCleanerMethod
-                            .invoke(buffer, new Object[0]);
-                    cleaner.clean();
-                }
-                catch (Exception e)
-                {
-                    e.printStackTrace();
-                }
-                return null;
-            }
-        });
-    }       
-    
-    
-    
+            case MLArray.mxDOUBLE_CLASS:
+                return MatDataTypes.miDOUBLE;
+            case MLArray.mxSINGLE_CLASS:
+                return MatDataTypes.miSINGLE;
+            case MLArray.mxINT8_CLASS:
+                return MatDataTypes.miINT8;
+            case MLArray.mxUINT8_CLASS:
+                return MatDataTypes.miUINT8;
+            case MLArray.mxINT16_CLASS:
+                return MatDataTypes.miINT16;
+            case MLArray.mxUINT16_CLASS:
+                return MatDataTypes.miUINT16;
+            case MLArray.mxINT32_CLASS:
+                return MatDataTypes.miINT32;
+            case MLArray.mxUINT32_CLASS:
+                return MatDataTypes.miUINT32;
+            case MLArray.mxINT64_CLASS:
+                return MatDataTypes.miINT64;
+            case MLArray.mxUINT64_CLASS:
+                return MatDataTypes.miUINT64;
+            default:
+                return MatDataTypes.miUNKNOWN;
+        }
+    }
     /**
      * Gets MAT-file header
      * 
@@ -444,10 +1384,14 @@ public class MatFileReader
      * 
      * @param buf -
      *            input byte buffer
+     * @return - <code>MLArray</code> or <code>null</code> if matrix does
+     *         not match <code>filter</code>
      * @throws IOException when error occurs while reading the buffer.
      */
-    private void readData( ByteBuffer buf ) throws IOException
+    private MLArray readData( ByteBuffer buf ) throws IOException
     {
+        MLArray element;
+        
         //read data
         ISMatTag tag = new ISMatTag(buf);
         switch ( tag.type )
@@ -459,6 +1403,19 @@ public class MatFileReader
                 {
                     throw new MatlabIOException("Compressed buffer length miscalculated!");
                 }
+                //inflate only the array header first, there is no need to
+                //inflate the whole element if the array is filtered out
+                if ( !filter.isEmpty() )
+                {
+                    MatArrayHeader header = MatArrayHeader.readCompressed(
+                            new ByteBufferInputStream(buf.duplicate(), numOfBytes), byteOrder );
+                    
+                    if ( !filter.matches( header.getName() ) )
+                    {
+                        buf.position( buf.position() + tag.size );
+                        return null;
+                    }
+                }
                 //instead of standard Inlater class instance I use an inflater input
                 //stream... gives a great boost to the performance
                 InflaterInputStream iis = new InflaterInputStream(new ByteBufferInputStream(buf, numOfBytes));
@@ -498,7 +1455,7 @@ public class MatFileReader
                 
                 try
                 {
-                    readData( out );
+                    element = readData( out );
                     
                 }
                 catch ( IOException e )
@@ -515,13 +1472,9 @@ public class MatFileReader
                 //read in the matrix
                 int pos = buf.position();
                 
-                MLArray element = readMatrix( buf, true );
+                element = readMatrix( buf, true );
                 
-                if ( element != null && !data.containsKey( element.getName() ) )
-                {
-                    data.put( element.getName(), element );
-                }
-                else
+                if ( element == null )
                 {
                     int red = buf.position() - pos;
                     int toread = tag.size - red;
@@ -540,6 +1493,30 @@ public class MatFileReader
                 throw new MatlabIOException("Incorrect data tag: " + tag);
                     
         }
+        return element;
+    }
+    /**
+     * Reads a single top-level element (either <code>miCOMPRESSED</code> or
+     * <code>miMATRIX</code>) from the buffer.
+     * <p>
+     * Used by <code>{@link MatFileIndex}</code> to decode variables on demand.
+     * 
+     * @param buf -
+     *            the buffer positioned at the element tag
+     * @param byteOrder -
+     *            the byte order of the MAT-file
+     * @param zeroCopy -
+     *            tells if numeric arrays may wrap a mapped <code>buf</code>
+     * @return - the decoded <code>MLArray</code>
+     * @throws IOException when error occurs while reading the buffer.
+     */
+    MLArray readElement( ByteBuffer buf, ByteOrder byteOrder, boolean zeroCopy ) throws IOException
+    {
+        this.byteOrder = byteOrder;
+        this.zeroCopy = zeroCopy;
+        buf.order( byteOrder );
+        
+        return readData( buf );
     }
     /**
      * Reads miMATRIX from from input stream.
@@ -618,7 +1595,11 @@ public class MatFileReader
                         //read matrix recursively
                         tag = new ISMatTag(buf);
                         
-                        if ( tag.size > 0 )
+                        if ( tag.size > 0 && lazy )
+                        {
+                            struct.setLazyField(fieldNames[i], new LazyArray( getDecoder(), tag.slice() ), index);
+                        }
+                        else if ( tag.size > 0 )
                         {
                             MLArray fieldValue = readMatrix( buf, false);
                             struct.setField(fieldNames[i], fieldValue, index);
@@ -636,7 +1617,11 @@ public class MatFileReader
                 for ( int i = 0; i < cell.getM()*cell.getN(); i++ )
                 {
                     tag = new ISMatTag(buf);
-                    if ( tag.size > 0 )
+                    if ( tag.size > 0 && lazy )
+                    {
+                        cell.setLazy( new LazyArray( getDecoder(), tag.slice() ), i );
+                    }
+                    else if ( tag.size > 0 )
                     {
                         //read matrix recursively
                         MLArray cellmatrix = readMatrix( buf, false);
@@ -651,146 +1636,46 @@ public class MatFileReader
                 break;
             case MLArray.mxDOUBLE_CLASS:
                 mlArray = new MLDouble(name, dims, type, attributes);
-                //read real
-                tag = new ISMatTag(buf);
-                tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getRealByteBuffer(),
-                                            (MLNumericArray<?>) mlArray );
-                //read complex
-                if ( mlArray.isComplex() )
-                {
-                    tag = new ISMatTag(buf);
-                    tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-                            (MLNumericArray<?>) mlArray );
-                }
+                readNumericArray( buf, (MLNumericArray<?>) mlArray );
                 break;
             case MLArray.mxSINGLE_CLASS:
                 mlArray = new MLSingle(name, dims, type, attributes);
-                //read real
-                tag = new ISMatTag(buf);
-                tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getRealByteBuffer(),
-                                            (MLNumericArray<?>) mlArray );
-                //read complex
-                if ( mlArray.isComplex() )
-                {
-                    tag = new ISMatTag(buf);
-                    tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-                            (MLNumericArray<?>) mlArray );
-                }
+                readNumericArray( buf, (MLNumericArray<?>) mlArray );
                 break;
             case MLArray.mxUINT8_CLASS:
                 mlArray = new MLUInt8(name, dims, type, attributes);
-                //read real
-                tag = new ISMatTag(buf);
-                tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getRealByteBuffer(),
-                                            (MLNumericArray<?>) mlArray );
-                //read complex
-                if ( mlArray.isComplex() )
-                {
-                    tag = new ISMatTag(buf);
-                    tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-                            (MLNumericArray<?>) mlArray );
-                }
+                readNumericArray( buf, (MLNumericArray<?>) mlArray );
                 break;
             case MLArray.mxINT8_CLASS:
                 mlArray = new MLInt8(name, dims, type, attributes);
-                //read real
-                tag = new ISMatTag(buf);
-                tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getRealByteBuffer(),
-                                            (MLNumericArray<?>) mlArray );
-                //read complex
-                if ( mlArray.isComplex() )
-                {
-                    tag = new ISMatTag(buf);
-                    tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-                            (MLNumericArray<?>) mlArray );
-                }
+                readNumericArray( buf, (MLNumericArray<?>) mlArray );
                 break;
             case MLArray.mxINT16_CLASS:
                 mlArray = new MLInt16(name, dims, type, attributes);
-                //read real
-                tag = new ISMatTag(buf);
-                tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getRealByteBuffer(),
-                                            (MLNumericArray<?>) mlArray );
-                //read complex
-                if ( mlArray.isComplex() )
-                {
-                    tag = new ISMatTag(buf);
-                    tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-                            (MLNumericArray<?>) mlArray );
-                }
+                readNumericArray( buf, (MLNumericArray<?>) mlArray );
                 break;
             case MLArray.mxINT32_CLASS:                
                 mlArray = new MLInt32(name, dims, type, attributes);
-                //read real
-                tag = new ISMatTag(buf);
-                tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getRealByteBuffer(),
-                                            (MLNumericArray<?>) mlArray );
-                //read complex
-                if ( mlArray.isComplex() )
-                {
-                    tag = new ISMatTag(buf);
-                    tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-                            (MLNumericArray<?>) mlArray );
-                }
+                readNumericArray( buf, (MLNumericArray<?>) mlArray );
                 break;
             case MLArray.mxUINT32_CLASS:                
                 mlArray = new MLUInt32(name, dims, type, attributes);
-                //read real
-                tag = new ISMatTag(buf);
-                tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getRealByteBuffer(),
-                                            (MLNumericArray<?>) mlArray );
-                //read complex
-                if ( mlArray.isComplex() )
-                {
-                    tag = new ISMatTag(buf);
-                    tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-                            (MLNumericArray<?>) mlArray );
-                }
+                readNumericArray( buf, (MLNumericArray<?>) mlArray );
                 break;
             case MLArray.mxINT64_CLASS:
                 mlArray = new MLInt64(name, dims, type, attributes);
-                //read real
-                tag = new ISMatTag(buf);
-                tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getRealByteBuffer(),
-                                            (MLNumericArray<?>) mlArray );
-                //read complex
-                if ( mlArray.isComplex() )
-                {
-                    tag = new ISMatTag(buf);
-                    tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-                            (MLNumericArray<?>) mlArray );
-                }
+                readNumericArray( buf, (MLNumericArray<?>) mlArray );
                 break;
             case MLArray.mxUINT64_CLASS:
                 mlArray = new MLUInt64(name, dims, type, attributes);
-                //read real
-                tag = new ISMatTag(buf);
-                tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getRealByteBuffer(),
-                                            (MLNumericArray<?>) mlArray );
-                //read complex
-                if ( mlArray.isComplex() )
-                {
-                    tag = new ISMatTag(buf);
-                    tag.readToByteBuffer( ((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-                            (MLNumericArray<?>) mlArray );
-                }
+                readNumericArray( buf, (MLNumericArray<?>) mlArray );
                 break;
             case MLArray.mxCHAR_CLASS:
-                MLChar mlchar = new MLChar(name, dims, type, attributes);
-                
                 //read real
                 tag = new ISMatTag(buf);
-//                char[] ac = tag.readToCharArray();
-                String str = tag.readToString();
-
-                for ( int i = 0; i < str.length(); i++ )
-                {
-                    mlchar.setChar( str.charAt(i), i );
-                }
-                mlArray = mlchar;
+                mlArray = new MLChar(name, dims, attributes, tag.readToCharArray() );
                 break;
             case MLArray.mxSPARSE_CLASS:
-                MLSparse sparse = new MLSparse(name, dims, attributes, nzmax);
                 //read ir (row indices)
                 tag = new ISMatTag(buf);
                 int[] ir = tag.readToIntArray();
@@ -800,29 +1685,17 @@ public class MatFileReader
                 
                 //read pr (real part)
                 tag = new ISMatTag(buf);
-                double[] ad1 = tag.readToDoubleArray();
-                int count = 0;
-                for (int column = 0; column < sparse.getN(); column++) {
-                    while(count < jc[column+1]) {
-                        sparse.setReal(ad1[count], ir[count], column);
-                        count++;
-                    }
-                }
+                double[] pr = tag.readToDoubleArray();
                 
                 //read pi (imaginary part)
-                if ( sparse.isComplex() )
+                double[] pi = null;
+                if ( ( attributes & MLArray.mtFLAG_COMPLEX ) != 0 )
                 {
                     tag = new ISMatTag(buf);
-                    double[] ad2 = tag.readToDoubleArray();
-                    
-                    count = 0;
-                    for (int column = 0; column < sparse.getN(); column++) {
-                        while(count < jc[column+1]) {
-                            sparse.setImaginary(ad2[count], ir[count], column);
-                            count++;
-                        }
-                    }
+                    pi = tag.readToDoubleArray();
                 }
+                //the arrays are already in CSC order, no need to insert element by element
+                MLSparse sparse = new MLSparse(name, dims, attributes, nzmax, ir, jc, pr, pi);
                 mlArray = sparse;
                 break;
 
@@ -913,7 +1786,11 @@ public class MatFileReader
                         //read matrix recursively
                         tag = new ISMatTag(buf);
 
-                        if ( tag.size > 0 )
+                        if ( tag.size > 0 && lazy )
+                        {
+                            struct.setLazyField( fieldNames[i], new LazyArray( getDecoder(), tag.slice() ), index );
+                        }
+                        else if ( tag.size > 0 )
                         {
                             MLArray fieldValue = readMatrix( buf, false);
                             struct.setField( fieldNames[i], fieldValue, index );
@@ -1014,48 +1891,92 @@ public class MatFileReader
      */
     private void readHeader(ByteBuffer buf) throws IOException
     {
-        //header values
-        String description;
-        int version;
-        byte[] endianIndicator = new byte[2];
-        
-        //descriptive text 116 bytes
-        byte[] descriptionBuffer = new byte[116];
-        buf.get(descriptionBuffer);
-        
-        description = zeroEndByteArrayToString(descriptionBuffer);
-        
-        if ( !description.matches("MATLAB 5.0 MAT-file.*") )
+        matFileHeader = MatFileHeader.read(buf);
+        byteOrder = buf.order();
+    }
+    /**
+     * Gets the reader decoding lazily red arrays. It's a copy of this
+     * reader's settings, so later reads do not affect arrays not yet
+     * decoded.
+     */
+    private MatFileReader getDecoder()
+    {
+        if ( decoder == null )
         {
-            throw new MatlabIOException("This is not a valid MATLAB 5.0 MAT-file.");
+            decoder = new MatFileReader();
+            decoder.filter = filter;
+            decoder.byteOrder = byteOrder;
+            decoder.zeroCopy = zeroCopy;
+            decoder.lazy = true;
+            //nested arrays are decoded by the same reader
+            decoder.decoder = decoder;
         }
+        return decoder;
+    }
+    /**
+     * Struct field or cell element decoded on first access.
+     */
+    private static class LazyArray implements ArrayLoader
+    {
+        private final MatFileReader reader;
+        private final ByteBuffer buf;
         
-        //subsyst data offset 8 bytes
-        buf.position( buf.position() + 8);
-        
-        byte[] bversion = new byte[2];
-        //version 2 bytes
-        buf.get(bversion);
-        
-        //endian indicator 2 bytes
-        buf.get(endianIndicator);
-        
-        //program reading the MAT-file must perform byte swapping to interpret the data
-        //in the MAT-file correctly
-        if ( (char)endianIndicator[0] == 'I' && (char)endianIndicator[1] == 'M')
+        /**
+         * @param reader - the reader decoding the array
+         * @param buf - the matrix data (just after the <code>miMATRIX</code> tag)
+         */
+        public LazyArray(MatFileReader reader, ByteBuffer buf)
         {
-            byteOrder = ByteOrder.LITTLE_ENDIAN;
-            version = bversion[1] & 0xff | bversion[0] << 8;
+            this.reader = reader;
+            this.buf = buf;
         }
-        else
+        
+        public MLArray load()
         {
-            byteOrder = ByteOrder.BIG_ENDIAN;
-            version = bversion[0] & 0xff | bversion[1] << 8;
+            try
+            {
+                return reader.readMatrix( buf.duplicate().order( buf.order() ), false );
+            }
+            catch ( IOException e )
+            {
+                throw new IllegalStateException( "Could not decode array: " + e, e );
+            }
         }
+    }
+    /**
+     * Task reading and decoding a single top-level data element.
+     * <p>
+     * Every task uses it's own <code>MatFileReader</code> instance, so tasks
+     * can run concurrently.
+     */
+    private static class ElementReader implements Callable<MLArray>
+    {
+        private final MatFileReader reader;
+        private final FileChannel channel;
+        private final long position;
+        private final int type;
+        private final long size;
         
-        buf.order( byteOrder );
+        public ElementReader(MatFileReader parent, FileChannel channel, long position, int type, long size)
+        {
+            this.reader = new MatFileReader();
+            this.reader.filter = parent.filter;
+            this.reader.byteOrder = parent.byteOrder;
+            this.channel = channel;
+            this.position = position;
+            this.type = type;
+            this.size = size;
+        }
         
-        matFileHeader = new MatFileHeader(description, version, endianIndicator);
+        public MLArray call() throws IOException
+        {
+            if ( TAG_SIZE + size > Integer.MAX_VALUE )
+            {
+                //too big for a buffer, stream it
+                return reader.readData( new FileChannelInputStream( channel, position + TAG_SIZE, size ), type, size );
+            }
+            return reader.readData( reader.readFully( channel, position, (int) ( TAG_SIZE + size ) ) );
+        }
     }
     /**
      * TAG operator. Facilitates reading operations.
@@ -1067,6 +1988,9 @@ public class MatFileReader
     private static class ISMatTag extends MatTag
     {
         private final MatFileInputStream mfis;
+        private static final Charset UTF8 = Charset.forName("UTF-8");
+        
+        private final ByteBuffer buf;
         private final int padding;
 		private final boolean compressed;
         
@@ -1091,8 +2015,24 @@ public class MatFileReader
             }
             padding = getPadding(size, compressed);
             mfis = new MatFileInputStream(buf, type);
+            this.buf = buf;
         } 
         
+        /**
+         * Returns a slice of the buffer holding the tag data (no copy) and
+         * skips the data.
+         * 
+         * @return - slice with the byte order of the buffer
+         */
+        public ByteBuffer slice()
+        {
+            ByteBuffer slice = buf.slice();
+            slice.limit( size );
+            slice.order( buf.order() );
+            buf.position( buf.position() + size + padding );
+            return slice;
+        }
+        
         
         public void readToByteBuffer( ByteBuffer buff, ByteStorageSupport<?> storage ) throws IOException
         {
@@ -1121,10 +2061,7 @@ public class MatFileReader
             int elements = size/sizeOf();
             double[] ad = new double[elements];
             
-            for ( int i = 0; i < elements; i++ )
-            {
-                ad[i] = mfis.readDouble();
-            }
+            mfis.readToDoubleArray( ad );
             
             //skip padding
             mfis.skip( padding );
@@ -1136,10 +2073,7 @@ public class MatFileReader
             int elements = size/sizeOf();
             int[] ai = new int[elements];
             
-            for ( int i = 0; i < elements; i++ )
-            {
-                ai[i] = mfis.readInt();
-            }
+            mfis.readToIntArray( ai );
             
             //skip padding
             mfis.skip( padding );
@@ -1154,20 +2088,217 @@ public class MatFileReader
         	
         }
         
+        /**
+         * Reads character data. UTF-8 and 16-bit data is decoded in bulk,
+         * other types element by element.
+         */
         public char[] readToCharArray() throws IOException
         {
-            //allocate memory for array elements
-            int elements = size/sizeOf();
-            char[] ac = new char[elements];
-            
-            for ( int i = 0; i < elements; i++ )
+            char[] ac;
+            switch ( type )
             {
-                ac[i] = mfis.readChar();
+                case MatDataTypes.miUTF8:
+                    CharBuffer cb = UTF8.decode( slice() );
+                    ac = new char[cb.remaining()];
+                    cb.get( ac );
+                    return ac;
+                case MatDataTypes.miUTF16:
+                case MatDataTypes.miUINT16:
+                case MatDataTypes.miINT16:
+                    ac = new char[size/2];
+                    slice().asCharBuffer().get( ac );
+                    return ac;
+                default:
+                    //allocate memory for array elements
+                    int elements = size/sizeOf();
+                    ac = new char[elements];
+                    
+                    for ( int i = 0; i < elements; i++ )
+                    {
+                        ac[i] = mfis.readChar();
+                    }
+                    
+                    //skip padding
+                    mfis.skip( padding );
+                    return ac;
             }
+        }
+    }
+    /**
+     * Sub-element tag red from a stream. The data is red in chunks of whole
+     * elements and converted directly to the destination, so sub-elements of
+     * any size are decoded with a fixed amount of memory.
+     */
+    private static class StreamMatTag extends MatTag
+    {
+        /**
+         * Size of the data chunk red at once. Multiple of 8, so chunks always
+         * hold whole elements.
+         */
+        private static final int CHUNK_SIZE = 1 << 16;
+        
+        private final DataInputStream dis;
+        private final ByteOrder byteOrder;
+        private final long length;
+        private final int padding;
+        private byte[] chunk;
+        private long remaining;
+        
+        public StreamMatTag(DataInputStream dis, ByteOrder byteOrder) throws IOException
+        {
+            //must call parent constructor
+            super(0,0);
+            int tmp = MatArrayHeader.readInt(dis, byteOrder);
             
-            //skip padding
-            mfis.skip( padding );
-            return ac;
+            //data not packed in the tag
+            if ( tmp >> 16 == 0 )
+            {
+                type = tmp;
+                length = MatArrayHeader.readInt(dis, byteOrder) & 0xffffffffL;
+                padding = ( length % 8 ) != 0 ? 8 - (int) ( length % 8 ) : 0;
+            }
+            else //data _packed_ in the tag (compressed)
+            {
+                length = tmp >> 16;
+                type = tmp & 0xffff;
+                padding = 4 - (int) length;
+            }
+            size = (int) Math.min( length, Integer.MAX_VALUE );
+            this.dis = dis;
+            this.byteOrder = byteOrder;
+            this.remaining = length;
+        }
+        
+        /**
+         * Gets the number of elements in the sub-element.
+         * 
+         * @throws MatlabIOException if there are too many elements for an array
+         */
+        private int elements() throws MatlabIOException
+        {
+            long elements = length / sizeOf();
+            if ( elements > Integer.MAX_VALUE )
+            {
+                throw new MatlabIOException("Too many elements in sub-element: " + elements );
+            }
+            return (int) elements;
+        }
+        
+        /**
+         * Reads the next chunk of data, skips the padding after the last one.
+         * 
+         * @return - the chunk (with the file byte order) or <code>null</code>
+         *           if all data is red
+         */
+        private ByteBuffer nextChunk() throws IOException
+        {
+            if ( remaining == 0 )
+            {
+                if ( dis.skipBytes(padding) != padding )
+                {
+                    throw new EOFException();
+                }
+                return null;
+            }
+            if ( chunk == null )
+            {
+                chunk = new byte[ (int) Math.min( length, CHUNK_SIZE ) ];
+            }
+            int red = (int) Math.min( remaining, chunk.length );
+            dis.readFully( chunk, 0, red );
+            remaining -= red;
+            return ByteBuffer.wrap( chunk, 0, red ).slice().order( byteOrder );
+        }
+        
+        public void readToByteBuffer( ByteBuffer buff, ByteStorageSupport<?> storage ) throws IOException
+        {
+            int bytesAllocated = storage.getBytesAllocated();
+            int offset = 0;
+            ByteBuffer src;
+            while ( ( src = nextChunk() ) != null )
+            {
+                int elements = src.remaining() / sizeOf();
+                ByteBuffer dest = buff.duplicate();
+                dest.limit( ( offset + elements ) * bytesAllocated );
+                dest.position( offset * bytesAllocated );
+                new MatFileInputStream( src, type ).readToByteBuffer( dest.slice().order( buff.order() ), elements, storage );
+                offset += elements;
+            }
+        }
+        public double[] readToDoubleArray() throws IOException
+        {
+            double[] ad = new double[elements()];
+            int offset = 0;
+            ByteBuffer src;
+            while ( ( src = nextChunk() ) != null )
+            {
+                int elements = src.remaining() / sizeOf();
+                new MatFileInputStream( src, type ).readToDoubleArray( ad, offset, elements );
+                offset += elements;
+            }
+            return ad;
+        }
+        public int[] readToIntArray() throws IOException
+        {
+            int[] ai = new int[elements()];
+            int offset = 0;
+            ByteBuffer src;
+            while ( ( src = nextChunk() ) != null )
+            {
+                int elements = src.remaining() / sizeOf();
+                new MatFileInputStream( src, type ).readToIntArray( ai, offset, elements );
+                offset += elements;
+            }
+            return ai;
+        }
+        
+        /**
+         * Reads character data. UTF-8 data is decoded at once, 16-bit data
+         * in bulk chunk by chunk, other types element by element.
+         */
+        public char[] readToCharArray() throws IOException
+        {
+            char[] ac;
+            ByteBuffer src;
+            int offset = 0;
+            switch ( type )
+            {
+                case MatDataTypes.miUTF8:
+                    byte[] bytes = new byte[elements()];
+                    while ( ( src = nextChunk() ) != null )
+                    {
+                        int elements = src.remaining();
+                        src.get( bytes, offset, elements );
+                        offset += elements;
+                    }
+                    CharBuffer cb = ISMatTag.UTF8.decode( ByteBuffer.wrap( bytes ) );
+                    ac = new char[cb.remaining()];
+                    cb.get( ac );
+                    return ac;
+                case MatDataTypes.miUTF16:
+                case MatDataTypes.miUINT16:
+                case MatDataTypes.miINT16:
+                    ac = new char[ (int) ( length / 2 ) ];
+                    while ( ( src = nextChunk() ) != null )
+                    {
+                        int elements = src.remaining() / 2;
+                        src.asCharBuffer().get( ac, offset, elements );
+                        offset += elements;
+                    }
+                    return ac;
+                default:
+                    ac = new char[elements()];
+                    while ( ( src = nextChunk() ) != null )
+                    {
+                        MatFileInputStream mfis = new MatFileInputStream( src, type );
+                        int elements = src.remaining() / sizeOf();
+                        for ( int i = 0; i < elements; i++ )
+                        {
+                            ac[offset++] = mfis.readChar();
+                        }
+                    }
+                    return ac;
+            }
         }
     }
 }
@@ -0,0 +1,161 @@
+package com.jmatio.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives MAT-file content as a sequence of events.
+ * <p>
+ * The visitor is driven directly off the data element stream by
+ * <code>{@link MatFileReader#read(java.io.InputStream, MatFileVisitor)}</code>.
+ * No <code>MLArray</code> objects are created. Numeric data is delivered in
+ * chunks of bounded size, so memory use does not depend on the size of
+ * the arrays.
+ * <p>
+ * Every array (top-level, struct field value or cell element) is reported
+ * with <code>{@link #startArray(String, int, int[], int)}</code> and
+ * closed with <code>{@link #endArray()}</code>. Between the two the
+ * following events may occur, depending on the array class:
+ * <ul>
+ * <li>numeric, logical, character and sparse arrays -
+ * <code>{@link #numericChunk(ByteBuffer, int, int)}</code> events,</li>
+ * <li>structures and objects - <code>{@link #startStruct(String, String[])}</code>,
+ * then for every element and every field <code>{@link #field(String, int)}</code>
+ * followed by the field value events,</li>
+ * <li>cell arrays - <code>{@link #startCell(int)}</code> followed by the
+ * events of every cell element.</li>
+ * </ul>
+ * Returning <code>{@link #SKIP}</code> from a callback skips the rest of the
+ * array (or struct field value) that the callback refers to.
+ * <code>{@link #endArray()}</code> is called for skipped arrays as well.
+ *
+ * Usage:
+ * <pre><code>
+ * //sum field "x" of struct array "s"
+ * final double[] sum = new double[1];
+ * new MatFileReader().read( is, new MatFileVisitorAdapter()
+ * {
+ *     public int startArray( String name, int type, int[] dims, int attributes )
+ *     {
+ *         return depth++ == 0 &amp;&amp; !name.equals( "s" ) ? SKIP : CONTINUE;
+ *     }
+ *     public int field( String fieldName, int index )
+ *     {
+ *         return fieldName.equals( "x" ) ? CONTINUE : SKIP;
+ *     }
+ *     public int numericChunk( ByteBuffer buffer, int dataType, int part )
+ *     {
+ *         double[] ad = new double[ buffer.remaining() / MatDataTypes.sizeOf( dataType ) ];
+ *         new MatFileInputStream( buffer, dataType ).readToDoubleArray( ad );
+ *         for ( double d : ad ) sum[0] += d;
+ *         return CONTINUE;
+ *     }
+ *     public void endArray()
+ *     {
+ *         depth--;
+ *     }
+ *     private int depth;
+ * });
+ * </code></pre>
+ *
+ * @see MatFileVisitorAdapter
+ */
+public interface MatFileVisitor
+{
+    /**
+     * Continue with the next event
+     */
+    public static final int CONTINUE = 0;
+    /**
+     * Skip the rest of the current array (or struct field value)
+     */
+    public static final int SKIP     = 1;
+
+    /**
+     * Real part of a numeric or sparse array (<tt>pr</tt>) or characters of
+     * a character array
+     */
+    public static final int PART_REAL      = 0;
+    /**
+     * Imaginary part of a numeric or sparse array (<tt>pi</tt>)
+     */
+    public static final int PART_IMAGINARY = 1;
+    /**
+     * Row indices of a sparse array (<tt>ir</tt>)
+     */
+    public static final int PART_IR        = 2;
+    /**
+     * Column offsets of a sparse array (<tt>jc</tt>)
+     */
+    public static final int PART_JC        = 3;
+
+    /**
+     * Called at the beginning of every array.
+     * <p>
+     * Empty struct field values and cell elements are reported as
+     * <code>0x0</code> double arrays.
+     *
+     * @param name - array name (empty for struct fields and cell elements)
+     * @param type - array class, one of <code>MLArray.mx*_CLASS</code> values
+     * @param dims - array dimensions
+     * @param attributes - array flags
+     * @return <code>{@link #CONTINUE}</code> or <code>{@link #SKIP}</code> to
+     *         skip the array content
+     * @throws IOException to abort reading
+     */
+    public int startArray( String name, int type, int[] dims, int attributes ) throws IOException;
+    /**
+     * Called for every chunk of numeric data.
+     * <p>
+     * The buffer holds whole elements of the type stored in the file (which
+     * may differ from the array class), with the byte order of the file. Use
+     * <code>{@link com.jmatio.io.stream.MatFileInputStream}</code> to convert
+     * it. The buffer is only valid until the callback returns.
+     *
+     * @param buffer - the data
+     * @param dataType - type of the data, one of <code>MatDataTypes.mi*</code> values
+     * @param part - one of <code>PART_*</code> values
+     * @return <code>{@link #CONTINUE}</code> or <code>{@link #SKIP}</code> to
+     *         skip the rest of the array data
+     * @throws IOException to abort reading
+     */
+    public int numericChunk( ByteBuffer buffer, int dataType, int part ) throws IOException;
+    /**
+     * Called at the beginning of a structure or object content.
+     *
+     * @param className - object class name or <code>null</code> for structures
+     * @param fieldNames - field names
+     * @return <code>{@link #CONTINUE}</code> or <code>{@link #SKIP}</code> to
+     *         skip all field values
+     * @throws IOException to abort reading
+     */
+    public int startStruct( String className, String[] fieldNames ) throws IOException;
+    /**
+     * Called before the value of a struct field. The value follows as an
+     * array (<code>startArray</code> ... <code>endArray</code>).
+     *
+     * @param fieldName - field name
+     * @param index - struct array element index (column-major)
+     * @return <code>{@link #CONTINUE}</code> or <code>{@link #SKIP}</code> to
+     *         skip the field value
+     * @throws IOException to abort reading
+     */
+    public int field( String fieldName, int index ) throws IOException;
+    /**
+     * Called at the beginning of a cell array content. Every cell element
+     * follows as an array (<code>startArray</code> ... <code>endArray</code>)
+     * in column-major order.
+     *
+     * @param length - number of cell elements
+     * @return <code>{@link #CONTINUE}</code> or <code>{@link #SKIP}</code> to
+     *         skip all elements
+     * @throws IOException to abort reading
+     */
+    public int startCell( int length ) throws IOException;
+    /**
+     * Called at the end of every array.
+     *
+     * @throws IOException to abort reading
+     */
+    public void endArray() throws IOException;
+}
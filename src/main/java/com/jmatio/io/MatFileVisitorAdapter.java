@@ -0,0 +1,41 @@
+package com.jmatio.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Empty implementation of <code>{@link MatFileVisitor}</code>. Every callback
+ * returns <code>{@link MatFileVisitor#CONTINUE}</code>, subclasses override
+ * only the events they are interested in.
+ */
+public class MatFileVisitorAdapter implements MatFileVisitor
+{
+    public int startArray( String name, int type, int[] dims, int attributes ) throws IOException
+    {
+        return CONTINUE;
+    }
+
+    public int numericChunk( ByteBuffer buffer, int dataType, int part ) throws IOException
+    {
+        return CONTINUE;
+    }
+
+    public int startStruct( String className, String[] fieldNames ) throws IOException
+    {
+        return CONTINUE;
+    }
+
+    public int field( String fieldName, int index ) throws IOException
+    {
+        return CONTINUE;
+    }
+
+    public int startCell( int length ) throws IOException
+    {
+        return CONTINUE;
+    }
+
+    public void endArray() throws IOException
+    {
+    }
+}
@@ -0,0 +1,291 @@
+package com.jmatio.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.stream.LimitedInputStream;
+import com.jmatio.types.MLArray;
+
+/**
+ * Drives a <code>{@link MatFileVisitor}</code> off a stream of MAT-file
+ * data elements.
+ * <p>
+ * Nothing but the array headers, field names and a single data chunk is
+ * held in memory. Skipped top-level <code>miCOMPRESSED</code> elements are
+ * not inflated.
+ */
+class MatFileWalker
+{
+    /**
+     * Size of the numeric data chunk passed to the visitor. Multiple of 8,
+     * so chunks always hold whole elements.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final ByteOrder byteOrder;
+    private final MatFileVisitor visitor;
+    private final byte[] chunk;
+
+    /**
+     * @param byteOrder - the byte order of the MAT-file
+     * @param visitor - the visitor to notify
+     */
+    public MatFileWalker(ByteOrder byteOrder, MatFileVisitor visitor)
+    {
+        this.byteOrder = byteOrder;
+        this.visitor = visitor;
+        this.chunk = new byte[CHUNK_SIZE];
+    }
+
+    /**
+     * Walks a single top-level data element. The caller skips whatever is
+     * not consumed from the stream.
+     *
+     * @param is - the stream of element data (just after the element tag)
+     * @param type - element type from the tag
+     * @throws IOException when error occurs while reading the stream.
+     */
+    public void walkElement( InputStream is, int type ) throws IOException
+    {
+        switch ( type )
+        {
+            case MatDataTypes.miCOMPRESSED:
+                InflaterInputStream iis = new InflaterInputStream(is);
+                try
+                {
+                    DataInputStream dis = new DataInputStream(iis);
+                    int matrixType = MatArrayHeader.readInt(dis, byteOrder);
+                    long matrixSize = MatArrayHeader.readInt(dis, byteOrder) & 0xffffffffL;
+                    if ( matrixType != MatDataTypes.miMATRIX )
+                    {
+                        throw new MatlabIOException("Incorrect data tag: " + MatDataTypes.typeToString(matrixType));
+                    }
+                    walkMatrix( new LimitedInputStream(iis, matrixSize) );
+                }
+                catch ( ZipException e )
+                {
+                    throw new MatlabIOException("Could not decompress data: " + e );
+                }
+                finally
+                {
+                    iis.close();
+                }
+                break;
+            case MatDataTypes.miMATRIX:
+                walkMatrix( is );
+                break;
+            default:
+                throw new MatlabIOException("Incorrect data tag: " + MatDataTypes.typeToString(type));
+        }
+    }
+
+    /**
+     * Walks a matrix (stream positioned just after the <code>miMATRIX</code>
+     * tag). Returns as soon as the visitor skips the matrix content, the
+     * caller skips the rest of the stream.
+     */
+    private void walkMatrix( InputStream is ) throws IOException
+    {
+        DataInputStream dis = new DataInputStream(is);
+        MatArrayHeader header = MatArrayHeader.read(dis, byteOrder);
+        int type = header.getType();
+        int[] dims = header.getDimensions();
+        boolean complex = ( header.getAttributes() & MLArray.mtFLAG_COMPLEX ) != 0;
+
+        if ( visitor.startArray( header.getName(), type, dims.clone(), header.getAttributes() ) != MatFileVisitor.SKIP )
+        {
+            switch ( type )
+            {
+                case MLArray.mxSTRUCT_CLASS:
+                    walkStruct( dis, null, getSize(dims) );
+                    break;
+                case MLArray.mxOBJECT_CLASS:
+                    String className = new String( MatArrayHeader.readSubElement(dis, byteOrder, null), "UTF-8" );
+                    walkStruct( dis, className, getSize(dims) );
+                    break;
+                case MLArray.mxCELL_CLASS:
+                    walkCell( dis, getSize(dims) );
+                    break;
+                case MLArray.mxDOUBLE_CLASS:
+                case MLArray.mxSINGLE_CLASS:
+                case MLArray.mxINT8_CLASS:
+                case MLArray.mxUINT8_CLASS:
+                case MLArray.mxINT16_CLASS:
+                case MLArray.mxUINT16_CLASS:
+                case MLArray.mxINT32_CLASS:
+                case MLArray.mxUINT32_CLASS:
+                case MLArray.mxINT64_CLASS:
+                case MLArray.mxUINT64_CLASS:
+                case MLArray.mxCHAR_CLASS:
+                    if ( walkNumeric( dis, MatFileVisitor.PART_REAL ) && complex )
+                    {
+                        walkNumeric( dis, MatFileVisitor.PART_IMAGINARY );
+                    }
+                    break;
+                case MLArray.mxSPARSE_CLASS:
+                    if ( walkNumeric( dis, MatFileVisitor.PART_IR )
+                            && walkNumeric( dis, MatFileVisitor.PART_JC )
+                            && walkNumeric( dis, MatFileVisitor.PART_REAL )
+                            && complex )
+                    {
+                        walkNumeric( dis, MatFileVisitor.PART_IMAGINARY );
+                    }
+                    break;
+                case MLArray.mxOPAQUE_CLASS:
+                    //java objects are not visited, the content is skipped
+                    break;
+                default:
+                    throw new MatlabIOException("Incorrect matlab array class: " + MLArray.typeToString(type) );
+            }
+        }
+        visitor.endArray();
+    }
+
+    /**
+     * Walks field names and field values of a structure or object.
+     */
+    private void walkStruct( DataInputStream dis, String className, int elements ) throws IOException
+    {
+        //field name length - this subelement always uses the compressed data element format
+        byte[] bytes = MatArrayHeader.readSubElement(dis, byteOrder, null);
+        int maxlen = ByteBuffer.wrap(bytes).order(byteOrder).getInt();
+
+        //field names as Int8
+        bytes = MatArrayHeader.readSubElement(dis, byteOrder, null);
+        int numOfFields = maxlen > 0 ? bytes.length / maxlen : 0;
+
+        String[] fieldNames = new String[numOfFields];
+        for ( int i = 0; i < numOfFields; i++ )
+        {
+            int length = 0;
+            while ( length < maxlen && bytes[i * maxlen + length] != 0 )
+            {
+                length++;
+            }
+            fieldNames[i] = new String( bytes, i * maxlen, length );
+        }
+
+        if ( visitor.startStruct( className, fieldNames.clone() ) == MatFileVisitor.SKIP )
+        {
+            return;
+        }
+        for ( int index = 0; index < elements; index++ )
+        {
+            for ( int i = 0; i < numOfFields; i++ )
+            {
+                boolean skip = visitor.field( fieldNames[i], index ) == MatFileVisitor.SKIP;
+                walkNested( dis, skip );
+            }
+        }
+    }
+
+    /**
+     * Walks cell array elements.
+     */
+    private void walkCell( DataInputStream dis, int elements ) throws IOException
+    {
+        if ( visitor.startCell( elements ) == MatFileVisitor.SKIP )
+        {
+            return;
+        }
+        for ( int i = 0; i < elements; i++ )
+        {
+            walkNested( dis, false );
+        }
+    }
+
+    /**
+     * Walks a matrix nested in a structure or cell array.
+     *
+     * @param skip - when <code>true</code> the matrix is skipped without
+     *            notifying the visitor
+     */
+    private void walkNested( DataInputStream dis, boolean skip ) throws IOException
+    {
+        int type = MatArrayHeader.readInt(dis, byteOrder);
+        long size = MatArrayHeader.readInt(dis, byteOrder) & 0xffffffffL;
+        if ( type != MatDataTypes.miMATRIX )
+        {
+            throw new MatlabIOException("Incorrect data tag: " + MatDataTypes.typeToString(type));
+        }
+
+        LimitedInputStream is = new LimitedInputStream(dis, size);
+        if ( !skip && size == 0 )
+        {
+            //empty array
+            visitor.startArray( "", MLArray.mxDOUBLE_CLASS, new int[] {0, 0}, 0 );
+            visitor.endArray();
+        }
+        else if ( !skip )
+        {
+            walkMatrix( is );
+        }
+        is.skipRemaining();
+    }
+
+    /**
+     * Passes numeric sub-element data to the visitor chunk by chunk.
+     *
+     * @return - <code>false</code> if the visitor skipped the data
+     */
+    private boolean walkNumeric( DataInputStream dis, int part ) throws IOException
+    {
+        int tmp = MatArrayHeader.readInt(dis, byteOrder);
+        int type;
+        long size;
+        int padding;
+
+        //data not packed in the tag
+        if ( tmp >> 16 == 0 )
+        {
+            type = tmp;
+            size = MatArrayHeader.readInt(dis, byteOrder) & 0xffffffffL;
+            padding = ( size % 8 ) != 0 ? 8 - (int) ( size % 8 ) : 0;
+        }
+        else //data _packed_ in the tag (compressed)
+        {
+            size = tmp >> 16;
+            type = tmp & 0xffff;
+            padding = 4 - (int) size;
+        }
+
+        long remaining = size;
+        while ( remaining > 0 )
+        {
+            int length = (int) Math.min( remaining, chunk.length );
+            dis.readFully( chunk, 0, length );
+            remaining -= length;
+
+            ByteBuffer buffer = ByteBuffer.wrap( chunk, 0, length ).slice().order( byteOrder );
+            if ( visitor.numericChunk( buffer, type, part ) == MatFileVisitor.SKIP )
+            {
+                return false;
+            }
+        }
+        if ( dis.skipBytes(padding) != padding )
+        {
+            throw new EOFException();
+        }
+        return true;
+    }
+
+    /**
+     * Gets number of elements of an array of given dimensions
+     */
+    private static int getSize( int[] dims )
+    {
+        int size = 1;
+        for ( int dim : dims )
+        {
+            size *= dim;
+        }
+        return size;
+    }
+}
@@ -1,19 +1,35 @@
 package com.jmatio.io;
 
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
 import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.stream.ParallelDeflaterOutputStream;
 import com.jmatio.types.MLArray;
 import com.jmatio.types.MLCell;
 import com.jmatio.types.MLChar;
@@ -23,6 +39,12 @@ import com.jmatio.types.MLStructure;
 
 /**
  * MAT-file writer.
+ * <p>
+ * Arrays are deflated straight into the output, the size of every
+ * <code>miMATRIX</code> element is computed before it's written, so nested
+ * structures and cells are not buffered. On seekable channels (files) the
+ * size of each <code>miCOMPRESSED</code> element is written afterwards,
+ * other channels buffer the compressed data of one array at a time.
  * 
  * Usage:
  * <pre><code>
@@ -52,6 +74,19 @@ import com.jmatio.types.MLStructure;
 public class MatFileWriter
 {
 //    private static final Logger logger = Logger.getLogger(MatFileWriter.class);
+    /**
+     * Size of the data element tag
+     */
+    private static final int TAG_SIZE = 8;
+    /**
+     * Size of the deflate and output buffers
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Arrays of at least this size (uncompressed) are deflated in chunks by
+     * all threads of the executor
+     */
+    private static final long PARALLEL_DEFLATE_SIZE = 4L * ParallelDeflaterOutputStream.DEFAULT_CHUNK_SIZE;
     
     /**
      * Creates the new <code>{@link MatFileWriter}</code> instance
@@ -84,6 +119,18 @@ public class MatFileWriter
     {
         this( (new FileOutputStream(file)).getChannel(), data );
     }
+    /**
+     * Writes MLArrays into <code>File</code> using given writer options.
+     * 
+     * @param file - an output <code>File</code>
+     * @param data - <code>Collection</code> of <code>MLArray</code> elements
+     * @param options - compression options
+     * @throws IOException
+     */
+    public MatFileWriter(File file, Collection<MLArray> data, MatFileWriterOptions options) throws IOException
+    {
+        this( (new FileOutputStream(file)).getChannel(), data, options );
+    }
     /**
      * Writes MLArrays into <code>OuputSteram</code>.
      * 
@@ -95,7 +142,21 @@ public class MatFileWriter
      */
     public MatFileWriter(WritableByteChannel channel, Collection<MLArray> data) throws IOException
     {
-        write(channel, data);
+        this( channel, data, MatFileWriterOptions.DEFAULT );
+    }
+    /**
+     * Writes MLArrays into <code>WritableByteChannel</code> using given
+     * writer options.
+     * 
+     * @param channel - <code>WritableByteChannel</code>
+     * @param data - <code>Collection</code> of <code>MLArray</code> elements
+     * @param options - compression options
+     * @throws IOException
+     */
+    public MatFileWriter(WritableByteChannel channel, Collection<MLArray> data,
+            MatFileWriterOptions options) throws IOException
+    {
+        write(channel, data, options);
     }
     
     /**
@@ -127,12 +188,34 @@ public class MatFileWriter
      */
     public synchronized void write(File file, Collection<MLArray> data)
             throws IOException
+    {
+        write(file, data, MatFileWriterOptions.DEFAULT);
+    }
+    
+    /**
+     * Writes <code>MLArrays</code> into <code>File</code> using given
+     * writer options.
+     * <p>
+     * The options tell whether arrays are compressed and with what deflate
+     * level and strategy (see <code>{@link MatFileWriterOptions}</code>).
+     * 
+     * @param file
+     *            the MAT-file to which data is written
+     * @param data
+     *            the collection of <code>{@link MLArray}</code> objects
+     * @param options
+     *            the compression options
+     * @throws IOException
+     *             if error occurred during MAT-file writing
+     */
+    public synchronized void write(File file, Collection<MLArray> data,
+            MatFileWriterOptions options) throws IOException
     {
         FileOutputStream fos = new FileOutputStream(file);
         
         try
         {
-            write(fos.getChannel(), data);
+            write(fos.getChannel(), data, options);
         }
         catch ( IOException e )
         {
@@ -144,6 +227,80 @@ public class MatFileWriter
         }
     }
     
+    /**
+     * Writes <code>MLArrays</code> into <code>File</code> using the given
+     * executor.
+     * <p>
+     * Each array is serialized and deflated by a separate task, so the
+     * writing time scales with the number of threads available to the
+     * executor. Compressed arrays are written in the collection order. At
+     * most twice as many arrays as there are processors are compressed ahead
+     * of the one being written, which bounds the memory held by compressed
+     * arrays waiting for their turn.
+     * <p>
+     * An array bigger than a few megabytes is not compressed by a single
+     * task. It's split into chunks deflated by all threads of the executor
+     * and joined into a single zlib stream (see
+     * <code>{@link ParallelDeflaterOutputStream}</code>).
+     * <p>
+     * The executor is not shut down by this method.
+     * 
+     * Usage:
+     * <pre><code>
+     * ExecutorService executor = Executors.newFixedThreadPool( 
+     *         Runtime.getRuntime().availableProcessors() );
+     * new MatFileWriter().write( file, list, executor );
+     * </code></pre>
+     * 
+     * @param file
+     *            the MAT-file to which data is written
+     * @param data
+     *            the collection of <code>{@link MLArray}</code> objects
+     * @param executor
+     *            the executor running compression tasks
+     * @throws IOException
+     *             if error occurred during MAT-file writing
+     */
+    public synchronized void write(File file, Collection<MLArray> data,
+            ExecutorService executor) throws IOException
+    {
+        write(file, data, MatFileWriterOptions.DEFAULT, executor);
+    }
+    
+    /**
+     * Writes <code>MLArrays</code> into <code>File</code> using given
+     * writer options and executor (see
+     * <code>{@link #write(File, Collection, ExecutorService)}</code>).
+     * Uncompressed arrays are written by the calling thread.
+     * 
+     * @param file
+     *            the MAT-file to which data is written
+     * @param data
+     *            the collection of <code>{@link MLArray}</code> objects
+     * @param options
+     *            the compression options
+     * @param executor
+     *            the executor running compression tasks
+     * @throws IOException
+     *             if error occurred during MAT-file writing
+     */
+    public synchronized void write(File file, Collection<MLArray> data,
+            MatFileWriterOptions options, ExecutorService executor) throws IOException
+    {
+        FileOutputStream fos = new FileOutputStream(file);
+        
+        try
+        {
+            WritableByteChannel channel = fos.getChannel();
+            writeHeader(channel);
+            writeArrays(channel, data, options, executor, ByteOrder.BIG_ENDIAN);
+        }
+        finally
+        {
+            fos.close();
+        }
+    }
+    
     /**
      * Writes <code>MLArrays</code> into <code>WritableByteChannel</code>.
      * 
@@ -151,11 +308,13 @@ public class MatFileWriter
      *            the channel to write to
      * @param data
      *            the collection of <code>{@link MLArray}</code> objects
+     * @param options
+     *            the compression options
      * @throws IOException
      *             if writing fails
      */
     private synchronized void write(WritableByteChannel channel,
-            Collection<MLArray> data) throws IOException
+            Collection<MLArray> data, MatFileWriterOptions options) throws IOException
     {
         try
         {
@@ -165,46 +324,293 @@ public class MatFileWriter
             //write data
             for ( MLArray matrix : data )
             {
-                //prepare buffer for MATRIX data
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                DataOutputStream dos = new DataOutputStream( baos );
-                //write MATRIX bytes into buffer
-                writeMatrix( dos, matrix );
-                
-                //compress data to save storage
-                Deflater compresser = new Deflater();
-                
-                byte[] input = baos.toByteArray();
-                
-                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
-                DataOutputStream dout = new DataOutputStream(new DeflaterOutputStream(compressed, compresser));
-                
-                dout.write(input);
-                
-                dout.close();
-                compressed.close();
-                
-                //write COMPRESSED tag and compressed data into output channel
-                byte[] compressedBytes = compressed.toByteArray();
-                ByteBuffer buf = ByteBuffer.allocateDirect(2 * 4 /* Int size */ + compressedBytes.length);
-                buf.putInt( MatDataTypes.miCOMPRESSED );
-                buf.putInt( compressedBytes.length );
-                buf.put( compressedBytes );
-                
-                buf.flip();
-                channel.write( buf );
+                writeArray( channel, matrix, options, ByteOrder.BIG_ENDIAN );
             }
         }
-        catch ( IOException e )
+        finally
         {
-            throw e;
+            channel.close();        
+        }
+    }
+    
+    /**
+     * Writes the array as <code>miCOMPRESSED</code> element or, if the
+     * options of the array say so, as uncompressed <code>miMATRIX</code>
+     * element.
+     * <p>
+     * On a <code>SeekableByteChannel</code> the array is deflated straight
+     * into the channel and the element size is written when the compressed
+     * size is known. Otherwise the compressed data is buffered.
+     * 
+     * @param channel - the channel positioned at the end of the file
+     * @param array - a <code>MLArray</code>
+     * @param options - the writer options
+     * @param byteOrder - byte order of the file
+     * @throws IOException if writing fails
+     */
+    static void writeArray( WritableByteChannel channel, MLArray array, MatFileWriterOptions options,
+            ByteOrder byteOrder ) throws IOException
+    {
+        MatFileWriterOptions arrayOptions = options.getArrayOptions( array.getName() );
+        if ( arrayOptions.isCompressed() )
+        {
+            writeCompressed( channel, array, getMatrixSizes( array ), arrayOptions, null, byteOrder );
+        }
+        else
+        {
+            writeUncompressed( channel, array, getMatrixSizes( array ), byteOrder );
+        }
+    }
+    
+    /**
+     * Writes the array as <code>miMATRIX</code> element.
+     * <p>
+     * On a <code>GatheringByteChannel</code> array data is not copied, data
+     * buffers of the array are written along with tags and headers by
+     * gathering writes.
+     */
+    private static void writeUncompressed( WritableByteChannel channel, MLArray array, Map<MLArray, Long> sizes,
+            ByteOrder byteOrder ) throws IOException
+    {
+        DataOutputStream output;
+        if ( channel instanceof GatheringByteChannel )
+        {
+            output = new GatheringDataOutputStream( (GatheringByteChannel) channel );
+        }
+        else
+        {
+            output = new DataOutputStream( 
+                    new BufferedOutputStream( Channels.newOutputStream( channel ), BUFFER_SIZE ) );
+        }
+        writeMatrix( output, array, sizes, byteOrder );
+        output.flush();
+    }
+    
+    /**
+     * Writes the array as <code>miCOMPRESSED</code> element deflating it
+     * with the executor if it's given.
+     */
+    private static void writeCompressed( WritableByteChannel channel, MLArray array, Map<MLArray, Long> sizes,
+            MatFileWriterOptions options, ExecutorService executor, ByteOrder byteOrder ) throws IOException
+    {
+        if ( channel instanceof SeekableByteChannel )
+        {
+            SeekableByteChannel seekable = (SeekableByteChannel) channel;
+            long start = seekable.position();
+            //size is written when known
+            writeTag( channel, MatDataTypes.miCOMPRESSED, 0, byteOrder );
+            deflate( Channels.newOutputStream( channel ), array, sizes, options, executor, byteOrder );
+            long end = seekable.position();
+            
+            seekable.position( start );
+            writeTag( channel, MatDataTypes.miCOMPRESSED, checkSize( array, end - start - TAG_SIZE ), byteOrder );
+            seekable.position( end );
+        }
+        else
+        {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            deflate( compressed, array, sizes, options, executor, byteOrder );
+            writeCompressed( channel, compressed, byteOrder );
+        }
+    }
+    
+    /**
+     * Writes the arrays as <code>miCOMPRESSED</code> elements, compressing
+     * them in parallel with the executor (see
+     * <code>{@link #write(File, Collection, ExecutorService)}</code>).
+     * Arrays which should not be compressed are written as
+     * <code>miMATRIX</code> elements.
+     * 
+     * @param channel - the channel positioned at the end of the file
+     * @param data - the arrays
+     * @param options - the writer options
+     * @param executor - the executor running compression tasks
+     * @param byteOrder - byte order of the file
+     * @throws IOException if compressing or writing fails
+     */
+    static void writeArrays( WritableByteChannel channel, Collection<MLArray> data,
+            MatFileWriterOptions options, ExecutorService executor, ByteOrder byteOrder ) throws IOException
+    {
+        //compressed arrays waiting to be written (in order)
+        Deque<Future<ByteArrayOutputStream>> pending = new ArrayDeque<Future<ByteArrayOutputStream>>();
+        int maxPending = 2 * Runtime.getRuntime().availableProcessors();
+        try
+        {
+            for ( MLArray array : data )
+            {
+                MatFileWriterOptions arrayOptions = options.getArrayOptions( array.getName() );
+                Map<MLArray, Long> sizes = getMatrixSizes( array );
+                if ( !arrayOptions.isCompressed() || sizes.get( array ) >= PARALLEL_DEFLATE_SIZE )
+                {
+                    //write what is before and write the array (deflated with all threads)
+                    while ( !pending.isEmpty() )
+                    {
+                        writeCompressed( channel, getResult( pending.removeFirst() ), byteOrder );
+                    }
+                    if ( arrayOptions.isCompressed() )
+                    {
+                        writeCompressed( channel, array, sizes, arrayOptions, executor, byteOrder );
+                    }
+                    else
+                    {
+                        writeUncompressed( channel, array, sizes, byteOrder );
+                    }
+                    continue;
+                }
+                if ( pending.size() >= maxPending )
+                {
+                    writeCompressed( channel, getResult( pending.removeFirst() ), byteOrder );
+                }
+                pending.addLast( executor.submit( new ArrayCompressor( array, sizes, arrayOptions, byteOrder ) ) );
+            }
+            while ( !pending.isEmpty() )
+            {
+                writeCompressed( channel, getResult( pending.removeFirst() ), byteOrder );
+            }
         }
         finally
         {
-            channel.close();        
+            //do not leave tasks running after a failure
+            for ( Future<ByteArrayOutputStream> future : pending )
+            {
+                future.cancel( true );
+            }
         }
     }
     
+    /**
+     * Writes compressed data as <code>miCOMPRESSED</code> element.
+     */
+    private static void writeCompressed( WritableByteChannel channel, ByteArrayOutputStream compressed,
+            ByteOrder byteOrder ) throws IOException
+    {
+        writeTag( channel, MatDataTypes.miCOMPRESSED, compressed.size(), byteOrder );
+        compressed.writeTo( Channels.newOutputStream( channel ) );
+    }
+    
+    /**
+     * Waits for the compression task and returns it's result.
+     * 
+     * @param future -
+     *            the task result
+     * @return - the compressed data
+     * @throws IOException if the task failed or the thread was interrupted
+     */
+    private static ByteArrayOutputStream getResult( Future<ByteArrayOutputStream> future ) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing MAT-file");
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new MatlabIOException("Could not write data: " + cause );
+        }
+    }
+    
+    /**
+     * Serializes and deflates a single array into memory.
+     */
+    private static class ArrayCompressor implements Callable<ByteArrayOutputStream>
+    {
+        private final MLArray array;
+        private final Map<MLArray, Long> sizes;
+        private final MatFileWriterOptions options;
+        private final ByteOrder byteOrder;
+        
+        public ArrayCompressor(MLArray array, Map<MLArray, Long> sizes, MatFileWriterOptions options, ByteOrder byteOrder)
+        {
+            this.array = array;
+            this.sizes = sizes;
+            this.options = options;
+            this.byteOrder = byteOrder;
+        }
+        
+        public ByteArrayOutputStream call() throws IOException
+        {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            deflate( compressed, array, sizes, options, null, byteOrder );
+            return compressed;
+        }
+    }
+    
+    /**
+     * Deflates <code>miMATRIX</code> element of the array into the stream,
+     * in chunks by the executor if it's given. The stream is not closed.
+     */
+    private static void deflate( OutputStream os, MLArray array, Map<MLArray, Long> sizes, MatFileWriterOptions options,
+            ExecutorService executor, ByteOrder byteOrder ) throws IOException
+    {
+        if ( executor != null )
+        {
+            ParallelDeflaterOutputStream pdos = new ParallelDeflaterOutputStream( os, executor, 
+                    options.getLevel(), options.getStrategy(), ParallelDeflaterOutputStream.DEFAULT_CHUNK_SIZE );
+            DataOutputStream output = new DataOutputStream( new BufferedOutputStream( pdos, BUFFER_SIZE ) );
+            writeMatrix( output, array, sizes, byteOrder );
+            output.flush();
+            pdos.finish();
+            return;
+        }
+        Deflater deflater = options.createDeflater();
+        try
+        {
+            DeflaterOutputStream dos = new DeflaterOutputStream( os, deflater, BUFFER_SIZE );
+            DataOutputStream output = new DataOutputStream( new BufferedOutputStream( dos, BUFFER_SIZE ) );
+            writeMatrix( output, array, sizes, byteOrder );
+            output.flush();
+            dos.finish();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+    
+    /**
+     * Writes data element tag into the channel.
+     */
+    private static void writeTag( WritableByteChannel channel, int type, long size, ByteOrder byteOrder ) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate( TAG_SIZE ).order( byteOrder );
+        buf.putInt( type );
+        buf.putInt( (int) size );
+        buf.flip();
+        while ( buf.hasRemaining() )
+        {
+            channel.write( buf );
+        }
+    }
+    
+    /**
+     * Checks if the element size fits the 32 bit size field of its tag.
+     */
+    private static long checkSize( MLArray array, long size ) throws IOException
+    {
+        if ( size > 0xffffffffL )
+        {
+            throw new MatlabIOException("Array is too big to be written: " + array.getName() );
+        }
+        return size;
+    }
+    
     /**
      * Writes MAT-file header into <code>OutputStream</code>
      * @param os <code>OutputStream</code>
@@ -240,224 +646,357 @@ public class MatFileWriter
         channel.write(buf);
     }
     
+    /**
+     * Computes sizes of <code>miMATRIX</code> element data (without the tag)
+     * of the array and of all arrays nested in it (struct fields and cell
+     * elements), the same way <code>writeMatrix</code> writes them. Each
+     * array is visited once.
+     * 
+     * @param array - a <code>MLArray</code>
+     * @return - element sizes in bytes by array (identity)
+     * @throws IOException if the array cannot be written
+     */
+    static Map<MLArray, Long> getMatrixSizes( MLArray array ) throws IOException
+    {
+        Map<MLArray, Long> sizes = new IdentityHashMap<MLArray, Long>();
+        getMatrixSize( array, sizes );
+        return sizes;
+    }
+    
+    /**
+     * Computes the element size of the array and adds it (with the sizes of
+     * nested arrays) to <code>sizes</code>.
+     */
+    private static long getMatrixSize( MLArray array, Map<MLArray, Long> sizes ) throws IOException
+    {
+        Long known = sizes.get( array );
+        if ( known != null )
+        {
+            return known;
+        }
+
+        //flags, dimensions and name
+        long size = getTagSize( 8 )
+                  + getTagSize( 4 * array.getDimensions().length )
+                  + getTagSize( array.getNameToByteArray().length );
+        
+        switch ( array.getType() )
+        {
+            case MLArray.mxCHAR_CLASS:
+                size += getTagSize( getUTF8Length( ((MLChar)array).getChars() ) );
+                break;
+            case MLArray.mxDOUBLE_CLASS:
+            case MLArray.mxSINGLE_CLASS:
+            case MLArray.mxUINT8_CLASS:
+            case MLArray.mxINT8_CLASS:
+            case MLArray.mxINT16_CLASS:
+            case MLArray.mxINT64_CLASS:
+            case MLArray.mxUINT64_CLASS:
+                long dataSize = getTagSize( ((MLNumericArray<?>)array).getRealByteBuffer().limit() );
+                size += array.isComplex() ? 2 * dataSize : dataSize;
+                break;
+            case MLArray.mxSTRUCT_CLASS:
+                MLStructure struct = (MLStructure) array;
+                //field name length and field names
+                size += TAG_SIZE + getTagSize( struct.getMaxFieldLenth() * struct.getFieldNames().size() );
+                for ( MLArray a : struct.getAllFields() )
+                {
+                    size += TAG_SIZE + getMatrixSize( a, sizes );
+                }
+                break;
+            case MLArray.mxCELL_CLASS:
+                for ( MLArray a : ((MLCell)array).cells() )
+                {
+                    size += TAG_SIZE + getMatrixSize( a, sizes );
+                }
+                break;
+            case MLArray.mxSPARSE_CLASS:
+                MLSparse sparse = (MLSparse) array;
+                size += getTagSize( sparse.getIR().length * MatDataTypes.miSIZE_INT32 )
+                      + getTagSize( sparse.getJC().length * MatDataTypes.miSIZE_INT32 )
+                      + getTagSize( sparse.getPR().length * MatDataTypes.miSIZE_DOUBLE );
+                if ( array.isComplex() )
+                {
+                    size += getTagSize( sparse.getPI().length * MatDataTypes.miSIZE_DOUBLE );
+                }
+                break;
+            default:
+                throw new MatlabIOException("Cannot write matrix of type: " + MLArray.typeToString( array.getType() ));
+        }
+        sizes.put( array, size );
+        return size;
+    }
+    
+    /**
+     * Gets the size of data element with tag and padding (see
+     * <code>OSArrayTag.writeTo</code>).
+     * 
+     * @param size - data size
+     * @return - the element size
+     */
+    private static long getTagSize( long size )
+    {
+        //small data element format
+        if ( size <= 4 && size > 0 )
+        {
+            return TAG_SIZE;
+        }
+        return TAG_SIZE + size + ( 8 - size % 8 ) % 8;
+    }
+    
+    /**
+     * Counts bytes of UTF-8 encoded characters (the same as
+     * <code>new String( chars ).getBytes( "UTF-8" ).length</code>).
+     * 
+     * @param chars - the characters
+     * @return - the number of bytes
+     */
+    private static long getUTF8Length( char[] chars )
+    {
+        long length = 0;
+        for ( int i = 0; i < chars.length; i++ )
+        {
+            char c = chars[i];
+            if ( c < 0x80 )
+            {
+                length += 1;
+            }
+            else if ( c < 0x800 )
+            {
+                length += 2;
+            }
+            else if ( Character.isHighSurrogate( c ) && i + 1 < chars.length 
+                        && Character.isLowSurrogate( chars[i + 1] ) )
+            {
+                length += 4;
+                i++;
+            }
+            else if ( Character.isSurrogate( c ) )
+            {
+                //malformed, replaced with '?'
+                length += 1;
+            }
+            else
+            {
+                length += 3;
+            }
+        }
+        return length;
+    }
+    
     /**
      * Writes MATRIX into <code>OutputStream</code>.
      * 
      * @param os - <code>OutputStream</code>
      * @param array - a <code>MLArray</code>
+     * @param sizes - element sizes computed with <code>getMatrixSizes</code>
+     * @param byteOrder - byte order of the file
      * @throws IOException
      */
-    private void writeMatrix(DataOutputStream output, MLArray array) throws IOException
+    private static void writeMatrix(DataOutputStream output, MLArray array, Map<MLArray, Long> sizes,
+            ByteOrder byteOrder) throws IOException
     {   
         OSArrayTag tag;
-        ByteArrayOutputStream buffer;         
-        DataOutputStream bufferDOS;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(baos);
         
-        //flags
-        writeFlags(dos, array);
-
-        //dimensions
-        writeDimensions(dos, array);
+        //write matrix tag
+        writeInt( output, MatDataTypes.miMATRIX, byteOrder );
+        writeInt( output, (int) checkSize( array, sizes.get( array ) ), byteOrder );
         
-        //array name
-        writeName(dos, array);
+        //flags, dimensions and name
+        writeArrayHeader(output, array, byteOrder);
         
         switch ( array.getType() )
         {
             case MLArray.mxCHAR_CLASS:
                 //write char data
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                Character[] ac = ((MLChar)array).exportChar();
-                for( int i = 0; i < ac.length; i++ )
-                {
-                	String temp = new StringBuffer().append(ac[i].charValue()).toString();
-                	bufferDOS.write(temp.getBytes("UTF-8"));
-                }
-                tag = new OSArrayTag(MatDataTypes.miUTF8, buffer.toByteArray() );
-                tag.writeTo( dos );
+                byte[] utf8 = new String( ((MLChar)array).getChars() ).getBytes("UTF-8");
+                tag = new OSArrayTag(MatDataTypes.miUTF8, utf8 );
+                tag.writeTo( output, byteOrder );
                 
                 break;
             case MLArray.mxDOUBLE_CLASS:
                 
                 tag = new OSArrayTag(MatDataTypes.miDOUBLE, 
                                 ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
+                tag.writeTo( output, byteOrder );
                 
                 //write real imaginary
                 if ( array.isComplex() )
                 {
                     tag = new OSArrayTag(MatDataTypes.miDOUBLE, 
                             ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
+                    tag.writeTo( output, byteOrder );
                 }
                 break;
             case MLArray.mxSINGLE_CLASS:
                 
                 tag = new OSArrayTag(MatDataTypes.miSINGLE, 
                                 ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
+                tag.writeTo( output, byteOrder );
                 
                 //write real imaginary
                 if ( array.isComplex() )
                 {
                     tag = new OSArrayTag(MatDataTypes.miSINGLE, 
                             ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
+                    tag.writeTo( output, byteOrder );
                 }
                 break;
             case MLArray.mxUINT8_CLASS:
                 
                 tag = new OSArrayTag(MatDataTypes.miUINT8, 
                         ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
+                tag.writeTo( output, byteOrder );
                 
                 //write real imaginary
                 if ( array.isComplex() )
                 {
                     tag = new OSArrayTag(MatDataTypes.miUINT8, 
                             ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
+                    tag.writeTo( output, byteOrder );
                 }
                 break;
             case MLArray.mxINT8_CLASS:
                 
                 tag = new OSArrayTag(MatDataTypes.miINT8, 
                         ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
+                tag.writeTo( output, byteOrder );
                 
                 //write real imaginary
                 if ( array.isComplex() )
                 {
                     tag = new OSArrayTag(MatDataTypes.miINT8, 
                             ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
+                    tag.writeTo( output, byteOrder );
                 }
                 break;
             case MLArray.mxINT16_CLASS:
                 
                 tag = new OSArrayTag(MatDataTypes.miINT16, 
                         ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
+                tag.writeTo( output, byteOrder );
                 
                 //write real imaginary
                 if ( array.isComplex() )
                 {
                     tag = new OSArrayTag(MatDataTypes.miINT16, 
                             ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
+                    tag.writeTo( output, byteOrder );
                 }
                 break;
             case MLArray.mxINT64_CLASS:
                 
                 tag = new OSArrayTag(MatDataTypes.miINT64, 
                         ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
+                tag.writeTo( output, byteOrder );
                 
                 //write real imaginary
                 if ( array.isComplex() )
                 {
                     tag = new OSArrayTag(MatDataTypes.miINT64, 
                             ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
+                    tag.writeTo( output, byteOrder );
                 }
                 break;
             case MLArray.mxUINT64_CLASS:
                 
                 tag = new OSArrayTag(MatDataTypes.miUINT64, 
                         ((MLNumericArray<?>)array).getRealByteBuffer() );
-                tag.writeTo( dos );
+                tag.writeTo( output, byteOrder );
                 
                 //write real imaginary
                 if ( array.isComplex() )
                 {
                     tag = new OSArrayTag(MatDataTypes.miUINT64, 
                             ((MLNumericArray<?>)array).getImaginaryByteBuffer() );
-                    tag.writeTo( dos );
+                    tag.writeTo( output, byteOrder );
                 }
                 break;
             case MLArray.mxSTRUCT_CLASS:
                 //field name length
                 int itag = 4 << 16 | MatDataTypes.miINT32 & 0xffff;
-                dos.writeInt( itag );
-                dos.writeInt( ((MLStructure)array).getMaxFieldLenth() );
+                writeInt( output, itag, byteOrder );
+                writeInt( output, ((MLStructure)array).getMaxFieldLenth(), byteOrder );
                 
                 //get field names
                 tag = new OSArrayTag(MatDataTypes.miINT8, ((MLStructure)array).getKeySetToByteArray() );
-                tag.writeTo( dos );
+                tag.writeTo( output, byteOrder );
 
                 for ( MLArray a : ((MLStructure)array).getAllFields() )
                 {
-                    writeMatrix(dos, a);
+                    writeMatrix(output, a, sizes, byteOrder);
                 }
                 break;
             case MLArray.mxCELL_CLASS:
                 for ( MLArray a : ((MLCell)array).cells() )
                 {
-                    writeMatrix(dos, a);
+                    writeMatrix(output, a, sizes, byteOrder);
                 }
                 break;
             case MLArray.mxSPARSE_CLASS:
-                int[] ai;
+                MLSparse sparse = (MLSparse) array;
+                ByteBuffer bb;
                 //write ir
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                ai = ((MLSparse)array).getIR();
-                for ( int i : ai )
-                {
-                        bufferDOS.writeInt( i );
-                }
-                tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray() );
-                tag.writeTo( dos );
+                int[] ai = sparse.getIR();
+                bb = ByteBuffer.allocate( ai.length * MatDataTypes.miSIZE_INT32 );
+                bb.asIntBuffer().put( ai );
+                tag = new OSArrayTag(MatDataTypes.miINT32, bb );
+                tag.writeTo( output, byteOrder );
                 //write jc
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                ai = ((MLSparse)array).getJC();
-                for ( int i : ai )
-                {
-                        bufferDOS.writeInt( i );
-                }
-                tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray() );
-                tag.writeTo( dos );
+                ai = sparse.getJC();
+                bb = ByteBuffer.allocate( ai.length * MatDataTypes.miSIZE_INT32 );
+                bb.asIntBuffer().put( ai );
+                tag = new OSArrayTag(MatDataTypes.miINT32, bb );
+                tag.writeTo( output, byteOrder );
                 //write real
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                
-                Double[] ad = ((MLSparse)array).exportReal();
-                
-                for ( int i = 0; i < ad.length; i++ )
-                {
-                    bufferDOS.writeDouble( ad[i].doubleValue() );
-                }
-                
-                tag = new OSArrayTag(MatDataTypes.miDOUBLE, buffer.toByteArray() );
-                tag.writeTo( dos );
+                double[] ad = sparse.getPR();
+                bb = ByteBuffer.allocate( ad.length * MatDataTypes.miSIZE_DOUBLE );
+                bb.asDoubleBuffer().put( ad );
+                tag = new OSArrayTag(MatDataTypes.miDOUBLE, bb );
+                tag.writeTo( output, byteOrder );
                 //write real imaginary
                 if ( array.isComplex() )
                 {
-                    buffer = new ByteArrayOutputStream();
-                    bufferDOS = new DataOutputStream(buffer);
-                    ad = ((MLSparse)array).exportImaginary();
-                    for ( int i = 0; i < ad.length; i++ )
-                    {
-                        bufferDOS.writeDouble( ad[i].doubleValue() );
-                    }
-                    tag = new OSArrayTag(MatDataTypes.miDOUBLE, buffer.toByteArray() );
-                    tag.writeTo( dos );
+                    ad = sparse.getPI();
+                    bb = ByteBuffer.allocate( ad.length * MatDataTypes.miSIZE_DOUBLE );
+                    bb.asDoubleBuffer().put( ad );
+                    tag = new OSArrayTag(MatDataTypes.miDOUBLE, bb );
+                    tag.writeTo( output, byteOrder );
                 }
                 break;
             default:
                 throw new MatlabIOException("Cannot write matrix of type: " + MLArray.typeToString( array.getType() ));
                 
         }
+    }
+    
+    /**
+     * Writes the int in the byte order of the file.
+     */
+    static void writeInt( DataOutputStream os, int value, ByteOrder byteOrder ) throws IOException
+    {
+        os.writeInt( byteOrder == ByteOrder.BIG_ENDIAN ? value : Integer.reverseBytes( value ) );
+    }
+    
+    /**
+     * Writes array flags, dimensions and name (the beginning of
+     * <code>miMATRIX</code> element data).
+     * 
+     * @param os - <code>OutputStream</code>
+     * @param array - a <code>MLArray</code>
+     * @param byteOrder - byte order of the file
+     * @throws IOException
+     */
+    static void writeArrayHeader(DataOutputStream os, MLArray array, ByteOrder byteOrder) throws IOException
+    {
+        //flags
+        writeFlags(os, array, byteOrder);
+
+        //dimensions
+        writeDimensions(os, array, byteOrder);
         
-        
-        //write matrix
-        output.writeInt(MatDataTypes.miMATRIX); //matrix tag
-        output.writeInt( baos.size() ); //size of matrix
-        output.write( baos.toByteArray() ); //matrix data
+        //array name
+        writeName(os, array, byteOrder);
     }
     
     /**
@@ -465,25 +1004,25 @@ public class MatFileWriter
      * 
      * @param os - <code>OutputStream</code>
      * @param array - a <code>MLArray</code>
+     * @param byteOrder - byte order of the file
      * @throws IOException
      */
-    private void writeFlags(DataOutputStream os, MLArray array) throws IOException
+    private static void writeFlags(DataOutputStream os, MLArray array, ByteOrder byteOrder) throws IOException
     {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        DataOutputStream bufferDOS = new DataOutputStream(buffer);
-
-        bufferDOS.writeInt( array.getFlags() );
+        ByteBuffer buffer = ByteBuffer.allocate( 8 );
+        
+        buffer.putInt( array.getFlags() );
         
         if ( array.isSparse() )
         {
-            bufferDOS.writeInt( ((MLSparse)array).getMaxNZ() );
+            buffer.putInt( ((MLSparse)array).getMaxNZ() );
         }
         else
         {
-            bufferDOS.writeInt( 0 );
+            buffer.putInt( 0 );
         }
-        OSArrayTag tag = new OSArrayTag(MatDataTypes.miUINT32, buffer.toByteArray() );
-        tag.writeTo( os );
+        OSArrayTag tag = new OSArrayTag(MatDataTypes.miUINT32, buffer.array() );
+        tag.writeTo( os, byteOrder );
         
     }
     
@@ -492,20 +1031,17 @@ public class MatFileWriter
      * 
      * @param os - <code>OutputStream</code>
      * @param array - a <code>MLArray</code>
+     * @param byteOrder - byte order of the file
      * @throws IOException
      */
-    private void writeDimensions(DataOutputStream os, MLArray array) throws IOException
+    private static void writeDimensions(DataOutputStream os, MLArray array, ByteOrder byteOrder) throws IOException
     {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        DataOutputStream bufferDOS = new DataOutputStream(buffer);
-        
         int[] dims = array.getDimensions();
-        for ( int i = 0; i < dims.length; i++ )
-        {
-            bufferDOS.writeInt(dims[i]);
-        }
-        OSArrayTag tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray() );
-        tag.writeTo( os );
+        ByteBuffer buffer = ByteBuffer.allocate( dims.length * 4 );
+        buffer.asIntBuffer().put( dims );
+        
+        OSArrayTag tag = new OSArrayTag(MatDataTypes.miINT32, buffer.array() );
+        tag.writeTo( os, byteOrder );
         
     }
     
@@ -514,19 +1050,13 @@ public class MatFileWriter
      * 
      * @param os - <code>OutputStream</code>
      * @param array - a <code>MLArray</code>
+     * @param byteOrder - byte order of the file
      * @throws IOException
      */
-    private void writeName(DataOutputStream os, MLArray array) throws IOException
+    private static void writeName(DataOutputStream os, MLArray array, ByteOrder byteOrder) throws IOException
     {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        DataOutputStream bufferDOS = new DataOutputStream(buffer);
-
-        byte[] nameByteArray = array.getNameToByteArray();
-        buffer = new ByteArrayOutputStream();
-        bufferDOS = new DataOutputStream(buffer);
-        bufferDOS.write( nameByteArray );
-        OSArrayTag tag = new OSArrayTag(MatDataTypes.miINT8, buffer.toByteArray() );
-        tag.writeTo( os );
+        OSArrayTag tag = new OSArrayTag(MatDataTypes.miINT8, array.getNameToByteArray() );
+        tag.writeTo( os, byteOrder );
     }
     
     
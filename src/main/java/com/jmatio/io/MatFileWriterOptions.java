@@ -0,0 +1,162 @@
+package com.jmatio.io;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writer options.
+ *
+ * This class is used to tell <code>MatFileWriter</code> and
+ * <code>MatFileIncrementalWriter</code> how arrays should be stored. By
+ * default arrays are compressed (<code>miCOMPRESSED</code>) with the default
+ * deflate level and strategy. Uncompressed arrays are written as plain
+ * <code>miMATRIX</code> elements, which saves CPU time for files read back
+ * soon after writing.
+ *
+ * Options are immutable. They may be overridden for single arrays (by array
+ * name) with <code>{@link #withArrayOptions(String, MatFileWriterOptions)}</code>,
+ * which returns new options.
+ *
+ * Usage:
+ * <pre><code>
+ * //archive everything with the best compression...
+ * MatFileWriterOptions options = new MatFileWriterOptions( Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY )
+ *         //...but noisy data, which doesn't compress well anyway
+ *         .withArrayOptions( "samples", new MatFileWriterOptions( Deflater.BEST_SPEED, Deflater.HUFFMAN_ONLY ) )
+ *         //and scratch data which is not compressed at all
+ *         .withArrayOptions( "scratch", MatFileWriterOptions.UNCOMPRESSED );
+ *
+ * new MatFileWriter().write( file, list, options );
+ * </code></pre>
+ *
+ * @see com.jmatio.io.MatFileWriter
+ * @see com.jmatio.io.MatFileIncrementalWriter
+ */
+public class MatFileWriterOptions
+{
+    /**
+     * Default options: compressed with default level and strategy
+     */
+    public static final MatFileWriterOptions DEFAULT = new MatFileWriterOptions();
+    /**
+     * Arrays are not compressed
+     */
+    public static final MatFileWriterOptions UNCOMPRESSED = new MatFileWriterOptions( false );
+
+    private final boolean compressed;
+    private final int level;
+    private final int strategy;
+    private final Map<String, MatFileWriterOptions> arrayOptions;
+
+    /**
+     * Creates default options (compressed with default level and strategy).
+     */
+    public MatFileWriterOptions()
+    {
+        this( Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY );
+    }
+    /**
+     * Creates options turning compression on or off. Compressed arrays
+     * are deflated with default level and strategy.
+     *
+     * @param compressed - <code>false</code> if arrays should be written uncompressed
+     */
+    public MatFileWriterOptions( boolean compressed )
+    {
+        this( compressed, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY );
+    }
+    /**
+     * Creates options for compressed arrays.
+     *
+     * @param level - compression level (0-9 or <code>Deflater.DEFAULT_COMPRESSION</code>)
+     * @param strategy - compression strategy (<code>Deflater.DEFAULT_STRATEGY</code>,
+     *          <code>Deflater.FILTERED</code> or <code>Deflater.HUFFMAN_ONLY</code>)
+     */
+    public MatFileWriterOptions( int level, int strategy )
+    {
+        this( true, level, strategy );
+    }
+
+    private MatFileWriterOptions( boolean compressed, int level, int strategy )
+    {
+        this( compressed, level, strategy, Collections.<String, MatFileWriterOptions>emptyMap() );
+    }
+
+    private MatFileWriterOptions( boolean compressed, int level, int strategy,
+            Map<String, MatFileWriterOptions> arrayOptions )
+    {
+        if ( ( level < 0 || level > 9 ) && level != Deflater.DEFAULT_COMPRESSION )
+        {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        if ( strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED
+                && strategy != Deflater.HUFFMAN_ONLY )
+        {
+            throw new IllegalArgumentException("Invalid compression strategy: " + strategy);
+        }
+        this.compressed = compressed;
+        this.level = level;
+        this.strategy = strategy;
+        this.arrayOptions = arrayOptions;
+    }
+    /**
+     * Returns a copy of these options in which the options of the array with
+     * given name override these options. These options are not changed.
+     *
+     * @param name - array name
+     * @param options - options used for this array
+     * @return - new options
+     */
+    public MatFileWriterOptions withArrayOptions( String name, MatFileWriterOptions options )
+    {
+        Map<String, MatFileWriterOptions> map = new HashMap<String, MatFileWriterOptions>( arrayOptions );
+        map.put( name, options );
+        return new MatFileWriterOptions( compressed, level, strategy, Collections.unmodifiableMap( map ) );
+    }
+    /**
+     * Returns options used for the array with given name.
+     *
+     * @param name - array name
+     * @return - options set for this array or these options
+     */
+    public MatFileWriterOptions getArrayOptions( String name )
+    {
+        MatFileWriterOptions options = arrayOptions.get( name );
+        return options != null ? options : this;
+    }
+    /**
+     * @return - <code>true</code> if arrays are written as <code>miCOMPRESSED</code> elements
+     */
+    public boolean isCompressed()
+    {
+        return compressed;
+    }
+    /**
+     * @return - compression level
+     */
+    public int getLevel()
+    {
+        return level;
+    }
+    /**
+     * @return - compression strategy
+     */
+    public int getStrategy()
+    {
+        return strategy;
+    }
+    /**
+     * Creates the deflater for these options. The caller has to
+     * <code>end()</code> it.
+     *
+     * @return - new <code>Deflater</code>
+     */
+    Deflater createDeflater()
+    {
+        Deflater deflater = new Deflater( level );
+        deflater.setStrategy( strategy );
+        return deflater;
+    }
+}
@@ -3,6 +3,7 @@ package com.jmatio.io;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Tiny class that represents MAT-file TAG 
@@ -31,8 +32,34 @@ class OSArrayTag extends MatTag
     public OSArrayTag(int type, ByteBuffer data )
     {
         super( type, data.limit() );
-        this.data = data;
-        data.rewind();
+        //the array buffer may be shared, it's position is never moved
+        this.data = data.duplicate().order( data.order() );
+        this.data.rewind();
+    }
+    
+    /**
+     * Copies data of the other byte order (for example arrays backed by a
+     * memory mapped file) into a buffer of the file byte order. Byte arrays
+     * are big-endian.
+     * 
+     * @param data
+     * @param byteOrder - byte order of the file
+     * @return
+     */
+    private ByteBuffer toByteOrder( ByteBuffer data, ByteOrder byteOrder )
+    {
+        int sizeOf = sizeOf();
+        ByteBuffer buf = ByteBuffer.allocate( data.limit() ).order( byteOrder );
+        
+        for ( int i = 0; i < data.limit(); i += sizeOf )
+        {
+            for ( int j = sizeOf - 1; j >= 0; j-- )
+            {
+                buf.put( data.get( i + j ) );
+            }
+        }
+        buf.rewind();
+        return buf;
     }
 
     
@@ -44,19 +71,43 @@ class OSArrayTag extends MatTag
      */
     public void writeTo(DataOutputStream os) throws IOException
     {
+        writeTo( os, ByteOrder.BIG_ENDIAN );
+    }
     
+    /**
+     * Writes tag and data to <code>DataOutputStream</code> in the byte order
+     * of the file. Wites padding if neccesary.
+     * 
+     * @param os
+     * @param byteOrder - byte order of the file
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream os, ByteOrder byteOrder) throws IOException
+    {
+        ByteBuffer data = this.data.order() == byteOrder ? this.data : toByteOrder( this.data, byteOrder );
     	int padding;
 		if (size<=4 && size>0) {
 			// Use small data element format (Page 1-10 in "MATLAB 7 MAT-File Format", September 2010 revision)
-    		os.writeShort(size);
-    		os.writeShort(type);
+    		MatFileWriter.writeInt( os, size << 16 | type & 0xffff, byteOrder );
             padding = getPadding(data.limit(), true);
     	} else {
-    		os.writeInt(type);
-    		os.writeInt(size);
+    		MatFileWriter.writeInt( os, type, byteOrder );
+    		MatFileWriter.writeInt( os, size, byteOrder );
             padding = getPadding(data.limit(), false);
     	}
         
+        if ( os instanceof GatheringDataOutputStream )
+        {
+            //array storage is handed to the channel, no copy
+            ((GatheringDataOutputStream) os).writeBuffer( data );
+            data.position( data.limit() );
+        }
+        else if ( data.hasArray() )
+        {
+            //heap buffer, no copy
+            os.write( data.array(), data.arrayOffset() + data.position(), data.remaining() );
+            data.position( data.limit() );
+        }
         int maxBuffSize = 1024;
         int writeBuffSize = data.remaining() < maxBuffSize ? data.remaining() : maxBuffSize;
         byte[] tmp = new byte[writeBuffSize]; 
@@ -0,0 +1,93 @@
+package com.jmatio.io.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link InputStream} over a region of a {@link FileChannel}.
+ * <p>
+ * The stream uses positional reads only, so it never modifies the channel's
+ * position and several streams may read the same channel at once.
+ */
+public class FileChannelInputStream extends InputStream
+{
+    private final FileChannel channel;
+
+    private long position;
+
+    private long limit;
+
+    /**
+     * Creates the stream reading <code>limit</code> bytes of the channel
+     * starting at <code>position</code>.
+     *
+     * @param channel the source channel
+     * @param position the absolute position of the first byte
+     * @param limit the number of bytes available in this stream
+     */
+    public FileChannelInputStream(final FileChannel channel, final long position, final long limit)
+    {
+        this.channel = channel;
+        this.position = position;
+        this.limit = limit;
+    }
+
+    @Override
+    public synchronized int read() throws IOException
+    {
+        byte[] b = new byte[1];
+
+        if ( read(b, 0, 1) < 0 )
+        {
+            return -1;
+        }
+        return b[0] & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] bytes, int off, int len)
+            throws IOException
+    {
+        if (!(limit > 0))
+        {
+            return -1;
+        }
+        len = (int) Math.min(len, limit);
+
+        int red = channel.read( ByteBuffer.wrap(bytes, off, len), position );
+        if ( red < 0 )
+        {
+            throw new IOException("Unexpected end of file at position: " + position );
+        }
+        position += red;
+        limit -= red;
+        return red;
+    }
+
+    @Override
+    public synchronized long skip(long n) throws IOException
+    {
+        long skipped = Math.max( 0, Math.min(n, limit) );
+        position += skipped;
+        limit -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public synchronized int available() throws IOException
+    {
+        return (int) Math.min( limit, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Returns the absolute channel position of the next byte to be read.
+     *
+     * @return the channel position
+     */
+    public synchronized long position()
+    {
+        return position;
+    }
+}
@@ -0,0 +1,113 @@
+package com.jmatio.io.stream;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that reads at most <code>limit</code> bytes of the
+ * underlying stream. Used to read a single data element from a MAT-file
+ * stream.
+ * <p>
+ * Closing this stream does not close the underlying stream.
+ */
+public class LimitedInputStream extends FilterInputStream
+{
+    private long limit;
+
+    /**
+     * Creates the stream reading at most <code>limit</code> bytes of
+     * <code>in</code>.
+     *
+     * @param in the underlying stream
+     * @param limit the number of bytes available in this stream
+     */
+    public LimitedInputStream(final InputStream in, final long limit)
+    {
+        super(in);
+        this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (!(limit > 0))
+        {
+            return -1;
+        }
+        int b = in.read();
+        if ( b < 0 )
+        {
+            throw new EOFException();
+        }
+        limit--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException
+    {
+        if (!(limit > 0))
+        {
+            return -1;
+        }
+        len = (int) Math.min(len, limit);
+
+        int red = in.read(bytes, off, len);
+        if ( red < 0 )
+        {
+            throw new EOFException();
+        }
+        limit -= red;
+        return red;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = in.skip( Math.min(n, limit) );
+        limit -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        return (int) Math.min( in.available(), limit );
+    }
+
+    /**
+     * Skips all bytes remaining in this stream.
+     *
+     * @throws IOException if the underlying stream ends prematurely
+     */
+    public void skipRemaining() throws IOException
+    {
+        byte[] tmp = null;
+
+        while ( limit > 0 )
+        {
+            if ( skip( limit ) == 0 )
+            {
+                //some streams do not support skipping
+                if ( tmp == null )
+                {
+                    tmp = new byte[ (int) Math.min(limit, 8192) ];
+                }
+                read( tmp, 0, (int) Math.min(limit, tmp.length) );
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+}
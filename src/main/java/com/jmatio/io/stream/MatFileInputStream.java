@@ -1,7 +1,13 @@
 package com.jmatio.io.stream;
 
 import java.io.IOException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 
 import com.jmatio.common.MatDataTypes;
 import com.jmatio.types.ByteStorageSupport;
@@ -13,6 +19,11 @@ import com.jmatio.types.ByteStorageSupport;
  */
 public class MatFileInputStream
 {
+    /**
+     * Number of elements converted at once by the bulk converters
+     */
+    private static final int CHUNK_SIZE = 1024;
+    
     private final int type;
     private final ByteBuffer buf;
     
@@ -168,64 +179,381 @@ public class MatFileInputStream
     {
         
         int bytesAllocated = storage.getBytesAllocated();
-        int size = elements * storage.getBytesAllocated();
+        Class<?> clazz = storage.getStorageClazz();
+        boolean floating = clazz.equals( Double.class ) || clazz.equals( Float.class );
         
         //direct buffer copy
-        if ( MatDataTypes.sizeOf(type) == bytesAllocated && buf.order().equals(dest.order()) )
+        if ( MatDataTypes.sizeOf(type) == bytesAllocated && isFloating() == floating 
+                && buf.order().equals(dest.order()) )
         {
-            int bufMaxSize = 1024;
-            int bufSize = Math.min(buf.remaining(), bufMaxSize);
-            int bufPos = buf.position();
-            
-            byte[] tmp = new byte[ bufSize ];
-            
-            while ( dest.remaining() > 0 )
-            {
-                int length = Math.min(dest.remaining(), tmp.length);
-                buf.get( tmp, 0, length );
-                dest.put( tmp, 0, length );
-            }
-            buf.position( bufPos + size );
+            int size = dest.remaining();
+            ByteBuffer src = buf.slice();
+            src.limit( size );
+            dest.put( src );
+            buf.position( buf.position() + size );
         }
         else
         {
             //because Matlab writes data not respectively to the declared
             //matrix type, the reading is not straight forward (as above)
-            Class<?> clazz = storage.getStorageClazz();
-            while ( dest.remaining() > 0 )
+            Buffer view;
+            if ( clazz.equals( Double.class) )
             {
-                if ( clazz.equals( Double.class) )
-                {
-                    dest.putDouble( readDouble() );
-                }
-                else if ( clazz.equals( Byte.class) )
+                view = dest.asDoubleBuffer();
+            }
+            else if ( clazz.equals( Byte.class) )
+            {
+                view = dest;
+            }
+            else if ( clazz.equals( Integer.class) )
+            {
+                view = dest.asIntBuffer();
+            }
+            else if ( clazz.equals( Long.class) )
+            {
+                view = dest.asLongBuffer();
+            }
+            else  if ( clazz.equals( Float.class) )
+            {
+                view = dest.asFloatBuffer();
+            }
+            else if ( clazz.equals( Short.class) )
+            {
+                view = dest.asShortBuffer();
+            }
+            else
+            {
+                throw new RuntimeException("Not supported buffer reader for " + clazz );
+            }
+            convert( view, view.remaining() );
+        }
+        dest.rewind();
+        return dest;
+    }
+    
+    /**
+     * Reads <code>dest.length</code> elements converting them to
+     * <code>int</code>.
+     * 
+     * @param dest - the destination array
+     * @throws IOException
+     */
+    public void readToIntArray(int[] dest) throws IOException
+    {
+        readToIntArray( dest, 0, dest.length );
+    }
+    
+    /**
+     * Reads <code>length</code> elements converting them to <code>int</code>
+     * and stores them in the array starting at <code>offset</code>.
+     * 
+     * @param dest - the destination array
+     * @param offset - the index of the first element stored
+     * @param length - the number of elements to read
+     * @throws IOException
+     */
+    public void readToIntArray(int[] dest, int offset, int length) throws IOException
+    {
+        convert( IntBuffer.wrap( dest, offset, length ), length );
+    }
+    
+    /**
+     * Reads <code>dest.length</code> elements converting them to
+     * <code>double</code>.
+     * 
+     * @param dest - the destination array
+     * @throws IOException
+     */
+    public void readToDoubleArray(double[] dest) throws IOException
+    {
+        readToDoubleArray( dest, 0, dest.length );
+    }
+    
+    /**
+     * Reads <code>length</code> elements converting them to
+     * <code>double</code> and stores them in the array starting at
+     * <code>offset</code>.
+     * 
+     * @param dest - the destination array
+     * @param offset - the index of the first element stored
+     * @param length - the number of elements to read
+     * @throws IOException
+     */
+    public void readToDoubleArray(double[] dest, int offset, int length) throws IOException
+    {
+        convert( DoubleBuffer.wrap( dest, offset, length ), length );
+    }
+    
+    /**
+     * Tells if this stream holds floating point data.
+     */
+    private boolean isFloating()
+    {
+        return type == MatDataTypes.miDOUBLE || type == MatDataTypes.miSINGLE;
+    }
+    
+    /**
+     * Bulk conversion of <code>elements</code> values from the stream to the
+     * typed destination buffer.
+     * <p>
+     * The data is processed in chunks: source values are decoded to
+     * <code>long[]</code> (integer types) or <code>double[]</code> (floating
+     * point types) and then converted to the destination type. Both steps
+     * are tight loops over typed buffer views and the data type is switched
+     * once per chunk, not once per element.
+     * 
+     * @param dest
+     *            the destination buffer (<code>ByteBuffer</code>,
+     *            <code>ShortBuffer</code>, <code>IntBuffer</code>,
+     *            <code>LongBuffer</code>, <code>FloatBuffer</code> or
+     *            <code>DoubleBuffer</code>)
+     * @param elements
+     *            number of elements to convert
+     */
+    private void convert(Buffer dest, int elements)
+    {
+        int sizeOf = MatDataTypes.sizeOf(type);
+        ByteBuffer src = buf.slice().order( buf.order() );
+        src.limit( elements * sizeOf );
+        
+        Buffer view;
+        switch ( type )
+        {
+            case MatDataTypes.miUINT8:
+            case MatDataTypes.miINT8:
+                view = src;
+                break;
+            case MatDataTypes.miUINT16:
+            case MatDataTypes.miINT16:
+                view = src.asShortBuffer();
+                break;
+            case MatDataTypes.miUINT32:
+            case MatDataTypes.miINT32:
+                view = src.asIntBuffer();
+                break;
+            case MatDataTypes.miUINT64:
+            case MatDataTypes.miINT64:
+                view = src.asLongBuffer();
+                break;
+            case MatDataTypes.miSINGLE:
+                view = src.asFloatBuffer();
+                break;
+            case MatDataTypes.miDOUBLE:
+                view = src.asDoubleBuffer();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown data type: " + type);
+        }
+        
+        boolean floating = isFloating();
+        int chunk = Math.min( elements, CHUNK_SIZE );
+        long[] longs = floating ? null : new long[ chunk ];
+        double[] doubles = floating ? new double[ chunk ] : null;
+        
+        for ( int offset = 0; offset < elements; offset += chunk )
+        {
+            int length = Math.min( chunk, elements - offset );
+            if ( floating )
+            {
+                decode( view, doubles, length );
+                encode( doubles, dest, length );
+            }
+            else
+            {
+                decode( view, longs, length );
+                encode( longs, dest, length );
+            }
+        }
+        buf.position( buf.position() + elements * sizeOf );
+    }
+    
+    /**
+     * Decodes <code>length</code> integer values from the source view.
+     */
+    private void decode(Buffer src, long[] dest, int length)
+    {
+        switch ( type )
+        {
+            case MatDataTypes.miUINT8:
+            {
+                ByteBuffer b = (ByteBuffer) src;
+                for ( int i = 0; i < length; i++ )
                 {
-                    dest.put( readByte() );
+                    dest[i] = b.get() & 0xFF;
                 }
-                else if ( clazz.equals( Integer.class) )
+                break;
+            }
+            case MatDataTypes.miINT8:
+            {
+                ByteBuffer b = (ByteBuffer) src;
+                for ( int i = 0; i < length; i++ )
                 {
-                    dest.putInt( readInt() );
+                    dest[i] = b.get();
                 }
-                else if ( clazz.equals( Long.class) )
+                break;
+            }
+            case MatDataTypes.miUINT16:
+            {
+                ShortBuffer b = (ShortBuffer) src;
+                for ( int i = 0; i < length; i++ )
                 {
-                    dest.putLong( readLong() );
+                    dest[i] = b.get() & 0xFFFF;
                 }
-                else  if ( clazz.equals( Float.class) )
+                break;
+            }
+            case MatDataTypes.miINT16:
+            {
+                ShortBuffer b = (ShortBuffer) src;
+                for ( int i = 0; i < length; i++ )
                 {
-                    dest.putFloat( readFloat() );
+                    dest[i] = b.get();
                 }
-                else if ( clazz.equals( Short.class) )
+                break;
+            }
+            case MatDataTypes.miUINT32:
+            {
+                IntBuffer b = (IntBuffer) src;
+                for ( int i = 0; i < length; i++ )
                 {
-                    dest.putShort( readShort() );
+                    dest[i] = b.get() & 0xFFFFFFFFL;
                 }
-                else
+                break;
+            }
+            case MatDataTypes.miINT32:
+            {
+                IntBuffer b = (IntBuffer) src;
+                for ( int i = 0; i < length; i++ )
                 {
-                    throw new RuntimeException("Not supported buffer reader for " + clazz );
+                    dest[i] = b.get();
                 }
+                break;
+            }
+            default:
+                ((LongBuffer) src).get( dest, 0, length );
+                break;
+        }
+    }
+    
+    /**
+     * Decodes <code>length</code> floating point values from the source view.
+     */
+    private void decode(Buffer src, double[] dest, int length)
+    {
+        if ( type == MatDataTypes.miSINGLE )
+        {
+            FloatBuffer b = (FloatBuffer) src;
+            for ( int i = 0; i < length; i++ )
+            {
+                dest[i] = b.get();
+            }
+        }
+        else
+        {
+            ((DoubleBuffer) src).get( dest, 0, length );
+        }
+    }
+    
+    /**
+     * Converts <code>length</code> integer values to the destination type.
+     */
+    private static void encode(long[] src, Buffer dest, int length)
+    {
+        if ( dest instanceof DoubleBuffer )
+        {
+            DoubleBuffer b = (DoubleBuffer) dest;
+            for ( int i = 0; i < length; i++ )
+            {
+                b.put( src[i] );
+            }
+        }
+        else if ( dest instanceof FloatBuffer )
+        {
+            FloatBuffer b = (FloatBuffer) dest;
+            for ( int i = 0; i < length; i++ )
+            {
+                b.put( src[i] );
+            }
+        }
+        else if ( dest instanceof LongBuffer )
+        {
+            ((LongBuffer) dest).put( src, 0, length );
+        }
+        else if ( dest instanceof IntBuffer )
+        {
+            IntBuffer b = (IntBuffer) dest;
+            for ( int i = 0; i < length; i++ )
+            {
+                b.put( (int) src[i] );
+            }
+        }
+        else if ( dest instanceof ShortBuffer )
+        {
+            ShortBuffer b = (ShortBuffer) dest;
+            for ( int i = 0; i < length; i++ )
+            {
+                b.put( (short) src[i] );
+            }
+        }
+        else
+        {
+            ByteBuffer b = (ByteBuffer) dest;
+            for ( int i = 0; i < length; i++ )
+            {
+                b.put( (byte) src[i] );
+            }
+        }
+    }
+    
+    /**
+     * Converts <code>length</code> floating point values to the destination
+     * type.
+     */
+    private static void encode(double[] src, Buffer dest, int length)
+    {
+        if ( dest instanceof DoubleBuffer )
+        {
+            ((DoubleBuffer) dest).put( src, 0, length );
+        }
+        else if ( dest instanceof FloatBuffer )
+        {
+            FloatBuffer b = (FloatBuffer) dest;
+            for ( int i = 0; i < length; i++ )
+            {
+                b.put( (float) src[i] );
+            }
+        }
+        else if ( dest instanceof LongBuffer )
+        {
+            LongBuffer b = (LongBuffer) dest;
+            for ( int i = 0; i < length; i++ )
+            {
+                b.put( (long) src[i] );
+            }
+        }
+        else if ( dest instanceof IntBuffer )
+        {
+            IntBuffer b = (IntBuffer) dest;
+            for ( int i = 0; i < length; i++ )
+            {
+                b.put( (int) src[i] );
+            }
+        }
+        else if ( dest instanceof ShortBuffer )
+        {
+            ShortBuffer b = (ShortBuffer) dest;
+            for ( int i = 0; i < length; i++ )
+            {
+                b.put( (short) src[i] );
+            }
+        }
+        else
+        {
+            ByteBuffer b = (ByteBuffer) dest;
+            for ( int i = 0; i < length; i++ )
+            {
+                b.put( (byte) src[i] );
             }
         }
-        dest.rewind();
-        return dest;
     }
 
     private float readFloat()
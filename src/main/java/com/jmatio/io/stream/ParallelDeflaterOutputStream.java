@@ -0,0 +1,434 @@
+package com.jmatio.io.stream;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * An {@link OutputStream} compressing data in the zlib format with many
+ * threads (the way <i>pigz</i> does).
+ * <p>
+ * Data is split into chunks of fixed size and every chunk is deflated by a
+ * separate task of the executor. A chunk is primed with the last 32 KB of
+ * the previous one as preset dictionary and all but the last chunk end with
+ * a sync flush (at a byte boundary, without the final block bit), so the
+ * compressed chunks written one after another form a single deflate stream.
+ * The Adler-32 checksum of the stream is combined from checksums of the
+ * chunks. Any zlib inflater reads the result.
+ * <p>
+ * Compressed chunks are written in order by the thread writing to this
+ * stream. At most twice as many chunks as there are processors are
+ * compressed ahead of the one being written, so memory use is bounded by
+ * the chunk size.
+ * <p>
+ * <code>{@link #finish()}</code> completes the stream without closing the
+ * underlying stream. <code>{@link #flush()}</code> does not flush chunks not
+ * compressed yet.
+ */
+public class ParallelDeflaterOutputStream extends FilterOutputStream
+{
+    /**
+     * Default size of uncompressed chunks
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    /**
+     * Size of the preset dictionary (deflate window)
+     */
+    private static final int DICTIONARY_SIZE = 1 << 15;
+    /**
+     * Adler-32 modulus
+     */
+    private static final int ADLER_BASE = 65521;
+
+    private final ExecutorService executor;
+
+    private final int level;
+
+    private final int strategy;
+
+    private final int chunkSize;
+    /**
+     * Chunks being compressed (in order)
+     */
+    private final Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+
+    private final int maxPending;
+    /**
+     * Chunk being filled
+     */
+    private byte[] buffer;
+
+    private int count;
+    /**
+     * The end of the previous chunk
+     */
+    private byte[] dictionary;
+    /**
+     * Checksum of chunks written so far
+     */
+    private long adler = 1;
+
+    private boolean headerWritten;
+
+    private boolean finished;
+
+    /**
+     * Creates the stream with default compression level and chunk size.
+     *
+     * @param out - the underlying stream
+     * @param executor - the executor running compression tasks
+     */
+    public ParallelDeflaterOutputStream( OutputStream out, ExecutorService executor )
+    {
+        this( out, executor, Deflater.DEFAULT_COMPRESSION, DEFAULT_CHUNK_SIZE );
+    }
+
+    /**
+     * Creates the stream.
+     *
+     * @param out - the underlying stream
+     * @param executor - the executor running compression tasks
+     * @param level - the compression level (0-9 or <code>Deflater.DEFAULT_COMPRESSION</code>)
+     * @param chunkSize - the size of uncompressed chunks
+     */
+    public ParallelDeflaterOutputStream( OutputStream out, ExecutorService executor,
+            int level, int chunkSize )
+    {
+        this( out, executor, level, Deflater.DEFAULT_STRATEGY, chunkSize );
+    }
+
+    /**
+     * Creates the stream.
+     *
+     * @param out - the underlying stream
+     * @param executor - the executor running compression tasks
+     * @param level - the compression level (0-9 or <code>Deflater.DEFAULT_COMPRESSION</code>)
+     * @param strategy - the compression strategy (see <code>Deflater.setStrategy(int)</code>)
+     * @param chunkSize - the size of uncompressed chunks
+     */
+    public ParallelDeflaterOutputStream( OutputStream out, ExecutorService executor,
+            int level, int strategy, int chunkSize )
+    {
+        super( out );
+        if ( chunkSize <= 0 )
+        {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize );
+        }
+        this.executor   = executor;
+        this.level      = level;
+        this.strategy   = strategy;
+        this.chunkSize  = chunkSize;
+        this.maxPending = 2 * Runtime.getRuntime().availableProcessors();
+        this.buffer     = new byte[chunkSize];
+    }
+
+    @Override
+    public void write( int b ) throws IOException
+    {
+        if ( finished )
+        {
+            throw new IOException("Write beyond end of stream");
+        }
+        buffer[count++] = (byte) b;
+        if ( count == chunkSize )
+        {
+            submit( false );
+        }
+    }
+
+    @Override
+    public void write( byte[] bytes, int off, int len ) throws IOException
+    {
+        if ( finished )
+        {
+            throw new IOException("Write beyond end of stream");
+        }
+        while ( len > 0 )
+        {
+            int length = Math.min( len, chunkSize - count );
+            System.arraycopy( bytes, off, buffer, count, length );
+            count += length;
+            off   += length;
+            len   -= length;
+            if ( count == chunkSize )
+            {
+                submit( false );
+            }
+        }
+    }
+
+    /**
+     * Compresses the remaining data, waits for all chunks and writes the
+     * stream checksum. The underlying stream is not closed.
+     *
+     * @throws IOException if compressing or writing fails
+     */
+    public void finish() throws IOException
+    {
+        if ( finished )
+        {
+            return;
+        }
+        finished = true;
+        submit( true );
+        while ( !pending.isEmpty() )
+        {
+            writeChunk( pending.removeFirst() );
+        }
+        out.write( new byte[] { (byte) ( adler >>> 24 ), (byte) ( adler >>> 16 ),
+                                (byte) ( adler >>> 8 ), (byte) adler } );
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            finish();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Hands the current chunk to the executor (writing the oldest one first
+     * if too many are pending).
+     */
+    private void submit( boolean last ) throws IOException
+    {
+        byte[] data = buffer;
+        int length = count;
+        byte[] preset = dictionary;
+        if ( !last )
+        {
+            dictionary = Arrays.copyOfRange( data, Math.max( 0, length - DICTIONARY_SIZE ), length );
+            buffer = new byte[chunkSize];
+            count = 0;
+        }
+        if ( pending.size() >= maxPending )
+        {
+            writeChunk( pending.removeFirst() );
+        }
+        pending.addLast( executor.submit( new ChunkDeflater( data, length, preset, level, strategy, last ) ) );
+    }
+
+    /**
+     * Waits for the chunk and writes it.
+     */
+    private void writeChunk( Future<Chunk> future ) throws IOException
+    {
+        Chunk chunk = getResult( future );
+        if ( !headerWritten )
+        {
+            writeHeader();
+        }
+        out.write( chunk.data, 0, chunk.length );
+        adler = combine( adler, chunk.adler, chunk.inputLength );
+    }
+
+    /**
+     * Writes the zlib header (deflate with 32 KB window, no dictionary).
+     */
+    private void writeHeader() throws IOException
+    {
+        int cmf = 0x78;
+        int flevel;
+        if ( level == 0 || level == 1 )
+        {
+            flevel = 0;
+        }
+        else if ( level >= 2 && level <= 5 )
+        {
+            flevel = 1;
+        }
+        else if ( level == 6 || level == Deflater.DEFAULT_COMPRESSION )
+        {
+            flevel = 2;
+        }
+        else
+        {
+            flevel = 3;
+        }
+        int flg = flevel << 6;
+        flg += 31 - ( ( cmf << 8 ) + flg ) % 31;
+        out.write( cmf );
+        out.write( flg );
+        headerWritten = true;
+    }
+
+    /**
+     * Waits for the chunk, cancels all pending chunks if it failed.
+     */
+    private Chunk getResult( Future<Chunk> future ) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch ( InterruptedException e )
+        {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing data");
+        }
+        catch ( ExecutionException e )
+        {
+            cancel();
+            Throwable cause = e.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new IOException("Could not compress data: " + cause );
+        }
+    }
+
+    private void cancel()
+    {
+        for ( Future<Chunk> future : pending )
+        {
+            future.cancel( true );
+        }
+        pending.clear();
+        finished = true;
+    }
+
+    /**
+     * Combines Adler-32 checksums of two adjacent blocks (as zlib's
+     * <code>adler32_combine</code>).
+     *
+     * @param adler1 - checksum of the first block
+     * @param adler2 - checksum of the second block
+     * @param length2 - length of the second block
+     * @return - checksum of both blocks
+     */
+    public static long combine( long adler1, long adler2, long length2 )
+    {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = ( rem * sum1 ) % ADLER_BASE;
+        sum1 += ( adler2 & 0xffff ) + ADLER_BASE - 1;
+        sum2 += ( ( adler1 >> 16 ) & 0xffff ) + ( ( adler2 >> 16 ) & 0xffff ) + ADLER_BASE - rem;
+        if ( sum1 >= ADLER_BASE )
+        {
+            sum1 -= ADLER_BASE;
+        }
+        if ( sum1 >= ADLER_BASE )
+        {
+            sum1 -= ADLER_BASE;
+        }
+        if ( sum2 >= ( ADLER_BASE << 1 ) )
+        {
+            sum2 -= ( ADLER_BASE << 1 );
+        }
+        if ( sum2 >= ADLER_BASE )
+        {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | ( sum2 << 16 );
+    }
+
+    /**
+     * Compressed chunk
+     */
+    private static class Chunk
+    {
+        private final byte[] data;
+        private final int length;
+        private final long adler;
+        private final int inputLength;
+
+        public Chunk( byte[] data, int length, long adler, int inputLength )
+        {
+            this.data        = data;
+            this.length      = length;
+            this.adler       = adler;
+            this.inputLength = inputLength;
+        }
+    }
+
+    /**
+     * Deflates a single chunk (raw deflate data, no zlib header).
+     */
+    private static class ChunkDeflater implements Callable<Chunk>
+    {
+        private final byte[] data;
+        private final int length;
+        private final byte[] dictionary;
+        private final int level;
+        private final int strategy;
+        private final boolean last;
+
+        public ChunkDeflater( byte[] data, int length, byte[] dictionary, int level, int strategy, boolean last )
+        {
+            this.data       = data;
+            this.length     = length;
+            this.dictionary = dictionary;
+            this.level      = level;
+            this.strategy   = strategy;
+            this.last       = last;
+        }
+
+        public Chunk call()
+        {
+            Adler32 checksum = new Adler32();
+            checksum.update( data, 0, length );
+
+            Deflater deflater = new Deflater( level, true );
+            try
+            {
+                deflater.setStrategy( strategy );
+                if ( dictionary != null )
+                {
+                    deflater.setDictionary( dictionary );
+                }
+                deflater.setInput( data, 0, length );
+                if ( last )
+                {
+                    deflater.finish();
+                }
+                byte[] output = new byte[Math.max( 64, length / 2 )];
+                int size = 0;
+                while ( true )
+                {
+                    size += deflater.deflate( output, size, output.length - size,
+                                              last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH );
+                    //sync flush is complete when the output is not full
+                    if ( last ? deflater.finished() : size < output.length )
+                    {
+                        break;
+                    }
+                    if ( size == output.length )
+                    {
+                        output = Arrays.copyOf( output, output.length * 2 );
+                    }
+                }
+                return new Chunk( output, size, checksum.getValue(), length );
+            }
+            finally
+            {
+                deflater.end();
+            }
+        }
+    }
+}
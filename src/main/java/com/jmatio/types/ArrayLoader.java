@@ -0,0 +1,17 @@
+package com.jmatio.types;
+
+/**
+ * Decodes an array on demand. Used by <code>{@link MLStructure}</code> and
+ * <code>{@link MLCell}</code> to hold fields and elements which are decoded
+ * on first access.
+ */
+public interface ArrayLoader
+{
+    /**
+     * Decodes the array.
+     * 
+     * @return - the array
+     * @throws IllegalStateException if the array cannot be decoded
+     */
+    MLArray load();
+}
@@ -5,6 +5,11 @@ import java.util.ArrayList;
 public class MLCell extends MLArray
 {
     private ArrayList<MLArray> cells;
+    /**
+     * Loaders of elements not yet decoded (<code>null</code> if all
+     * elements are decoded)
+     */
+    private volatile ArrayLoader[] loaders;
     
     public MLCell(String name, int[] dims )
     {
@@ -24,26 +29,67 @@ public class MLCell extends MLArray
     }    
     public void set(MLArray value, int m, int n)
     {
-        cells.set( getIndex(m,n), value );
+        set( value, getIndex(m,n) );
     }
     public void set(MLArray value, int index)
     {
         cells.set( index, value );
+        if ( loaders != null )
+        {
+            loaders[index] = null;
+        }
+    }
+    /**
+     * Sets the element which is decoded by <code>loader</code> on first
+     * access.
+     * 
+     * @param loader - decodes the element
+     * @param index
+     */
+    public void setLazy(ArrayLoader loader, int index)
+    {
+        if ( loaders == null )
+        {
+            loaders = new ArrayLoader[ cells.size() ];
+        }
+        loaders[index] = loader;
     }
     public MLArray get(int m, int n)
     {
-        return cells.get( getIndex(m,n) );
+        return get( getIndex(m,n) );
     }
     public MLArray get(int index)
     {
+        //decode on first access and keep the result, elements are read
+        //under the lock so that decoded elements are safely published
+        if ( loaders != null )
+        {
+            synchronized ( this )
+            {
+                if ( loaders != null && loaders[index] != null )
+                {
+                    cells.set( index, loaders[index].load() );
+                    loaders[index] = null;
+                }
+                return cells.get( index );
+            }
+        }
         return cells.get( index );
     }
     public int getIndex(int m, int n)
     {
         return m+n*getM();
     }
-    public ArrayList<MLArray> cells()
+    public synchronized ArrayList<MLArray> cells()
     {
+        if ( loaders != null )
+        {
+            for ( int i = 0; i < loaders.length; i++ )
+            {
+                get( i );
+            }
+            loaders = null;
+        }
         return cells;
     }
     public String contentToString()
@@ -2,9 +2,19 @@ package com.jmatio.types;
 
 import java.util.Arrays;
 
+/**
+ * Character array.
+ * <p>
+ * Characters are stored in column-major order in a primitive array: a
+ * <code>byte[]</code> as long as all of them are ASCII, a <code>char[]</code>
+ * otherwise (the storage is widened on the first non-ASCII character).
+ */
 public class MLChar extends MLArray 
 {
-    Character[] chars;
+    /** ASCII characters (<code>null</code> if stored as <code>chars</code>) */
+    private byte[] ascii;
+    /** characters (<code>null</code> if stored as <code>ascii</code>) */
+    private char[] chars;
     
     /**
      * Creates the 1 x {@link String#length()} {@link MLChar} from the given
@@ -75,15 +85,78 @@ public class MLChar extends MLArray
     public MLChar(String name, int[] dims, int type, int attributes)
     {
         super(name, dims, type, attributes);
-        chars = createArray(getM(), getN());
+        ascii = new byte[getSize()];
     }
-
-    protected Character[] createArray(int m, int n)
+    
+    /**
+     * Creates character array from characters in column-major order. The
+     * array is not copied unless all characters are ASCII (then they are
+     * stored as bytes) or it's length does not match the dimensions.
+     * 
+     * @param name - array name
+     * @param dims - array dimensions
+     * @param attributes - array flags
+     * @param chars - the characters
+     */
+    public MLChar(String name, int[] dims, int attributes, char[] chars)
     {
-        return new Character[m*n];
+        super(name, dims, MLArray.mxCHAR_CLASS, attributes);
+        
+        if ( chars.length != getSize() )
+        {
+            chars = Arrays.copyOf( chars, getSize() );
+        }
+        if ( isASCII( chars ) )
+        {
+            ascii = new byte[chars.length];
+            for ( int i = 0; i < chars.length; i++ )
+            {
+                ascii[i] = (byte) chars[i];
+            }
+        }
+        else
+        {
+            this.chars = chars;
+        }
     }
+    
+    private static boolean isASCII( char[] chars )
+    {
+        for ( char ch : chars )
+        {
+            if ( ch >= 0x80 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Gets character at given column-major index
+     */
+    private char charAt(int index)
+    {
+        return ascii != null ? (char) ascii[index] : chars[index];
+    }
+    
     public void setChar(char ch, int index)
     {
+        if ( ascii != null )
+        {
+            if ( ch < 0x80 )
+            {
+                ascii[index] = (byte) ch;
+                return;
+            }
+            //widen the storage
+            chars = new char[ascii.length];
+            for ( int i = 0; i < ascii.length; i++ )
+            {
+                chars[i] = (char) ascii[i];
+            }
+            ascii = null;
+        }
         chars[index] = ch;
     }
     /**
@@ -92,10 +165,9 @@ public class MLChar extends MLArray
      */
     public void set(String value)
     {
-        char[] cha = value.toCharArray();
         for ( int i = 0; i < getN() &&  i < value.length(); i++ )
         {
-            setChar(cha[i], i);
+            setChar(value.charAt(i), i);
         }
     }
     
@@ -124,11 +196,34 @@ public class MLChar extends MLArray
     
     public Character getChar(int m, int n)
     {
-        return chars[getIndex(m,n)];
+        return charAt(getIndex(m,n));
     }
     public Character[] exportChar()
     {
-        return chars;
+        Character[] ac = new Character[getSize()];
+        for ( int i = 0; i < ac.length; i++ )
+        {
+            ac[i] = charAt(i);
+        }
+        return ac;
+    }
+    /**
+     * Gets all characters in column-major order.
+     * 
+     * @return - a copy of the characters
+     */
+    public char[] getChars()
+    {
+        if ( chars != null )
+        {
+            return chars.clone();
+        }
+        char[] ac = new char[ascii.length];
+        for ( int i = 0; i < ac.length; i++ )
+        {
+            ac[i] = (char) ascii[i];
+        }
+        return ac;
     }
     
     @Override
@@ -136,11 +231,41 @@ public class MLChar extends MLArray
     {
         if ( o instanceof MLChar )
         {
-            return Arrays.equals( chars, ((MLChar)o).chars );
+            MLChar other = (MLChar) o;
+            if ( ascii != null && other.ascii != null )
+            {
+                return Arrays.equals( ascii, other.ascii );
+            }
+            if ( getSize() != other.getSize() )
+            {
+                return false;
+            }
+            for ( int i = 0; i < getSize(); i++ )
+            {
+                if ( charAt(i) != other.charAt(i) )
+                {
+                    return false;
+                }
+            }
+            return true;
         }
         return super.equals( o );
     }
     
+    /**
+     * Gets the m-th row characters (a column-major stride).
+     */
+    private char[] getRow( int m )
+    {
+        int rows = getM();
+        char[] row = new char[getN()];
+        for ( int n = 0, index = m; n < row.length; n++, index += rows )
+        {
+            row[n] = charAt(index);
+        }
+        return row;
+    }
+    
     /**
      * Gets the m-th character matrix's row as <code>String</code>.
      * 
@@ -149,14 +274,7 @@ public class MLChar extends MLArray
      */
     public String getString( int m )
     {
-        StringBuffer charbuff = new StringBuffer();
-        
-        for (int n = 0; n < getN(); n++)
-        {
-            charbuff.append(getChar(m, n));
-        }
-        
-        return charbuff.toString().trim();
+        return new String( getRow(m) ).trim();
     }
     
     public String contentToString()
@@ -167,14 +285,9 @@ public class MLChar extends MLArray
         for ( int m = 0; m < getM(); m++ )
         {
            sb.append("\t");
-           StringBuffer charbuff = new StringBuffer();
-           charbuff.append("'");
-           for ( int n = 0; n < getN(); n++ )
-           {
-               charbuff.append( getChar(m,n) );
-           }
-           charbuff.append("'");
-           sb.append(charbuff);
+           sb.append("'");
+           sb.append( getRow(m) );
+           sb.append("'");
            sb.append("\n");
         }
         return sb.toString();
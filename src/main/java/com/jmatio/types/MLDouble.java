@@ -1,6 +1,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 
 /**
  * Class represents Double array (matrix)
@@ -49,14 +50,20 @@ public class MLDouble extends MLNumericArray<Double>
      * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
      * construct a 2D real matrix from <code>double[][]</code>
      * 
-     * Note: array is converted to Double[]
-     * 
      * @param name - array name
      * @param vals - two-dimensional array of values
      */
     public MLDouble( String name, double[][] vals )
     {
-        this( name, double2DToDouble(vals), vals.length );
+        this( name, new int[] { vals.length, vals[0].length } );
+        DoubleBuffer view = asDoubleBuffer();
+        for ( int n = 0; n < vals[0].length; n++ )
+        {
+            for ( int m = 0; m < vals.length; m++ )
+            {
+                view.put( m+n*vals.length, vals[m][n] );
+            }
+        }
     }
     /**
      * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
@@ -68,7 +75,8 @@ public class MLDouble extends MLNumericArray<Double>
      */
     public MLDouble(String name, double[] vals, int m)
     {
-        this(name, castToDouble( vals ), m );
+        this( name, new int[] { m, vals.length/m } );
+        copyFrom( vals );
     }
     /**
      * Gets two-dimensional real array.
@@ -78,6 +86,7 @@ public class MLDouble extends MLNumericArray<Double>
     public double[][] getArray()
     {
         double[][] result = new double[getM()][];
+        DoubleBuffer view = asDoubleBuffer();
         
         for ( int m = 0; m < getM(); m++ )
         {
@@ -85,44 +94,11 @@ public class MLDouble extends MLNumericArray<Double>
 
            for ( int n = 0; n < getN(); n++ )
            {               
-               result[m][n] = getReal(m,n);
+               result[m][n] = view.get( m+n*getM() );
            }
         }
         return result;
     }
-    /**
-     * Casts <code>Double[]</code> to <code>double[]</code>
-     * 
-     * @param - source <code>Double[]</code>
-     * @return - result <code>double[]</code>
-     */
-    private static Double[] castToDouble( double[] d )
-    {
-        Double[] dest = new Double[d.length];
-        for ( int i = 0; i < d.length; i++ )
-        {
-            dest[i] = (Double)d[i];
-        }
-        return dest;
-    }
-    /**
-     * Converts double[][] to Double[]
-     * 
-     * @param dd
-     * @return
-     */
-    private static Double[] double2DToDouble ( double[][] dd )
-    {
-        Double[] d = new Double[ dd.length*dd[0].length ];
-        for ( int n = 0; n < dd[0].length; n++ )
-        {
-            for ( int m = 0; m < dd.length; m++ )
-            {
-                d[ m+n*dd.length ] = dd[m][n]; 
-            }
-        }
-        return d;
-    }
     public int getBytesAllocated()
     {
         return Double.SIZE >> 3;
@@ -150,4 +126,128 @@ public class MLDouble extends MLNumericArray<Double>
     {
         return Double.class;
     }
+    
+    /**
+     * Returns a view of real elements (column-packed). The view shares the
+     * storage of the array: changes of one are visible in the other.
+     * 
+     * @return - <code>DoubleBuffer</code> view of real elements
+     */
+    public DoubleBuffer asDoubleBuffer()
+    {
+        return view( getRealByteBuffer() ).asDoubleBuffer();
+    }
+    /**
+     * Returns a view of imaginary elements (column-packed). See
+     * <code>{@link #asDoubleBuffer()}</code>.
+     * 
+     * @return - <code>DoubleBuffer</code> view of imaginary elements
+     * @throws IllegalStateException if the array is not complex
+     */
+    public DoubleBuffer asImaginaryDoubleBuffer()
+    {
+        return view( getImaginaryStorage() ).asDoubleBuffer();
+    }
+    /**
+     * Copies all real elements (column-packed) into the array.
+     * 
+     * @param dst - destination array
+     * @param off - index of the first element in <code>dst</code>
+     */
+    public void copyTo( double[] dst, int off )
+    {
+        asDoubleBuffer().get( dst, off, getSize() );
+    }
+    /**
+     * Copies all imaginary elements (column-packed) into the array.
+     * 
+     * @param dst - destination array
+     * @param off - index of the first element in <code>dst</code>
+     */
+    public void copyImaginaryTo( double[] dst, int off )
+    {
+        asImaginaryDoubleBuffer().get( dst, off, getSize() );
+    }
+    /**
+     * Sets all real elements.
+     * 
+     * @param src - column-packed vector of <code>getSize()</code> elements
+     */
+    public void copyFrom( double[] src )
+    {
+        checkLength( src.length );
+        asDoubleBuffer().put( src );
+    }
+    /**
+     * Sets all imaginary elements.
+     * 
+     * @param src - column-packed vector of <code>getSize()</code> elements
+     */
+    public void copyImaginaryFrom( double[] src )
+    {
+        checkLength( src.length );
+        asImaginaryDoubleBuffer().put( src );
+    }
+    /**
+     * Gets real array element as <code>double</code>, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @return - element value
+     */
+    public double getDouble( int index )
+    {
+        return getRealByteBuffer().getDouble( index << 3 );
+    }
+    /**
+     * Sets real array element, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @param value - element value
+     */
+    public void setDouble( int index, double value )
+    {
+        getRealByteBuffer().putDouble( index << 3, value );
+    }
+    /**
+     * Gets imaginary array element as <code>double</code>, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @return - element value
+     */
+    public double getImaginaryDouble( int index )
+    {
+        return getImaginaryStorage().getDouble( index << 3 );
+    }
+    /**
+     * Sets imaginary array element, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @param value - element value
+     */
+    public void setImaginaryDouble( int index, double value )
+    {
+        getImaginaryStorage().putDouble( index << 3, value );
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#get(java.nio.ByteBuffer, int)
+     */
+    @Override
+    protected Double get( ByteBuffer buffer, int index )
+    {
+        return buffer.getDouble( index << 3 );
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#set(java.nio.ByteBuffer, Number, int)
+     */
+    @Override
+    protected void set( ByteBuffer buffer, Double value, int index )
+    {
+        buffer.putDouble( index << 3, value );
+    }
 }
@@ -1,6 +1,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * Class represents Int16 array (matrix)
@@ -51,14 +52,20 @@ public class MLInt16 extends MLNumericArray<Short>
      * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
      * construct a 2D real matrix from <code>double[][]</code>
      * 
-     * Note: array is converted to Short[]
-     * 
      * @param name - array name
      * @param vals - two-dimensional array of values
      */
     public MLInt16( String name, short[][] vals )
     {
-        this( name, short2DToShort(vals), vals.length );
+        this( name, new int[] { vals.length, vals[0].length } );
+        ShortBuffer view = asShortBuffer();
+        for ( int n = 0; n < vals[0].length; n++ )
+        {
+            for ( int m = 0; m < vals.length; m++ )
+            {
+                view.put( m+n*vals.length, vals[m][n] );
+            }
+        }
     }
     
     /**
@@ -71,7 +78,8 @@ public class MLInt16 extends MLNumericArray<Short>
      */
     public MLInt16(String name, short[] vals, int m)
     {
-        this(name, castToShort( vals ), m );
+        this( name, new int[] { m, vals.length/m } );
+        copyFrom( vals );
     }
     /**
      * Gets two-dimensional real array.
@@ -81,6 +89,7 @@ public class MLInt16 extends MLNumericArray<Short>
     public short[][] getArray()
     {
         short[][] result = new short[getM()][];
+        ShortBuffer view = asShortBuffer();
         
         for ( int m = 0; m < getM(); m++ )
         {
@@ -88,46 +97,13 @@ public class MLInt16 extends MLNumericArray<Short>
 
            for ( int n = 0; n < getN(); n++ )
            {               
-               result[m][n] = getReal(m,n);
+               result[m][n] = view.get( m+n*getM() );
            }
         }
         return result;
     }
     
-    /**
-     * Casts <code>Short[]</code> to <code>short[]</code>
-     * 
-     * @param - source <code>short[]</code>
-     * @return - result <code>Short[]</code>
-     */
-    private static Short[] castToShort( short[] d )
-    {
-        Short[] dest = new Short[d.length];
-        for ( int i = 0; i < d.length; i++ )
-        {
-            dest[i] = (Short)d[i];
-        }
-        return dest;
-    }
     
-    /**
-     * Converts short[][] to Short[]
-     * 
-     * @param dd
-     * @return
-     */
-    private static Short[] short2DToShort( short[][] dd )
-    {
-        Short[] d = new Short[ dd.length*dd[0].length ];
-        for ( int n = 0; n < dd[0].length; n++ )
-        {
-            for ( int m = 0; m < dd.length; m++ )
-            {
-                d[ m+n*dd.length ] = dd[m][n]; 
-            }
-        }
-        return d;
-    }
     
     public int getBytesAllocated()
     {
@@ -158,4 +134,128 @@ public class MLInt16 extends MLNumericArray<Short>
     {
         return Short.class;
     }
+    
+    /**
+     * Returns a view of real elements (column-packed). The view shares the
+     * storage of the array: changes of one are visible in the other.
+     * 
+     * @return - <code>ShortBuffer</code> view of real elements
+     */
+    public ShortBuffer asShortBuffer()
+    {
+        return view( getRealByteBuffer() ).asShortBuffer();
+    }
+    /**
+     * Returns a view of imaginary elements (column-packed). See
+     * <code>{@link #asShortBuffer()}</code>.
+     * 
+     * @return - <code>ShortBuffer</code> view of imaginary elements
+     * @throws IllegalStateException if the array is not complex
+     */
+    public ShortBuffer asImaginaryShortBuffer()
+    {
+        return view( getImaginaryStorage() ).asShortBuffer();
+    }
+    /**
+     * Copies all real elements (column-packed) into the array.
+     * 
+     * @param dst - destination array
+     * @param off - index of the first element in <code>dst</code>
+     */
+    public void copyTo( short[] dst, int off )
+    {
+        asShortBuffer().get( dst, off, getSize() );
+    }
+    /**
+     * Copies all imaginary elements (column-packed) into the array.
+     * 
+     * @param dst - destination array
+     * @param off - index of the first element in <code>dst</code>
+     */
+    public void copyImaginaryTo( short[] dst, int off )
+    {
+        asImaginaryShortBuffer().get( dst, off, getSize() );
+    }
+    /**
+     * Sets all real elements.
+     * 
+     * @param src - column-packed vector of <code>getSize()</code> elements
+     */
+    public void copyFrom( short[] src )
+    {
+        checkLength( src.length );
+        asShortBuffer().put( src );
+    }
+    /**
+     * Sets all imaginary elements.
+     * 
+     * @param src - column-packed vector of <code>getSize()</code> elements
+     */
+    public void copyImaginaryFrom( short[] src )
+    {
+        checkLength( src.length );
+        asImaginaryShortBuffer().put( src );
+    }
+    /**
+     * Gets real array element as <code>short</code>, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @return - element value
+     */
+    public short getShort( int index )
+    {
+        return getRealByteBuffer().getShort( index << 1 );
+    }
+    /**
+     * Sets real array element, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @param value - element value
+     */
+    public void setShort( int index, short value )
+    {
+        getRealByteBuffer().putShort( index << 1, value );
+    }
+    /**
+     * Gets imaginary array element as <code>short</code>, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @return - element value
+     */
+    public short getImaginaryShort( int index )
+    {
+        return getImaginaryStorage().getShort( index << 1 );
+    }
+    /**
+     * Sets imaginary array element, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @param value - element value
+     */
+    public void setImaginaryShort( int index, short value )
+    {
+        getImaginaryStorage().putShort( index << 1, value );
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#get(java.nio.ByteBuffer, int)
+     */
+    @Override
+    protected Short get( ByteBuffer buffer, int index )
+    {
+        return buffer.getShort( index << 1 );
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#set(java.nio.ByteBuffer, Number, int)
+     */
+    @Override
+    protected void set( ByteBuffer buffer, Short value, int index )
+    {
+        buffer.putShort( index << 1, value );
+    }
 }
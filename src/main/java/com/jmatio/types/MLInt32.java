@@ -1,6 +1,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 
 
 public class MLInt32 extends MLNumericArray<Integer>
@@ -45,14 +46,20 @@ public class MLInt32 extends MLNumericArray<Integer>
      * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
      * construct a 2D real matrix from <code>byte[][]</code>
      * 
-     * Note: array is converted to Byte[]
-     * 
      * @param name - array name
      * @param vals - two-dimensional array of values
      */
     public MLInt32( String name, int[][] vals )
     {
-        this( name, int2DToInteger(vals), vals.length );
+        this( name, new int[] { vals.length, vals[0].length } );
+        IntBuffer view = asIntBuffer();
+        for ( int n = 0; n < vals[0].length; n++ )
+        {
+            for ( int m = 0; m < vals.length; m++ )
+            {
+                view.put( m+n*vals.length, vals[m][n] );
+            }
+        }
     }
     /**
      * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
@@ -64,7 +71,8 @@ public class MLInt32 extends MLNumericArray<Integer>
      */
     public MLInt32(String name, int[] vals, int m)
     {
-        this(name, castToInteger( vals ), m );
+        this( name, new int[] { m, vals.length/m } );
+        copyFrom( vals );
     }
     /**
      * Gets two-dimensional real array.
@@ -74,6 +82,7 @@ public class MLInt32 extends MLNumericArray<Integer>
     public int[][] getArray()
     {
         int[][] result = new int[getM()][];
+        IntBuffer view = asIntBuffer();
         
         for ( int m = 0; m < getM(); m++ )
         {
@@ -81,44 +90,11 @@ public class MLInt32 extends MLNumericArray<Integer>
 
            for ( int n = 0; n < getN(); n++ )
            {               
-               result[m][n] = getReal(m,n);
+               result[m][n] = view.get( m+n*getM() );
            }
         }
         return result;
     }
-    /**
-     * Casts <code>Double[]</code> to <code>byte[]</code>
-     * 
-     * @param - source <code>Long[]</code>
-     * @return - result <code>long[]</code>
-     */
-    private static Integer[] castToInteger( int[] d )
-    {
-        Integer[] dest = new Integer[d.length];
-        for ( int i = 0; i < d.length; i++ )
-        {
-            dest[i] = d[i];
-        }
-        return dest;
-    }
-    /**
-     * Converts byte[][] to Long[]
-     * 
-     * @param dd
-     * @return
-     */
-    private static Integer[] int2DToInteger( int[][] dd )
-    {
-        Integer[] d = new Integer[ dd.length*dd[0].length ];
-        for ( int n = 0; n < dd[0].length; n++ )
-        {
-            for ( int m = 0; m < dd.length; m++ )
-            {
-                d[ m+n*dd.length ] = dd[m][n]; 
-            }
-        }
-        return d;
-    }
     public Integer buldFromBytes(byte[] bytes)
     {
         if ( bytes.length != getBytesAllocated() )
@@ -145,5 +121,129 @@ public class MLInt32 extends MLNumericArray<Integer>
         buff.putInt( value );
         return buff.array();
     }
+    
+    /**
+     * Returns a view of real elements (column-packed). The view shares the
+     * storage of the array: changes of one are visible in the other.
+     * 
+     * @return - <code>IntBuffer</code> view of real elements
+     */
+    public IntBuffer asIntBuffer()
+    {
+        return view( getRealByteBuffer() ).asIntBuffer();
+    }
+    /**
+     * Returns a view of imaginary elements (column-packed). See
+     * <code>{@link #asIntBuffer()}</code>.
+     * 
+     * @return - <code>IntBuffer</code> view of imaginary elements
+     * @throws IllegalStateException if the array is not complex
+     */
+    public IntBuffer asImaginaryIntBuffer()
+    {
+        return view( getImaginaryStorage() ).asIntBuffer();
+    }
+    /**
+     * Copies all real elements (column-packed) into the array.
+     * 
+     * @param dst - destination array
+     * @param off - index of the first element in <code>dst</code>
+     */
+    public void copyTo( int[] dst, int off )
+    {
+        asIntBuffer().get( dst, off, getSize() );
+    }
+    /**
+     * Copies all imaginary elements (column-packed) into the array.
+     * 
+     * @param dst - destination array
+     * @param off - index of the first element in <code>dst</code>
+     */
+    public void copyImaginaryTo( int[] dst, int off )
+    {
+        asImaginaryIntBuffer().get( dst, off, getSize() );
+    }
+    /**
+     * Sets all real elements.
+     * 
+     * @param src - column-packed vector of <code>getSize()</code> elements
+     */
+    public void copyFrom( int[] src )
+    {
+        checkLength( src.length );
+        asIntBuffer().put( src );
+    }
+    /**
+     * Sets all imaginary elements.
+     * 
+     * @param src - column-packed vector of <code>getSize()</code> elements
+     */
+    public void copyImaginaryFrom( int[] src )
+    {
+        checkLength( src.length );
+        asImaginaryIntBuffer().put( src );
+    }
+    /**
+     * Gets real array element as <code>int</code>, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @return - element value
+     */
+    public int getInt( int index )
+    {
+        return getRealByteBuffer().getInt( index << 2 );
+    }
+    /**
+     * Sets real array element, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @param value - element value
+     */
+    public void setInt( int index, int value )
+    {
+        getRealByteBuffer().putInt( index << 2, value );
+    }
+    /**
+     * Gets imaginary array element as <code>int</code>, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @return - element value
+     */
+    public int getImaginaryInt( int index )
+    {
+        return getImaginaryStorage().getInt( index << 2 );
+    }
+    /**
+     * Sets imaginary array element, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @param value - element value
+     */
+    public void setImaginaryInt( int index, int value )
+    {
+        getImaginaryStorage().putInt( index << 2, value );
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#get(java.nio.ByteBuffer, int)
+     */
+    @Override
+    protected Integer get( ByteBuffer buffer, int index )
+    {
+        return buffer.getInt( index << 2 );
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#set(java.nio.ByteBuffer, Number, int)
+     */
+    @Override
+    protected void set( ByteBuffer buffer, Integer value, int index )
+    {
+        buffer.putInt( index << 2, value );
+    }
 
 }
@@ -1,6 +1,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
 
 /**
  * Class represents Int64 (long) array (matrix)
@@ -49,14 +50,20 @@ public class MLInt64 extends MLNumericArray<Long>
      * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
      * construct a 2D real matrix from <code>byte[][]</code>
      * 
-     * Note: array is converted to Byte[]
-     * 
      * @param name - array name
      * @param vals - two-dimensional array of values
      */
     public MLInt64( String name, long[][] vals )
     {
-        this( name, long2DToLong(vals), vals.length );
+        this( name, new int[] { vals.length, vals[0].length } );
+        LongBuffer view = asLongBuffer();
+        for ( int n = 0; n < vals[0].length; n++ )
+        {
+            for ( int m = 0; m < vals.length; m++ )
+            {
+                view.put( m+n*vals.length, vals[m][n] );
+            }
+        }
     }
     /**
      * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
@@ -68,7 +75,8 @@ public class MLInt64 extends MLNumericArray<Long>
      */
     public MLInt64(String name, long[] vals, int m)
     {
-        this(name, castToLong( vals ), m );
+        this( name, new int[] { m, vals.length/m } );
+        copyFrom( vals );
     }
     /**
      * Gets two-dimensional real array.
@@ -78,6 +86,7 @@ public class MLInt64 extends MLNumericArray<Long>
     public long[][] getArray()
     {
         long[][] result = new long[getM()][];
+        LongBuffer view = asLongBuffer();
         
         for ( int m = 0; m < getM(); m++ )
         {
@@ -85,44 +94,11 @@ public class MLInt64 extends MLNumericArray<Long>
 
            for ( int n = 0; n < getN(); n++ )
            {               
-               result[m][n] = getReal(m,n);
+               result[m][n] = view.get( m+n*getM() );
            }
         }
         return result;
     }
-    /**
-     * Casts <code>Double[]</code> to <code>byte[]</code>
-     * 
-     * @param - source <code>Long[]</code>
-     * @return - result <code>long[]</code>
-     */
-    private static Long[] castToLong( long[] d )
-    {
-        Long[] dest = new Long[d.length];
-        for ( int i = 0; i < d.length; i++ )
-        {
-            dest[i] = (long)d[i];
-        }
-        return dest;
-    }
-    /**
-     * Converts byte[][] to Long[]
-     * 
-     * @param dd
-     * @return
-     */
-    private static Long[] long2DToLong ( long[][] dd )
-    {
-        Long[] d = new Long[ dd.length*dd[0].length ];
-        for ( int n = 0; n < dd[0].length; n++ )
-        {
-            for ( int m = 0; m < dd.length; m++ )
-            {
-                d[ m+n*dd.length ] = dd[m][n]; 
-            }
-        }
-        return d;
-    }
     public Long buldFromBytes(byte[] bytes)
     {
         if ( bytes.length != getBytesAllocated() )
@@ -150,5 +126,129 @@ public class MLInt64 extends MLNumericArray<Long>
         return buff.array();
     }
     
+    
+    /**
+     * Returns a view of real elements (column-packed). The view shares the
+     * storage of the array: changes of one are visible in the other.
+     * 
+     * @return - <code>LongBuffer</code> view of real elements
+     */
+    public LongBuffer asLongBuffer()
+    {
+        return view( getRealByteBuffer() ).asLongBuffer();
+    }
+    /**
+     * Returns a view of imaginary elements (column-packed). See
+     * <code>{@link #asLongBuffer()}</code>.
+     * 
+     * @return - <code>LongBuffer</code> view of imaginary elements
+     * @throws IllegalStateException if the array is not complex
+     */
+    public LongBuffer asImaginaryLongBuffer()
+    {
+        return view( getImaginaryStorage() ).asLongBuffer();
+    }
+    /**
+     * Copies all real elements (column-packed) into the array.
+     * 
+     * @param dst - destination array
+     * @param off - index of the first element in <code>dst</code>
+     */
+    public void copyTo( long[] dst, int off )
+    {
+        asLongBuffer().get( dst, off, getSize() );
+    }
+    /**
+     * Copies all imaginary elements (column-packed) into the array.
+     * 
+     * @param dst - destination array
+     * @param off - index of the first element in <code>dst</code>
+     */
+    public void copyImaginaryTo( long[] dst, int off )
+    {
+        asImaginaryLongBuffer().get( dst, off, getSize() );
+    }
+    /**
+     * Sets all real elements.
+     * 
+     * @param src - column-packed vector of <code>getSize()</code> elements
+     */
+    public void copyFrom( long[] src )
+    {
+        checkLength( src.length );
+        asLongBuffer().put( src );
+    }
+    /**
+     * Sets all imaginary elements.
+     * 
+     * @param src - column-packed vector of <code>getSize()</code> elements
+     */
+    public void copyImaginaryFrom( long[] src )
+    {
+        checkLength( src.length );
+        asImaginaryLongBuffer().put( src );
+    }
+    /**
+     * Gets real array element as <code>long</code>, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @return - element value
+     */
+    public long getLong( int index )
+    {
+        return getRealByteBuffer().getLong( index << 3 );
+    }
+    /**
+     * Sets real array element, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @param value - element value
+     */
+    public void setLong( int index, long value )
+    {
+        getRealByteBuffer().putLong( index << 3, value );
+    }
+    /**
+     * Gets imaginary array element as <code>long</code>, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @return - element value
+     */
+    public long getImaginaryLong( int index )
+    {
+        return getImaginaryStorage().getLong( index << 3 );
+    }
+    /**
+     * Sets imaginary array element, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @param value - element value
+     */
+    public void setImaginaryLong( int index, long value )
+    {
+        getImaginaryStorage().putLong( index << 3, value );
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#get(java.nio.ByteBuffer, int)
+     */
+    @Override
+    protected Long get( ByteBuffer buffer, int index )
+    {
+        return buffer.getLong( index << 3 );
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#set(java.nio.ByteBuffer, Number, int)
+     */
+    @Override
+    protected void set( ByteBuffer buffer, Long value, int index )
+    {
+        buffer.putLong( index << 3, value );
+    }
 
 }
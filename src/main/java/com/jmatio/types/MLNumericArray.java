@@ -1,10 +1,15 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 /**
  * Abstract class for numeric arrays.
+ * <p>
+ * Element accessors use absolute positions only, they never move the
+ * position of the underlying buffers. Once the array is filled it may be red
+ * by many threads at once without locking.
  * 
  * @author Wojciech Gradkowski <wgradkowski@gmail.com>
  *
@@ -18,10 +23,8 @@ import java.util.Arrays;
 public abstract class MLNumericArray<T extends Number> extends MLArray 
                                                        implements ByteStorageSupport<T>
 {
-    private ByteBuffer real;
-    private ByteBuffer imaginary;
-    /** The buffer for creating Number from bytes */
-    private byte[] bytes;
+    private volatile ByteBuffer real;
+    private volatile ByteBuffer imaginary;
     
     /**
      * Normally this constructor is used only by MatFileReader and MatFileWriter
@@ -34,18 +37,60 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
     public MLNumericArray(String name, int[] dims, int type, int attributes)
     {
         super(name, dims, type, attributes);
-        allocate();
-        
     }
     
-    protected void allocate( )
+    /**
+     * Allocates the real and imaginary buffers which are not wrapped yet.
+     * <p>
+     * Called once, with the array lock held, on first use of the storage
+     * (see <code>{@link #getRealByteBuffer()}</code>) rather than from the
+     * constructor, so arrays wrapping external buffers never allocate their
+     * own. Subclasses may override it to set up their storage lazily.
+     */
+    protected void allocate()
     {
-        real = ByteBuffer.allocate( getSize()*getBytesAllocated());
-        if ( isComplex() )
+        if ( real == null )
+        {
+            real = ByteBuffer.allocate( getSize()*getBytesAllocated());
+        }
+        if ( isComplex() && imaginary == null )
         {
             imaginary = ByteBuffer.allocate( getSize()*getBytesAllocated());
         }
-        bytes = new byte[ getBytesAllocated() ];
+    }
+    
+    private ByteBuffer real()
+    {
+        ByteBuffer buffer = real;
+        if ( buffer == null )
+        {
+            synchronized ( this )
+            {
+                if ( real == null )
+                {
+                    allocate();
+                }
+                buffer = real;
+            }
+        }
+        return buffer;
+    }
+    
+    private ByteBuffer imaginary()
+    {
+        ByteBuffer buffer = imaginary;
+        if ( buffer == null && isComplex() )
+        {
+            synchronized ( this )
+            {
+                if ( imaginary == null )
+                {
+                    allocate();
+                }
+                buffer = imaginary;
+            }
+        }
+        return buffer;
     }
     
     
@@ -85,7 +130,7 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
      */
     public T getReal( int index )
     {
-        return get(real, index);
+        return get(real(), index);
     }
     
     /**
@@ -107,7 +152,7 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
      */
     public void setReal(T value, int index)
     {
-        set( real, value, index );
+        set( real(), value, index );
     }
     /**
      * Sets real part of matrix
@@ -120,7 +165,7 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
         {
             throw new IllegalArgumentException("Matrix dimensions do not match. " + getSize() + " not " + vector.length);
         }
-        System.arraycopy(vector, 0, real, 0, vector.length);
+        System.arraycopy(vector, 0, real(), 0, vector.length);
     }
     /**
      * Sets single imaginary array element.
@@ -143,7 +188,7 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
     {
         if ( isComplex() )
         {
-            set(imaginary, value, index);
+            set(imaginary(), value, index);
         }
     }
     /**
@@ -163,7 +208,7 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
      */
     public T getImaginary( int index )
     {
-        return get( imaginary, index );
+        return get( imaginary(), index );
     }
     
     /**
@@ -238,7 +283,7 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
         {
             throw new IllegalStateException("Cannot use this method for Complex matrices");
         }
-        return get( real, index );
+        return get( real(), index );
     }
     /**
      * @param vector
@@ -256,17 +301,106 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
         return index*getBytesAllocated();
     }
     
+    /**
+     * Gets the element from the buffer with an absolute typed read chosen by
+     * the storage class (the buffer position is not used). Storage classes
+     * other than boxed primitives are built with
+     * <code>{@link #buldFromBytes(byte[])}</code>.
+     * 
+     * @param buffer - real or imaginary buffer
+     * @param index - column-packed vector index
+     * @return - array element
+     */
+    @SuppressWarnings("unchecked")
     protected T get( ByteBuffer buffer, int index )
     {
-        buffer.position( getByteOffset(index) );
-        buffer.get( bytes, 0, bytes.length );
-        return buldFromBytes( bytes );
+        int offset = getByteOffset(index);
+        Class<?> clazz = getStorageClazz();
+        Number value;
+        if ( clazz == Double.class )
+        {
+            value = buffer.getDouble( offset );
+        }
+        else if ( clazz == Float.class )
+        {
+            value = buffer.getFloat( offset );
+        }
+        else if ( clazz == Long.class )
+        {
+            value = buffer.getLong( offset );
+        }
+        else if ( clazz == Integer.class )
+        {
+            value = buffer.getInt( offset );
+        }
+        else if ( clazz == Short.class )
+        {
+            value = buffer.getShort( offset );
+        }
+        else if ( clazz == Byte.class )
+        {
+            value = buffer.get( offset );
+        }
+        else
+        {
+            byte[] bytes = new byte[ getBytesAllocated() ];
+            boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+            for ( int i = 0; i < bytes.length; i++ )
+            {
+                bytes[ bigEndian ? i : bytes.length - 1 - i ] = buffer.get( offset + i );
+            }
+            return buldFromBytes( bytes );
+        }
+        return (T) value;
     }
     
+    /**
+     * Sets the element in the buffer with an absolute typed write chosen by
+     * the storage class (the buffer position is not used). Storage classes
+     * other than boxed primitives are converted with
+     * <code>{@link #getByteArray(Number)}</code>.
+     * 
+     * @param buffer - real or imaginary buffer
+     * @param value - element value
+     * @param index - column-packed vector index
+     */
     protected void set( ByteBuffer buffer, T value, int index )
     {
-        buffer.position( getByteOffset(index) );
-        buffer.put( getByteArray( value ) );
+        int offset = getByteOffset(index);
+        Class<?> clazz = getStorageClazz();
+        if ( clazz == Double.class )
+        {
+            buffer.putDouble( offset, value.doubleValue() );
+        }
+        else if ( clazz == Float.class )
+        {
+            buffer.putFloat( offset, value.floatValue() );
+        }
+        else if ( clazz == Long.class )
+        {
+            buffer.putLong( offset, value.longValue() );
+        }
+        else if ( clazz == Integer.class )
+        {
+            buffer.putInt( offset, value.intValue() );
+        }
+        else if ( clazz == Short.class )
+        {
+            buffer.putShort( offset, value.shortValue() );
+        }
+        else if ( clazz == Byte.class )
+        {
+            buffer.put( offset, value.byteValue() );
+        }
+        else
+        {
+            byte[] bytes = getByteArray( value );
+            boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+            for ( int i = 0; i < bytes.length; i++ )
+            {
+                buffer.put( offset + i, bytes[ bigEndian ? i : bytes.length - 1 - i ] );
+            }
+        }
     }
     
     public void putImaginaryByteBuffer( ByteBuffer buff )
@@ -275,24 +409,105 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
         {
             throw new RuntimeException("Array is not complex");
         }
-        imaginary.rewind();
-        imaginary.put( buff );
+        imaginary().rewind();
+        imaginary().put( buff );
     }
     
     public ByteBuffer getImaginaryByteBuffer()
     {
-        return imaginary;
+        return imaginary();
+    }
+    
+    /**
+     * Returns the buffer of imaginary elements for primitive element
+     * accessors of subclasses.
+     * 
+     * @return - the imaginary buffer
+     * @throws IllegalStateException if the array is not complex
+     */
+    protected ByteBuffer getImaginaryStorage()
+    {
+        ByteBuffer buffer = imaginary();
+        if ( buffer == null )
+        {
+            throw new IllegalStateException("Array is not complex");
+        }
+        return buffer;
+    }
+    
+    /**
+     * Returns a duplicate of the real or imaginary buffer for typed views:
+     * in the byte order of the storage and positioned at the first element.
+     * 
+     * @param buffer - real or imaginary buffer
+     * @return - the duplicate
+     */
+    protected static ByteBuffer view( ByteBuffer buffer )
+    {
+        ByteBuffer view = buffer.duplicate().order( buffer.order() );
+        view.rewind();
+        return view;
+    }
+    
+    /**
+     * @param length - number of elements in a vector given by the user
+     * @throws IllegalArgumentException if it's not the array size
+     */
+    protected void checkLength( int length )
+    {
+        if ( length != getSize() )
+        {
+            throw new IllegalArgumentException("Matrix dimensions do not match. " + getSize() + " not " + length);
+        }
     }
     
     public void putRealByteBuffer( ByteBuffer buff )
     {
-        real.rewind();
-        real.put( buff );
+        real().rewind();
+        real().put( buff );
     }
     
     public ByteBuffer getRealByteBuffer()
     {
-        return real;
+        return real();
+    }
+    
+    /**
+     * Makes the given buffer the storage of real elements. The buffer is not
+     * copied and it's byte order is respected.
+     * <p>
+     * Used by <code>MatFileReader</code> to back the array directly with a
+     * slice of a memory mapped file. A read-only buffer makes the array
+     * read-only.
+     * 
+     * @param buff - buffer of <code>getSize()*getBytesAllocated()</code> bytes
+     */
+    public void wrapRealByteBuffer( ByteBuffer buff )
+    {
+        if ( buff.limit() != getSize()*getBytesAllocated() )
+        {
+            throw new IllegalArgumentException("Buffer size does not match. " + getSize()*getBytesAllocated() + " not " + buff.limit());
+        }
+        real = buff;
+    }
+    
+    /**
+     * Makes the given buffer the storage of imaginary elements. See
+     * <code>{@link #wrapRealByteBuffer(ByteBuffer)}</code>.
+     * 
+     * @param buff - buffer of <code>getSize()*getBytesAllocated()</code> bytes
+     */
+    public void wrapImaginaryByteBuffer( ByteBuffer buff )
+    {
+        if ( !isComplex() )
+        {
+            throw new RuntimeException("Array is not complex");
+        }
+        if ( buff.limit() != getSize()*getBytesAllocated() )
+        {
+            throw new IllegalArgumentException("Buffer size does not match. " + getSize()*getBytesAllocated() + " not " + buff.limit());
+        }
+        imaginary = buff;
     }
     
     /* (non-Javadoc)
@@ -332,11 +547,28 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
     {
         if ( o instanceof  MLNumericArray )
         {
-            boolean result = directByteBufferEquals(real, ((MLNumericArray<?>)o).real )
-                                   && Arrays.equals( dims, ((MLNumericArray<?>)o).dims );
+            MLNumericArray<?> other = (MLNumericArray<?>)o;
+            if ( !Arrays.equals( dims, other.dims ) )
+            {
+                return false;
+            }
+            //buffers of different byte order are compared element by element
+            if ( real != null && other.real != null && real.order() != other.real.order() )
+            {
+                for ( int i = 0; i < getSize(); i++ )
+                {
+                    if ( !getReal(i).equals( other.getReal(i) )
+                            || ( isComplex() && !getImaginary(i).equals( other.getImaginary(i) ) ) )
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            boolean result = directByteBufferEquals(real, other.real );
             if ( isComplex() && result )
             {
-                result &= directByteBufferEquals(imaginary, ((MLNumericArray<?>)o).imaginary );
+                result &= directByteBufferEquals(imaginary, other.imaginary );
             }
             return result;
         }
@@ -345,6 +577,8 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
     
     /**
      * Equals implementation for direct <code>ByteBuffer</code>
+     * <p>
+     * A <code>null</code> buffer (not allocated yet) equals a buffer of zeros.
      * 
      * @param buffa the source buffer to be compared
      * @param buffb the destination buffer to be compared
@@ -359,22 +593,27 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
         
         if ( buffa ==null || buffb == null )
         {
-            return false;
+            ByteBuffer buff = buffa != null ? buffa : buffb;
+            for ( int i = 0; i < buff.limit(); i++ )
+            {
+                if ( buff.get( i ) != 0 )
+                {
+                    return false;
+                }
+            }
+            return true;
         }
         
-        buffa.rewind();
-        buffb.rewind();
-        
-        int length = buffa.remaining();
+        int length = buffa.limit();
         
-        if ( buffb.remaining() != length )
+        if ( buffb.limit() != length )
         {
             return false;
         }
         
         for ( int i = 0; i < length; i++ )
         {
-            if ( buffa.get() != buffb.get() )
+            if ( buffa.get( i ) != buffb.get( i ) )
             {
                 return false;
             }
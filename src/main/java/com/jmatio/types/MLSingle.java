@@ -1,6 +1,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
 public class MLSingle extends MLNumericArray<Float>
 {
@@ -42,5 +43,129 @@ public class MLSingle extends MLNumericArray<Float>
     {
         return Float.class;
     }
+    
+    /**
+     * Returns a view of real elements (column-packed). The view shares the
+     * storage of the array: changes of one are visible in the other.
+     * 
+     * @return - <code>FloatBuffer</code> view of real elements
+     */
+    public FloatBuffer asFloatBuffer()
+    {
+        return view( getRealByteBuffer() ).asFloatBuffer();
+    }
+    /**
+     * Returns a view of imaginary elements (column-packed). See
+     * <code>{@link #asFloatBuffer()}</code>.
+     * 
+     * @return - <code>FloatBuffer</code> view of imaginary elements
+     * @throws IllegalStateException if the array is not complex
+     */
+    public FloatBuffer asImaginaryFloatBuffer()
+    {
+        return view( getImaginaryStorage() ).asFloatBuffer();
+    }
+    /**
+     * Copies all real elements (column-packed) into the array.
+     * 
+     * @param dst - destination array
+     * @param off - index of the first element in <code>dst</code>
+     */
+    public void copyTo( float[] dst, int off )
+    {
+        asFloatBuffer().get( dst, off, getSize() );
+    }
+    /**
+     * Copies all imaginary elements (column-packed) into the array.
+     * 
+     * @param dst - destination array
+     * @param off - index of the first element in <code>dst</code>
+     */
+    public void copyImaginaryTo( float[] dst, int off )
+    {
+        asImaginaryFloatBuffer().get( dst, off, getSize() );
+    }
+    /**
+     * Sets all real elements.
+     * 
+     * @param src - column-packed vector of <code>getSize()</code> elements
+     */
+    public void copyFrom( float[] src )
+    {
+        checkLength( src.length );
+        asFloatBuffer().put( src );
+    }
+    /**
+     * Sets all imaginary elements.
+     * 
+     * @param src - column-packed vector of <code>getSize()</code> elements
+     */
+    public void copyImaginaryFrom( float[] src )
+    {
+        checkLength( src.length );
+        asImaginaryFloatBuffer().put( src );
+    }
+    /**
+     * Gets real array element as <code>float</code>, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @return - element value
+     */
+    public float getFloat( int index )
+    {
+        return getRealByteBuffer().getFloat( index << 2 );
+    }
+    /**
+     * Sets real array element, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @param value - element value
+     */
+    public void setFloat( int index, float value )
+    {
+        getRealByteBuffer().putFloat( index << 2, value );
+    }
+    /**
+     * Gets imaginary array element as <code>float</code>, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @return - element value
+     */
+    public float getImaginaryFloat( int index )
+    {
+        return getImaginaryStorage().getFloat( index << 2 );
+    }
+    /**
+     * Sets imaginary array element, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @param value - element value
+     */
+    public void setImaginaryFloat( int index, float value )
+    {
+        getImaginaryStorage().putFloat( index << 2, value );
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#get(java.nio.ByteBuffer, int)
+     */
+    @Override
+    protected Float get( ByteBuffer buffer, int index )
+    {
+        return buffer.getFloat( index << 2 );
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#set(java.nio.ByteBuffer, Number, int)
+     */
+    @Override
+    protected void set( ByteBuffer buffer, Float value, int index )
+    {
+        buffer.putFloat( index << 2, value );
+    }
 
 }
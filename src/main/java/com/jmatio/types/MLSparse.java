@@ -1,17 +1,28 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
-import java.util.SortedMap;
-import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.Arrays;
 
+/**
+ * Sparse array.
+ * <p>
+ * Nonzero values are stored in compressed sparse column (CSC) format, the
+ * same way MATLAB stores them: row indices <tt>ir</tt>, column offsets
+ * <tt>jc</tt> and values <tt>pr</tt> (and <tt>pi</tt> for complex arrays)
+ * are primitive arrays. Row indices are sorted within each column, so
+ * <code>getReal(m, n)</code> is a binary search within column <tt>n</tt>.
+ */
 public class MLSparse extends MLNumericArray<Double>
 {
     int nzmax;
-    private SortedSet<IndexMN> indexSet;
-    private SortedMap<IndexMN, Double> real;  
-    private SortedMap<IndexMN, Double> imaginary;  
+    /** row indices (capacity may exceed number of nonzero values) */
+    private int[] ir;
+    /** column offsets, length N+1 */
+    private int[] jc;
+    /** real part values */
+    private double[] pr;
+    /** imaginary part values (complex arrays only) */
+    private double[] pi;
     
     /**
      * @param name
@@ -23,67 +34,171 @@ public class MLSparse extends MLNumericArray<Double>
     {
         super(name, dims, MLArray.mxSPARSE_CLASS, attributes);
         this.nzmax = nzmax;
+        
+        ir = new int[nzmax];
+        jc = new int[getN()+1];
+        pr = new double[nzmax];
+        if ( isComplex() )
+        {
+            pi = new double[nzmax];
+        }
     }
     
-    protected void allocate()
+    /**
+     * Creates sparse array from CSC arrays. The arrays are not copied.
+     *
+     * @param name - array name
+     * @param dims - array dimensions
+     * @param attributes - array flags
+     * @param nzmax - maximum number of non-zero values
+     * @param ir - row indices (at least <tt>jc[N]</tt> elements)
+     * @param jc - column offsets (<tt>N+1</tt> elements)
+     * @param pr - real part (at least <tt>jc[N]</tt> elements)
+     * @param pi - imaginary part (at least <tt>jc[N]</tt> elements) or
+     *             <code>null</code> if array is not complex
+     */
+    public MLSparse(String name, int[] dims, int attributes, int nzmax,
+                        int[] ir, int[] jc, double[] pr, double[] pi )
     {
-        real = new TreeMap<IndexMN, Double>();
-        if ( isComplex() )
+        super(name, dims, MLArray.mxSPARSE_CLASS, attributes);
+        
+        if ( jc.length != getN()+1 )
+        {
+            throw new IllegalArgumentException("jc length does not match. " + (getN()+1) + " not " + jc.length);
+        }
+        int nnz = jc[getN()];
+        if ( ir.length < nnz || pr.length < nnz || ( isComplex() && ( pi == null || pi.length < nnz ) ) )
         {
-            imaginary = new TreeMap<IndexMN, Double>();
+            throw new IllegalArgumentException("Arrays too short for " + nnz + " nonzero values");
         }
-        indexSet = new TreeSet<IndexMN>();
+        this.nzmax = Math.max( nzmax, nnz );
+        this.ir = ir;
+        this.jc = jc;
+        this.pr = pr;
+        this.pi = isComplex() ? pi : null;
     }
     
     /**
      * Gets maximum number of non-zero values
-     * 
+     *
      * @return
      */
     public int getMaxNZ()
     {
         return nzmax;
     }
+    /**
+     * Gets number of non-zero values
+     *
+     * @return
+     */
+    public int getNZ()
+    {
+        return jc[getN()];
+    }
     /**
      * Gets row indices
-     * 
+     *
      * <tt>ir</tt> points to an integer array of length nzmax containing the row indices of
      * the corresponding elements in <tt>pr</tt> and <tt>pi</tt>.
      */
     public int[] getIR()
     {
-        int[] ir = new int[nzmax];
-        int i = 0;
-        for ( IndexMN index : indexSet )
-        {
-            ir[i++] = index.m;
-        }
-        return ir;
+        return Arrays.copyOf( ir, nzmax );
     }
     /**
-     * Gets column indices. 
-     * 
+     * Gets column indices.
+     *
      * <tt>jc</tt> points to an integer array of length N+1 that contains column index information.
-     * For j, in the range <tt>0&lt;=j&lt;=N1</tt>, <tt>jc[j]</tt> is the index in ir and <tt>pr</tt> (and <tt>pi</tt>
-     * if it exists) of the first nonzero entry in the jth column and <tt>jc[j+1]1</tt> index
+     * For j, in the range <tt>0&lt;=j&lt;=N-1</tt>, <tt>jc[j]</tt> is the index in ir and <tt>pr</tt> (and <tt>pi</tt>
+     * if it exists) of the first nonzero entry in the jth column and <tt>jc[j+1]-1</tt> index
      * of the last nonzero entry. As a result, <tt>jc[N]</tt> is also equal to nnz, the number
      * of nonzero entries in the matrix. If nnz is less than nzmax, then more nonzero
      * entries can be inserted in the array without allocating additional storage
-     * 
+     *
      * @return
      */
     public int[] getJC()
     {
-        int[] jc = new int[getN()+1];
-        // jc[j] is the number of nonzero elements in all preceeding columns
-        for ( IndexMN index : indexSet )
+        return jc.clone();
+    }
+    /**
+     * Gets the real part values (<tt>pr</tt>). The array has length
+     * number-of-nonzero-values.
+     *
+     * @return real part
+     */
+    public double[] getPR()
+    {
+        return Arrays.copyOf( pr, getNZ() );
+    }
+    /**
+     * Gets the imaginary part values (<tt>pi</tt>). The array has length
+     * number-of-nonzero-values.
+     *
+     * @return imaginary part
+     */
+    public double[] getPI()
+    {
+        return isComplex() ? Arrays.copyOf( pi, getNZ() ) : new double[getNZ()];
+    }
+    
+    /**
+     * Finds the position of element (m,n) in <tt>ir</tt>.
+     *
+     * @return - the position or <code>-(insertion point) - 1</code> if
+     *           there is no such element
+     */
+    private int find( int m, int n )
+    {
+        if ( m < 0 || m >= getM() || n < 0 || n >= getN() )
+        {
+            throw new IndexOutOfBoundsException("(" + m + "," + n + ") out of " + getM() + "x" + getN() );
+        }
+        return Arrays.binarySearch( ir, jc[n], jc[n+1], m );
+    }
+    
+    /**
+     * Finds the position of element (m,n), inserts a new zero element if
+     * there is no such element.
+     *
+     * @return - the position
+     */
+    private int findOrInsert( int m, int n )
+    {
+        int k = find( m, n );
+        if ( k >= 0 )
+        {
+            return k;
+        }
+        k = -k - 1;
+        
+        int nnz = getNZ();
+        if ( nnz == ir.length )
         {
-            for (int column = index.n + 1; column < jc.length; column++)
+            int capacity = Math.max( 8, nnz * 2 );
+            ir = Arrays.copyOf( ir, capacity );
+            pr = Arrays.copyOf( pr, capacity );
+            if ( pi != null )
             {
-                jc[column]++;
+                pi = Arrays.copyOf( pi, capacity );
             }
         }
-        return jc;
+        System.arraycopy( ir, k, ir, k + 1, nnz - k );
+        System.arraycopy( pr, k, pr, k + 1, nnz - k );
+        ir[k] = m;
+        pr[k] = 0;
+        if ( pi != null )
+        {
+            System.arraycopy( pi, k, pi, k + 1, nnz - k );
+            pi[k] = 0;
+        }
+        for ( int column = n + 1; column < jc.length; column++ )
+        {
+            jc[column]++;
+        }
+        nzmax = Math.max( nzmax, nnz + 1 );
+        return k;
     }
     
     /* (non-Javadoc)
@@ -91,12 +206,8 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public Double getReal(int m, int n)
     {
-        IndexMN i = new IndexMN(m,n);
-        if ( real.containsKey(i) )
-        {
-            return real.get(i);
-        }
-        return new Double(0);
+        int k = find(m, n);
+        return k >= 0 ? pr[k] : 0.0;
     }
     
     /* (non-Javadoc)
@@ -114,9 +225,9 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public void setReal(Double value, int m, int n)
     {
-        IndexMN i = new IndexMN(m,n);
-        indexSet.add(i);
-        real.put(i, value );
+        //findOrInsert may reallocate pr
+        int k = findOrInsert(m, n);
+        pr[k] = value;
     }
     /**
      * @param value
@@ -134,9 +245,11 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public void setImaginary(Double value, int m, int n)
     {
-        IndexMN i = new IndexMN(m,n);
-        indexSet.add(i);
-        imaginary.put(i, value );
+        if ( isComplex() )
+        {
+            int k = findOrInsert(m, n);
+            pi[k] = value;
+        }
     }
     /**
      * @param value
@@ -152,12 +265,8 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public Double getImaginary(int m, int n)
     {
-        IndexMN i = new IndexMN(m,n);
-        if ( imaginary.containsKey(i) )
-        {
-            return imaginary.get(i);
-        }
-        return new Double(0);
+        int k = find(m, n);
+        return k >= 0 && isComplex() ? pi[k] : 0.0;
     }
     /* (non-Javadoc)
      * @see com.jmatio.types.MLNumericArray#getImaginary(int)
@@ -175,15 +284,10 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public Double[] exportReal()
     {
-        Double[] ad = new Double[indexSet.size()];
-        int i = 0;
-        for (IndexMN index: indexSet) {
-            if (real.containsKey(index)) {
-                ad[i] = real.get(index);
-            } else {
-                ad[i] = 0.0;
-            }
-            i++;
+        Double[] ad = new Double[getNZ()];
+        for ( int i = 0; i < ad.length; i++ )
+        {
+            ad[i] = pr[i];
         }
         return ad;
     }
@@ -195,15 +299,10 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public Double[] exportImaginary()
     {
-        Double[] ad = new Double[indexSet.size()];
-        int i = 0;
-        for (IndexMN index: indexSet) {
-            if (imaginary.containsKey(index)) {
-                ad[i] = imaginary.get(index);
-            } else {
-                ad[i] = 0.0;
-            }
-            i++;
+        Double[] ad = new Double[getNZ()];
+        for ( int i = 0; i < ad.length; i++ )
+        {
+            ad[i] = isComplex() ? pi[i] : 0.0;
         }
         return ad;
     }
@@ -215,83 +314,87 @@ public class MLSparse extends MLNumericArray<Double>
         StringBuffer sb = new StringBuffer();
         sb.append(name + " = \n");
         
-        for ( IndexMN i : indexSet )
+        for ( int n = 0; n < getN(); n++ )
         {
-            sb.append("\t(");
-            sb.append(i.m + "," + i.n);
-            sb.append(")");
-            sb.append("\t" + getReal(i.m, i.n) );
-            if ( isComplex() )
+            for ( int k = jc[n]; k < jc[n+1]; k++ )
             {
-                sb.append("+" + getImaginary(i.m, i.n) );
+                sb.append("\t(");
+                sb.append(ir[k] + "," + n);
+                sb.append(")");
+                sb.append("\t" + pr[k] );
+                if ( isComplex() )
+                {
+                    sb.append("+" + pi[k] );
+                }
+                sb.append("\n");
             }
-            sb.append("\n");
-            
         }
         
         return sb.toString();
     }
     
-    /**
-     * Matrix index (m,n)
-     * 
-     * @author Wojciech Gradkowski <wgradkowski@gmail.com>
+    /* (non-Javadoc)
+     * @see com.jmatio.types.MLNumericArray#equals(java.lang.Object)
      */
-    private class IndexMN implements Comparable<IndexMN>
+    @Override
+    public boolean equals(Object o)
     {
-        int m;
-        int n;
-        
-        public IndexMN( int m, int n )
+        if ( o instanceof MLSparse )
         {
-            this.m = m;
-            this.n = n;
-        }
+            MLSparse other = (MLSparse) o;
+            int nnz = getNZ();
         
-        
-        /* (non-Javadoc)
-         * @see java.lang.Comparable#compareTo(java.lang.Object)
-         */
-        public int compareTo(IndexMN anOtherIndex) {
-            return getIndex(m,n) - getIndex(anOtherIndex.m,anOtherIndex.n);
-        }
-
-        /* (non-Javadoc)
-         * @see java.lang.Object#equals(java.lang.Object)
-         */
-        public boolean equals(Object o)
-        {
-            if (o instanceof IndexMN )
+            if ( !Arrays.equals( dims, other.dims ) || !Arrays.equals( jc, other.jc )
+                    || isComplex() != other.isComplex() )
+            {
+                return false;
+            }
+            for ( int k = 0; k < nnz; k++ )
             {
-                return m == ((IndexMN)o).m && n == ((IndexMN)o).n;
+                if ( ir[k] != other.ir[k]
+                        || Double.compare( pr[k], other.pr[k] ) != 0
+                        || ( isComplex() && Double.compare( pi[k], other.pi[k] ) != 0 ) )
+                {
+                    return false;
+                }
             }
-            return super.equals(o);
+            return true;
         }
-        /* (non-Javadoc)
-         * @see java.lang.Object#toString()
-         */
-        public String toString()
+        return super.equals( o );
+    }
+    
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode()
+    {
+        int nnz = getNZ();
+        int hash = Arrays.hashCode( dims );
+        hash = 31 * hash + Arrays.hashCode( jc );
+        for ( int k = 0; k < nnz; k++ )
         {
-            StringBuffer sb = new StringBuffer();
-            sb.append("{");
-            sb.append("m=" + m);
-            sb.append(", ");
-            sb.append("n=" + n);
-            sb.append("}");
-            return sb.toString();
+            long bits = Double.doubleToLongBits( pr[k] );
+            if ( isComplex() )
+            {
+                bits = 31 * bits + Double.doubleToLongBits( pi[k] );
+            }
+            hash = 31 * hash + ir[k];
+            hash = 31 * hash + (int) ( bits ^ ( bits >>> 32 ) );
         }
+        return hash;
     }
-
+    
     public int getBytesAllocated()
     {
-        return Double.SIZE << 3;
+        return Double.SIZE >> 3;
     }
     public Double buldFromBytes(byte[] bytes)
     {
         if ( bytes.length != getBytesAllocated() )
         {
-            throw new IllegalArgumentException( 
-                        "To build from byte array I need array of size: " 
+            throw new IllegalArgumentException(
+                        "To build from byte array I need array of size: "
                                 + getBytesAllocated() );
         }
         return ByteBuffer.wrap( bytes ).getDouble();
@@ -309,6 +412,6 @@ public class MLSparse extends MLNumericArray<Double>
     {
         return Double.class;
     }
-
-
+    
+    
 }
\ No newline at end of file
@@ -27,9 +27,14 @@ public class MLStructure extends MLArray
      */
     private Set<String> keys;
     /**
-     * Array of structures
+     * Array of structures. Values are <code>MLArray</code>s or
+     * <code>ArrayLoader</code>s of fields not yet decoded.
      */
-    private List< Map<String,MLArray> > mlStructArray;
+    private List< Map<String,Object> > mlStructArray;
+    /**
+     * Tells if some fields are decoded on first access
+     */
+    private volatile boolean lazy;
     /**
      * Current structure pointer for bulk insert 
      */
@@ -44,7 +49,7 @@ public class MLStructure extends MLArray
     {
         super(name, dims, type, attributes);
         
-        mlStructArray = new ArrayList< Map<String,MLArray> >( dims[0]*dims[1] );
+        mlStructArray = new ArrayList< Map<String,Object> >( dims[0]*dims[1] );
         keys = new LinkedHashSet<String>();
     }
     /**
@@ -78,13 +83,31 @@ public class MLStructure extends MLArray
      * @param index
      */
     public void setField(String name, MLArray value, int index)
+    {
+        put(name, value, index);
+    }
+    /**
+     * Sets field for structure described by index in struct array. The
+     * field value is decoded by <code>loader</code> on first access.
+     * 
+     * @param name - name of the field
+     * @param loader - decodes the field value
+     * @param index
+     */
+    public void setLazyField(String name, ArrayLoader loader, int index)
+    {
+        put(name, loader, index);
+        lazy = true;
+    }
+    
+    private void put(String name, Object value, int index)
     {
         keys.add(name);
         currentIndex = index;
         
         if ( mlStructArray.isEmpty() || mlStructArray.size() <= index )
         {
-            mlStructArray.add(index, new LinkedHashMap<String, MLArray>() );
+            mlStructArray.add(index, new LinkedHashMap<String, Object>() );
         }
         mlStructArray.get(index).put(name, value);
     }
@@ -144,9 +167,12 @@ public class MLStructure extends MLArray
     {
         ArrayList<MLArray> fields = new ArrayList<MLArray>();
         
-        for ( Map<String, MLArray> struct : mlStructArray )
+        for ( int index = 0; index < mlStructArray.size(); index++ )
         {
-            fields.addAll( struct.values() );
+            for ( String key : mlStructArray.get(index).keySet() )
+            {
+                fields.add( getField(key, index) );
+            }
         }
         return fields;
     }
@@ -200,7 +226,24 @@ public class MLStructure extends MLArray
     	if (mlStructArray.isEmpty()) {
     		return null;
     	}
-        return mlStructArray.get(index).get(name);
+        Map<String, Object> struct = mlStructArray.get(index);
+        
+        //decode on first access and keep the result, values are read under
+        //the lock so that decoded fields are safely published
+        if ( lazy )
+        {
+            synchronized ( struct )
+            {
+                Object value = struct.get(name);
+                if ( value instanceof ArrayLoader )
+                {
+                    value = ((ArrayLoader) value).load();
+                    struct.put(name, value);
+                }
+                return (MLArray) value;
+            }
+        }
+        return (MLArray) struct.get(name);
     }
     /* (non-Javadoc)
      * @see com.paradigmdesigner.matlab.types.MLArray#contentToString()
@@ -49,14 +49,20 @@ public class MLUInt8 extends MLNumericArray<Byte>
      * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
      * construct a 2D real matrix from <code>byte[][]</code>
      * 
-     * Note: array is converted to Byte[]
-     * 
      * @param name - array name
      * @param vals - two-dimensional array of values
      */
     public MLUInt8( String name, byte[][] vals )
     {
-        this( name, byte2DToByte(vals), vals.length );
+        this( name, new int[] { vals.length, vals[0].length } );
+        ByteBuffer view = asByteBuffer();
+        for ( int n = 0; n < vals[0].length; n++ )
+        {
+            for ( int m = 0; m < vals.length; m++ )
+            {
+                view.put( m+n*vals.length, vals[m][n] );
+            }
+        }
     }
     /**
      * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
@@ -68,7 +74,8 @@ public class MLUInt8 extends MLNumericArray<Byte>
      */
     public MLUInt8(String name, byte[] vals, int m)
     {
-        this(name, castToByte( vals ), m );
+        this( name, new int[] { m, vals.length/m } );
+        copyFrom( vals );
     }
     /* (non-Javadoc)
      * @see com.jmatio.types.GenericArrayCreator#createArray(int, int)
@@ -85,6 +92,7 @@ public class MLUInt8 extends MLNumericArray<Byte>
     public byte[][] getArray()
     {
         byte[][] result = new byte[getM()][];
+        ByteBuffer view = asByteBuffer();
         
         for ( int m = 0; m < getM(); m++ )
         {
@@ -92,44 +100,11 @@ public class MLUInt8 extends MLNumericArray<Byte>
 
            for ( int n = 0; n < getN(); n++ )
            {               
-               result[m][n] = getReal(m,n);
+               result[m][n] = view.get( m+n*getM() );
            }
         }
         return result;
     }
-    /**
-     * Casts <code>Double[]</code> to <code>byte[]</code>
-     * 
-     * @param - source <code>Byte[]</code>
-     * @return - result <code>byte[]</code>
-     */
-    private static Byte[] castToByte( byte[] d )
-    {
-        Byte[] dest = new Byte[d.length];
-        for ( int i = 0; i < d.length; i++ )
-        {
-            dest[i] = (byte)d[i];
-        }
-        return dest;
-    }
-    /**
-     * Converts byte[][] to Byte[]
-     * 
-     * @param dd
-     * @return
-     */
-    private static Byte[] byte2DToByte ( byte[][] dd )
-    {
-        Byte[] d = new Byte[ dd.length*dd[0].length ];
-        for ( int n = 0; n < dd[0].length; n++ )
-        {
-            for ( int m = 0; m < dd.length; m++ )
-            {
-                d[ m+n*dd.length ] = dd[m][n]; 
-            }
-        }
-        return d;
-    }
     public Byte buldFromBytes(byte[] bytes)
     {
         if ( bytes.length != getBytesAllocated() )
@@ -164,5 +139,118 @@ public class MLUInt8 extends MLNumericArray<Byte>
     {
         return buffer.get( index );
     }
+    
+    /**
+     * Returns a view of real elements (column-packed). The view shares the
+     * storage of the array: changes of one are visible in the other.
+     * 
+     * @return - <code>ByteBuffer</code> view of real elements
+     */
+    public ByteBuffer asByteBuffer()
+    {
+        return view( getRealByteBuffer() );
+    }
+    /**
+     * Returns a view of imaginary elements (column-packed). See
+     * <code>{@link #asByteBuffer()}</code>.
+     * 
+     * @return - <code>ByteBuffer</code> view of imaginary elements
+     * @throws IllegalStateException if the array is not complex
+     */
+    public ByteBuffer asImaginaryByteBuffer()
+    {
+        return view( getImaginaryStorage() );
+    }
+    /**
+     * Copies all real elements (column-packed) into the array.
+     * 
+     * @param dst - destination array
+     * @param off - index of the first element in <code>dst</code>
+     */
+    public void copyTo( byte[] dst, int off )
+    {
+        asByteBuffer().get( dst, off, getSize() );
+    }
+    /**
+     * Copies all imaginary elements (column-packed) into the array.
+     * 
+     * @param dst - destination array
+     * @param off - index of the first element in <code>dst</code>
+     */
+    public void copyImaginaryTo( byte[] dst, int off )
+    {
+        asImaginaryByteBuffer().get( dst, off, getSize() );
+    }
+    /**
+     * Sets all real elements.
+     * 
+     * @param src - column-packed vector of <code>getSize()</code> elements
+     */
+    public void copyFrom( byte[] src )
+    {
+        checkLength( src.length );
+        asByteBuffer().put( src );
+    }
+    /**
+     * Sets all imaginary elements.
+     * 
+     * @param src - column-packed vector of <code>getSize()</code> elements
+     */
+    public void copyImaginaryFrom( byte[] src )
+    {
+        checkLength( src.length );
+        asImaginaryByteBuffer().put( src );
+    }
+    /**
+     * Gets real array element as <code>byte</code>, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @return - element value
+     */
+    public byte getByte( int index )
+    {
+        return getRealByteBuffer().get( index );
+    }
+    /**
+     * Sets real array element, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @param value - element value
+     */
+    public void setByte( int index, byte value )
+    {
+        getRealByteBuffer().put( index, value );
+    }
+    /**
+     * Gets imaginary array element as <code>byte</code>, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @return - element value
+     */
+    public byte getImaginaryByte( int index )
+    {
+        return getImaginaryStorage().get( index );
+    }
+    /**
+     * Sets imaginary array element, without boxing.
+     * 
+     * @param index - column-packed vector index
+     * @param value - element value
+     */
+    public void setImaginaryByte( int index, byte value )
+    {
+        getImaginaryStorage().put( index, value );
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#set(java.nio.ByteBuffer, Number, int)
+     */
+    @Override
+    protected void set( ByteBuffer buffer, Byte value, int index )
+    {
+        buffer.put( index, value );
+    }
 
 }
@@ -1,16 +1,39 @@
 package com.jmatio.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -19,14 +42,23 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.MappedFile;
+import com.jmatio.io.MatFileArrayAppender;
 import com.jmatio.io.MatFileFilter;
 import com.jmatio.io.MatFileIncrementalWriter;
+import com.jmatio.io.MatFileIndex;
 import com.jmatio.io.MatFileReader;
+import com.jmatio.io.MatFileVisitorAdapter;
 import com.jmatio.io.MatFileWriter;
+import com.jmatio.io.MatFileWriterOptions;
+import com.jmatio.io.stream.MatFileInputStream;
+import com.jmatio.io.stream.ParallelDeflaterOutputStream;
 import com.jmatio.types.MLArray;
 import com.jmatio.types.MLCell;
 import com.jmatio.types.MLChar;
 import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLInt16;
 import com.jmatio.types.MLInt32;
 import com.jmatio.types.MLInt64;
 import com.jmatio.types.MLInt8;
@@ -191,6 +223,41 @@ public class MatIOTest
         assertEquals("Test if only one array was red", 1, content.size() );
         
     }
+    /**
+     * Tests that arrays rejected by the filter are skipped without inflating
+     * their data: the tail of the rejected array is corrupted, so inflating
+     * it would fail.
+     * 
+     * @throws IOException
+     */
+    @Test 
+    public void testFilteredReadingSkipsCompressedData() throws IOException
+    {
+        File outFile = temp.newFile( "filtercompressed.mat" );
+        
+        double[] src = new double[20000];
+        Random random = new Random( 0 );
+        for ( int i = 0; i < src.length; i++ )
+        {
+            src[i] = random.nextDouble();
+        }
+        MLDouble big = new MLDouble( "big", src, 100 );
+        MLDouble small = new MLDouble( "small", new double[] { 1.0, 2.0 }, 1 );
+        new MatFileWriter( outFile, Arrays.asList( (MLArray) big, small ) );
+        
+        MatFileIndex index = new MatFileIndex( outFile );
+        MatFileIndex.Entry entry = index.getEntry( "big" );
+        index.close();
+        
+        RandomAccessFile raf = new RandomAccessFile( outFile, "rw" );
+        raf.seek( entry.getOffset() + entry.getSize() - 1024 );
+        raf.write( new byte[512] );
+        raf.close();
+        
+        MatFileReader mfr = new MatFileReader( outFile, new MatFileFilter( new String[] { "small" } ) );
+        assertEquals( 1, mfr.getContent().size() );
+        assertEquals( small, mfr.getMLArray( "small" ) );
+    }
     /**
      * Test <code>MatFileFilter</code> options
      */
@@ -559,6 +626,7 @@ public class MatIOTest
         
         //test if MLArray objects are equal
         assertEquals("Test if value red from file equals value stored", mlSparse, mlArrayRetrived);
+        assertEquals("Equal arrays have equal hash codes", mlSparse.hashCode(), mlArrayRetrived.hashCode());
         
         //test if 2D array match
         for ( int i = 0; i < referenceReal.length; i++ )
@@ -575,6 +643,33 @@ public class MatIOTest
         }
     }
     
+    @Test public void testMLSparseFromCSCArrays() throws IOException
+    {
+        File outFile = temp.newFile( "mlsparsecsc.mat" );
+        
+        //3x3 array with (0,0)=1, (2,0)=2, (1,2)=3
+        int[] ir = new int[] { 0, 2, 1 };
+        int[] jc = new int[] { 0, 2, 2, 3 };
+        double[] pr = new double[] { 1.0, 2.0, 3.0 };
+        MLSparse mlSparse = new MLSparse("csc", new int[] {3, 3}, 0, 3, ir, jc, pr, null );
+        
+        assertEquals( 3, mlSparse.getNZ() );
+        assertEquals( 2.0, mlSparse.getReal(2, 0), 0.0 );
+        assertEquals( 0.0, mlSparse.getReal(1, 0), 0.0 );
+        
+        //inserting into a full array grows it and keeps the rows sorted
+        mlSparse.setReal(4.0, 1, 0);
+        assertEquals( 4, mlSparse.getNZ() );
+        assertArrayEquals( new int[] { 0, 3, 3, 4 }, mlSparse.getJC() );
+        assertArrayEquals( new double[] { 1.0, 4.0, 2.0, 3.0 }, mlSparse.getPR(), 0.0 );
+        
+        new MatFileWriter( outFile, Arrays.asList( (MLArray) mlSparse ) );
+        MLArray mlArrayRetrived = new MatFileReader( outFile ).getMLArray( "csc" );
+        
+        assertEquals("Test if value red from file equals value stored", mlSparse, mlArrayRetrived);
+        assertEquals("Equal arrays have equal hash codes", mlSparse.hashCode(), mlArrayRetrived.hashCode());
+    }
+    
     /**
      * Regression bug
      * 
@@ -1102,6 +1197,27 @@ public class MatIOTest
         assertEquals( expected[3], mlchar.getString(3) );
     }
     
+    @Test
+    public void testMLCharStorage() throws IOException
+    {
+        MLChar mlchar = new MLChar( "c", new int[] { 2, 3 }, MLArray.mxCHAR_CLASS, 0 );
+        mlchar.set( "abc", 0 );
+        assertEquals( "abc", mlchar.getString( 0 ) );
+        //widened on the first non-ASCII character
+        mlchar.set( "d\u00E9f", 1 );
+        assertEquals( "d\u00E9f", mlchar.getString( 1 ) );
+        assertEquals( new MLChar( "c", new String[] { "abc", "d\u00E9f" } ), mlchar );
+        assertArrayEquals( "adb\u00E9cf".toCharArray(), mlchar.getChars() );
+        assertEquals( mlchar, new MLChar( "c", new int[] { 2, 3 }, 0, mlchar.getChars() ) );
+        
+        //non-ASCII characters written incrementally
+        File outFile = temp.newFile( "mlcharIncremental.mat" );
+        MatFileIncrementalWriter writer = new MatFileIncrementalWriter( outFile );
+        writer.write( mlchar );
+        writer.close();
+        assertEquals( mlchar, new MatFileReader( outFile ).getMLArray( "c" ) );
+    }
+    
     @Test
     public void testJavaObject() throws Exception
     {
@@ -1157,4 +1273,1501 @@ public class MatIOTest
         assertEquals( 1, (int) mlArray.get(0) );
         assertEquals( 0, (int) mlArray.get(1) );
     }
+    
+    @Test
+    public void testMatFileIndex() throws IOException
+    {
+        File outFile = temp.newFile( "index.mat" );
+        
+        MLDouble m1 = new MLDouble( "m1", new double[] { 1.3, 2.0, 3.0, 4.0, 5.0, 6.0 }, 3 );
+        MLChar   m2 = new MLChar( "m2", "I am dummy" );
+        MLInt8   m3 = new MLInt8( "m3", new byte[] { 1, 2, 3, 4 }, 2 );
+        
+        new MatFileWriter( outFile, Arrays.asList( (MLArray) m1, m2, m3 ) );
+        
+        MatFileIndex index = new MatFileIndex( outFile );
+        try
+        {
+            assertEquals( 3, index.getEntries().size() );
+            
+            MatFileIndex.Entry entry = index.getEntry( "m1" );
+            assertEquals( MLArray.mxDOUBLE_CLASS, entry.getType() );
+            assertTrue( Arrays.equals( new int[] { 3, 2 }, entry.getDimensions() ) );
+            assertTrue( entry.isCompressed() );
+            assertEquals( MLArray.mxCHAR_CLASS, index.getEntry( "m2" ).getType() );
+            assertEquals( null, index.getEntry( "nonexistent" ) );
+            
+            //decode variables on demand
+            assertEquals( m3, index.getMLArray( "m3" ) );
+            assertEquals( m1, index.getMLArray( "m1" ) );
+            assertEquals( m2, index.getMLArray( "m2" ) );
+            assertEquals( null, index.getMLArray( "nonexistent" ) );
+        }
+        finally
+        {
+            index.close();
+        }
+        
+        //index file created natively by Matlab
+        index = new MatFileIndex( "src/test/resources/simplestruct.mat" );
+        try
+        {
+            MatFileIndex.Entry entry = index.getEntry( "structure" );
+            assertEquals( MLArray.mxSTRUCT_CLASS, entry.getType() );
+            assertTrue( index.getMLArray( "structure" ) instanceof MLStructure );
+        }
+        finally
+        {
+            index.close();
+        }
+    }
+    
+    @Test
+    public void testReadingFromStream() throws IOException
+    {
+        //files created natively by Matlab
+        for ( String fileName : new String[] { "cell.mat", "simplestruct.mat", "sparse.mat", "matnativedouble.mat", "int64.mat" } )
+        {
+            File file = new File( "src/test/resources/" + fileName );
+            Map<String, MLArray> expected = new MatFileReader( file ).getContent();
+            
+            FileInputStream is = new FileInputStream( file );
+            Map<String, MLArray> content;
+            try
+            {
+                content = new MatFileReader().read( is );
+            }
+            finally
+            {
+                is.close();
+            }
+            assertEquals( expected.keySet(), content.keySet() );
+            for ( String name : expected.keySet() )
+            {
+                assertEquals( expected.get( name ).contentToString(), content.get( name ).contentToString() );
+            }
+        }
+        
+        //filtered reading from a channel
+        File outFile = temp.newFile( "stream.mat" );
+        MLDouble m1 = new MLDouble( "m1", new double[] { 1.3, 2.0, 3.0, 4.0, 5.0, 6.0 }, 3 );
+        MLChar   m2 = new MLChar( "m2", "I am dummy" );
+        MLInt8   m3 = new MLInt8( "m3", new byte[] { 1, 2, 3, 4 }, 2 );
+        new MatFileWriter( outFile, Arrays.asList( (MLArray) m1, m2, m3 ) );
+        
+        FileInputStream is = new FileInputStream( outFile );
+        Map<String, MLArray> content;
+        try
+        {
+            content = new MatFileReader().read( is.getChannel(), new MatFileFilter( new String[] { "m1", "m3" } ) );
+        }
+        finally
+        {
+            is.close();
+        }
+        assertEquals( 2, content.size() );
+        assertEquals( m1, content.get( "m1" ) );
+        assertEquals( m3, content.get( "m3" ) );
+        
+        //data spanning many stream chunks is decoded straight into the arrays
+        MLDouble big = new MLDouble( "big", new int[] { 300, 300 }, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX );
+        for ( int i = 0; i < big.getSize(); i++ )
+        {
+            big.setReal( i * 0.5, i );
+            big.setImaginary( -i * 0.25, i );
+        }
+        MLSparse sparse = new MLSparse( "sparse", new int[] { 1000, 1000 }, 0, 30000 );
+        for ( int i = 0; i < 30000; i++ )
+        {
+            sparse.setReal( (double) i, ( i * 7 ) % 1000, i / 30 );
+        }
+        StringBuilder text = new StringBuilder();
+        for ( int i = 0; i < 50000; i++ )
+        {
+            text.append( (char) ( 'a' + i % 26 ) ).append( '\u0105' );
+        }
+        MLChar chars = new MLChar( "chars", text.toString() );
+        long[] longs = new long[20000];
+        for ( int i = 0; i < longs.length; i++ )
+        {
+            longs[i] = Long.MAX_VALUE - i;
+        }
+        MLCell cell = new MLCell( "", new int[] { 1, 2 } );
+        cell.set( new MLInt64( "", longs, 1 ), 0 );
+        cell.set( new MLInt8( "", new byte[] { 1, -2, 3 }, 1 ), 1 );
+        MLStructure struct = new MLStructure( "struct", new int[] { 1, 1 } );
+        struct.setField( "cell", cell );
+        struct.setField( "chars", chars );
+        List<MLArray> arrays = Arrays.asList( (MLArray) big, sparse, chars, struct );
+        
+        for ( MatFileWriterOptions options : new MatFileWriterOptions[] { MatFileWriterOptions.DEFAULT, MatFileWriterOptions.UNCOMPRESSED } )
+        {
+            File bigFile = temp.newFile();
+            new MatFileWriter( bigFile, arrays, options );
+            is = new FileInputStream( bigFile );
+            try
+            {
+                content = new MatFileReader().read( new BufferedInputStream( is ) );
+            }
+            finally
+            {
+                is.close();
+            }
+            assertEquals( big, content.get( "big" ) );
+            assertEquals( sparse, content.get( "sparse" ) );
+            assertEquals( chars, content.get( "chars" ) );
+            MLStructure red = (MLStructure) content.get( "struct" );
+            assertEquals( chars, red.getField( "chars" ) );
+            MLCell redCell = (MLCell) red.getField( "cell" );
+            assertEquals( cell.get( 0 ), redCell.get( 0 ) );
+            assertEquals( cell.get( 1 ), redCell.get( 1 ) );
+        }
+    }
+    
+    @Test
+    public void testReadingInWindows() throws IOException
+    {
+        File outFile = temp.newFile( "windows.mat" );
+        
+        //small elements crossing window boundaries, an element bigger than
+        //the window and a compressed one
+        List<MLArray> list = new ArrayList<MLArray>();
+        for ( int i = 0; i < 30; i++ )
+        {
+            double[] values = new double[50 + 7 * i];
+            for ( int j = 0; j < values.length; j++ )
+            {
+                values[j] = i * 1000 + j;
+            }
+            list.add( new MLDouble( "a" + i, values, 1 ) );
+            if ( i == 10 )
+            {
+                double[] big = new double[3000];
+                Arrays.fill( big, Math.PI );
+                list.add( new MLDouble( "big", big, 1 ) );
+            }
+        }
+        list.add( new MLDouble( "z", new double[] { 1.0, 2.0, 3.0, 4.0 }, 2 ) );
+        MatFileWriterOptions options = new MatFileWriterOptions( false )
+                .withArrayOptions( "z", MatFileWriterOptions.DEFAULT );
+        new MatFileWriter().write( outFile, list, options );
+        
+        MatFileReader reader = new MatFileReader();
+        assertEquals( MatFileReader.WINDOW_SIZE, reader.getWindowSize() );
+        reader.setWindowSize( 4096 );
+        for ( int policy : new int[] { MatFileReader.MEMORY_MAPPED_FILE, MatFileReader.DIRECT_BYTE_BUFFER, MatFileReader.HEAP_BYTE_BUFFER } )
+        {
+            Map<String, MLArray> content = reader.read( outFile, policy );
+            assertEquals( list.size(), content.size() );
+            for ( MLArray array : list )
+            {
+                assertEquals( array, content.get( array.getName() ) );
+            }
+        }
+    }
+    
+    @Test
+    public void testParallelReading() throws Exception
+    {
+        File outFile = temp.newFile( "parallel.mat" );
+        
+        List<MLArray> list = new ArrayList<MLArray>();
+        Random random = new Random( 0 );
+        for ( int i = 0; i < 16; i++ )
+        {
+            double[] src = new double[1000 * ( i + 1 )];
+            for ( int j = 0; j < src.length; j++ )
+            {
+                src[j] = random.nextDouble();
+            }
+            list.add( new MLDouble( "m" + i, src, 10 ) );
+        }
+        list.add( new MLChar( "chars", "I am dummy" ) );
+        new MatFileWriter( outFile, list );
+        
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            Map<String, MLArray> content = new MatFileReader().read( outFile, new MatFileFilter(), executor );
+            
+            //file order is kept
+            assertEquals( Arrays.asList( "m0", "m1", "m2" ), new ArrayList<String>( content.keySet() ).subList( 0, 3 ) );
+            assertEquals( list.size(), content.size() );
+            for ( MLArray array : list )
+            {
+                assertEquals( array, content.get( array.getName() ) );
+            }
+            
+            content = new MatFileReader().read( outFile, new MatFileFilter( new String[] { "m7", "chars" } ), executor );
+            assertEquals( Arrays.asList( "m7", "chars" ), new ArrayList<String>( content.keySet() ) );
+            assertEquals( list.get( 7 ), content.get( "m7" ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testParallelWriting() throws Exception
+    {
+        List<MLArray> list = new ArrayList<MLArray>();
+        Random random = new Random( 0 );
+        for ( int i = 0; i < 20; i++ )
+        {
+            double[] src = new double[500 * ( i + 1 )];
+            for ( int j = 0; j < src.length; j++ )
+            {
+                src[j] = random.nextInt( 100 );
+            }
+            list.add( new MLDouble( "m" + i, src, 10 ) );
+        }
+        list.add( new MLChar( "chars", "I am dummy" ) );
+        
+        File serialFile = temp.newFile( "serial.mat" );
+        File parallelFile = temp.newFile( "parallel.mat" );
+        File incrementalFile = temp.newFile( "incremental.mat" );
+        new MatFileWriter( serialFile, list );
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            new MatFileWriter().write( parallelFile, list, executor );
+            MatFileIncrementalWriter writer = new MatFileIncrementalWriter( incrementalFile );
+            writer.write( list.get( 0 ) );
+            writer.write( list.subList( 1, list.size() ), executor );
+            writer.close();
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        //the same output in the same order
+        byte[] expected = Files.readAllBytes( serialFile.toPath() );
+        assertSameContent( expected, Files.readAllBytes( parallelFile.toPath() ) );
+        assertSameContent( expected, Files.readAllBytes( incrementalFile.toPath() ) );
+        assertEquals( list.get( 19 ), new MatFileReader( parallelFile ).getMLArray( "m19" ) );
+    }
+    
+    @Test
+    public void testParallelDeflate() throws Exception
+    {
+        byte[] data = new byte[100000];
+        Random random = new Random( 0 );
+        for ( int i = 0; i < data.length; i++ )
+        {
+            data[i] = (byte) ( random.nextInt( 8 ) + i / 1000 );
+        }
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            //chunks joined into a single zlib stream
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            ParallelDeflaterOutputStream pdos = new ParallelDeflaterOutputStream( compressed, executor, 6, 4096 );
+            pdos.write( data, 0, 50001 );
+            //single bytes across a chunk boundary
+            for ( int i = 50001; i < 53001; i++ )
+            {
+                pdos.write( data[i] );
+            }
+            pdos.write( data, 53001, data.length - 53001 );
+            pdos.close();
+            Inflater inflater = new Inflater();
+            inflater.setInput( compressed.toByteArray() );
+            byte[] inflated = new byte[data.length + 1];
+            assertEquals( data.length, inflater.inflate( inflated ) );
+            assertTrue( inflater.finished() );
+            assertArrayEquals( data, Arrays.copyOf( inflated, data.length ) );
+            
+            //a big array among small ones
+            MLDouble big = new MLDouble( "big", new int[] { 1000, 600 } );
+            for ( int i = 0; i < big.getSize(); i++ )
+            {
+                big.set( (double) random.nextInt( 1000 ), i );
+            }
+            List<MLArray> list = new ArrayList<MLArray>();
+            list.add( new MLChar( "before", "before" ) );
+            list.add( big );
+            list.add( new MLChar( "after", "after" ) );
+            File outFile = temp.newFile( "parallelDeflate.mat" );
+            new MatFileWriter().write( outFile, list, executor );
+            MatFileReader reader = new MatFileReader( outFile );
+            assertEquals( Arrays.asList( "before", "big", "after" ), new ArrayList<String>( reader.getContent().keySet() ) );
+            assertEquals( big, reader.getMLArray( "big" ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testWriterOptions() throws Exception
+    {
+        double[] src = new double[10000];
+        for ( int i = 0; i < src.length; i++ )
+        {
+            src[i] = i % 7;
+        }
+        MLDouble scratch = new MLDouble( "scratch", src, 100 );
+        MLDouble archive = new MLDouble( "archive", src, 100 );
+        List<MLArray> list = new ArrayList<MLArray>();
+        list.add( scratch );
+        list.add( archive );
+        
+        MatFileWriterOptions options = new MatFileWriterOptions( Deflater.BEST_COMPRESSION, Deflater.FILTERED )
+                .withArrayOptions( "scratch", MatFileWriterOptions.UNCOMPRESSED );
+        
+        //uncompressed array is a plain miMATRIX element
+        File outFile = temp.newFile( "options.mat" );
+        new MatFileWriter().write( outFile, list, options );
+        byte[] bytes = Files.readAllBytes( outFile.toPath() );
+        ByteBuffer buf = ByteBuffer.wrap( bytes );
+        assertEquals( MatDataTypes.miMATRIX, buf.getInt( 128 ) );
+        int scratchSize = buf.getInt( 132 );
+        assertTrue( scratchSize > 8 * src.length );
+        assertEquals( MatDataTypes.miCOMPRESSED, buf.getInt( 128 + 8 + scratchSize ) );
+        MatFileReader reader = new MatFileReader( outFile );
+        assertEquals( scratch, reader.getMLArray( "scratch" ) );
+        assertEquals( archive, reader.getMLArray( "archive" ) );
+        
+        //the same output from the incremental and parallel writers
+        File incrementalFile = temp.newFile( "optionsIncremental.mat" );
+        MatFileIncrementalWriter writer = new MatFileIncrementalWriter( incrementalFile, options );
+        writer.write( scratch );
+        writer.write( archive );
+        writer.close();
+        assertSameContent( bytes, Files.readAllBytes( incrementalFile.toPath() ) );
+        File parallelFile = temp.newFile( "optionsParallel.mat" );
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            new MatFileWriter().write( parallelFile, list, options, executor );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertSameContent( bytes, Files.readAllBytes( parallelFile.toPath() ) );
+        
+        //nothing compressed
+        File uncompressedFile = temp.newFile( "uncompressed.mat" );
+        new MatFileWriter( uncompressedFile, list, MatFileWriterOptions.UNCOMPRESSED );
+        assertEquals( 128 + 2 * ( 8 + scratchSize ), uncompressedFile.length() );
+        assertEquals( archive, new MatFileReader( uncompressedFile ).getMLArray( "archive" ) );
+        
+        //overrides return new options, shared options don't change
+        MatFileWriterOptions override = MatFileWriterOptions.DEFAULT.withArrayOptions( "scratch", MatFileWriterOptions.UNCOMPRESSED );
+        assertSame( MatFileWriterOptions.UNCOMPRESSED, override.getArrayOptions( "scratch" ) );
+        assertSame( MatFileWriterOptions.DEFAULT, MatFileWriterOptions.DEFAULT.getArrayOptions( "scratch" ) );
+        assertSame( options, options.getArrayOptions( "archive" ) );
+    }
+    
+    @Test
+    public void testAppendReplaceDelete() throws IOException
+    {
+        MLDouble a = new MLDouble( "a", new double[] { 1, 2, 3, 4 }, 2 );
+        MLChar b = new MLChar( "b", "I am dummy" );
+        MLInt8 c = new MLInt8( "c", new byte[] { 1, 2, 3 }, 3 );
+        File outFile = temp.newFile( "append.mat" );
+        MatFileIncrementalWriter writer = new MatFileIncrementalWriter( outFile );
+        writer.write( a );
+        writer.write( b );
+        writer.write( c );
+        writer.close();
+        
+        //add a variable, replace and delete existing ones
+        MLDouble d = new MLDouble( "d", new double[] { 5, 6 }, 1 );
+        MLChar newB = new MLChar( "b", "I am a much longer dummy" );
+        writer = new MatFileIncrementalWriter( outFile, true );
+        writer.write( d );
+        writer.replace( newB );
+        writer.delete( "a" );
+        try
+        {
+            writer.write( c );
+            assertTrue( "Name clash not detected", false );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            //expected
+        }
+        writer.close();
+        
+        MatFileReader reader = new MatFileReader( outFile );
+        assertEquals( Arrays.asList( "b", "c", "d" ), new ArrayList<String>( reader.getContent().keySet() ) );
+        assertEquals( newB, reader.getMLArray( "b" ) );
+        assertEquals( c, reader.getMLArray( "c" ) );
+        assertEquals( d, reader.getMLArray( "d" ) );
+        
+        //deleting the last variable truncates the file
+        writer = new MatFileIncrementalWriter( outFile, true );
+        writer.delete( "d" );
+        writer.close();
+        assertEquals( Arrays.asList( "b", "c" ), new ArrayList<String>( new MatFileReader( outFile ).getContent().keySet() ) );
+        
+        //failed replacing leaves the file as it was
+        byte[] bytes = Files.readAllBytes( outFile.toPath() );
+        final int[] calls = { 0 };
+        MLDouble broken = new MLDouble( "b", new double[] { 1, 2 }, 1 )
+        {
+            @Override
+            public ByteBuffer getRealByteBuffer()
+            {
+                //the size is computed, writing the data fails
+                if ( ++calls[0] > 1 )
+                {
+                    throw new IllegalStateException("Write failed");
+                }
+                return super.getRealByteBuffer();
+            }
+        };
+        calls[0] = 0;
+        writer = new MatFileIncrementalWriter( outFile, true );
+        for ( MLArray array : Arrays.asList( new MLInt32( "b", new int[] { 1, 2 }, 1 ), broken ) )
+        {
+            try
+            {
+                writer.replace( array );
+                assertTrue( "Write failure not reported", false );
+            }
+            catch ( IOException | IllegalStateException e )
+            {
+                //expected
+            }
+        }
+        writer.close();
+        assertArrayEquals( bytes, Files.readAllBytes( outFile.toPath() ) );
+        assertEquals( 2, calls[0] );
+        
+        //writers of other channels cannot rewrite the stream
+        writer = new MatFileIncrementalWriter( Channels.newChannel( new ByteArrayOutputStream() ) );
+        writer.write( a );
+        try
+        {
+            writer.delete( "a" );
+            assertTrue( "Delete from a stream not reported", false );
+        }
+        catch ( IllegalStateException e )
+        {
+            //expected
+        }
+        writer.close();
+    }
+    
+    @Test
+    public void testAppendingToMatlabFile() throws IOException
+    {
+        //written by MATLAB on a little-endian machine
+        File outFile = temp.newFile( "matlabAppend.mat" );
+        Files.copy( new File( "src/test/resources/matnativedouble2.mat" ).toPath(), outFile.toPath(), 
+                StandardCopyOption.REPLACE_EXISTING );
+        
+        MLStructure struct = new MLStructure( "s", new int[] { 1, 1 } );
+        struct.setField( "i8", new MLInt8( "i8", new byte[] { 1, 2, 3 }, 3 ) );
+        struct.setField( "c", new MLChar( "c", "ab" ) );
+        MLSparse sparse = new MLSparse( "sp", new int[] { 3, 3 }, 0, 2 );
+        sparse.setReal( 1.5, 0, 0 );
+        sparse.setReal( 2.5, 2, 1 );
+        struct.setField( "sp", sparse );
+        MLDouble complex = new MLDouble( "complex", new int[] { 2, 2 }, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX );
+        for ( int i = 0; i < complex.getSize(); i++ )
+        {
+            complex.setReal( i + 0.5, i );
+            complex.setImaginary( -i - 0.5, i );
+        }
+        MLInt16 plain = new MLInt16( "plain", new short[] { 1, -2, 300, -400 }, 2 );
+        MLDouble arr = new MLDouble( "arr", new double[] { 9, 8, 7 }, 1 );
+        
+        MatFileWriterOptions options = new MatFileWriterOptions()
+                .withArrayOptions( "plain", MatFileWriterOptions.UNCOMPRESSED )
+                .withArrayOptions( "counts", MatFileWriterOptions.UNCOMPRESSED );
+        MatFileIncrementalWriter writer = new MatFileIncrementalWriter( outFile, options, true );
+        writer.write( struct );
+        writer.write( complex );
+        writer.write( plain );
+        MatFileArrayAppender samples = writer.createAppender( new MLDouble( "samples", new double[] { 1, 2, 3, 4 }, 2 ) );
+        samples.append( new MLDouble( "samples", new double[] { 5, 6 }, 2 ) );
+        samples.close();
+        MatFileArrayAppender counts = writer.createAppender( new MLInt16( "counts", new short[] { 1, 2 }, 1 ) );
+        counts.append( new MLInt16( "counts", new short[] { 3 }, 1 ) );
+        counts.close();
+        writer.replace( arr );
+        writer.close();
+        
+        //still little-endian, elements in the file byte order
+        byte[] bytes = Files.readAllBytes( outFile.toPath() );
+        assertEquals( "IM", new String( bytes, 126, 2, "US-ASCII" ) );
+        for ( MatFileIndex.Entry entry : MatFileIndex.scan( outFile ) )
+        {
+            int type = ByteBuffer.wrap( bytes, (int) entry.getOffset(), 4 ).order( ByteOrder.LITTLE_ENDIAN ).getInt();
+            boolean uncompressed = entry.getName().equals( "plain" ) || entry.getName().equals( "counts" );
+            assertEquals( uncompressed ? MatDataTypes.miMATRIX : MatDataTypes.miCOMPRESSED, type );
+        }
+        
+        MatFileReader reader = new MatFileReader( outFile );
+        assertEquals( Arrays.asList( "arr", "s", "complex", "plain", "samples", "counts" ), 
+                new ArrayList<String>( reader.getContent().keySet() ) );
+        assertEquals( arr, reader.getMLArray( "arr" ) );
+        MLStructure readStruct = (MLStructure) reader.getMLArray( "s" );
+        assertEquals( struct.getField( "i8" ), readStruct.getField( "i8" ) );
+        assertEquals( struct.getField( "c" ), readStruct.getField( "c" ) );
+        assertEquals( sparse, readStruct.getField( "sp" ) );
+        assertEquals( complex, reader.getMLArray( "complex" ) );
+        assertEquals( plain, reader.getMLArray( "plain" ) );
+        assertEquals( new MLDouble( "samples", new double[] { 1, 2, 3, 4, 5, 6 }, 2 ), reader.getMLArray( "samples" ) );
+        assertEquals( new MLInt16( "counts", new short[] { 1, 2, 3 }, 1 ), reader.getMLArray( "counts" ) );
+    }
+    
+    @Test
+    public void testPrimitiveAccessors() throws IOException
+    {
+        MLDouble complex = new MLDouble( "complex", new int[] { 2, 3 }, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX );
+        for ( int i = 0; i < complex.getSize(); i++ )
+        {
+            complex.setDouble( i, i + 0.5 );
+            complex.setImaginaryDouble( i, -i );
+        }
+        assertEquals( 3.5, complex.getReal( 1, 1 ), 0.0 );
+        assertEquals( -3.0, complex.getImaginary( 1, 1 ), 0.0 );
+        complex.setReal( 7.0, 4 );
+        assertEquals( 7.0, complex.getDouble( 4 ), 0.0 );
+        
+        //storage byte order is respected
+        ByteBuffer little = ByteBuffer.allocate( 3 * 8 ).order( ByteOrder.LITTLE_ENDIAN );
+        little.putLong( 0, 1L ).putLong( 8, -2L ).putLong( 16, Long.MAX_VALUE );
+        MLInt64 int64 = new MLInt64( "int64", new int[] { 3, 1 } );
+        int64.wrapRealByteBuffer( little );
+        assertEquals( -2L, int64.getLong( 1 ) );
+        assertEquals( Long.MAX_VALUE, (long) int64.get( 2 ) );
+        int64.setLong( 0, 42L );
+        assertEquals( 42L, little.getLong( 0 ) );
+        
+        MLSingle single = new MLSingle( "single", new Float[] { 1f, 2f }, 1 );
+        single.setFloat( 1, 3.5f );
+        assertEquals( 3.5f, single.get( 1 ), 0.0f );
+        MLInt16 int16 = new MLInt16( "int16", new short[] { 1, -2 }, 1 );
+        assertEquals( (short) -2, int16.getShort( 1 ) );
+        MLUInt8 uint8 = new MLUInt8( "uint8", new int[] { 1, 2 } );
+        uint8.setByte( 1, (byte) 0xff );
+        assertEquals( (byte) 0xff, (byte) uint8.get( 1 ) );
+        MLInt32 int32 = new MLInt32( "int32", new int[] { 5, 6 }, 1 );
+        assertEquals( 6, int32.getInt( 1 ) );
+        
+        try
+        {
+            int32.getImaginaryInt( 0 );
+            assertTrue( "Imaginary part of a real array", false );
+        }
+        catch ( IllegalStateException e )
+        {
+            //expected
+        }
+    }
+    
+    @Test
+    public void testBulkCopy() throws IOException
+    {
+        double[] src = new double[1000];
+        for ( int i = 0; i < src.length; i++ )
+        {
+            src[i] = i * 0.5;
+        }
+        MLDouble complex = new MLDouble( "complex", new int[] { 10, 100 }, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX );
+        complex.copyFrom( src );
+        complex.copyImaginaryFrom( src );
+        complex.asImaginaryDoubleBuffer().put( 0, -1.0 );
+        assertEquals( 4.5, complex.getReal( 9, 0 ), 0.0 );
+        assertEquals( -1.0, complex.getImaginary( 0 ), 0.0 );
+        double[] dst = new double[src.length + 1];
+        complex.copyTo( dst, 1 );
+        assertArrayEquals( src, Arrays.copyOfRange( dst, 1, dst.length ), 0.0 );
+        
+        //primitive constructors and getArray() go through the views
+        long[][] longs = new long[][] { { 1, 2, 3 }, { 4, 5, 6 } };
+        MLInt64 int64 = new MLInt64( "int64", longs );
+        assertEquals( 4L, (long) int64.get( 1, 0 ) );
+        assertEquals( 2L, int64.asLongBuffer().get( 2 ) );
+        assertTrue( Arrays.deepEquals( longs, int64.getArray() ) );
+        assertEquals( new MLInt16( "int16", new Short[] { 1, -2 }, 1 ), new MLInt16( "int16", new short[] { 1, -2 }, 1 ) );
+        
+        //storage byte order is respected
+        MLInt32 int32 = new MLInt32( "int32", new int[] { 2, 1 } );
+        int32.wrapRealByteBuffer( ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN ) );
+        int32.copyFrom( new int[] { 7, -8 } );
+        assertEquals( -8, (int) int32.get( 1 ) );
+        int[] ints = new int[2];
+        int32.copyTo( ints, 0 );
+        assertArrayEquals( new int[] { 7, -8 }, ints );
+        
+        try
+        {
+            int32.copyFrom( new int[3] );
+            assertTrue( "Size mismatch not detected", false );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            //expected
+        }
+    }
+    
+    @Test
+    public void testArrayAppender() throws IOException
+    {
+        int rows = 3;
+        int chunks = 100;
+        MLDouble expected = new MLDouble( "samples", new int[] { rows, 7 * chunks } );
+        MLInt8 expectedInt = new MLInt8( "counts", new int[] { 1, 5 * chunks } );
+        
+        //compressed and uncompressed arrays in the same file
+        MatFileWriterOptions options = new MatFileWriterOptions()
+                .withArrayOptions( "counts", MatFileWriterOptions.UNCOMPRESSED );
+        File outFile = temp.newFile( "appender.mat" );
+        MatFileIncrementalWriter writer = new MatFileIncrementalWriter( outFile, options );
+        writer.write( new MLChar( "before", "before" ) );
+        MatFileArrayAppender samples = writer.createAppender( new MLDouble( "samples", new int[] { rows, 0 } ) );
+        for ( int i = 0; i < chunks; i++ )
+        {
+            MLDouble chunk = new MLDouble( "samples", new int[] { rows, 7 } );
+            for ( int j = 0; j < chunk.getSize(); j++ )
+            {
+                chunk.set( (double) ( i * 1000 + j ), j );
+                expected.set( (double) ( i * 1000 + j ), i * chunk.getSize() + j );
+            }
+            samples.append( chunk );
+        }
+        samples.close();
+        
+        //a failed appender leaves nothing in the file
+        final boolean[] failing = { false };
+        MLDouble broken = new MLDouble( "broken", new double[] { 1, 2, 3 }, 3 )
+        {
+            @Override
+            public ByteBuffer getRealByteBuffer()
+            {
+                if ( failing[0] )
+                {
+                    throw new IllegalStateException("Write failed");
+                }
+                return super.getRealByteBuffer();
+            }
+        };
+        failing[0] = true;
+        try
+        {
+            writer.createAppender( broken );
+            assertTrue( "Write failure not reported", false );
+        }
+        catch ( IllegalStateException e )
+        {
+            //expected
+        }
+        writer.write( new MLChar( "after", "after" ) );
+        //closed by the writer
+        MatFileArrayAppender counts = writer.createAppender( new MLInt8( "counts", new byte[] { 1, 2, 3, 4, 5 }, 1 ) );
+        for ( int i = 0; i < chunks; i++ )
+        {
+            if ( i > 0 )
+            {
+                counts.append( new MLInt8( "counts", new byte[] { 1, 2, 3, 4, 5 }, 1 ) );
+            }
+            for ( int j = 0; j < 5; j++ )
+            {
+                expectedInt.set( (byte) ( j + 1 ), 5 * i + j );
+            }
+        }
+        writer.close();
+        
+        MatFileReader reader = new MatFileReader( outFile );
+        assertEquals( Arrays.asList( "before", "samples", "after", "counts" ), new ArrayList<String>( reader.getContent().keySet() ) );
+        assertEquals( expected, reader.getMLArray( "samples" ) );
+        assertEquals( expectedInt, reader.getMLArray( "counts" ) );
+        assertEquals( "after", ((MLChar) reader.getMLArray( "after" )).getString( 0 ) );
+        
+        //writers of other channels cannot seek back to complete the array
+        writer = new MatFileIncrementalWriter( Channels.newChannel( new ByteArrayOutputStream() ) );
+        try
+        {
+            writer.createAppender( new MLDouble( "samples", new int[] { rows, 0 } ) );
+            assertTrue( "Appending to a stream not reported", false );
+        }
+        catch ( IllegalStateException e )
+        {
+            //expected
+        }
+        writer.close();
+        
+        //failed appends are removed from the file
+        File failFile = temp.newFile( "appenderFailure.mat" );
+        final FileChannel fc = new RandomAccessFile( failFile, "rw" ).getChannel();
+        final long[] budget = { Long.MAX_VALUE };
+        SeekableByteChannel diskFull = new SeekableByteChannel()
+        {
+            public int write( ByteBuffer src ) throws IOException
+            {
+                //a part of the data reaches the file, then the disk is full
+                int length = (int) Math.min( src.remaining(), budget[0] );
+                if ( length == 0 )
+                {
+                    throw new IOException("Disk full");
+                }
+                ByteBuffer part = src.duplicate();
+                part.limit( part.position() + length );
+                int written = fc.write( part );
+                src.position( src.position() + written );
+                budget[0] -= written;
+                return written;
+            }
+            public int read( ByteBuffer dst ) throws IOException
+            {
+                return fc.read( dst );
+            }
+            public long position() throws IOException
+            {
+                return fc.position();
+            }
+            public SeekableByteChannel position( long newPosition ) throws IOException
+            {
+                fc.position( newPosition );
+                return this;
+            }
+            public long size() throws IOException
+            {
+                return fc.size();
+            }
+            public SeekableByteChannel truncate( long size ) throws IOException
+            {
+                fc.truncate( size );
+                return this;
+            }
+            public boolean isOpen()
+            {
+                return fc.isOpen();
+            }
+            public void close() throws IOException
+            {
+                fc.close();
+            }
+        };
+        writer = new MatFileIncrementalWriter( diskFull, options );
+        writer.write( new MLChar( "before", "before" ) );
+        
+        //uncompressed array keeps the columns appended before
+        counts = writer.createAppender( new MLInt8( "counts", new byte[] { 1, 2, 3, 4, 5 }, 1 ) );
+        budget[0] = 3;
+        try
+        {
+            counts.append( new MLInt8( "counts", new byte[] { 6, 7, 8, 9, 10 }, 1 ) );
+            assertTrue( "Write failure not reported", false );
+        }
+        catch ( IOException e )
+        {
+            //expected
+        }
+        budget[0] = Long.MAX_VALUE;
+        counts.append( new MLInt8( "counts", new byte[] { 11, 12, 13, 14, 15 }, 1 ) );
+        counts.close();
+        
+        //compressed array is removed, its name may be used again
+        samples = writer.createAppender( new MLDouble( "samples", new int[] { rows, 0 } ) );
+        samples.append( expected );
+        budget[0] = 10;
+        try
+        {
+            samples.append( expected );
+            assertTrue( "Write failure not reported", false );
+        }
+        catch ( IOException e )
+        {
+            //expected
+        }
+        budget[0] = Long.MAX_VALUE;
+        try
+        {
+            samples.append( expected );
+            assertTrue( "Removed array appended to", false );
+        }
+        catch ( IllegalStateException e )
+        {
+            //expected
+        }
+        MLDouble replacement = new MLDouble( "samples", new double[] { 1, 2, 3 }, 3 );
+        writer.write( replacement );
+        writer.close();
+        
+        reader = new MatFileReader( failFile );
+        assertEquals( Arrays.asList( "before", "counts", "samples" ), new ArrayList<String>( reader.getContent().keySet() ) );
+        assertEquals( new MLInt8( "counts", new byte[] { 1, 2, 3, 4, 5, 11, 12, 13, 14, 15 }, 1 ), reader.getMLArray( "counts" ) );
+        assertEquals( replacement, reader.getMLArray( "samples" ) );
+    }
+    
+    @Test
+    public void testGatheringWriter() throws IOException
+    {
+        //big enough to be written in slices
+        MLDouble complex = new MLDouble( "complex", new int[] { 1000, 300 }, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX );
+        for ( int i = 0; i < complex.getSize(); i++ )
+        {
+            complex.setReal( (double) i, i );
+            complex.setImaginary( (double) -i, i );
+        }
+        MLStructure struct = new MLStructure( "s", new int[] { 1, 1 } );
+        struct.setField( "i8", new MLInt8( "i8", new byte[] { 1, 2, 3 }, 3 ) );
+        struct.setField( "c", new MLChar( "c", "abc" ) );
+        MLSparse sparse = new MLSparse( "sp", new int[] { 3, 3 }, 0, 2 );
+        sparse.setReal( 1.5, 0, 0 );
+        sparse.setReal( 2.5, 2, 1 );
+        List<MLArray> list = new ArrayList<MLArray>();
+        list.add( complex );
+        list.add( struct );
+        list.add( sparse );
+        
+        //file channels gather array buffers, other channels copy them
+        File outFile = temp.newFile( "gathering.mat" );
+        new MatFileWriter( outFile, list, MatFileWriterOptions.UNCOMPRESSED );
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new MatFileWriter( Channels.newChannel( baos ), list, MatFileWriterOptions.UNCOMPRESSED );
+        assertSameContent( baos.toByteArray(), Files.readAllBytes( outFile.toPath() ) );
+        
+        MatFileReader reader = new MatFileReader( outFile );
+        assertEquals( complex, reader.getMLArray( "complex" ) );
+        assertEquals( sparse, reader.getMLArray( "sp" ) );
+        assertEquals( struct.getField( "i8" ), ((MLStructure) reader.getMLArray( "s" )).getField( "i8" ) );
+    }
+    
+    @Test
+    public void testStreamingWriter() throws IOException
+    {
+        //nested arrays, sparse and multi-byte characters
+        MLStructure struct = new MLStructure( "s", new int[] { 1, 2 } );
+        struct.setField( "d", new MLDouble( "d", new double[] { 1, 2, 3 }, 1 ), 0 );
+        struct.setField( "c", new MLChar( "c", "abc" ), 0 );
+        struct.setField( "d", new MLDouble( "d", new double[] { 4 }, 1 ), 1 );
+        struct.setField( "c", new MLChar( "c", "\u00E9t\u00E9 \uD83D\uDE00" ), 1 );
+        MLCell cell = new MLCell( "cell", new int[] { 1, 2 } );
+        cell.set( struct, 0 );
+        MLSparse sparse = new MLSparse( "sp", new int[] { 3, 3 }, MLArray.mtFLAG_COMPLEX, 2 );
+        sparse.setReal( 1.5, 0, 0 );
+        sparse.setImaginary( 2.5, 2, 1 );
+        cell.set( sparse, 1 );
+        List<MLArray> list = new ArrayList<MLArray>();
+        list.add( cell );
+        list.add( new MLInt8( "i8", new byte[] { 1, 2, 3 }, 3 ) );
+        
+        //file channels are back-patched, other channels are buffered
+        File outFile = temp.newFile( "streaming.mat" );
+        new MatFileWriter( outFile, list );
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new MatFileWriter( Channels.newChannel( baos ), list );
+        assertSameContent( Files.readAllBytes( outFile.toPath() ), baos.toByteArray() );
+        
+        MLCell read = (MLCell) new MatFileReader( outFile ).getMLArray( "cell" );
+        assertEquals( "\u00E9t\u00E9 \uD83D\uDE00", ((MLChar) ((MLStructure) read.get( 0 )).getField( "c", 1 )).getString( 0 ) );
+        assertEquals( struct.getField( "d", 0 ), ((MLStructure) read.get( 0 )).getField( "d", 0 ) );
+        assertEquals( 2.5, ((MLSparse) read.get( 1 )).getImaginary( 2, 1 ), 0 );
+    }
+    
+    @Test
+    public void testConcurrentReading() throws Exception
+    {
+        File outFile = temp.newFile( "concurrent.mat" );
+        File uncompressed = temp.newFile( "concurrentv6.mat" );
+        
+        final List<MLArray> list = new ArrayList<MLArray>();
+        for ( int i = 0; i < 8; i++ )
+        {
+            double[] src = new double[1000 * ( i + 1 )];
+            for ( int j = 0; j < src.length; j++ )
+            {
+                src[j] = i + j;
+            }
+            list.add( new MLDouble( "m" + i, src, 10 ) );
+        }
+        new MatFileWriter( outFile, list );
+        uncompress( outFile, uncompressed );
+        
+        final MatFileIndex index = new MatFileIndex( uncompressed, MatFileReader.MEMORY_MAPPED_FILE | MatFileReader.ZERO_COPY );
+        final MLDouble shared = (MLDouble) index.getMLArray( "m7" );
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for ( int i = 0; i < 32; i++ )
+            {
+                final MLArray expected = list.get( i % list.size() );
+                results.add( executor.submit( new Callable<Boolean>()
+                {
+                    public Boolean call() throws Exception
+                    {
+                        //decode a variable and read elements of the shared one
+                        boolean equal = expected.equals( index.getMLArray( expected.getName() ) );
+                        for ( int j = 0; j < shared.getSize(); j++ )
+                        {
+                            equal &= shared.get( j ) == 7 + j;
+                        }
+                        return equal;
+                    }
+                } ) );
+            }
+            for ( Future<Boolean> result : results )
+            {
+                assertTrue( result.get() );
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            index.close();
+        }
+        //closing again does nothing, zero-copy arrays stay valid
+        index.close();
+        assertEquals( 7.0, shared.get( 0 ), 0 );
+        assertEquals( 7.0 + 7999, shared.get( 7999 ), 0 );
+    }
+    
+    @Test
+    public void testDefaultElementAccess()
+    {
+        //a subclass relying on the default accessors and the allocate hook
+        final int[] allocations = { 0 };
+        MLNumericArray<Short> array = new MLNumericArray<Short>( "s", new int[] { 2, 3 }, MLArray.mxINT16_CLASS, 0 )
+        {
+            @Override
+            protected void allocate()
+            {
+                allocations[0]++;
+                super.allocate();
+            }
+            public Short buldFromBytes( byte[] bytes )
+            {
+                return ByteBuffer.wrap( bytes ).getShort();
+            }
+            public byte[] getByteArray( Short value )
+            {
+                return ByteBuffer.allocate( 2 ).putShort( value ).array();
+            }
+            public Class<?> getStorageClazz()
+            {
+                return Short.class;
+            }
+            public int getBytesAllocated()
+            {
+                return 2;
+            }
+        };
+        assertEquals( 0, allocations[0] );
+        for ( int i = 0; i < array.getSize(); i++ )
+        {
+            array.set( (short) ( i - 3 ), i );
+        }
+        assertEquals( 1, allocations[0] );
+        assertEquals( Short.valueOf( (short) -3 ), array.get( 0 ) );
+        assertEquals( Short.valueOf( (short) 2 ), array.get( 1, 2 ) );
+        assertEquals( 0, array.getRealByteBuffer().position() );
+        
+        //absolute reads respect the byte order of wrapped buffers
+        ByteBuffer little = ByteBuffer.allocate( 12 ).order( ByteOrder.LITTLE_ENDIAN );
+        little.putShort( 2, (short) 300 );
+        array.wrapRealByteBuffer( little );
+        assertEquals( Short.valueOf( (short) 300 ), array.get( 1 ) );
+        array.set( (short) -2, 5 );
+        assertEquals( (short) -2, little.getShort( 10 ) );
+        assertEquals( 1, allocations[0] );
+    }
+    
+    @Test
+    public void testZeroCopyReading() throws IOException
+    {
+        for ( String fileName : new String[] { "matnativedouble2.mat", "single.mat", "int64.mat", "uint64.mat" } )
+        {
+            File file = new File( "src/test/resources/" + fileName );
+            File uncompressed = temp.newFile( "v6" + fileName );
+            uncompress( file, uncompressed );
+            
+            MLArray expected = new MatFileReader( file ).getMLArray( "arr" );
+            
+            MatFileReader reader = new MatFileReader();
+            reader.read( uncompressed, new MatFileFilter(), MatFileReader.MEMORY_MAPPED_FILE | MatFileReader.ZERO_COPY );
+            MLNumericArray<?> array = (MLNumericArray<?>) reader.getMLArray( expected.getName() );
+            
+            //backed by the file
+            assertTrue( array.getRealByteBuffer().isReadOnly() );
+            assertEquals( expected, array );
+            
+            //the same when copied
+            reader.read( uncompressed, MatFileReader.HEAP_BYTE_BUFFER );
+            assertEquals( array, reader.getMLArray( expected.getName() ) );
+            
+            //written back in big-endian order
+            File outFile = temp.newFile( "copy" + fileName );
+            new MatFileWriter( outFile, Arrays.asList( (MLArray) array ) );
+            assertEquals( expected, new MatFileReader( outFile ).getMLArray( expected.getName() ) );
+        }
+    }
+    
+    @Test
+    public void testBulkTypeConversion() throws IOException
+    {
+        //unsigned 32-bit values stored in little-endian order
+        ByteBuffer buf = ByteBuffer.allocate( 12 ).order( ByteOrder.LITTLE_ENDIAN );
+        buf.putInt( 1 ).putInt( -1 ).putInt( Integer.MIN_VALUE );
+        buf.rewind();
+        
+        double[] ad = new double[3];
+        new MatFileInputStream( buf, MatDataTypes.miUINT32 ).readToDoubleArray( ad );
+        assertTrue( Arrays.equals( new double[] { 1.0, 4294967295.0, 2147483648.0 }, ad ) );
+        assertEquals( 12, buf.position() );
+        
+        //doubles stored as int16 (more than a single conversion chunk)
+        short[] src = new short[5000];
+        buf = ByteBuffer.allocate( src.length * 2 ).order( ByteOrder.LITTLE_ENDIAN );
+        for ( int i = 0; i < src.length; i++ )
+        {
+            src[i] = (short) ( i - 2500 );
+            buf.putShort( src[i] );
+        }
+        buf.rewind();
+        
+        MLDouble mlDouble = new MLDouble( "d", new int[] { src.length, 1 } );
+        new MatFileInputStream( buf, MatDataTypes.miINT16 )
+                .readToByteBuffer( mlDouble.getRealByteBuffer(), src.length, mlDouble );
+        for ( int i = 0; i < src.length; i++ )
+        {
+            assertEquals( (double) src[i], mlDouble.get( i ), 0 );
+        }
+    }
+    
+    @Test
+    public void testVisitor() throws IOException
+    {
+        File file = temp.newFile( "visitor.mat" );
+        
+        MLStructure struct = new MLStructure( "s", new int[] { 1, 3 } );
+        for ( int i = 0; i < 3; i++ )
+        {
+            struct.setField( "x", new MLDouble( null, new double[] { i, 10 * i }, 1 ), i );
+            struct.setField( "label", new MLChar( null, "element" + i ), i );
+        }
+        MLDouble big = new MLDouble( "big", new int[] { 300, 300 } );
+        for ( int i = 0; i < 300 * 300; i++ )
+        {
+            big.set( 1.0, i );
+        }
+        MLCell cell = new MLCell( "c", new int[] { 2, 1 } );
+        cell.set( new MLChar( null, "abc" ), 0 );
+        cell.set( struct, 1 );
+        new MatFileWriter( file, Arrays.asList( (MLArray) big, struct, cell ) );
+        
+        //sum field "x" of "s", the other arrays are skipped
+        final double[] sum = new double[1];
+        final List<String> events = new ArrayList<String>();
+        new MatFileReader().read( file, new MatFileVisitorAdapter()
+        {
+            private int depth;
+            
+            public int startArray( String name, int type, int[] dims, int attributes )
+            {
+                events.add( depth == 0 ? "start " + name : "value" );
+                return depth++ == 0 && !name.equals( "s" ) ? SKIP : CONTINUE;
+            }
+            public int field( String fieldName, int index )
+            {
+                events.add( fieldName + index );
+                return fieldName.equals( "x" ) ? CONTINUE : SKIP;
+            }
+            public int numericChunk( ByteBuffer buffer, int dataType, int part ) throws IOException
+            {
+                double[] ad = new double[ buffer.remaining() / MatDataTypes.sizeOf( dataType ) ];
+                new MatFileInputStream( buffer, dataType ).readToDoubleArray( ad );
+                for ( double d : ad )
+                {
+                    sum[0] += d;
+                }
+                return CONTINUE;
+            }
+            public void endArray()
+            {
+                depth--;
+            }
+        });
+        assertEquals( 33.0, sum[0], 0 );
+        assertEquals( Arrays.asList( "start big", "start s",
+                                     "x0", "value", "label0",
+                                     "x1", "value", "label1",
+                                     "x2", "value", "label2",
+                                     "start c" ), events );
+        
+        //big array is delivered in chunks
+        final int[] chunks = new int[2];
+        new MatFileReader().read( file, new MatFileVisitorAdapter()
+        {
+            public int startArray( String name, int type, int[] dims, int attributes )
+            {
+                return name.equals( "big" ) ? CONTINUE : SKIP;
+            }
+            public int numericChunk( ByteBuffer buffer, int dataType, int part )
+            {
+                chunks[0]++;
+                chunks[1] += buffer.remaining() / MatDataTypes.sizeOf( dataType );
+                return CONTINUE;
+            }
+        });
+        assertTrue( chunks[0] > 1 );
+        assertEquals( 300 * 300, chunks[1] );
+    }
+    
+    @Test
+    public void testReadSubArray() throws IOException
+    {
+        File compressed = temp.newFile( "subarray.mat" );
+        File uncompressed = temp.newFile( "subarray-v6.mat" );
+        
+        MLDouble arr = new MLDouble( "arr", new int[] { 50, 40 }, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX );
+        for ( int i = 0; i < 50 * 40; i++ )
+        {
+            arr.setReal( (double) i, i );
+            arr.setImaginary( (double) -i, i );
+        }
+        MLInt8 bytes = new MLInt8( "bytes", new byte[] { 1, 2, 3, 4 }, 2 );
+        new MatFileWriter( compressed, Arrays.asList( (MLArray) arr, bytes ) );
+        uncompress( compressed, uncompressed );
+        
+        for ( File file : new File[] { compressed, uncompressed } )
+        {
+            MatFileIndex index = new MatFileIndex( file );
+            try
+            {
+                //row block
+                MLDouble sub = (MLDouble) index.readSubArray( "arr", 10, 20, 30, 40 );
+                assertEquals( 10, sub.getM() );
+                assertEquals( 10, sub.getN() );
+                assertTrue( sub.isComplex() );
+                for ( int m = 0; m < 10; m++ )
+                {
+                    for ( int n = 0; n < 10; n++ )
+                    {
+                        assertEquals( arr.getReal( 10 + m, 30 + n ), sub.getReal( m, n ) );
+                        assertEquals( arr.getImaginary( 10 + m, 30 + n ), sub.getImaginary( m, n ) );
+                    }
+                }
+                //whole columns
+                sub = (MLDouble) index.readSubArray( "arr", 0, 50, 38, 40 );
+                for ( int m = 0; m < 50; m++ )
+                {
+                    assertEquals( arr.getReal( m, 39 ), sub.getReal( m, 1 ) );
+                }
+                //small data element format
+                MLInt8 subBytes = (MLInt8) index.readSubArray( "bytes", 1, 2, 0, 2 );
+                assertEquals( 2, (int) subBytes.get( 0 ) );
+                assertEquals( 4, (int) subBytes.get( 1 ) );
+                
+                assertEquals( null, index.readSubArray( "none", 0, 0, 0, 0 ) );
+            }
+            finally
+            {
+                index.close();
+            }
+        }
+    }
+    
+    @Test
+    public void testLazyReading() throws IOException
+    {
+        File file = temp.newFile( "lazy.mat" );
+        File uncompressed = temp.newFile( "lazy-v6.mat" );
+        
+        MLStructure inner = new MLStructure( "", new int[] { 1, 1 } );
+        inner.setField( "d", new MLDouble( null, new double[] { 1.0, 2.0 }, 1 ) );
+        MLCell cell = new MLCell( "c", new int[] { 1, 2 } );
+        cell.set( new MLChar( null, "abc" ), 0 );
+        cell.set( inner, 1 );
+        MLStructure struct = new MLStructure( "s", new int[] { 1, 2 } );
+        struct.setField( "cell", cell, 0 );
+        struct.setField( "x", new MLDouble( null, new double[] { 3.0 }, 1 ), 0 );
+        struct.setField( "cell", new MLChar( null, "none" ), 1 );
+        struct.setField( "x", new MLDouble( null, new double[] { 4.0 }, 1 ), 1 );
+        new MatFileWriter( file, Arrays.asList( (MLArray) struct ) );
+        uncompress( file, uncompressed );
+        
+        int[] policies = new int[] { MatFileReader.HEAP_BYTE_BUFFER | MatFileReader.LAZY,
+                                     MatFileReader.DIRECT_BYTE_BUFFER | MatFileReader.LAZY,
+                                     MatFileReader.MEMORY_MAPPED_FILE | MatFileReader.LAZY };
+        for ( File f : new File[] { file, uncompressed } )
+        {
+            for ( int policy : policies )
+            {
+                MatFileReader reader = new MatFileReader();
+                MLStructure s = (MLStructure) reader.read( f, new MatFileFilter(), policy ).get( "s" );
+                //fields are decoded after the reader is closed
+                reader.close();
+                assertTrue( reader.getContent().isEmpty() );
+                
+                MLArray x = s.getField( "x", 1 );
+                assertEquals( 4.0, ((MLDouble) x).get( 0 ), 0 );
+                //decoded arrays are cached
+                assertTrue( x == s.getField( "x", 1 ) );
+                
+                MLCell c = (MLCell) s.getField( "cell", 0 );
+                assertEquals( "abc", ((MLChar) c.get( 0 )).getString( 0 ) );
+                MLStructure i = (MLStructure) c.get( 1 );
+                assertEquals( inner.getField( "d" ), i.getField( "d" ) );
+                assertEquals( 2, c.cells().size() );
+                
+                assertEquals( 4, s.getAllFields().size() );
+            }
+        }
+    }
+    
+    @Test
+    public void testScan() throws IOException
+    {
+        List<MatFileIndex.Entry> entries = MatFileIndex.scan( new File( "src/test/resources/sparse.mat" ) );
+        assertEquals( 1, entries.size() );
+        MatFileIndex.Entry entry = entries.get( 0 );
+        assertEquals( MLArray.mxSPARSE_CLASS, entry.getType() );
+        assertEquals( ((MLSparse) new MatFileReader( "src/test/resources/sparse.mat" ).getMLArray( entry.getName() )).getMaxNZ(),
+                      entry.getMaxNZ() );
+        
+        entries = MatFileIndex.scan( new File( "src/test/resources/logical.mat" ) );
+        assertTrue( entries.get( 0 ).isLogical() );
+        assertTrue( !entries.get( 0 ).isComplex() );
+        
+        //every element in file order, read from a stream
+        File file = temp.newFile( "scan.mat" );
+        MLDouble complex = new MLDouble( "z", new int[] { 2, 3 }, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX );
+        new MatFileWriter( file, Arrays.asList( (MLArray) complex, new MLChar( "s", "text" ) ) );
+        FileInputStream is = new FileInputStream( file );
+        try
+        {
+            entries = MatFileIndex.scan( is );
+        }
+        finally
+        {
+            is.close();
+        }
+        assertEquals( 2, entries.size() );
+        assertEquals( "z", entries.get( 0 ).getName() );
+        assertTrue( entries.get( 0 ).isComplex() );
+        assertTrue( Arrays.equals( new int[] { 2, 3 }, entries.get( 0 ).getDimensions() ) );
+        assertEquals( "s", entries.get( 1 ).getName() );
+        assertEquals( MLArray.mxCHAR_CLASS, entries.get( 1 ).getType() );
+        assertEquals( file.length(), entries.get( 1 ).getOffset() + 8 + entries.get( 1 ).getSize() );
+    }
+    
+    @Test
+    public void testMappedFile() throws IOException
+    {
+        File file = new File( "src/test/resources/matnativedouble2.mat" );
+        MappedFile first = MappedFile.open( file );
+        MappedFile second = MappedFile.open( file );
+        try
+        {
+            //one instance per file, one mapping per region
+            assertTrue( first == second );
+            ByteBuffer a = first.map( 0, 128 );
+            ByteBuffer b = second.map( 0, 128 );
+            assertEquals( a, b );
+            
+            //still mapped for the other user
+            first.release( a );
+            assertEquals( 'M', b.get( 0 ) );
+            second.release( b );
+        }
+        finally
+        {
+            first.close();
+            second.close();
+        }
+        MappedFile reopened = MappedFile.open( file );
+        assertTrue( reopened != first );
+        reopened.close();
+        
+        //zero-copy arrays stay valid after the reader and the file are closed
+        File uncompressed = temp.newFile( "v6mapped.mat" );
+        uncompress( file, uncompressed );
+        MLArray expected = new MatFileReader( file ).getMLArray( "arr" );
+        
+        MatFileReader reader = new MatFileReader();
+        MLArray zeroCopy;
+        try
+        {
+            reader.read( uncompressed, new MatFileFilter(), MatFileReader.MEMORY_MAPPED_FILE | MatFileReader.ZERO_COPY );
+            zeroCopy = reader.getMLArray( "arr" );
+            assertTrue( ((MLDouble) zeroCopy).getRealByteBuffer().isDirect() );
+        }
+        finally
+        {
+            reader.close();
+        }
+        assertEquals( expected, zeroCopy );
+        reader.read( uncompressed, new MatFileFilter(), MatFileReader.DIRECT_BYTE_BUFFER | MatFileReader.LAZY );
+        assertEquals( expected, reader.getMLArray( "arr" ) );
+        reader.close();
+        assertEquals( expected, zeroCopy );
+    }
+    
+    @Test
+    public void testReadingHDF5() throws Exception
+    {
+        //generated by v73gen.py (in the MATLAB layout, not written by MATLAB)
+        File file = new File( "src/test/resources/v73.mat" );
+        MatFileReader reader = new MatFileReader( file );
+        assertTrue( reader.getMatFileHeader().isHDF5() );
+        
+        assertEquals( new MLDouble( "a", new double[] { 1, 3, 5, 2, 4, 6 }, 3 ), reader.getMLArray( "a" ) );
+        assertEquals( "hello", ((MLChar) reader.getMLArray( "s" )).getString( 0 ) );
+        assertEquals( MLArray.mtFLAG_LOGICAL, reader.getMLArray( "b" ).getFlags() & MLArray.mtFLAG_LOGICAL );
+        
+        MLDouble z = (MLDouble) reader.getMLArray( "z" );
+        assertEquals( 3.0, z.getReal( 1 ), 0 );
+        assertEquals( -4.0, z.getImaginary( 1 ), 0 );
+        
+        //chunked and deflated, with partial chunks on the edges
+        MLDouble big = (MLDouble) reader.getMLArray( "big" );
+        assertTrue( Arrays.equals( new int[] { 70, 100 }, big.getDimensions() ) );
+        assertEquals( 496.0, big.get( 5, 7 ), 0 );
+        assertEquals( 7000.0, big.get( 69, 99 ), 0 );
+        assertEquals( 600, ((MLInt32) reader.getMLArray( "ib" )).get( 19, 29 ).intValue() );
+        
+        MLCell c = (MLCell) reader.getMLArray( "c" );
+        assertEquals( "ab", ((MLChar) c.get( 1 )).getString( 0 ) );
+        MLStructure st = (MLStructure) reader.getMLArray( "st" );
+        assertEquals( Arrays.asList( "x", "name" ), new ArrayList<String>( st.getFieldNames() ) );
+        MLStructure sa = (MLStructure) reader.getMLArray( "sa" );
+        assertEquals( 2.0, ((MLDouble) sa.getField( "v", 1 )).get( 0 ), 0 );
+        assertEquals( 3.0, ((MLSparse) reader.getMLArray( "sp" )).getReal( 2, 0 ), 0 );
+        assertTrue( Arrays.equals( new int[] { 0, 3 }, reader.getMLArray( "e" ).getDimensions() ) );
+        
+        //function handles and objects (and the cell holding one) are skipped
+        assertEquals( Arrays.asList( "a", "b", "big", "c", "cz", "e", "i16", "ib", "s", "sa", "sp", "st", "z" ),
+                      new ArrayList<String>( reader.getContent().keySet() ) );
+        MLDouble cz = (MLDouble) reader.getMLArray( "cz" );
+        assertTrue( Arrays.equals( new int[] { 6, 4, 5 }, cz.getDimensions() ) );
+        assertEquals( 120.0, cz.getReal( 119 ), 0 );
+        assertEquals( -57.0, cz.getImaginary( 56 ), 0 );
+        
+        //indexed from object headers, regions red from the chunks holding them
+        MatFileIndex index = new MatFileIndex( file );
+        try
+        {
+            MatFileIndex.Entry entry = index.getEntry( "big" );
+            assertEquals( MLArray.mxDOUBLE_CLASS, entry.getType() );
+            assertTrue( Arrays.equals( new int[] { 70, 100 }, entry.getDimensions() ) );
+            assertTrue( entry.isCompressed() );
+            assertEquals( 7000 * 8, entry.getSize() );
+            assertTrue( index.getEntry( "cz" ).isComplex() );
+            assertEquals( MLArray.mxSPARSE_CLASS, index.getEntry( "sp" ).getType() );
+            assertEquals( 3, index.getEntry( "sp" ).getMaxNZ() );
+            assertTrue( Arrays.equals( sa.getDimensions(), index.getEntry( "sa" ).getDimensions() ) );
+            assertTrue( Arrays.equals( new int[] { 1, 2 }, sa.getDimensions() ) );
+            assertTrue( index.getEntry( "fh" ) == null );
+            assertEquals( big, index.getMLArray( "big" ) );
+            
+            MLDouble region = (MLDouble) index.readSubArray( "big", 5, 45, 20, 90 );
+            assertTrue( Arrays.equals( new int[] { 40, 70 }, region.getDimensions() ) );
+            for ( int m = 0; m < 40; m++ )
+            {
+                for ( int n = 0; n < 70; n++ )
+                {
+                    assertEquals( big.get( m + 5, n + 20 ), region.get( m, n ) );
+                }
+            }
+            //trailing dimensions are columns
+            region = (MLDouble) index.readSubArray( "cz", 1, 5, 3, 17 );
+            for ( int m = 0; m < 4; m++ )
+            {
+                for ( int n = 0; n < 14; n++ )
+                {
+                    assertEquals( cz.getReal( ( n + 3 ) * 6 + m + 1 ), region.getReal( m, n ) );
+                    assertEquals( cz.getImaginary( ( n + 3 ) * 6 + m + 1 ), region.getImaginary( m, n ) );
+                }
+            }
+            MLInt32 ib = (MLInt32) reader.getMLArray( "ib" );
+            MLInt32 ibRegion = (MLInt32) index.readSubArray( "ib", 15, 20, 0, 30 );
+            assertEquals( ib.get( 17, 29 ), ibRegion.get( 2, 29 ) );
+            //contiguous
+            assertEquals( new MLDouble( "a", new double[] { 4, 6 }, 2 ), index.readSubArray( "a", 1, 3, 1, 2 ) );
+            try
+            {
+                index.readSubArray( "c", 0, 1, 0, 1 );
+                assertTrue( "Sub-array of a cell array", false );
+            }
+            catch ( IOException e )
+            {
+                //expected
+            }
+        }
+        finally
+        {
+            index.close();
+        }
+        
+        //chunks inflated in parallel
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            assertEquals( big, new MatFileReader().read( file, new MatFileFilter(), executor ).get( "big" ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+    
+    /**
+     * Writes a copy of the MAT-file with all <code>miCOMPRESSED</code>
+     * elements inflated (what MATLAB does with <code>-v6</code>).
+     */
+    private static void uncompress( File src, File dst ) throws IOException
+    {
+        DataInputStream dis = new DataInputStream( new FileInputStream( src ) );
+        FileOutputStream fos = new FileOutputStream( dst );
+        try
+        {
+            byte[] header = new byte[128];
+            dis.readFully( header );
+            fos.write( header );
+            
+            ByteOrder byteOrder = header[126] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            byte[] tag = new byte[8];
+            while ( dis.read( tag, 0, 1 ) > 0 )
+            {
+                dis.readFully( tag, 1, 7 );
+                ByteBuffer tagBuffer = ByteBuffer.wrap( tag ).order( byteOrder );
+                int type = tagBuffer.getInt();
+                byte[] data = new byte[ tagBuffer.getInt() ];
+                dis.readFully( data );
+                
+                if ( type == 15 )
+                {
+                    InflaterInputStream iis = new InflaterInputStream( new ByteArrayInputStream( data ) );
+                    byte[] tmp = new byte[1024];
+                    int i;
+                    while ( ( i = iis.read( tmp ) ) > 0 )
+                    {
+                        fos.write( tmp, 0, i );
+                    }
+                }
+                else
+                {
+                    fos.write( tag );
+                    fos.write( data );
+                }
+            }
+        }
+        finally
+        {
+            dis.close();
+            fos.close();
+        }
+    }
+    
+    /**
+     * Compares MAT-files skipping the descriptive text of the header, which
+     * contains the creation time.
+     */
+    private static void assertSameContent( byte[] expected, byte[] actual )
+    {
+        assertArrayEquals( Arrays.copyOfRange( expected, 116, expected.length ), 
+                           Arrays.copyOfRange( actual, 116, actual.length ) );
+    }
 }
@@ -0,0 +1,298 @@
+#!/usr/bin/env python3
+"""Generates the v73.mat test fixture.
+
+The file is written byte by byte, without an HDF5 library, in the layout
+MATLAB uses for -v7.3 MAT-files: a 512 byte user block holding the MAT-file
+header, superblock version 0, version 1 object headers, symbol table groups,
+MATLAB_class attributes, #refs# and #subsystem# groups and chunked datasets
+with shuffle and deflate filters. It is not a file written by MATLAB, so it
+only exercises the layout as described here.
+
+The output is deterministic. Regenerate the fixture with
+
+    python3 v73gen.py v73.mat
+"""
+import struct, zlib, sys
+
+UNDEF = 0xffffffffffffffff
+buf = bytearray(96)  # superblock reserved at address 0
+
+
+def align(n=8):
+    while len(buf) % n:
+        buf.append(0)
+
+
+def alloc(data):
+    align()
+    addr = len(buf)
+    buf.extend(data)
+    return addr
+
+
+def pad8(b):
+    return b + b'\0' * ((8 - len(b) % 8) % 8)
+
+# ---- datatypes
+
+
+def t_fixed(size, signed=False):
+    bits = 8 if signed else 0
+    return struct.pack('<B3sI', 0x10 | 0, bytes([bits, 0, 0]), size) + struct.pack('<HH', 0, size * 8)
+
+
+def t_float(size):
+    if size == 8:
+        props = struct.pack('<HHBBBBI', 0, 64, 52, 11, 0, 52, 1023)
+        sign = 63
+    else:
+        props = struct.pack('<HHBBBBI', 0, 32, 23, 8, 0, 23, 127)
+        sign = 31
+    return struct.pack('<B3sI', 0x11, bytes([0x20, sign, 0]), size) + props
+
+
+def t_string(size):
+    return struct.pack('<B3sI', 0x13, bytes([0, 0, 0]), size)
+
+
+def t_ref():
+    return struct.pack('<B3sI', 0x17, bytes([0, 0, 0]), 8)
+
+
+def t_compound(members, size):
+    # version 1 members
+    out = struct.pack('<B3sI', 0x16, struct.pack('<H', len(members)) + b'\0', size)
+    for name, off, t in members:
+        out += pad8(name.encode() + b'\0') + struct.pack('<IB3sI4s16s', off, 0, b'', 0, b'', b'') + t
+    return out
+
+
+def t_vlen_seq(base):
+    return struct.pack('<B3sI', 0x19, bytes([0, 0, 0]), 16) + base
+
+# ---- messages
+
+
+def m_space(dims):
+    return struct.pack('<BBB5s', 1, len(dims), 0, b'') + b''.join(struct.pack('<Q', d) for d in dims)
+
+
+def m_layout_contig(addr, size):
+    return struct.pack('<BBQQ', 3, 1, addr, size)
+
+
+def m_layout_chunked(btree, chunk, esize):
+    return struct.pack('<BBBQ', 3, 2, len(chunk) + 1, btree) + b''.join(struct.pack('<I', c) for c in chunk + [esize])
+
+
+def m_filters(filters):
+    out = struct.pack('<BB6s', 1, len(filters), b'')
+    for fid, values in filters:
+        out += struct.pack('<HHHH', fid, 0, 0, len(values)) + b''.join(struct.pack('<I', v) for v in values)
+        if len(values) % 2:
+            out += b'\0' * 4
+    return out
+
+
+def m_attr(name, dtype, dims, data):
+    n = name.encode() + b'\0'
+    sp = m_space(dims)
+    return struct.pack('<BBHHH', 1, 0, len(n), len(dtype), len(sp)) + pad8(n) + pad8(dtype) + pad8(sp) + data
+
+
+def a_class(cls):
+    return m_attr('MATLAB_class', t_string(len(cls)), [], cls.encode())
+
+
+def ohdr(msgs):
+    body = b''
+    for mtype, data in msgs:
+        data = pad8(data)
+        body += struct.pack('<HHB3s', mtype, len(data), 0, b'') + data
+    return alloc(struct.pack('<BBHII4s', 1, 0, len(msgs), 1, len(body), b'') + body)
+
+# ---- datasets
+
+
+def dataset(dims, dtype, data, attrs=(), chunk=None, esize=None, shuffle=False):
+    msgs = [(1, m_space(dims)), (3, dtype)]
+    if chunk is None:
+        addr = alloc(data) if data else UNDEF
+        msgs.append((8, m_layout_contig(addr, len(data))))
+    else:
+        msgs.append((8, m_layout_chunked(chunked(dims, chunk, esize, data, shuffle), chunk, esize)))
+        msgs.append((0xB, m_filters(([(2, [esize])] if shuffle else []) + [(1, [6])])))
+    msgs += [(0xC, a) for a in attrs]
+    return ohdr(msgs)
+
+
+def chunked(dims, chunk, esize, data, shuffle):
+    import itertools
+    rank = len(dims)
+    strides = [1] * rank
+    for d in range(rank - 2, -1, -1):
+        strides[d] = strides[d + 1] * dims[d + 1]
+    entries = []
+    ranges = [range(0, dims[d], chunk[d]) for d in range(rank)]
+    for off in itertools.product(*ranges):
+        cb = bytearray()
+        for idx in itertools.product(*[range(c) for c in chunk]):
+            pos = [off[d] + idx[d] for d in range(rank)]
+            if all(pos[d] < dims[d] for d in range(rank)):
+                e = sum(pos[d] * strides[d] for d in range(rank))
+                cb += data[e * esize:(e + 1) * esize]
+            else:
+                cb += b'\0' * esize
+        cb = bytes(cb)
+        if shuffle:
+            n = len(cb) // esize
+            cb = bytes(cb[i * esize + b] for b in range(esize) for i in range(n))
+        z = zlib.compress(cb, 6)
+        entries.append((off, alloc(z), len(z)))
+    node = b'TREE' + struct.pack('<BBHQQ', 1, 0, len(entries), UNDEF, UNDEF)
+    for off, addr, size in entries:
+        node += struct.pack('<II', size, 0) + b''.join(struct.pack('<Q', o) for o in off) + struct.pack('<Q', 0)
+        node += struct.pack('<Q', addr)
+    node += struct.pack('<II', 0, 0) + b''.join(struct.pack('<Q', d) for d in dims) + struct.pack('<Q', 0)
+    return alloc(node)
+
+# ---- groups
+
+
+def group(members, attrs=()):
+    """members: dict name -> object header address"""
+    names = sorted(members)
+    heap = bytearray(8)  # offset 0: empty string
+    offsets = {}
+    for n in names:
+        offsets[n] = len(heap)
+        heap += pad8(n.encode() + b'\0')
+    heap_data = alloc(bytes(heap))
+    heap_addr = alloc(b'HEAP' + struct.pack('<B3sQQQ', 0, b'', len(heap), UNDEF, heap_data))
+    entries = b''
+    for n in names:
+        entries += struct.pack('<QQII16s', offsets[n], members[n], 0, 0, b'')
+    entries += b'\0' * 40 * (8 - len(names)) if len(names) < 8 else b''
+    snod = alloc(b'SNOD' + struct.pack('<BBH', 1, 0, len(names)) + entries)
+    last = offsets[names[-1]] if names else 0
+    btree = alloc(b'TREE' + struct.pack('<BBHQQ', 0, 0, 1, UNDEF, UNDEF) + struct.pack('<QQQ', 0, snod, last))
+    msgs = [(0x11, struct.pack('<QQ', btree, heap_addr))] + [(0xC, a) for a in attrs]
+    return ohdr(msgs), btree, heap_addr
+
+
+def global_heap(objects):
+    body = b''
+    for i, o in enumerate(objects, 1):
+        body += struct.pack('<HHIQ', i, 1, 0, len(o)) + pad8(o)
+    size = max(4096, 16 + len(body) + 16)
+    free = size - 16 - len(body)
+    body += struct.pack('<HHIQ', 0, 0, 0, free)
+    data = b'GCOL' + struct.pack('<B3sQ', 1, b'', size) + body
+    data += b'\0' * (size - len(data))
+    return alloc(data)
+
+
+def a_fields(names):
+    gh = global_heap([n.encode() for n in names])
+    data = b''.join(struct.pack('<IQI', len(n), gh, i) for i, n in enumerate(names, 1))
+    return m_attr('MATLAB_fields', t_vlen_seq(t_string(1)), [len(names)], data)
+
+
+def doubles(*v):
+    return b''.join(struct.pack('<d', x) for x in v)
+
+
+def u64(*v):
+    return b''.join(struct.pack('<Q', x) for x in v)
+
+
+F64 = t_float(8)
+U8 = t_fixed(1)
+U16 = t_fixed(2)
+U64 = t_fixed(8)
+I32 = t_fixed(4, True)
+I16 = t_fixed(2, True)
+
+
+def build(path):
+    root = {}
+    refs = {}
+    # a = [1 2; 3 4; 5 6]
+    root['a'] = dataset([2, 3], F64, doubles(1, 3, 5, 2, 4, 6), [a_class('double')])
+    # z = [1+2i, 3-4i]
+    cplx = t_compound([('real', 0, F64), ('imag', 8, F64)], 16)
+    root['z'] = dataset([2, 1], cplx, doubles(1, 2, 3, -4), [a_class('double')])
+    # s = 'hello'
+    root['s'] = dataset([5, 1], U16, 'hello'.encode('utf-16-le'),
+                        [a_class('char'), m_attr('MATLAB_int_decode', I32, [], struct.pack('<i', 2))])
+    # b = [true false true]
+    root['b'] = dataset([3, 1], U8, bytes([1, 0, 1]), [a_class('logical')])
+    # i16 = int16([-1 2 -3])
+    root['i16'] = dataset([3, 1], I16, struct.pack('<3h', -1, 2, -3), [a_class('int16')])
+    # big = reshape(1:7000, 70, 100), chunked 40x30 (partial edge chunks)
+    big = doubles(*range(1, 7001))
+    root['big'] = dataset([100, 70], F64, big, [a_class('double')], chunk=[30, 40], esize=8)
+    # ib = int32(reshape(1:600, 20, 30)), shuffled
+    root['ib'] = dataset([30, 20], I32, struct.pack('<600i', *range(1, 601)), [a_class('int32')],
+                         chunk=[16, 16], esize=4, shuffle=True)
+    # cz = reshape(1:120, 6, 4, 5) * (1 - 1i), chunked 4x3x2 (partial edge chunks)
+    root['cz'] = dataset([5, 4, 6], cplx, b''.join(struct.pack('<dd', k, -k) for k in range(1, 121)),
+                         [a_class('double')], chunk=[2, 3, 4], esize=16)
+    # c = {1, 'ab'}
+    refs['a'] = dataset([1, 1], F64, doubles(1), [a_class('double')])
+    refs['b'] = dataset([2, 1], U16, 'ab'.encode('utf-16-le'),
+                        [a_class('char'), m_attr('MATLAB_int_decode', I32, [], struct.pack('<i', 2))])
+    root['c'] = dataset([2, 1], t_ref(), u64(refs['a'], refs['b']), [a_class('cell')])
+    # st.x = 1; st.name = 'n'
+    x = dataset([1, 1], F64, doubles(1), [a_class('double')])
+    nm = dataset([1, 1], U16, 'n'.encode('utf-16-le'),
+                 [a_class('char'), m_attr('MATLAB_int_decode', I32, [], struct.pack('<i', 2))])
+    root['st'] = group({'x': x, 'name': nm}, [a_class('struct'), a_fields(['x', 'name'])])[0]
+    # sa(1).v = 1; sa(2).v = 2
+    refs['c'] = dataset([1, 1], F64, doubles(1), [a_class('double')])
+    refs['d'] = dataset([1, 1], F64, doubles(2), [a_class('double')])
+    v = dataset([2, 1], t_ref(), u64(refs['c'], refs['d']))
+    root['sa'] = group({'v': v}, [a_class('struct'), a_fields(['v'])])[0]
+    # sp = sparse([1 0; 0 2; 3 0])
+    spm = {'data': dataset([3], F64, doubles(1, 3, 2)),
+           'ir': dataset([3], U64, u64(0, 2, 1)),
+           'jc': dataset([3], U64, u64(0, 2, 3))}
+    root['sp'] = group(spm, [a_class('double'), m_attr('MATLAB_sparse', U64, [], u64(3))])[0]
+    # e = zeros(0, 3)
+    root['e'] = dataset([2], U64, u64(0, 3), [a_class('double'), m_attr('MATLAB_empty', U8, [], bytes([1]))])
+
+    # obj = containers.Map; co = {1, obj}: MCOS object references, the
+    # object data is in #subsystem#/MCOS (a FileWrapper__ object)
+    decode = m_attr('MATLAB_object_decode', I32, [], struct.pack('<i', 3))
+    U32 = t_fixed(4)
+    mcos_ref = struct.pack('<6I', 0xdd000000, 2, 1, 1, 1, 1)
+    root['obj'] = dataset([1, 6], U32, mcos_ref, [a_class('containers.Map'), decode])
+    refs['e'] = dataset([1, 1], F64, doubles(1), [a_class('double')])
+    refs['f'] = dataset([1, 6], U32, mcos_ref, [a_class('containers.Map'), decode])
+    root['co'] = dataset([2, 1], t_ref(), u64(refs['e'], refs['f']), [a_class('cell')])
+    # fh = @sin
+    fh = {'function_handle': dataset([1, 3], U16, 'sin'.encode('utf-16-le'),
+                                     [a_class('char'), m_attr('MATLAB_int_decode', I32, [], struct.pack('<i', 2))])}
+    root['fh'] = group(fh, [a_class('function_handle')])[0]
+    refs['g'] = dataset([1, 32], U8, bytes(range(32)), [a_class('uint8')])
+    refs['h'] = dataset([1, 16], U8, bytes(16), [a_class('uint8')])
+    mcos = dataset([2, 1], t_ref(), u64(refs['g'], refs['h']), [a_class('FileWrapper__'), decode])
+
+    root['#refs#'] = group(refs)[0]
+    root['#subsystem#'] = group({'MCOS': mcos})[0]
+    root_addr, root_btree, root_heap = group(root)
+
+    eof = len(buf)
+    sb = b'\x89HDF\r\n\x1a\n' + bytes([0, 0, 0, 0, 0, 8, 8, 0]) + struct.pack('<HHI', 4, 16, 0)
+    sb += struct.pack('<QQQQ', 0, UNDEF, eof, UNDEF)
+    sb += struct.pack('<QQII', 0, root_addr, 1, 0) + struct.pack('<QQ', root_btree, root_heap)
+    assert len(sb) == 96
+    buf[0:96] = sb
+
+    text = b'MATLAB 7.3 MAT-file, Platform: GLNXA64, Created on: Fri Oct 16 09:41:27 2026 HDF5 schema 1.00 .'
+    header = text.ljust(116, b' ') + b'\0' * 8 + struct.pack('<H', 0x0200) + b'IM'
+    userblock = header.ljust(512, b'\0')
+    open(path, 'wb').write(userblock + bytes(buf))
+
+
+build(sys.argv[1])